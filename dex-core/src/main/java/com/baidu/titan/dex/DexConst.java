@@ -636,6 +636,23 @@ public class DexConst {
             return new MethodHandle(handleType, memberRef);
         }
 
+        public int getHandleType() {
+            return this.mHandleType;
+        }
+
+        public DexConst.ConstMemberRef getMemberRef() {
+            return this.mMemberRef;
+        }
+
+        /**
+         * 是否为字段访问类型的MethodHandle
+         *
+         * @return
+         */
+        public boolean isFieldHandle() {
+            return this.mHandleType <= METHOD_HANDLE_TYPE_INSTANCE_GET;
+        }
+
         public DexConst.ConstMethodRef asMethodRef() {
             return (DexConst.ConstMethodRef)this.mMemberRef;
         }
@@ -1221,11 +1238,53 @@ public class DexConst {
             // TODO
         }
 
-        public CallSite make(MethodHandle methodHandle, DexString methodName, Proto methodType,
-                             List<DexConst> orderedArguments) {
+        public static CallSite make(MethodHandle methodHandle, DexString methodName,
+                                    Proto methodType, List<DexConst> orderedArguments) {
             return new CallSite(methodHandle, methodName, methodType, orderedArguments);
         }
 
+        /**
+         * bootstrap方法对应的MethodHandle
+         *
+         * @return
+         */
+        public MethodHandle getMethodHandle() {
+            return mMethodHandle;
+        }
+
+        public DexString getMethodName() {
+            return mMethodName;
+        }
+
+        public Proto getMethodType() {
+            return mMethodType;
+        }
+
+        /**
+         * 传递给bootstrap方法的额外参数
+         *
+         * @return
+         */
+        public List<DexConst> getOrderedArguments() {
+            return mOrderedArguments;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof CallSite)) return false;
+            CallSite callSite = (CallSite) o;
+            return Objects.equals(mMethodHandle, callSite.mMethodHandle) &&
+                    Objects.equals(mMethodName, callSite.mMethodName) &&
+                    Objects.equals(mMethodType, callSite.mMethodType) &&
+                    Objects.equals(mOrderedArguments, callSite.mOrderedArguments);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mMethodHandle, mMethodName, mMethodType, mOrderedArguments);
+        }
+
     }
 
     public static class ArrayData extends DexConst {
@@ -41,6 +41,16 @@ public class DexString implements Comparable<DexString> {
         this.content = encode(string);
     }
 
+    /**
+     * 直接使用已编码的内容创建，不做校验
+     *
+     * @param size UTF-16长度
+     * @param content 以0结尾的MUTF-8编码
+     */
+    public static DexString fromEncoded(int size, byte[] content) {
+        return new DexString(size, content);
+    }
+
     @Override
     public int hashCode() {
         return size * 7 + Arrays.hashCode(content);
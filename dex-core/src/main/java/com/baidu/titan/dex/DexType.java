@@ -40,6 +40,10 @@ public class DexType implements Comparable<DexType> {
         return mTypeDescriptor.toString();
     }
 
+    public DexString getTypeDescriptor() {
+        return mTypeDescriptor;
+    }
+
     public char toShortDescriptor() {
         return toTypeDescriptor().charAt(0);
     }
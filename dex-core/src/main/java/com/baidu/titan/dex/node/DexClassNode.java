@@ -37,7 +37,10 @@ import com.baidu.titan.dex.visitor.VisitorSupplier;
 
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.stream.Collectors;
 
 /**
@@ -64,6 +67,12 @@ public class DexClassNode extends DexNode implements VisitorSupplier<DexClassVis
 
     private List<DexMethodNode> mMethods = new ArrayList<>();
 
+    /** 按照(name, parameters, returnType)索引的方法，首次查找时创建，方法列表变化后失效 */
+    private volatile Map<MemberKey, DexMethodNode> mMethodIndex;
+
+    /** 按照(name, type)索引的字段，首次查找时创建，字段列表变化后失效 */
+    private volatile Map<MemberKey, DexFieldNode> mFieldIndex;
+
     public DexClassNode(DexType type, DexAccessFlags access, DexType superType,
                         DexTypeList interfaces) {
         this.type = type;
@@ -76,6 +85,39 @@ public class DexClassNode extends DexNode implements VisitorSupplier<DexClassVis
         this(classInfo.type, classInfo.access, classInfo.superType, classInfo.interfaces);
     }
 
+    /**
+     * 写时复制克隆，用于同时持有变换前后的类，例如做差异比较。<br>
+     *
+     * 字段与方法逐个克隆，方法体参考{@link DexCodeNode#copy()}，不复制指令；注解节点被共享。
+     * 类与成员上的额外信息都不复制，这些信息通常是针对原节点及其所在类池的分析结果。
+     * 克隆的开销与成员数量成正比，与指令数量无关
+     *
+     * @return 克隆的节点
+     */
+    public DexClassNode copy() {
+        DexClassNode copy = new DexClassNode(type, new DexAccessFlags(accessFlags), superType,
+                interfaces);
+        copy.sourceFile = sourceFile;
+        if (mAnnotations != null) {
+            copy.mAnnotations = new ArrayList<>(mAnnotations);
+        }
+        if (mFields != null) {
+            List<DexFieldNode> fields = new ArrayList<>(mFields.size());
+            for (DexFieldNode dfn : mFields) {
+                fields.add(dfn.copy());
+            }
+            copy.mFields = fields;
+        }
+        if (mMethods != null) {
+            List<DexMethodNode> methods = new ArrayList<>(mMethods.size());
+            for (DexMethodNode dmn : mMethods) {
+                methods.add(dmn.copy());
+            }
+            copy.mMethods = methods;
+        }
+        return copy;
+    }
+
     public boolean isPrimitiveType() {
         char s = type.toTypeDescriptor().charAt(0);
         return s != 'L' && s != '[';
@@ -90,6 +132,13 @@ public class DexClassNode extends DexNode implements VisitorSupplier<DexClassVis
         return mAnnotations;
     }
 
+    /**
+     * 估算该类独占的堆内存，参见{@link DexHeapEstimator}
+     */
+    public DexHeapUsage estimateHeapUsage() {
+        return DexHeapEstimator.estimate(this);
+    }
+
     public void setClassAnnotations(List<DexAnnotationNode> annotations) {
         this.mAnnotations = annotations;
     }
@@ -113,14 +162,43 @@ public class DexClassNode extends DexNode implements VisitorSupplier<DexClassVis
 
     public void setFields(List<DexFieldNode> fields) {
         this.mFields = fields;
+        this.mFieldIndex = null;
     }
 
     public void addField(DexFieldNode dfn) {
         this.mFields.add(dfn);
+        this.mFieldIndex = null;
     }
 
     public void removeField(DexFieldNode dfn) {
         this.mFields.remove(dfn);
+        this.mFieldIndex = null;
+    }
+
+    /**
+     * 查找本类声明的字段
+     *
+     * @param name 字段名
+     * @param type 字段类型
+     * @return 不存在时返回null
+     */
+    public DexFieldNode findField(DexString name, DexType type) {
+        MemberKey key = new MemberKey(name, null, type);
+        Map<MemberKey, DexFieldNode> index = mFieldIndex;
+        if (index == null) {
+            index = new HashMap<>();
+            for (DexFieldNode dfn : mFields) {
+                index.putIfAbsent(new MemberKey(dfn.name, null, dfn.type), dfn);
+            }
+            mFieldIndex = index;
+        }
+        DexFieldNode dfn = index.get(key);
+        if (dfn != null && !(Objects.equals(dfn.name, name) && Objects.equals(dfn.type, type))) {
+            // 字段在建立索引之后被修改过
+            invalidateMemberIndex();
+            return findField(name, type);
+        }
+        return dfn;
     }
 
     /**
@@ -134,14 +212,71 @@ public class DexClassNode extends DexNode implements VisitorSupplier<DexClassVis
 
     public void setMethods(List<DexMethodNode> methods) {
         this.mMethods = methods;
+        this.mMethodIndex = null;
     }
 
     public void addMethod(DexMethodNode dmn) {
         this.mMethods.add(dmn);
+        this.mMethodIndex = null;
     }
 
     public void removeMethod(DexMethodNode dmn) {
         this.mMethods.remove(dmn);
+        this.mMethodIndex = null;
+    }
+
+    /**
+     * 查找本类声明的方法，同名同签名的方法存在多个时返回列表中的第一个
+     *
+     * @param name 方法名
+     * @param parameters 参数类型列表
+     * @param returnType 返回类型
+     * @return 不存在时返回null
+     */
+    public DexMethodNode findMethod(DexString name, DexTypeList parameters, DexType returnType) {
+        MemberKey key = new MemberKey(name, parameters, returnType);
+        Map<MemberKey, DexMethodNode> index = mMethodIndex;
+        if (index == null) {
+            index = new HashMap<>();
+            for (DexMethodNode dmn : mMethods) {
+                index.putIfAbsent(new MemberKey(dmn.name, dmn.parameters, dmn.returnType), dmn);
+            }
+            mMethodIndex = index;
+        }
+        DexMethodNode dmn = index.get(key);
+        if (dmn != null && !(Objects.equals(dmn.name, name)
+                && Objects.equals(dmn.parameters, parameters)
+                && Objects.equals(dmn.returnType, returnType))) {
+            // 方法在建立索引之后被修改过
+            invalidateMemberIndex();
+            return findMethod(name, parameters, returnType);
+        }
+        return dmn;
+    }
+
+    /**
+     * 绕过addMethod、removeMethod等方法直接修改了方法或字段列表，或者修改了方法、字段的名称与签名之后，
+     * 需要调用此方法使成员索引失效
+     */
+    public void invalidateMemberIndex() {
+        this.mMethodIndex = null;
+        this.mFieldIndex = null;
+    }
+
+    /**
+     * 将所有方法的指令转换为紧凑存储，适合长期持有整个App的节点树，参考{@link DexCodeNode#pack()}
+     *
+     * @return 转换成功的方法数
+     */
+    public int packCode() {
+        int packed = 0;
+        for (DexMethodNode dmn : mMethods) {
+            DexCodeNode code = dmn.getCode();
+            if (code != null && code.pack()) {
+                packed++;
+            }
+        }
+        return packed;
     }
 
     public boolean isInterface() {
@@ -254,14 +389,14 @@ public class DexClassNode extends DexNode implements VisitorSupplier<DexClassVis
             @Override
             public DexFieldVisitor visitField(DexFieldVisitorInfo field) {
                 DexFieldNode dfn = new DexFieldNode(field);
-                mFields.add(dfn);
+                addField(dfn);
                 return dfn.asVisitor();
             }
 
             @Override
             public DexMethodVisitor visitMethod(DexMethodVisitorInfo method) {
                 DexMethodNode dmn = new DexMethodNode(method);
-                mMethods.add(dmn);
+                addMethod(dmn);
                 return dmn.asVisitor();
             }
 
@@ -423,4 +558,41 @@ public class DexClassNode extends DexNode implements VisitorSupplier<DexClassVis
         return this.type.compareTo(o.type);
     }
 
+    /**
+     * 成员索引的Key，字段的parameters为null
+     */
+    private static final class MemberKey {
+
+        private final DexString mName;
+
+        private final DexTypeList mParameters;
+
+        private final DexType mType;
+
+        private final int mHash;
+
+        MemberKey(DexString name, DexTypeList parameters, DexType type) {
+            this.mName = name;
+            this.mParameters = parameters;
+            this.mType = type;
+            this.mHash = Objects.hash(name, parameters, type);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof MemberKey)) return false;
+            MemberKey that = (MemberKey) o;
+            return mHash == that.mHash &&
+                    Objects.equals(mName, that.mName) &&
+                    Objects.equals(mParameters, that.mParameters) &&
+                    Objects.equals(mType, that.mType);
+        }
+
+        @Override
+        public int hashCode() {
+            return mHash;
+        }
+    }
+
 }
@@ -21,14 +21,21 @@ import com.baidu.titan.dex.DexType;
 import com.baidu.titan.dex.visitor.DexClassPoolNodeVisitor;
 import com.baidu.titan.dex.visitor.VisitorSupplier;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.Iterator;
-import java.util.Map;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 import java.util.function.BiConsumer;
 import java.util.stream.Stream;
-import java.util.stream.StreamSupport;
 
 /**
+ * 类池，可以被多个线程并发填充和访问。
+ * 迭代顺序不固定，需要可复现输出时使用{@link #getSortedClasses()}或{@link #sortedStream()}
+ *
  * @author zhangdi07
  * @since 2017/9/13
  */
@@ -36,12 +43,24 @@ import java.util.stream.StreamSupport;
 public class DexClassPoolNode extends DexNode implements Iterable<DexClassNode> ,
         VisitorSupplier<DexClassPoolNodeVisitor> {
 
-    private final Map<DexType, DexClassNode> mClasses = new HashMap<>();
+    /** 单个并行任务最少访问的类数 */
+    private static final int PARALLEL_VISIT_THRESHOLD = 256;
+
+    private final ConcurrentHashMap<DexType, DexClassNode> mClasses = new ConcurrentHashMap<>();
 
     public void addClass(DexClassNode clazz) {
         mClasses.put(clazz.type, clazz);
     }
 
+    /**
+     * 仅当类池中不存在同类型的类时添加，多个线程并发填充时用于保证先到者生效
+     *
+     * @return 类池中已存在的类，添加成功时返回null
+     */
+    public DexClassNode addClassIfAbsent(DexClassNode clazz) {
+        return mClasses.putIfAbsent(clazz.type, clazz);
+    }
+
     public boolean removeClass(DexClassNode clazz) {
         return mClasses.remove(clazz.type) != null;
     }
@@ -64,6 +83,26 @@ public class DexClassPoolNode extends DexNode implements Iterable<DexClassNode>
         visitor.classPoolVisitEnd();
     }
 
+    /**
+     * 在ForkJoinPool中按类拆分任务并行访问，空闲线程可以窃取其他线程未完成的子任务。
+     * 访问者需要遵循{@link DexClassPoolNodeVisitor}中声明的并行约定，不支持并行的访问者按顺序访问
+     */
+    public void accept(DexClassPoolNodeVisitor visitor, ForkJoinPool forkJoinPool) {
+        if (!visitor.supportsParallelVisit() || mClasses.size() <= PARALLEL_VISIT_THRESHOLD) {
+            accept(visitor);
+            return;
+        }
+        DexClassNode[] classes = mClasses.values().toArray(new DexClassNode[0]);
+        List<DexClassPoolNodeVisitor> forked =
+                forkJoinPool.invoke(new VisitTask(classes, 0, classes.length, visitor));
+        for (DexClassPoolNodeVisitor fv : forked) {
+            if (fv != visitor) {
+                visitor.merge(fv);
+            }
+        }
+        visitor.classPoolVisitEnd();
+    }
+
     public void accept(DexType type, DexClassPoolNodeVisitor visitor) {
         DexClassNode dcn = getClass(type);
         if (dcn != null) {
@@ -80,8 +119,33 @@ public class DexClassPoolNode extends DexNode implements Iterable<DexClassNode>
         mClasses.forEach(consumer);
     }
 
+    @Override
+    public Spliterator<DexClassNode> spliterator() {
+        return mClasses.values().spliterator();
+    }
+
     public Stream<DexClassNode> stream() {
-        return StreamSupport.stream(spliterator(), false);
+        return mClasses.values().stream();
+    }
+
+    public Stream<DexClassNode> parallelStream() {
+        return mClasses.values().parallelStream();
+    }
+
+    /**
+     * @return 按类型排序的流，顺序与填充顺序及线程调度无关
+     */
+    public Stream<DexClassNode> sortedStream() {
+        return stream().sorted(Comparator.comparing(dcn -> dcn.type));
+    }
+
+    /**
+     * @return 按类型排序的类列表快照
+     */
+    public List<DexClassNode> getSortedClasses() {
+        List<DexClassNode> classes = new ArrayList<>(mClasses.values());
+        classes.sort(Comparator.comparing(dcn -> dcn.type));
+        return classes;
     }
 
     @Override
@@ -99,4 +163,49 @@ public class DexClassPoolNode extends DexNode implements Iterable<DexClassNode>
             }
         };
     }
+
+    /**
+     * 访问[start, end)区间的类，返回按区间顺序排列的各叶子任务的访问者
+     */
+    private static class VisitTask extends RecursiveTask<List<DexClassPoolNodeVisitor>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final DexClassNode[] mClasses;
+
+        private final int mStart;
+
+        private final int mEnd;
+
+        private final DexClassPoolNodeVisitor mVisitor;
+
+        VisitTask(DexClassNode[] classes, int start, int end, DexClassPoolNodeVisitor visitor) {
+            this.mClasses = classes;
+            this.mStart = start;
+            this.mEnd = end;
+            this.mVisitor = visitor;
+        }
+
+        @Override
+        protected List<DexClassPoolNodeVisitor> compute() {
+            if (mEnd - mStart <= PARALLEL_VISIT_THRESHOLD) {
+                DexClassPoolNodeVisitor forked = mVisitor.fork();
+                for (int i = mStart; i < mEnd; i++) {
+                    forked.visitClass(mClasses[i]);
+                }
+                List<DexClassPoolNodeVisitor> result = new ArrayList<>(1);
+                result.add(forked);
+                return result;
+            }
+            int mid = (mStart + mEnd) >>> 1;
+            VisitTask left = new VisitTask(mClasses, mStart, mid, mVisitor);
+            VisitTask right = new VisitTask(mClasses, mid, mEnd, mVisitor);
+            left.fork();
+            List<DexClassPoolNodeVisitor> result = new ArrayList<>(right.compute());
+            result.addAll(0, left.join());
+            return result;
+        }
+
+    }
+
 }
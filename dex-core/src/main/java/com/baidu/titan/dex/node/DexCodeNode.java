@@ -25,6 +25,7 @@ import com.baidu.titan.dex.Dop;
 import com.baidu.titan.dex.Dops;
 import com.baidu.titan.dex.SmaliWriter;
 import com.baidu.titan.dex.node.insn.DexConstInsnNode;
+import com.baidu.titan.dex.node.insn.DexInsnList;
 import com.baidu.titan.dex.node.insn.DexInsnNode;
 import com.baidu.titan.dex.node.insn.DexLabelNode;
 import com.baidu.titan.dex.node.insn.DexLineNumberNode;
@@ -41,7 +42,9 @@ import com.baidu.titan.dex.visitor.VisitorSupplier;
 
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -68,6 +71,15 @@ public class DexCodeNode extends DexNode implements VisitorSupplier<DexCodeVisit
 
     private DexString[] mParameterNames;
 
+    /** 紧凑存储，不为null时mInsns、mTryCatches以及mLineNumbers为null，使用时再按需转换 */
+    private DexPackedCode mPackedCode;
+
+    /** 节点列表与{@link #copy()}得到的节点共享，修改之前需要先复制列表 */
+    private boolean mListsShared;
+
+    /** 由{@link #copy()}得到，节点列表以及其中的节点都与源节点共享，访问之前需要先复制节点 */
+    private boolean mNodesShared;
+
     private static final String SMALI_LABEL_COND_PREFIX = ":cond_";
 
     private static final String SMALI_LABEL_GOTO_PREFIX = ":goto_";
@@ -111,29 +123,237 @@ public class DexCodeNode extends DexNode implements VisitorSupplier<DexCodeVisit
     }
 
     public List<DexInsnNode> getInsns() {
+        unpack();
         return mInsns;
     }
 
     public void setInsns(List<DexInsnNode> insns) {
+        unpack();
         this.mInsns = insns;
     }
 
+    /**
+     * 获取支持O(1)插入、删除的指令列表，用于插桩等需要大量插入指令的场景。<br>
+     *
+     * 指令默认存储在ArrayList中，DexInsnList每条指令额外占用一个链表节点，因此只在调用本方法时才转换，
+     * 之后{@link #getInsns()}返回的也是同一个DexInsnList。
+     * 转换之后对之前通过{@link #getInsns()}获取或者通过{@link #setInsns(List)}设置的列表的修改不再生效
+     *
+     * @return 指令列表
+     */
+    public DexInsnList getInsnList() {
+        unpack();
+        if (!(mInsns instanceof DexInsnList)) {
+            mInsns = new DexInsnList(mInsns);
+        }
+        return (DexInsnList) mInsns;
+    }
+
     public List<DexTryCatchNode> getTryCatches() {
+        unpack();
         return this.mTryCatches;
     }
 
     public void setTryCatches(List<DexTryCatchNode> tryCatches) {
+        unpack();
         this.mTryCatches = tryCatches;
     }
 
     public List<DexLineNumberNode> getLineNumbers() {
+        unpack();
         return this.mLineNumbers;
     }
 
     public void setLineNumbers(List<DexLineNumberNode> lineNumbers) {
+        unpack();
         this.mLineNumbers = lineNumbers;
     }
 
+    /**
+     * 将指令、try-catch以及行号转换为紧凑存储并释放节点对象，之后访问节点列表时再按需转换回来。
+     * 含有自定义节点类型或者节点上存有额外信息时无法无损转换，保持原样
+     *
+     * @return 是否处于紧凑存储状态
+     */
+    public boolean pack() {
+        if (mPackedCode != null) {
+            return true;
+        }
+        if (!DexPackedCode.canPack(mInsns, mTryCatches, mLineNumbers)) {
+            return false;
+        }
+        DexPackedCode.Builder builder = DexPackedCode.newBuilder();
+        acceptInsns(builder);
+        mPackedCode = builder.build();
+        mInsns = null;
+        mTryCatches = null;
+        mLineNumbers = null;
+        mListsShared = false;
+        mNodesShared = false;
+        return true;
+    }
+
+    /**
+     * 写时复制克隆，不复制指令。<br>
+     *
+     * 处于紧凑存储时两者共享不可变的{@link DexPackedCode}，各自在访问节点列表时转换出独立的节点；
+     * 否则两者共享指令、try-catch以及行号列表：原节点访问列表时只复制列表，继续持有原来的节点；
+     * 克隆访问列表时复制出自己的指令、Label、try-catch以及行号节点，之后两者不再共享任何可变对象。
+     * 只被accept或写入的克隆不会复制节点。
+     * 额外信息不复制，包括指令节点上的额外信息。无法识别的自定义指令节点仍然被共享。
+     * 克隆之后不应再修改之前通过getter获取的列表
+     *
+     * @return 克隆的节点
+     */
+    public DexCodeNode copy() {
+        DexCodeNode copy = new DexCodeNode();
+        copy.mLocalRegCount = mLocalRegCount;
+        copy.mParameterRegCount = mParameterRegCount;
+        copy.mParameterNames = mParameterNames == null ? null : mParameterNames.clone();
+        copy.mPackedCode = mPackedCode;
+        copy.mInsns = mInsns;
+        copy.mTryCatches = mTryCatches;
+        copy.mLineNumbers = mLineNumbers;
+        if (mPackedCode == null) {
+            mListsShared = true;
+            copy.mNodesShared = true;
+        }
+        return copy;
+    }
+
+    /**
+     * 统计占用的内存，不转换紧凑存储，参见{@link DexHeapEstimator}
+     */
+    void estimateHeapUsage(DexHeapUsage usage) {
+        usage.add(DexHeapUsage.COMPONENT_INSTRUCTIONS, DexHeapEstimator.shallow(this));
+        if (mParameterNames != null) {
+            usage.add(DexHeapUsage.COMPONENT_DEBUG_INFO, DexHeapEstimator.value(mParameterNames));
+        }
+        if (mPackedCode != null) {
+            mPackedCode.estimateHeapUsage(usage);
+        } else {
+            DexHeapEstimator.addInsns(mInsns, usage);
+            DexHeapEstimator.addTryCatches(mTryCatches, usage);
+            DexHeapEstimator.addLineNumbers(mLineNumbers, usage);
+        }
+        DexHeapEstimator.addExtras(this, usage);
+    }
+
+    public boolean isPacked() {
+        return mPackedCode != null;
+    }
+
+    /**
+     * @return 紧凑存储，未处于紧凑存储状态时返回null
+     */
+    public DexPackedCode getPackedCode() {
+        return mPackedCode;
+    }
+
+    private void unpack() {
+        if (mNodesShared) {
+            copyNodes();
+            mNodesShared = false;
+            mListsShared = false;
+        } else if (mListsShared) {
+            if (mInsns instanceof DexInsnList) {
+                mInsns = new DexInsnList(mInsns);
+            } else if (mInsns != null) {
+                mInsns = new ArrayList<>(mInsns);
+            }
+            mTryCatches = mTryCatches == null ? null : new ArrayList<>(mTryCatches);
+            mLineNumbers = mLineNumbers == null ? null : new ArrayList<>(mLineNumbers);
+            mListsShared = false;
+        }
+        DexPackedCode packedCode = mPackedCode;
+        if (packedCode != null) {
+            List<DexInsnNode> insns = new ArrayList<>(packedCode.getInsnCount());
+            List<DexTryCatchNode> tryCatches = new ArrayList<>(packedCode.getTryCatchCount());
+            List<DexLineNumberNode> lineNumbers =
+                    new ArrayList<>(packedCode.getLineNumberCount());
+            packedCode.unpack(insns, tryCatches, lineNumbers);
+            mInsns = insns;
+            mTryCatches = tryCatches;
+            mLineNumbers = lineNumbers;
+            mPackedCode = null;
+        }
+    }
+
+    /**
+     * 为克隆复制共享的节点，Label按引用一一对应，不复制节点上的额外信息
+     */
+    private void copyNodes() {
+        Map<DexLabelNode, DexLabelNode> labelMap = new IdentityHashMap<>();
+        if (mInsns != null) {
+            List<DexInsnNode> insns = mInsns instanceof DexInsnList ?
+                    new DexInsnList() : new ArrayList<>(mInsns.size());
+            for (DexInsnNode din : mInsns) {
+                insns.add(copyInsn(din, labelMap));
+            }
+            mInsns = insns;
+        }
+        if (mTryCatches != null) {
+            List<DexTryCatchNode> tryCatches = new ArrayList<>(mTryCatches.size());
+            for (DexTryCatchNode dtcn : mTryCatches) {
+                DexLabelNode[] handlers = dtcn.getHandlers();
+                if (handlers != null) {
+                    handlers = copyLabels(handlers, labelMap);
+                }
+                tryCatches.add(new DexTryCatchNode(copyLabel(dtcn.getStart(), labelMap),
+                        copyLabel(dtcn.getEnd(), labelMap), dtcn.getTypes(), handlers,
+                        copyLabel(dtcn.getCatchAllHandler(), labelMap)));
+            }
+            mTryCatches = tryCatches;
+        }
+        if (mLineNumbers != null) {
+            List<DexLineNumberNode> lineNumbers = new ArrayList<>(mLineNumbers.size());
+            for (DexLineNumberNode dlnn : mLineNumbers) {
+                lineNumbers.add(new DexLineNumberNode(dlnn.getLineNumber(),
+                        copyLabel(dlnn.getStartLabel(), labelMap)));
+            }
+            mLineNumbers = lineNumbers;
+        }
+    }
+
+    private static DexInsnNode copyInsn(DexInsnNode din,
+                                        Map<DexLabelNode, DexLabelNode> labelMap) {
+        Class<?> clazz = din.getClass();
+        if (clazz == DexLabelNode.class) {
+            return copyLabel((DexLabelNode) din, labelMap);
+        } else if (clazz == DexSimpleInsnNode.class) {
+            DexSimpleInsnNode dsin = (DexSimpleInsnNode) din;
+            return new DexSimpleInsnNode(dsin.getOpcode(), dsin.getRegisters());
+        } else if (clazz == DexConstInsnNode.class) {
+            DexConstInsnNode dcin = (DexConstInsnNode) din;
+            return new DexConstInsnNode(dcin.getOpcode(), dcin.getRegisters(), dcin.getConst());
+        } else if (clazz == DexTargetInsnNode.class) {
+            DexTargetInsnNode dtin = (DexTargetInsnNode) din;
+            return dtin.withTarget(copyLabel(dtin.getTarget(), labelMap));
+        } else if (clazz == DexSwitchDataInsnNode.class) {
+            DexSwitchDataInsnNode dsdin = (DexSwitchDataInsnNode) din;
+            return dsdin.withCaseLabels(copyLabels(dsdin.getCasesLabel(), labelMap));
+        }
+        // 自定义节点类型无法复制，保持共享
+        return din;
+    }
+
+    private static DexLabelNode copyLabel(DexLabelNode label,
+                                          Map<DexLabelNode, DexLabelNode> labelMap) {
+        if (label == null) {
+            return null;
+        }
+        return labelMap.computeIfAbsent(label, k -> new DexLabelNode());
+    }
+
+    private static DexLabelNode[] copyLabels(DexLabelNode[] labels,
+                                             Map<DexLabelNode, DexLabelNode> labelMap) {
+        DexLabelNode[] copied = new DexLabelNode[labels.length];
+        for (int i = 0; i < labels.length; i++) {
+            copied[i] = copyLabel(labels[i], labelMap);
+        }
+        return copied;
+    }
+
     public void setRegisters(int localRegCount, int parameterRegCount) {
         this.mLocalRegCount = localRegCount;
         this.mParameterRegCount = parameterRegCount;
@@ -151,27 +371,19 @@ public class DexCodeNode extends DexNode implements VisitorSupplier<DexCodeVisit
         return mParameterNames;
     }
 
-    /**
-     * used by accept
-     *
-     * @param mapping
-     * @param labelNode
-     * @return
-     */
-    private static DexLabel getOrCreateDexLabel(Map<DexLabelNode, DexLabel> mapping,
-                                                DexLabelNode labelNode) {
-        DexLabel label = mapping.get(labelNode);
-        if (label == null) {
-            label = new DexLabel();
-            mapping.put(labelNode, label);
-        }
-        return label;
-    }
-
     public void accept(DexCodeVisitor dcv) {
         dcv.visitBegin();
         dcv.visitRegisters(mLocalRegCount, mParameterRegCount);
-        Map<DexLabelNode, DexLabel> labelMap = new HashMap<>();
+        if (mPackedCode != null) {
+            mPackedCode.accept(dcv);
+        } else {
+            acceptInsns(dcv);
+        }
+        dcv.visitEnd();
+    }
+
+    private void acceptInsns(DexCodeVisitor dcv) {
+        LabelTable labelTable = new LabelTable(mInsns, mLineNumbers);
         if (mTryCatches != null) {
             for (DexTryCatchNode dtcn : mTryCatches) {
                 DexLabel[] handlers = null;
@@ -179,13 +391,13 @@ public class DexCodeNode extends DexNode implements VisitorSupplier<DexCodeVisit
                 if (oldHandlers != null && oldHandlers.length > 0) {
                     handlers = new DexLabel[dtcn.getHandlers().length];
                     for (int i = 0; i < handlers.length; i++) {
-                        handlers[i] = getOrCreateDexLabel(labelMap, dtcn.getHandlers()[i]);
+                        handlers[i] = labelTable.getLabel(dtcn.getHandlers()[i]);
                     }
                 }
-                dcv.visitTryCatch(getOrCreateDexLabel(labelMap, dtcn.getStart()),
-                        getOrCreateDexLabel(labelMap, dtcn.getEnd()), dtcn.getTypes(), handlers,
+                dcv.visitTryCatch(labelTable.getLabel(dtcn.getStart()),
+                        labelTable.getLabel(dtcn.getEnd()), dtcn.getTypes(), handlers,
                         dtcn.getCatchAllHandler() == null ?
-                                null : getOrCreateDexLabel(labelMap, dtcn.getCatchAllHandler()));
+                                null : labelTable.getLabel(dtcn.getCatchAllHandler()));
             }
         }
         if (mInsns != null) {
@@ -201,12 +413,12 @@ public class DexCodeNode extends DexNode implements VisitorSupplier<DexCodeVisit
                     } else if (din instanceof DexTargetInsnNode) {
                         DexTargetInsnNode dtin = (DexTargetInsnNode) din;
                         dcv.visitTargetInsn(dtin.getOpcode(), dtin.getRegisters(),
-                                getOrCreateDexLabel(labelMap, dtin.getTarget()));
+                                labelTable.getLabel(dtin.getTarget()));
                     } else if (din instanceof DexSwitchDataInsnNode) {
                         DexSwitchDataInsnNode dsdin = (DexSwitchDataInsnNode) din;
                         DexLabel[] cases = new DexLabel[dsdin.getCasesLabel().length];
                         for (int j = 0; j < cases.length; j++) {
-                            cases[j] = getOrCreateDexLabel(labelMap, dsdin.getCasesLabel()[j]);
+                            cases[j] = labelTable.getLabel(dsdin.getCasesLabel()[j]);
                         }
                         int[] keys = dsdin.getKeys();
                         dcv.visitSwitch(dsdin.getOpcode(), dsdin.getRegisters(), keys, cases);
@@ -216,10 +428,13 @@ public class DexCodeNode extends DexNode implements VisitorSupplier<DexCodeVisit
                 } else if (din instanceof DexPseudoInsnNode) {
                     if (din instanceof DexLabelNode) {
                         DexLabelNode dln = (DexLabelNode) din;
-                        DexLabel dexLabel = getOrCreateDexLabel(labelMap, dln);
-                        for (DexLineNumberNode lineNumNode : mLineNumbers) {
-                            if (din == lineNumNode.getStartLabel()) {
-                                dcv.visitLineNumber(lineNumNode.getLineNumber(), dexLabel);
+                        int index = labelTable.indexOf(dln);
+                        DexLabel dexLabel = labelTable.getLabel(dln);
+                        if (index >= 0) {
+                            for (int line = labelTable.mFirstLine[index]; line >= 0;
+                                 line = labelTable.mNextLine[line]) {
+                                dcv.visitLineNumber(
+                                        labelTable.mLines[line].getLineNumber(), dexLabel);
                             }
                         }
                         dcv.visitLabel(dexLabel);
@@ -227,13 +442,155 @@ public class DexCodeNode extends DexNode implements VisitorSupplier<DexCodeVisit
                 }
             }
         }
+    }
+
+    /**
+     * accept时使用的Label编号表。<br>
+     *
+     * 指令列表中的每个DexLabelNode按出现顺序分配一个稠密编号，编号只保存在本次回放的表中，不写回DexLabelNode，
+     * 因此{@link #copy()}之后共享节点的多个DexCodeNode可以被并发accept；
+     * 行号表按起始Label的编号串成链表，整个回放只需要线性时间。
+     * 不在指令列表中的Label（只被try-catch等引用）很少出现，退化为Map查找，且不会输出行号，与之前的行为一致
+     */
+    private static final class LabelTable {
+
+        /** Label节点到稠密编号的映射，按引用比较 */
+        private Map<DexLabelNode, Integer> mIndexes;
+
+        private DexLabel[] mLabels;
+
+        private int mCount;
+
+        private DexLineNumberNode[] mLines;
+
+        /** 每个Label上的第一个行号在mLines中的下标，没有行号时为-1 */
+        private int[] mFirstLine;
+
+        /** 同一个Label上的下一个行号，保持mLineNumbers中的原始顺序 */
+        private int[] mNextLine;
+
+        private Map<DexLabelNode, DexLabel> mDetachedLabels;
+
+        LabelTable(List<DexInsnNode> insns, List<DexLineNumberNode> lineNumbers) {
+            int labelCount = 0;
+            if (insns != null) {
+                for (int i = 0; i < insns.size(); i++) {
+                    if (insns.get(i) instanceof DexLabelNode) {
+                        labelCount++;
+                    }
+                }
+            }
+            mIndexes = new IdentityHashMap<>(labelCount);
+            mLabels = new DexLabel[labelCount];
+            if (labelCount > 0) {
+                for (int i = 0; i < insns.size(); i++) {
+                    DexInsnNode din = insns.get(i);
+                    if (din instanceof DexLabelNode) {
+                        DexLabelNode dln = (DexLabelNode) din;
+                        // 同一个Label在指令列表中重复出现时共用同一个DexLabel
+                        if (indexOf(dln) < 0) {
+                            mIndexes.put(dln, mCount);
+                            mLabels[mCount] = new DexLabel();
+                            mCount++;
+                        }
+                    }
+                }
+            }
+
+            int lineCount = lineNumbers == null || mCount == 0 ? 0 : lineNumbers.size();
+            mLines = new DexLineNumberNode[lineCount];
+            mNextLine = new int[lineCount];
+            mFirstLine = new int[mCount];
+            Arrays.fill(mFirstLine, -1);
+            if (lineCount > 0) {
+                int[] lastLine = new int[mCount];
+                int i = 0;
+                for (DexLineNumberNode lineNumNode : lineNumbers) {
+                    mLines[i] = lineNumNode;
+                    mNextLine[i] = -1;
+                    int index = indexOf(lineNumNode.getStartLabel());
+                    if (index >= 0) {
+                        if (mFirstLine[index] < 0) {
+                            mFirstLine[index] = i;
+                        } else {
+                            mNextLine[lastLine[index]] = i;
+                        }
+                        lastLine[index] = i;
+                    }
+                    i++;
+                }
+            }
+        }
+
+        int indexOf(DexLabelNode labelNode) {
+            Integer index = mIndexes.get(labelNode);
+            return index != null ? index : -1;
+        }
+
+        DexLabel getLabel(DexLabelNode labelNode) {
+            int index = indexOf(labelNode);
+            if (index >= 0) {
+                return mLabels[index];
+            }
+            if (mDetachedLabels == null) {
+                mDetachedLabels = new HashMap<>();
+            }
+            DexLabel label = mDetachedLabels.get(labelNode);
+            if (label == null) {
+                label = new DexLabel();
+                mDetachedLabels.put(labelNode, label);
+            }
+            return label;
+        }
 
-        dcv.visitEnd();
+    }
+
+    /**
+     * 与{@link #asVisitor()}相同，但指令直接以紧凑形式存储，不创建DexInsnNode对象
+     *
+     * @return code visitor
+     */
+    public DexCodeVisitor asPackedVisitor() {
+        DexPackedCode.Builder builder = DexPackedCode.newBuilder();
+        return new DexCodeVisitor(builder) {
+
+            @Override
+            public void visitRegisters(int localRegCount, int parameterRegCount) {
+                mLocalRegCount = localRegCount;
+                mParameterRegCount = parameterRegCount;
+            }
+
+            @Override
+            public void visitParameters(DexString[] parameters) {
+                mParameterNames = parameters;
+            }
+
+            @Override
+            public void visitLocal(int reg, DexString name, DexType type, DexString signature,
+                                   DexLabel start, DexLabel end) {
+            }
+
+            @Override
+            public void visitExtraInfo(String key, Object extra) {
+                DexCodeNode.this.setExtraInfo(key, extra);
+            }
+
+            @Override
+            public void visitEnd() {
+                mPackedCode = builder.build();
+                mInsns = null;
+                mTryCatches = null;
+                mLineNumbers = null;
+                mListsShared = false;
+                mNodesShared = false;
+            }
+
+        };
     }
 
     @Override
     public DexCodeVisitor asVisitor() {
-
+        unpack();
         return new DexCodeVisitor() {
 
             private Map<DexLabel, DexLabelNode> mLabelMap = new HashMap<>();
@@ -334,6 +691,14 @@ public class DexCodeNode extends DexNode implements VisitorSupplier<DexCodeVisit
     }
 
     public void smaliTo(SmaliWriter writer, int flags) {
+        if (mPackedCode != null) {
+            // 输出smali不需要保留节点对象，使用临时节点，避免破坏紧凑存储
+            DexCodeNode unpacked = new DexCodeNode();
+            unpacked.setRegisters(mLocalRegCount, mParameterRegCount);
+            mPackedCode.unpack(unpacked.mInsns, unpacked.mTryCatches, unpacked.mLineNumbers);
+            unpacked.smaliTo(writer, flags);
+            return;
+        }
         writer.writeLine(".locals " + this.mLocalRegCount);
 
         writer.newLine();
@@ -65,6 +65,20 @@ public class DexFieldNode extends DexNode implements VisitorSupplier<DexFieldVis
         this(fieldInfo.name, fieldInfo.type, fieldInfo.owner, fieldInfo.accessFlags);
     }
 
+    /**
+     * 克隆，注解节点以及静态初始值被共享，注解列表各自持有，不复制额外信息
+     *
+     * @return 克隆的节点
+     */
+    public DexFieldNode copy() {
+        DexFieldNode copy = new DexFieldNode(name, type, owner, new DexAccessFlags(accessFlags));
+        copy.staticValue = staticValue;
+        if (mAnnotations != null) {
+            copy.mAnnotations = new ArrayList<>(mAnnotations);
+        }
+        return copy;
+    }
+
     public List<DexAnnotationNode> getFieldAnnotations() {
         return mAnnotations;
     }
@@ -21,6 +21,7 @@ import com.baidu.titan.dex.DexString;
 import com.baidu.titan.dex.DexType;
 import com.baidu.titan.dex.SmaliWriter;
 import com.baidu.titan.dex.util.DexIdsCollector;
+import com.baidu.titan.dex.util.RefCountedSet;
 import com.baidu.titan.dex.visitor.DexClassPoolNodeVisitor;
 import com.baidu.titan.dex.visitor.DexClassVisitor;
 import com.baidu.titan.dex.visitor.DexClassVisitorInfo;
@@ -31,11 +32,12 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
 
 /**
@@ -48,11 +50,19 @@ public class DexFileNode extends DexNode implements VisitorSupplier<DexFileVisit
 
     private LinkedHashMap<DexType, DexClassNode> mDexClassesMap = new LinkedHashMap<>();
 
-    private HashSet<DexMethodIdNode> mMethodIds = new HashSet<>();
+    private final RefCountedSet<DexMethodIdNode> mMethodIds = new RefCountedSet<>();
 
-    private HashSet<DexFieldIdNode> mFieldIds = new HashSet<>();
+    private final RefCountedSet<DexFieldIdNode> mFieldIds = new RefCountedSet<>();
 
-    private HashSet<DexString> mStringIds = new HashSet<>();
+    private final RefCountedSet<DexType> mTypeIds = new RefCountedSet<>();
+
+    private final RefCountedSet<DexString> mStringIds = new RefCountedSet<>();
+
+    /** 每个类加入时收集到的引用，移除或替换时据此释放 */
+    private final HashMap<DexType, ClassIds> mClassIds = new HashMap<>();
+
+    /** 是否维护ID池，开启ID数量检查或者调用rebuildDexIdsPool之后开始维护 */
+    private boolean mTrackDexIds = false;
 
     public List<DexClassNode> getClassesList() {
         return new ArrayList<>(mDexClassesMap.values());
@@ -68,6 +78,8 @@ public class DexFileNode extends DexNode implements VisitorSupplier<DexFileVisit
 
     private static final int MAX_MEMBER_IDX = 0xFFFF;
 
+    private static final int MAX_TYPE_IDX = 0xFFFF;
+
     private DexIdsCollector.Cache mDexIdsCollectorCache;
 
     public DexFileNode() {
@@ -77,6 +89,7 @@ public class DexFileNode extends DexNode implements VisitorSupplier<DexFileVisit
     public DexFileNode(boolean checkDexIds,
                        DexIdsCollector.Cache dexIdsCollectorCache) {
         this.mCheckDexIdCount = checkDexIds;
+        this.mTrackDexIds = checkDexIds;
         this.mDexIdsCollectorCache = dexIdsCollectorCache;
     }
 
@@ -89,72 +102,193 @@ public class DexFileNode extends DexNode implements VisitorSupplier<DexFileVisit
     }
 
     public Set<DexFieldIdNode> getFieldIds() {
-        return mFieldIds;
+        return mFieldIds.asSet();
     }
 
     public Set<DexMethodIdNode> getMethodIds() {
-        return this.mMethodIds;
+        return mMethodIds.asSet();
+    }
+
+    public Set<DexType> getTypeIds() {
+        return mTypeIds.asSet();
+    }
+
+    public Set<DexString> getStringIds() {
+        return mStringIds.asSet();
+    }
+
+    /**
+     * 并行估算所有类独占的堆内存，参见{@link DexHeapEstimator}
+     */
+    public DexHeapUsage estimateHeapUsage() {
+        return DexHeapEstimator.estimate(this, ForkJoinPool.commonPool()).getTotal();
+    }
+
+    /**
+     * @return 还可以容纳的MethodID数量
+     */
+    public int getRemainingMethodIdCapacity() {
+        return MAX_MEMBER_IDX + 1 - mMethodIds.size();
+    }
+
+    /**
+     * @return 还可以容纳的FieldID数量
+     */
+    public int getRemainingFieldIdCapacity() {
+        return MAX_MEMBER_IDX + 1 - mFieldIds.size();
+    }
+
+    /**
+     * @return 还可以容纳的TypeID数量
+     */
+    public int getRemainingTypeIdCapacity() {
+        return MAX_TYPE_IDX + 1 - mTypeIds.size();
     }
 
     public void setCheckDexIdCount(boolean check) {
         mCheckDexIdCount = check;
+        if (check && !mTrackDexIds) {
+            rebuildDexIdsPool();
+        }
     }
 
+    /**
+     * 重新收集所有类的引用，之后增删类时ID池会增量更新
+     */
     public void rebuildDexIdsPool() {
         mMethodIds.clear();
         mFieldIds.clear();
+        mTypeIds.clear();
+        mStringIds.clear();
+        mClassIds.clear();
+        mTrackDexIds = true;
         mDexClassesMap.values().forEach(dcn -> {
-            DexIdsCollector collector = DexIdsCollector.collectDexIds(dcn, mDexIdsCollectorCache);
-            mMethodIds.addAll(collector.getMethodIds());
-            mFieldIds.addAll(collector.getFieldIds());
+            ClassIds classIds = collectClassIds(dcn);
+            acquireClassIds(classIds);
+            mClassIds.put(dcn.type, classIds);
         });
     }
 
+    /**
+     * 加入一个类，已存在同类型的类时替换之，被替换类独有的ID会被释放。
+     * 开启ID数量检查时，如果加入后MethodID、FieldID或TypeID超出限制则不加入，保持原状
+     *
+     * @return 是否加入成功
+     */
     public boolean addClass(DexClassNode dcn) {
-        if (!mCheckDexIdCount) {
+        if (!mTrackDexIds) {
             addClassInternal(dcn);
             return true;
-        } else {
-            DexIdsCollector collector = DexIdsCollector.collectDexIds(dcn, mDexIdsCollectorCache);
-            int oldMethodIdsCount = mMethodIds.size();
+        }
+        ClassIds newIds = collectClassIds(dcn);
+        ClassIds oldIds = mClassIds.remove(dcn.type);
+        if (oldIds != null) {
+            releaseClassIds(oldIds);
+        }
+        if (mCheckDexIdCount
+                && (countNewIds(newIds.mMethodIds, mMethodIds) > getRemainingMethodIdCapacity()
+                || countNewIds(newIds.mFieldIds, mFieldIds) > getRemainingFieldIdCapacity()
+                || countNewIds(newIds.mTypeIds, mTypeIds) > getRemainingTypeIdCapacity())) {
+            if (oldIds != null) {
+                acquireClassIds(oldIds);
+                mClassIds.put(dcn.type, oldIds);
+            }
+            return false;
+        }
+        acquireClassIds(newIds);
+        mClassIds.put(dcn.type, newIds);
+        addClassInternal(dcn);
+        return true;
+    }
 
-            Set<DexMethodIdNode> dexFileMethodIds = mMethodIds;
+    public boolean removeClass(DexClassNode dcn) {
+        return removeClass(dcn.type);
+    }
 
-            int newAddedMethodIdCount = 0;
-            for (DexMethodIdNode methodId : collector.getMethodIds()) {
-                if (!dexFileMethodIds.contains(methodId)) {
-                    newAddedMethodIdCount++;
-                }
-            }
-            int newMethodIdsCount = dexFileMethodIds.size() + newAddedMethodIdCount;
+    /**
+     * 移除一个类，并释放只被该类引用的ID
+     *
+     * @return 类是否存在
+     */
+    public boolean removeClass(DexType type) {
+        if (mDexClassesMap.remove(type) == null) {
+            return false;
+        }
+        ClassIds classIds = mClassIds.remove(type);
+        if (classIds != null) {
+            releaseClassIds(classIds);
+        }
+        return true;
+    }
 
-            if (newMethodIdsCount > MAX_MEMBER_IDX + 1) {
-                return false;
-            }
+    private ClassIds collectClassIds(DexClassNode dcn) {
+        DexIdsCollector collector = DexIdsCollector.collectDexIds(dcn,
+                DexIdsCollector.FLAG_COLLECT_METHOD_IDS | DexIdsCollector.FLAG_COLLECT_FIELD_IDS
+                        | DexIdsCollector.FLAG_COLLECT_TYPE_IDS
+                        | DexIdsCollector.FLAG_COLLECT_STRING_IDS, mDexIdsCollectorCache);
+        return new ClassIds(collector);
+    }
 
-            int oldFieldIdsCount = mFieldIds.size();
+    private void acquireClassIds(ClassIds classIds) {
+        for (DexMethodIdNode methodId : classIds.mMethodIds) {
+            mMethodIds.acquire(methodId);
+        }
+        for (DexFieldIdNode fieldId : classIds.mFieldIds) {
+            mFieldIds.acquire(fieldId);
+        }
+        for (DexType typeId : classIds.mTypeIds) {
+            mTypeIds.acquire(typeId);
+        }
+        for (DexString stringId : classIds.mStringIds) {
+            mStringIds.acquire(stringId);
+        }
+    }
 
-            Set<DexFieldIdNode> dexFileFieldIds = mFieldIds;
+    private void releaseClassIds(ClassIds classIds) {
+        for (DexMethodIdNode methodId : classIds.mMethodIds) {
+            mMethodIds.release(methodId);
+        }
+        for (DexFieldIdNode fieldId : classIds.mFieldIds) {
+            mFieldIds.release(fieldId);
+        }
+        for (DexType typeId : classIds.mTypeIds) {
+            mTypeIds.release(typeId);
+        }
+        for (DexString stringId : classIds.mStringIds) {
+            mStringIds.release(stringId);
+        }
+    }
 
-            int newAddedFieldIdCount = 0;
-            for (DexFieldIdNode fieldId : collector.getFieldIds()) {
-                if (!dexFileFieldIds.contains(fieldId)) {
-                    newAddedFieldIdCount++;
-                }
+    private static <T> int countNewIds(T[] ids, RefCountedSet<T> pool) {
+        int count = 0;
+        for (T id : ids) {
+            if (!pool.contains(id)) {
+                count++;
             }
-            int newFieldIdsCount = dexFileFieldIds.size() + newAddedFieldIdCount;
+        }
+        return count;
+    }
 
-            if (newFieldIdsCount > MAX_MEMBER_IDX + 1) {
-                return false;
-            }
+    /**
+     * 单个类引用的各种ID，去重后以数组形式保存
+     */
+    private static final class ClassIds {
 
-            this.mMethodIds.addAll(collector.getMethodIds());
-            this.mFieldIds.addAll(collector.getFieldIds());
+        final DexMethodIdNode[] mMethodIds;
 
-            addClassInternal(dcn);
+        final DexFieldIdNode[] mFieldIds;
 
-            return true;
+        final DexType[] mTypeIds;
+
+        final DexString[] mStringIds;
+
+        ClassIds(DexIdsCollector collector) {
+            this.mMethodIds = collector.getMethodIds().toArray(new DexMethodIdNode[0]);
+            this.mFieldIds = collector.getFieldIds().toArray(new DexFieldIdNode[0]);
+            this.mTypeIds = collector.getTypeIds().toArray(new DexType[0]);
+            this.mStringIds = collector.getStringIds().toArray(new DexString[0]);
         }
+
     }
 
     private void addClassInternal(DexClassNode dcn) {
@@ -199,8 +333,27 @@ public class DexFileNode extends DexNode implements VisitorSupplier<DexFileVisit
             @Override
             public DexClassVisitor visitClass(DexClassVisitorInfo classInfo) {
                 DexClassNode dcn = new DexClassNode(classInfo);
-                addClassInternal(dcn);
-                return dcn.asVisitor();
+                if (!mTrackDexIds) {
+                    addClassInternal(dcn);
+                    return dcn.asVisitor();
+                }
+                // 类的内容填充完成之后再收集引用
+                return new DexClassVisitor(dcn.asVisitor()) {
+
+                    @Override
+                    public void visitEnd() {
+                        super.visitEnd();
+                        ClassIds oldIds = mClassIds.remove(dcn.type);
+                        if (oldIds != null) {
+                            releaseClassIds(oldIds);
+                        }
+                        ClassIds classIds = collectClassIds(dcn);
+                        acquireClassIds(classIds);
+                        mClassIds.put(dcn.type, classIds);
+                        addClassInternal(dcn);
+                    }
+
+                };
             }
 
             @Override
@@ -0,0 +1,400 @@
+/*
+ * Copyright (C) Baidu Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.baidu.titan.dex.node;
+
+import com.baidu.titan.dex.DexConst;
+import com.baidu.titan.dex.DexRegisterList;
+import com.baidu.titan.dex.DexString;
+import com.baidu.titan.dex.DexType;
+import com.baidu.titan.dex.DexTypeList;
+import com.baidu.titan.dex.node.insn.DexConstInsnNode;
+import com.baidu.titan.dex.node.insn.DexInsnList;
+import com.baidu.titan.dex.node.insn.DexInsnNode;
+import com.baidu.titan.dex.node.insn.DexLineNumberNode;
+import com.baidu.titan.dex.node.insn.DexOpcodeInsnNode;
+import com.baidu.titan.dex.node.insn.DexSwitchDataInsnNode;
+import com.baidu.titan.dex.node.insn.DexTryCatchNode;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import static com.baidu.titan.dex.node.DexHeapUsage.*;
+
+/**
+ * 估算节点树占用的堆内存，用于缓存淘汰以及内存统计。<br>
+ *
+ * 按64位JVM开启压缩指针估算：对象头12字节，引用4字节，按8字节对齐，对象的字段大小通过反射计算并缓存。
+ * 统计的是节点独占的对象，DexString、DexType以及DexRegister通常被DexItemFactory或者全局缓存共享，
+ * 不计入；写时复制共享的列表在每个节点中各计一次。结果只用于相对比较，不是精确值
+ *
+ * @author zhangdi07@baidu.com
+ * @since 2019/3/27
+ */
+public final class DexHeapEstimator {
+
+    private static final int OBJECT_HEADER = 12;
+
+    private static final int ARRAY_HEADER = 16;
+
+    private static final int REFERENCE = 4;
+
+    /** HashMap.Node */
+    private static final int HASH_MAP_ENTRY = 32;
+
+    /** DexInsnList内部的链表节点 */
+    private static final int INSN_LIST_ENTRY = 32;
+
+    private static final ClassValue<Integer> SHALLOW_SIZES = new ClassValue<Integer>() {
+        @Override
+        protected Integer computeValue(Class<?> type) {
+            long size = OBJECT_HEADER;
+            for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    if (!Modifier.isStatic(field.getModifiers())) {
+                        size += fieldSize(field.getType());
+                    }
+                }
+            }
+            return (int) align(size);
+        }
+    };
+
+    private DexHeapEstimator() {
+    }
+
+    private static int fieldSize(Class<?> type) {
+        if (type == long.class || type == double.class) {
+            return 8;
+        } else if (type == int.class || type == float.class) {
+            return 4;
+        } else if (type == short.class || type == char.class) {
+            return 2;
+        } else if (type == byte.class || type == boolean.class) {
+            return 1;
+        }
+        return REFERENCE;
+    }
+
+    private static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+
+    static long shallow(Object object) {
+        return object == null ? 0 : SHALLOW_SIZES.get(object.getClass());
+    }
+
+    static long array(int length, int elementSize) {
+        return align(ARRAY_HEADER + (long) length * elementSize);
+    }
+
+    /**
+     * @return 列表容器本身的大小，不包含元素
+     */
+    static long list(List<?> list) {
+        if (list == null) {
+            return 0;
+        }
+        if (list instanceof DexInsnList) {
+            return shallow(list) + (long) list.size() * INSN_LIST_ENTRY
+                    + array(list.size(), REFERENCE);
+        }
+        return shallow(list) + array(list.size(), REFERENCE);
+    }
+
+    static long registers(DexRegisterList regs) {
+        return regs == null || regs.count() == 0 ? 0 : shallow(regs) + array(regs.count(), REFERENCE);
+    }
+
+    static long typeList(DexTypeList types) {
+        return types == null ? 0 : shallow(types) + array(types.count(), REFERENCE);
+    }
+
+    /**
+     * 估算单个值对象，用于常量、注解值以及额外信息
+     */
+    static long value(Object value) {
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof String) {
+            return shallow(value) + array(((String) value).length(), 2);
+        }
+        if (value instanceof DexString || value instanceof DexType) {
+            return 0;
+        }
+        if (value instanceof DexConst) {
+            return dexConst((DexConst) value);
+        }
+        if (value instanceof int[]) {
+            return array(((int[]) value).length, 4);
+        }
+        if (value instanceof byte[]) {
+            return array(((byte[]) value).length, 1);
+        }
+        if (value instanceof Object[]) {
+            return array(((Object[]) value).length, REFERENCE);
+        }
+        return shallow(value);
+    }
+
+    static long dexConst(DexConst dexConst) {
+        long size = shallow(dexConst);
+        if (dexConst instanceof DexConst.ConstString) {
+            size += value(((DexConst.ConstString) dexConst).value());
+        } else if (dexConst instanceof DexConst.MethodAndProto) {
+            DexConst.MethodAndProto methodAndProto = (DexConst.MethodAndProto) dexConst;
+            size += dexConst(methodAndProto.getMethodRef()) + dexConst(methodAndProto.getProto());
+        } else if (dexConst instanceof DexConst.MethodHandle) {
+            size += dexConst(((DexConst.MethodHandle) dexConst).getMemberRef());
+        } else if (dexConst instanceof DexConst.CallSite) {
+            DexConst.CallSite callSite = (DexConst.CallSite) dexConst;
+            size += dexConst(callSite.getMethodHandle()) + dexConst(callSite.getMethodType())
+                    + list(callSite.getOrderedArguments());
+            for (DexConst argument : callSite.getOrderedArguments()) {
+                size += dexConst(argument);
+            }
+        } else if (dexConst instanceof DexConst.ArrayData) {
+            size += value(((DexConst.ArrayData) dexConst).getData());
+        } else if (dexConst instanceof DexConst.EncodedValue) {
+            size += value(((DexConst.EncodedValue) dexConst).asPrimitive());
+        } else if (dexConst instanceof DexConst.EncodedAnnotation) {
+            List<DexConst.AnnotationElement> elements =
+                    ((DexConst.EncodedAnnotation) dexConst).getAnnotationItems();
+            size += list(elements);
+            for (DexConst.AnnotationElement element : elements) {
+                size += dexConst(element);
+            }
+        } else if (dexConst instanceof DexConst.AnnotationElement) {
+            size += dexConst(((DexConst.AnnotationElement) dexConst).getValue());
+        } else if (dexConst instanceof DexConst.EncodedArray) {
+            List<DexConst.EncodedValue> values =
+                    ((DexConst.EncodedArray) dexConst).getArrayValue();
+            size += list(values);
+            for (DexConst.EncodedValue value : values) {
+                size += dexConst(value);
+            }
+        }
+        return size;
+    }
+
+    static void addExtras(DexNode node, DexHeapUsage usage) {
+        Map<String, Object> extras = node.peekExtraMap();
+        if (extras == null) {
+            return;
+        }
+        int tableSize = Integer.highestOneBit(Math.max(extras.size(), 1) * 2);
+        long size = shallow(extras) + array(tableSize, REFERENCE);
+        for (Map.Entry<String, Object> entry : extras.entrySet()) {
+            size += HASH_MAP_ENTRY + value(entry.getValue());
+        }
+        usage.add(COMPONENT_EXTRAS, size);
+    }
+
+    static void addInsns(List<DexInsnNode> insns, DexHeapUsage usage) {
+        if (insns == null) {
+            return;
+        }
+        long size = list(insns);
+        long constants = 0;
+        for (DexInsnNode insn : insns) {
+            size += shallow(insn);
+            if (insn instanceof DexOpcodeInsnNode) {
+                size += registers(((DexOpcodeInsnNode) insn).getRegisters());
+            }
+            if (insn instanceof DexConstInsnNode) {
+                constants += dexConst(((DexConstInsnNode) insn).getConst());
+            } else if (insn instanceof DexSwitchDataInsnNode) {
+                DexSwitchDataInsnNode switchInsn = (DexSwitchDataInsnNode) insn;
+                size += value(switchInsn.getKeys()) + value(switchInsn.getCasesLabel());
+            }
+            addExtras(insn, usage);
+        }
+        usage.add(COMPONENT_INSTRUCTIONS, size);
+        usage.add(COMPONENT_CONSTANTS, constants);
+    }
+
+    static void addTryCatches(List<DexTryCatchNode> tryCatches, DexHeapUsage usage) {
+        if (tryCatches == null) {
+            return;
+        }
+        long size = list(tryCatches);
+        for (DexTryCatchNode tryCatch : tryCatches) {
+            size += shallow(tryCatch) + value(tryCatch.getHandlers())
+                    + typeList(tryCatch.getTypes());
+            addExtras(tryCatch, usage);
+        }
+        usage.add(COMPONENT_INSTRUCTIONS, size);
+    }
+
+    static void addLineNumbers(List<DexLineNumberNode> lineNumbers, DexHeapUsage usage) {
+        if (lineNumbers == null) {
+            return;
+        }
+        long size = list(lineNumbers);
+        for (DexLineNumberNode lineNumber : lineNumbers) {
+            size += shallow(lineNumber);
+            addExtras(lineNumber, usage);
+        }
+        usage.add(COMPONENT_DEBUG_INFO, size);
+    }
+
+    private static void addAnnotations(List<DexAnnotationNode> annotations, DexHeapUsage usage) {
+        if (annotations == null) {
+            return;
+        }
+        long size = list(annotations);
+        for (DexAnnotationNode annotation : annotations) {
+            size += shallow(annotation) + shallow(annotation.getVisibility());
+            if (annotation.getEncodedAnnotation() != null) {
+                size += dexConst(annotation.getEncodedAnnotation());
+            }
+            addExtras(annotation, usage);
+        }
+        usage.add(COMPONENT_ANNOTATIONS, size);
+    }
+
+    /**
+     * 估算单个类独占的内存
+     */
+    public static DexHeapUsage estimate(DexClassNode dcn) {
+        DexHeapUsage usage = new DexHeapUsage();
+        usage.add(COMPONENT_STRUCTURE, shallow(dcn) + shallow(dcn.accessFlags)
+                + typeList(dcn.interfaces) + list(dcn.getFields()) + list(dcn.getMethods()));
+        addExtras(dcn, usage);
+        addAnnotations(dcn.getClassAnnotations(), usage);
+
+        for (DexFieldNode dfn : dcn.getFields()) {
+            usage.add(COMPONENT_STRUCTURE, shallow(dfn) + shallow(dfn.accessFlags));
+            usage.add(COMPONENT_CONSTANTS, value(dfn.staticValue));
+            addAnnotations(dfn.getFieldAnnotations(), usage);
+            addExtras(dfn, usage);
+        }
+
+        for (DexMethodNode dmn : dcn.getMethods()) {
+            usage.add(COMPONENT_STRUCTURE, shallow(dmn) + shallow(dmn.accessFlags)
+                    + typeList(dmn.parameters));
+            addAnnotations(dmn.getMethodAnnotations(), usage);
+            List<DexAnnotationNode>[] parameterAnnotations = dmn.getParameterAnnotations();
+            if (parameterAnnotations != null) {
+                usage.add(COMPONENT_ANNOTATIONS, value(parameterAnnotations));
+                for (List<DexAnnotationNode> annotations : parameterAnnotations) {
+                    addAnnotations(annotations, usage);
+                }
+            }
+            addExtras(dmn, usage);
+            DexCodeNode code = dmn.getCode();
+            if (code != null) {
+                code.estimateHeapUsage(usage);
+            }
+        }
+        return usage;
+    }
+
+    /**
+     * 使用公共ForkJoinPool并行估算
+     */
+    public static Report estimate(MultiDexFileNode multiDexFileNode) {
+        return estimate(multiDexFileNode, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * 所有Dex中的类作为一次并行遍历的任务，之后按Dex汇总
+     */
+    public static Report estimate(MultiDexFileNode multiDexFileNode, ForkJoinPool pool) {
+        Map<Integer, DexFileNode> dexNodes = multiDexFileNode.getDexNodes();
+        int classCount = 0;
+        for (DexFileNode dfn : dexNodes.values()) {
+            classCount += dfn.getClassesList().size();
+        }
+        DexClassNode[] classes = new DexClassNode[classCount];
+        int[] dexIds = new int[classCount];
+        int idx = 0;
+        for (Map.Entry<Integer, DexFileNode> entry : dexNodes.entrySet()) {
+            for (DexClassNode dcn : entry.getValue().getClassesList()) {
+                dexIds[idx] = entry.getKey();
+                classes[idx++] = dcn;
+            }
+        }
+
+        DexHeapUsage[] classUsages = new DexHeapUsage[classCount];
+        pool.submit(() -> IntStream.range(0, classes.length).parallel()
+                .forEach(i -> classUsages[i] = estimate(classes[i]))).join();
+
+        Report report = new Report();
+        for (Integer dexId : dexNodes.keySet()) {
+            report.mDexUsages.put(dexId, new DexHeapUsage());
+        }
+        for (int i = 0; i < classCount; i++) {
+            report.mClassUsages.put(classes[i], classUsages[i]);
+            report.mDexUsages.get(dexIds[i]).add(classUsages[i]);
+            report.mTotal.add(classUsages[i]);
+        }
+        return report;
+    }
+
+    /**
+     * 估算单个Dex
+     */
+    public static Report estimate(DexFileNode dexFileNode, ForkJoinPool pool) {
+        MultiDexFileNode multiDexFileNode = new MultiDexFileNode();
+        multiDexFileNode.addDexFile(0, dexFileNode);
+        return estimate(multiDexFileNode, pool);
+    }
+
+    /**
+     * 一次估算的结果，包含每个类、每个Dex以及总计
+     */
+    public static final class Report {
+
+        private final Map<DexClassNode, DexHeapUsage> mClassUsages = new LinkedHashMap<>();
+
+        private final Map<Integer, DexHeapUsage> mDexUsages = new LinkedHashMap<>();
+
+        private final DexHeapUsage mTotal = new DexHeapUsage();
+
+        private Report() {
+        }
+
+        public DexHeapUsage getClassUsage(DexClassNode dcn) {
+            return mClassUsages.get(dcn);
+        }
+
+        public Map<DexClassNode, DexHeapUsage> getClassUsages() {
+            return Collections.unmodifiableMap(mClassUsages);
+        }
+
+        public DexHeapUsage getDexUsage(int dexId) {
+            return mDexUsages.get(dexId);
+        }
+
+        public Map<Integer, DexHeapUsage> getDexUsages() {
+            return Collections.unmodifiableMap(mDexUsages);
+        }
+
+        public DexHeapUsage getTotal() {
+            return mTotal;
+        }
+
+    }
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) Baidu Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.baidu.titan.dex.node;
+
+/**
+ * 节点树占用内存的估算结果，按组成部分分别统计，单位为字节。参见{@link DexHeapEstimator}
+ *
+ * @author zhangdi07@baidu.com
+ * @since 2019/3/27
+ */
+public final class DexHeapUsage {
+
+    /** 类、方法、字段节点以及成员列表 */
+    public static final int COMPONENT_STRUCTURE = 0;
+    /** 指令、Label、try-catch以及紧凑存储 */
+    public static final int COMPONENT_INSTRUCTIONS = 1;
+    /** 指令引用的常量以及字段静态值 */
+    public static final int COMPONENT_CONSTANTS = 2;
+    /** 行号以及参数名 */
+    public static final int COMPONENT_DEBUG_INFO = 3;
+    /** 注解 */
+    public static final int COMPONENT_ANNOTATIONS = 4;
+    /** 节点上的额外信息 */
+    public static final int COMPONENT_EXTRAS = 5;
+
+    static final int COMPONENT_COUNT = 6;
+
+    private static final String[] COMPONENT_NAMES = new String[] {
+            "structure", "instructions", "constants", "debugInfo", "annotations", "extras"};
+
+    private final long[] mBytes = new long[COMPONENT_COUNT];
+
+    DexHeapUsage() {
+    }
+
+    void add(int component, long bytes) {
+        mBytes[component] += bytes;
+    }
+
+    void add(DexHeapUsage other) {
+        for (int i = 0; i < COMPONENT_COUNT; i++) {
+            mBytes[i] += other.mBytes[i];
+        }
+    }
+
+    /**
+     * @param component COMPONENT_*
+     * @return 指定组成部分的字节数
+     */
+    public long get(int component) {
+        return mBytes[component];
+    }
+
+    public long getTotal() {
+        long total = 0;
+        for (long bytes : mBytes) {
+            total += bytes;
+        }
+        return total;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("DexHeapUsage{total=").append(getTotal());
+        for (int i = 0; i < COMPONENT_COUNT; i++) {
+            sb.append(", ").append(COMPONENT_NAMES[i]).append('=').append(mBytes[i]);
+        }
+        return sb.append('}').toString();
+    }
+
+}
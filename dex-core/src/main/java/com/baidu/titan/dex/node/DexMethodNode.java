@@ -103,6 +103,31 @@ public class DexMethodNode extends DexNode implements VisitorSupplier<DexMethodV
         this.mDexCodeNode = code;
     }
 
+    /**
+     * 写时复制克隆，方法体参考{@link DexCodeNode#copy()}，注解节点被共享，注解列表各自持有，不复制额外信息
+     *
+     * @return 克隆的节点
+     */
+    public DexMethodNode copy() {
+        DexMethodNode copy = new DexMethodNode(name, owner, parameters, returnType,
+                new DexAccessFlags(accessFlags));
+        if (mMethodAnnotations != null) {
+            copy.mMethodAnnotations = new ArrayList<>(mMethodAnnotations);
+        }
+        if (mParameterAnnotations != null) {
+            copy.mParameterAnnotations = mParameterAnnotations.clone();
+            for (int i = 0; i < mParameterAnnotations.length; i++) {
+                if (mParameterAnnotations[i] != null) {
+                    copy.mParameterAnnotations[i] = new ArrayList<>(mParameterAnnotations[i]);
+                }
+            }
+        }
+        if (mDexCodeNode != null) {
+            copy.mDexCodeNode = mDexCodeNode.copy();
+        }
+        return copy;
+    }
+
     public List<DexAnnotationNode> getMethodAnnotations() {
         return mMethodAnnotations;
     }
@@ -111,6 +136,19 @@ public class DexMethodNode extends DexNode implements VisitorSupplier<DexMethodV
         this.mMethodAnnotations = annotations;
     }
 
+    /**
+     * 参数注解，按参数下标索引，没有参数注解时为null
+     *
+     * @return
+     */
+    public List<DexAnnotationNode>[] getParameterAnnotations() {
+        return mParameterAnnotations;
+    }
+
+    public void setParameterAnnotations(List<DexAnnotationNode>[] annotations) {
+        this.mParameterAnnotations = annotations;
+    }
+
     public void accept(DexMethodVisitor dmv) {
         dmv.visitBegin();
         if (mMethodAnnotations != null) {
@@ -37,6 +37,22 @@ public class DexNode implements DexNodeExtraInfo {
         return mExtraMap;
     }
 
+    /**
+     * @return 额外信息映射表，没有时返回null，不会创建
+     */
+    Map<String, Object> peekExtraMap() {
+        return mExtraMap;
+    }
+
+    /**
+     * 是否存储了额外信息
+     *
+     * @return has extra info
+     */
+    public boolean hasExtraInfo() {
+        return mExtraMap != null && !mExtraMap.isEmpty();
+    }
+
     @Override
     public void clearAllExtraInfo() {
         mExtraMap = null;
@@ -0,0 +1,623 @@
+/*
+ * Copyright (C) Baidu Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.baidu.titan.dex.node;
+
+import com.baidu.titan.dex.DexConst;
+import com.baidu.titan.dex.DexRegister;
+import com.baidu.titan.dex.DexRegisterList;
+import com.baidu.titan.dex.DexTypeList;
+import com.baidu.titan.dex.node.insn.DexConstInsnNode;
+import com.baidu.titan.dex.node.insn.DexInsnNode;
+import com.baidu.titan.dex.node.insn.DexLabelNode;
+import com.baidu.titan.dex.node.insn.DexLineNumberNode;
+import com.baidu.titan.dex.node.insn.DexSimpleInsnNode;
+import com.baidu.titan.dex.node.insn.DexSwitchDataInsnNode;
+import com.baidu.titan.dex.node.insn.DexTargetInsnNode;
+import com.baidu.titan.dex.node.insn.DexTryCatchNode;
+import com.baidu.titan.dex.visitor.DexCodeVisitor;
+import com.baidu.titan.dex.visitor.DexLabel;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 紧凑的指令存储，DexCodeNode的另一种表示。<br>
+ *
+ * 每条指令只占用两个int：类型、寄存器个数与opcode，以及操作数（Label编号、常量下标或switch下标），
+ * 寄存器按顺序统一存放在一个DexRegister数组中（DexRegister本身是全局复用的），常量等引用放在单独的数组中，
+ * Label用稠密编号表示。与DexInsnNode对象列表相比，省去了每条指令的节点对象、DexRegisterList对象以及额外信息Map。<br>
+ *
+ * 通过{@link #cursor()}顺序读取指令，通过{@link #accept(DexCodeVisitor)}直接回放，
+ * 需要DexInsnNode对象时由DexCodeNode按需转换。创建后不可修改
+ *
+ * @author zhangdi07@baidu.com
+ * @since 2019/3/20
+ */
+public final class DexPackedCode {
+
+    public static final int KIND_LABEL = 0;
+
+    public static final int KIND_SIMPLE = 1;
+
+    public static final int KIND_CONST = 2;
+
+    public static final int KIND_TARGET = 3;
+
+    public static final int KIND_SWITCH = 4;
+
+    private static final int KIND_SHIFT = 24;
+
+    private static final int REG_COUNT_SHIFT = 16;
+
+    private static final int MAX_REG_COUNT = 0xff;
+
+    private static final int OPCODE_MASK = 0xffff;
+
+    private static final DexRegister[] EMPTY_REGS = new DexRegister[0];
+
+    private static final int[] EMPTY_INTS = new int[0];
+
+    private static final Object[] EMPTY_REFS = new Object[0];
+
+    private final int mInsnCount;
+
+    /** kind << KIND_SHIFT | 寄存器个数 << REG_COUNT_SHIFT | opcode */
+    private final int[] mOps;
+
+    /** LABEL与TARGET为Label编号，CONST为mRefs下标，SWITCH为mRefs下标（keys与case label编号相邻存放） */
+    private final int[] mOperands;
+
+    /** 所有指令的寄存器依次存放，只能顺序读取 */
+    private final DexRegister[] mRegs;
+
+    private final Object[] mRefs;
+
+    private final int mLabelCount;
+
+    /** 行号与起始Label编号交替存放 */
+    private final int[] mLines;
+
+    /** 每个try-catch依次为start、end、catch all（没有时为-1）以及各个handler的Label编号 */
+    private final int[][] mTryLabels;
+
+    private final DexTypeList[] mTryTypes;
+
+    private DexPackedCode(Builder builder) {
+        this.mInsnCount = builder.mInsnCount;
+        this.mOps = Arrays.copyOf(builder.mOps, builder.mInsnCount);
+        this.mOperands = Arrays.copyOf(builder.mOperands, builder.mInsnCount);
+        this.mRegs = builder.mRegCount == 0 ?
+                EMPTY_REGS : Arrays.copyOf(builder.mRegs, builder.mRegCount);
+        this.mRefs = builder.mRefCount == 0 ?
+                EMPTY_REFS : Arrays.copyOf(builder.mRefs, builder.mRefCount);
+        this.mLabelCount = builder.mLabelIds.size();
+        this.mLines = builder.mLineCount == 0 ?
+                EMPTY_INTS : Arrays.copyOf(builder.mLines, builder.mLineCount * 2);
+        this.mTryLabels = Arrays.copyOf(builder.mTryLabels, builder.mTryCount);
+        this.mTryTypes = Arrays.copyOf(builder.mTryTypes, builder.mTryCount);
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * 是否所有节点都可以无损地转换为紧凑存储：只支持本包中的标准节点类型，并且节点上没有额外信息
+     *
+     * @return can pack
+     */
+    public static boolean canPack(List<DexInsnNode> insns, List<DexTryCatchNode> tryCatches,
+                                  List<DexLineNumberNode> lineNumbers) {
+        if (insns != null) {
+            for (DexInsnNode din : insns) {
+                Class<?> clazz = din.getClass();
+                if (clazz != DexLabelNode.class && clazz != DexSimpleInsnNode.class
+                        && clazz != DexConstInsnNode.class && clazz != DexTargetInsnNode.class
+                        && clazz != DexSwitchDataInsnNode.class) {
+                    return false;
+                }
+                if (din.hasExtraInfo()) {
+                    return false;
+                }
+            }
+        }
+        if (tryCatches != null) {
+            for (DexTryCatchNode dtcn : tryCatches) {
+                if (dtcn.getClass() != DexTryCatchNode.class || dtcn.hasExtraInfo()) {
+                    return false;
+                }
+            }
+        }
+        if (lineNumbers != null) {
+            for (DexLineNumberNode dlnn : lineNumbers) {
+                if (dlnn.getClass() != DexLineNumberNode.class || dlnn.hasExtraInfo()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    public int getInsnCount() {
+        return mInsnCount;
+    }
+
+    public int getLabelCount() {
+        return mLabelCount;
+    }
+
+    public int getTryCatchCount() {
+        return mTryTypes.length;
+    }
+
+    public int getLineNumberCount() {
+        return mLines.length / 2;
+    }
+
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * 统计占用的内存，参见{@link DexHeapEstimator}
+     */
+    void estimateHeapUsage(DexHeapUsage usage) {
+        long size = DexHeapEstimator.shallow(this)
+                + DexHeapEstimator.value(mOps)
+                + DexHeapEstimator.value(mOperands)
+                + DexHeapEstimator.value(mRegs)
+                + DexHeapEstimator.value(mRefs)
+                + DexHeapEstimator.value(mTryLabels)
+                + DexHeapEstimator.value(mTryTypes);
+        long constants = 0;
+        for (Object ref : mRefs) {
+            if (ref instanceof DexConst) {
+                constants += DexHeapEstimator.value(ref);
+            } else {
+                size += DexHeapEstimator.value(ref);
+            }
+        }
+        for (int[] tryLabels : mTryLabels) {
+            size += DexHeapEstimator.value(tryLabels);
+        }
+        for (DexTypeList types : mTryTypes) {
+            size += DexHeapEstimator.typeList(types);
+        }
+        usage.add(DexHeapUsage.COMPONENT_INSTRUCTIONS, size);
+        usage.add(DexHeapUsage.COMPONENT_CONSTANTS, constants);
+        usage.add(DexHeapUsage.COMPONENT_DEBUG_INFO, DexHeapEstimator.value(mLines));
+    }
+
+    /**
+     * 依次回放try-catch、指令以及行号，与DexCodeNode.accept中相应部分的事件顺序一致，
+     * 不包括visitBegin、visitRegisters以及visitEnd
+     *
+     * @param dcv code visitor
+     */
+    public void accept(DexCodeVisitor dcv) {
+        DexLabel[] labels = new DexLabel[mLabelCount];
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = new DexLabel();
+        }
+
+        for (int t = 0; t < mTryLabels.length; t++) {
+            int[] tryLabels = mTryLabels[t];
+            DexLabel[] handlers = null;
+            if (tryLabels.length > 3) {
+                handlers = new DexLabel[tryLabels.length - 3];
+                for (int i = 0; i < handlers.length; i++) {
+                    handlers[i] = labels[tryLabels[i + 3]];
+                }
+            }
+            dcv.visitTryCatch(labels[tryLabels[0]], labels[tryLabels[1]], mTryTypes[t], handlers,
+                    tryLabels[2] < 0 ? null : labels[tryLabels[2]]);
+        }
+
+        int lineCount = mLines.length / 2;
+        int[] firstLine = null;
+        int[] nextLine = null;
+        if (lineCount > 0) {
+            firstLine = new int[mLabelCount];
+            nextLine = new int[lineCount];
+            int[] lastLine = new int[mLabelCount];
+            Arrays.fill(firstLine, -1);
+            for (int i = 0; i < lineCount; i++) {
+                int label = mLines[i * 2 + 1];
+                nextLine[i] = -1;
+                if (firstLine[label] < 0) {
+                    firstLine[label] = i;
+                } else {
+                    nextLine[lastLine[label]] = i;
+                }
+                lastLine[label] = i;
+            }
+        }
+
+        Cursor cursor = new Cursor();
+        while (cursor.next()) {
+            switch (cursor.getKind()) {
+                case KIND_LABEL: {
+                    int label = cursor.getLabel();
+                    if (firstLine != null) {
+                        for (int line = firstLine[label]; line >= 0; line = nextLine[line]) {
+                            dcv.visitLineNumber(mLines[line * 2], labels[label]);
+                        }
+                    }
+                    dcv.visitLabel(labels[label]);
+                    break;
+                }
+                case KIND_SIMPLE: {
+                    dcv.visitSimpleInsn(cursor.getOpcode(), cursor.getRegisters());
+                    break;
+                }
+                case KIND_CONST: {
+                    dcv.visitConstInsn(cursor.getOpcode(), cursor.getRegisters(),
+                            cursor.getConst());
+                    break;
+                }
+                case KIND_TARGET: {
+                    dcv.visitTargetInsn(cursor.getOpcode(), cursor.getRegisters(),
+                            labels[cursor.getLabel()]);
+                    break;
+                }
+                case KIND_SWITCH: {
+                    int[] keys = cursor.getKeys();
+                    DexLabel[] targets = new DexLabel[keys.length];
+                    for (int i = 0; i < targets.length; i++) {
+                        targets[i] = labels[cursor.getCaseLabel(i)];
+                    }
+                    dcv.visitSwitch(cursor.getOpcode(), cursor.getRegisters(), keys, targets);
+                    break;
+                }
+                default: {
+                    throw new IllegalStateException("unknown kind " + cursor.getKind());
+                }
+            }
+        }
+    }
+
+    /**
+     * 转换为DexInsnNode对象
+     *
+     * @param insns 指令输出
+     * @param tryCatches try-catch输出
+     * @param lineNumbers 行号输出
+     */
+    void unpack(List<DexInsnNode> insns, List<DexTryCatchNode> tryCatches,
+                List<DexLineNumberNode> lineNumbers) {
+        DexLabelNode[] labels = new DexLabelNode[mLabelCount];
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = new DexLabelNode();
+        }
+
+        for (int t = 0; t < mTryLabels.length; t++) {
+            int[] tryLabels = mTryLabels[t];
+            DexLabelNode[] handlers = null;
+            if (tryLabels.length > 3) {
+                handlers = new DexLabelNode[tryLabels.length - 3];
+                for (int i = 0; i < handlers.length; i++) {
+                    handlers[i] = labels[tryLabels[i + 3]];
+                }
+            }
+            tryCatches.add(new DexTryCatchNode(labels[tryLabels[0]], labels[tryLabels[1]],
+                    mTryTypes[t], handlers, tryLabels[2] < 0 ? null : labels[tryLabels[2]]));
+        }
+
+        Cursor cursor = new Cursor();
+        while (cursor.next()) {
+            switch (cursor.getKind()) {
+                case KIND_LABEL: {
+                    insns.add(labels[cursor.getLabel()]);
+                    break;
+                }
+                case KIND_SIMPLE: {
+                    insns.add(new DexSimpleInsnNode(cursor.getOpcode(), cursor.getRegisters()));
+                    break;
+                }
+                case KIND_CONST: {
+                    insns.add(new DexConstInsnNode(cursor.getOpcode(), cursor.getRegisters(),
+                            cursor.getConst()));
+                    break;
+                }
+                case KIND_TARGET: {
+                    insns.add(new DexTargetInsnNode(cursor.getOpcode(), cursor.getRegisters(),
+                            labels[cursor.getLabel()]));
+                    break;
+                }
+                case KIND_SWITCH: {
+                    int[] keys = cursor.getKeys();
+                    DexLabelNode[] targets = new DexLabelNode[keys.length];
+                    for (int i = 0; i < targets.length; i++) {
+                        targets[i] = labels[cursor.getCaseLabel(i)];
+                    }
+                    // keys数组可能被多个克隆节点共享，转换出的节点持有自己的副本
+                    insns.add(new DexSwitchDataInsnNode(cursor.getOpcode(), cursor.getRegisters(),
+                            keys.clone(), targets));
+                    break;
+                }
+                default: {
+                    throw new IllegalStateException("unknown kind " + cursor.getKind());
+                }
+            }
+        }
+
+        for (int i = 0; i < mLines.length; i += 2) {
+            lineNumbers.add(new DexLineNumberNode(mLines[i], labels[mLines[i + 1]]));
+        }
+    }
+
+    /**
+     * 顺序读取指令，next()返回true后才能读取当前指令
+     */
+    public final class Cursor {
+
+        private int mIndex = -1;
+
+        /** 当前指令的第一个寄存器在mRegs中的下标 */
+        private int mRegOffset;
+
+        private Cursor() {
+        }
+
+        public boolean next() {
+            if (mIndex + 1 < mInsnCount) {
+                if (mIndex >= 0) {
+                    mRegOffset += getRegisterCount();
+                }
+                mIndex++;
+                return true;
+            }
+            mIndex = mInsnCount;
+            return false;
+        }
+
+        /**
+         * 当前指令在指令序列中的位置，Label也占用一个位置，与DexCodeNode.getInsns()中的下标一致
+         *
+         * @return index
+         */
+        public int getIndex() {
+            return mIndex;
+        }
+
+        public int getKind() {
+            return mOps[mIndex] >>> KIND_SHIFT;
+        }
+
+        public boolean isLabel() {
+            return getKind() == KIND_LABEL;
+        }
+
+        public int getOpcode() {
+            return mOps[mIndex] & OPCODE_MASK;
+        }
+
+        public int getRegisterCount() {
+            return (mOps[mIndex] >>> REG_COUNT_SHIFT) & MAX_REG_COUNT;
+        }
+
+        public DexRegister getRegister(int idx) {
+            if (idx < 0 || idx >= getRegisterCount()) {
+                throw new IndexOutOfBoundsException("register " + idx);
+            }
+            return mRegs[mRegOffset + idx];
+        }
+
+        /**
+         * 每次调用都会创建新的DexRegisterList
+         *
+         * @return registers
+         */
+        public DexRegisterList getRegisters() {
+            int count = getRegisterCount();
+            if (count == 0) {
+                return DexRegisterList.empty();
+            }
+            DexRegisterList regs = new DexRegisterList(count);
+            for (int i = 0; i < count; i++) {
+                regs.setReg(i, mRegs[mRegOffset + i]);
+            }
+            return regs;
+        }
+
+        public DexConst getConst() {
+            checkKind(KIND_CONST);
+            return (DexConst) mRefs[mOperands[mIndex]];
+        }
+
+        /**
+         * KIND_LABEL时为Label自身的编号，KIND_TARGET时为跳转目标的编号
+         *
+         * @return label id
+         */
+        public int getLabel() {
+            int kind = getKind();
+            if (kind != KIND_LABEL && kind != KIND_TARGET) {
+                throw new IllegalStateException("no label for kind " + kind);
+            }
+            return mOperands[mIndex];
+        }
+
+        /**
+         * @return switch的case值，返回副本，修改不会影响打包的指令
+         */
+        public int[] getKeys() {
+            checkKind(KIND_SWITCH);
+            return ((int[]) mRefs[mOperands[mIndex]]).clone();
+        }
+
+        public int getCaseLabel(int idx) {
+            checkKind(KIND_SWITCH);
+            return ((int[]) mRefs[mOperands[mIndex] + 1])[idx];
+        }
+
+        private void checkKind(int kind) {
+            if (getKind() != kind) {
+                throw new IllegalStateException("expect kind " + kind + " but " + getKind());
+            }
+        }
+
+    }
+
+    /**
+     * 以DexCodeVisitor的形式接收指令，visitEnd之后通过{@link #build()}得到DexPackedCode。
+     * visitRegisters、visitParameters以及visitLocal不属于指令存储，由调用方自行处理
+     */
+    public static final class Builder extends DexCodeVisitor {
+
+        private int mInsnCount;
+
+        private int[] mOps = new int[16];
+
+        private int[] mOperands = new int[16];
+
+        private int mRegCount;
+
+        private DexRegister[] mRegs = new DexRegister[32];
+
+        private int mRefCount;
+
+        private Object[] mRefs = new Object[8];
+
+        private final Map<DexLabel, Integer> mLabelIds = new HashMap<>();
+
+        private int mLineCount;
+
+        private int[] mLines = EMPTY_INTS;
+
+        private int mTryCount;
+
+        private int[][] mTryLabels = new int[0][];
+
+        private DexTypeList[] mTryTypes = new DexTypeList[0];
+
+        private Builder() {
+        }
+
+        private int labelId(DexLabel label) {
+            Integer id = mLabelIds.get(label);
+            if (id == null) {
+                id = mLabelIds.size();
+                mLabelIds.put(label, id);
+            }
+            return id;
+        }
+
+        private int addRef(Object ref) {
+            if (mRefCount == mRefs.length) {
+                mRefs = Arrays.copyOf(mRefs, mRefs.length * 2);
+            }
+            mRefs[mRefCount] = ref;
+            return mRefCount++;
+        }
+
+        private void add(int kind, int opcode, DexRegisterList regs, int operand) {
+            if (opcode < 0 || opcode > OPCODE_MASK) {
+                throw new IllegalArgumentException("opcode out of range " + opcode);
+            }
+            if (mInsnCount == mOps.length) {
+                int capacity = mOps.length * 2;
+                mOps = Arrays.copyOf(mOps, capacity);
+                mOperands = Arrays.copyOf(mOperands, capacity);
+            }
+            int regCount = regs == null ? 0 : regs.count();
+            if (regCount > MAX_REG_COUNT) {
+                throw new IllegalArgumentException("too many registers " + regCount);
+            }
+            if (mRegCount + regCount > mRegs.length) {
+                mRegs = Arrays.copyOf(mRegs, Math.max(mRegs.length * 2, mRegCount + regCount));
+            }
+            for (int i = 0; i < regCount; i++) {
+                mRegs[mRegCount++] = regs.get(i);
+            }
+            mOps[mInsnCount] = kind << KIND_SHIFT | regCount << REG_COUNT_SHIFT | opcode;
+            mOperands[mInsnCount] = operand;
+            mInsnCount++;
+        }
+
+        @Override
+        public void visitTryCatch(DexLabel start, DexLabel end, DexTypeList types,
+                                  DexLabel[] handlers, DexLabel catchAllHandler) {
+            int handlerCount = handlers == null ? 0 : handlers.length;
+            int[] tryLabels = new int[3 + handlerCount];
+            tryLabels[0] = labelId(start);
+            tryLabels[1] = labelId(end);
+            tryLabels[2] = catchAllHandler == null ? -1 : labelId(catchAllHandler);
+            for (int i = 0; i < handlerCount; i++) {
+                tryLabels[3 + i] = labelId(handlers[i]);
+            }
+            if (mTryCount == mTryLabels.length) {
+                int capacity = Math.max(4, mTryCount * 2);
+                mTryLabels = Arrays.copyOf(mTryLabels, capacity);
+                mTryTypes = Arrays.copyOf(mTryTypes, capacity);
+            }
+            mTryLabels[mTryCount] = tryLabels;
+            mTryTypes[mTryCount] = types;
+            mTryCount++;
+        }
+
+        @Override
+        public void visitLabel(DexLabel label) {
+            add(KIND_LABEL, 0, null, labelId(label));
+        }
+
+        @Override
+        public void visitConstInsn(int op, DexRegisterList regs, DexConst dexConst) {
+            add(KIND_CONST, op, regs, addRef(dexConst));
+        }
+
+        @Override
+        public void visitTargetInsn(int op, DexRegisterList regs, DexLabel label) {
+            add(KIND_TARGET, op, regs, labelId(label));
+        }
+
+        @Override
+        public void visitSimpleInsn(int op, DexRegisterList regs) {
+            add(KIND_SIMPLE, op, regs, 0);
+        }
+
+        @Override
+        public void visitSwitch(int op, DexRegisterList regs, int[] keys, DexLabel[] targets) {
+            int[] caseLabels = new int[targets.length];
+            for (int i = 0; i < targets.length; i++) {
+                caseLabels[i] = labelId(targets[i]);
+            }
+            // 调用方可能复用keys数组，打包的指令需要持有自己的副本
+            int refIdx = addRef(keys.clone());
+            addRef(caseLabels);
+            add(KIND_SWITCH, op, regs, refIdx);
+        }
+
+        @Override
+        public void visitLineNumber(int line, DexLabel start) {
+            if (mLineCount * 2 == mLines.length) {
+                mLines = Arrays.copyOf(mLines, Math.max(16, mLines.length * 2));
+            }
+            mLines[mLineCount * 2] = line;
+            mLines[mLineCount * 2 + 1] = labelId(start);
+            mLineCount++;
+        }
+
+        public DexPackedCode build() {
+            return new DexPackedCode(this);
+        }
+
+    }
+
+}
@@ -56,6 +56,13 @@ public class MultiDexFileNode extends DexNode implements VisitorSupplier<MultiDe
         return mDexFiles;
     }
 
+    /**
+     * 一次并行遍历估算每个类、每个Dex独占的堆内存，参见{@link DexHeapEstimator}
+     */
+    public DexHeapEstimator.Report estimateHeapUsage() {
+        return DexHeapEstimator.estimate(this);
+    }
+
     public void accept(MultiDexFileNodeVisitor visitor) {
         for (Map.Entry<Integer, DexFileNode> entry : mDexFiles.entrySet()) {
             visitor.visitDexFile(entry.getKey(), entry.getValue());
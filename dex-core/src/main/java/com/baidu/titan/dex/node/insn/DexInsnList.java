@@ -0,0 +1,440 @@
+/*
+ * Copyright (C) Baidu Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.baidu.titan.dex.node.insn;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.ListIterator;
+import java.util.NoSuchElementException;
+
+/**
+ * 双向链表实现的指令列表，通过{@link Cursor}或者listIterator()在任意位置插入、删除均为O(1)。<br>
+ *
+ * 为了兼容通过下标访问的代码，下标访问使用按需重建的索引数组：中间插入或删除之后第一次下标访问为O(n)，
+ * 之后为O(1)，在末尾追加不会使索引失效。插桩等需要大量插入的场景应使用Cursor，
+ * 避免交替进行下标访问与中间插入
+ *
+ * @author zhangdi07@baidu.com
+ * @since 2019/3/26
+ */
+public final class DexInsnList extends AbstractList<DexInsnNode> {
+
+    private static final class Entry {
+
+        DexInsnNode insn;
+
+        Entry prev;
+
+        Entry next;
+
+        boolean removed;
+
+        Entry(DexInsnNode insn) {
+            this.insn = insn;
+        }
+
+    }
+
+    /** 环形链表的哨兵，head.next为第一条指令，head.prev为最后一条指令 */
+    private final Entry mHead = new Entry(null);
+
+    private int mSize;
+
+    private Entry[] mIndex = new Entry[16];
+
+    private boolean mIndexValid = true;
+
+    public DexInsnList() {
+        mHead.prev = mHead;
+        mHead.next = mHead;
+    }
+
+    public DexInsnList(Collection<? extends DexInsnNode> insns) {
+        this();
+        mIndex = new Entry[Math.max(16, insns.size())];
+        for (DexInsnNode insn : insns) {
+            add(insn);
+        }
+    }
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    private void checkIndex(int index, int size) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index = " + index + ", size = " + mSize);
+        }
+    }
+
+    private void ensureIndex() {
+        if (mIndexValid) {
+            return;
+        }
+        if (mIndex.length < mSize) {
+            mIndex = new Entry[mSize + (mSize >> 1)];
+        } else {
+            Arrays.fill(mIndex, mSize, mIndex.length, null);
+        }
+        int i = 0;
+        for (Entry e = mHead.next; e != mHead; e = e.next) {
+            mIndex[i++] = e;
+        }
+        mIndexValid = true;
+    }
+
+    private Entry entry(int index) {
+        if (mIndexValid) {
+            return mIndex[index];
+        }
+        Entry e;
+        if (index < (mSize >> 1)) {
+            e = mHead.next;
+            for (int i = 0; i < index; i++) {
+                e = e.next;
+            }
+        } else {
+            e = mHead.prev;
+            for (int i = mSize - 1; i > index; i--) {
+                e = e.prev;
+            }
+        }
+        return e;
+    }
+
+    private Entry linkBefore(DexInsnNode insn, Entry succ) {
+        if (insn == null) {
+            throw new NullPointerException("insn is null");
+        }
+        Entry e = new Entry(insn);
+        e.prev = succ.prev;
+        e.next = succ;
+        succ.prev.next = e;
+        succ.prev = e;
+        if (mIndexValid && succ == mHead) {
+            if (mSize == mIndex.length) {
+                mIndex = Arrays.copyOf(mIndex, mSize + (mSize >> 1) + 1);
+            }
+            mIndex[mSize] = e;
+        } else {
+            mIndexValid = false;
+        }
+        mSize++;
+        modCount++;
+        return e;
+    }
+
+    private DexInsnNode unlink(Entry e) {
+        if (mIndexValid && e == mHead.prev) {
+            mIndex[mSize - 1] = null;
+        } else {
+            mIndexValid = false;
+        }
+        e.prev.next = e.next;
+        e.next.prev = e.prev;
+        e.removed = true;
+        mSize--;
+        modCount++;
+        return e.insn;
+    }
+
+    @Override
+    public DexInsnNode get(int index) {
+        checkIndex(index, mSize);
+        ensureIndex();
+        return mIndex[index].insn;
+    }
+
+    @Override
+    public DexInsnNode set(int index, DexInsnNode insn) {
+        checkIndex(index, mSize);
+        if (insn == null) {
+            throw new NullPointerException("insn is null");
+        }
+        Entry e = entry(index);
+        DexInsnNode old = e.insn;
+        e.insn = insn;
+        return old;
+    }
+
+    @Override
+    public boolean add(DexInsnNode insn) {
+        linkBefore(insn, mHead);
+        return true;
+    }
+
+    @Override
+    public void add(int index, DexInsnNode insn) {
+        checkIndex(index, mSize + 1);
+        linkBefore(insn, index == mSize ? mHead : entry(index));
+    }
+
+    @Override
+    public DexInsnNode remove(int index) {
+        checkIndex(index, mSize);
+        return unlink(entry(index));
+    }
+
+    @Override
+    public void clear() {
+        for (Entry e = mHead.next; e != mHead; e = e.next) {
+            e.removed = true;
+        }
+        mHead.prev = mHead;
+        mHead.next = mHead;
+        mSize = 0;
+        Arrays.fill(mIndex, null);
+        mIndexValid = true;
+        modCount++;
+    }
+
+    @Override
+    public ListIterator<DexInsnNode> listIterator(int index) {
+        checkIndex(index, mSize + 1);
+        return new Itr(index);
+    }
+
+    /**
+     * @return 位于第一条指令之前的游标
+     */
+    public Cursor cursor() {
+        return new Cursor(mHead);
+    }
+
+    /**
+     * 查找指令（按引用比较）并返回指向它的游标，查找为O(n)
+     *
+     * @return 指令不存在时返回null
+     */
+    public Cursor cursorAt(DexInsnNode insn) {
+        for (Entry e = mHead.next; e != mHead; e = e.next) {
+            if (e.insn == insn) {
+                return new Cursor(e);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 指令列表上的稳定游标，其他位置的插入、删除不影响游标，所有操作均为O(1)。<br>
+     *
+     * 游标指向一条指令，或者位于列表边界（第一条之前或最后一条之后），此时{@link #get()}返回null
+     */
+    public final class Cursor {
+
+        private Entry mEntry;
+
+        private Cursor(Entry entry) {
+            this.mEntry = entry;
+        }
+
+        private void checkAlive() {
+            if (mEntry.removed) {
+                throw new IllegalStateException("insn under cursor has been removed");
+            }
+        }
+
+        /**
+         * 移动到下一条指令
+         *
+         * @return 已经到达末尾时返回false，游标位于边界
+         */
+        public boolean next() {
+            checkAlive();
+            mEntry = mEntry.next;
+            return mEntry != mHead;
+        }
+
+        /**
+         * 移动到上一条指令
+         *
+         * @return 已经到达开头时返回false，游标位于边界
+         */
+        public boolean previous() {
+            checkAlive();
+            mEntry = mEntry.prev;
+            return mEntry != mHead;
+        }
+
+        /**
+         * @return 当前指令，位于边界时返回null
+         */
+        public DexInsnNode get() {
+            checkAlive();
+            return mEntry.insn;
+        }
+
+        /**
+         * 在当前指令之前插入，游标不动；位于边界时插入到列表末尾
+         */
+        public void insertBefore(DexInsnNode insn) {
+            checkAlive();
+            linkBefore(insn, mEntry);
+        }
+
+        /**
+         * 在当前指令之后插入，游标不动，下一次{@link #next()}会移动到插入的指令；
+         * 位于边界时插入到列表开头
+         */
+        public void insertAfter(DexInsnNode insn) {
+            checkAlive();
+            linkBefore(insn, mEntry.next);
+        }
+
+        /**
+         * 将当前指令替换为insn
+         *
+         * @return 被替换的指令
+         */
+        public DexInsnNode replace(DexInsnNode insn) {
+            checkAlive();
+            if (mEntry == mHead) {
+                throw new IllegalStateException("cursor is not on an insn");
+            }
+            if (insn == null) {
+                throw new NullPointerException("insn is null");
+            }
+            DexInsnNode old = mEntry.insn;
+            mEntry.insn = insn;
+            return old;
+        }
+
+        /**
+         * 删除当前指令，游标移动到上一条指令（或开头边界），之后可以继续调用{@link #next()}
+         *
+         * @return 被删除的指令
+         */
+        public DexInsnNode remove() {
+            checkAlive();
+            if (mEntry == mHead) {
+                throw new IllegalStateException("cursor is not on an insn");
+            }
+            Entry removed = mEntry;
+            mEntry = removed.prev;
+            return unlink(removed);
+        }
+
+    }
+
+    private final class Itr implements ListIterator<DexInsnNode> {
+
+        private Entry mNext;
+
+        private Entry mLastReturned;
+
+        private int mNextIndex;
+
+        private int mExpectedModCount = modCount;
+
+        Itr(int index) {
+            mNext = index == mSize ? mHead : entry(index);
+            mNextIndex = index;
+        }
+
+        private void checkModCount() {
+            if (modCount != mExpectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return mNextIndex < mSize;
+        }
+
+        @Override
+        public DexInsnNode next() {
+            checkModCount();
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            mLastReturned = mNext;
+            mNext = mNext.next;
+            mNextIndex++;
+            return mLastReturned.insn;
+        }
+
+        @Override
+        public boolean hasPrevious() {
+            return mNextIndex > 0;
+        }
+
+        @Override
+        public DexInsnNode previous() {
+            checkModCount();
+            if (!hasPrevious()) {
+                throw new NoSuchElementException();
+            }
+            mNext = mNext.prev;
+            mLastReturned = mNext;
+            mNextIndex--;
+            return mLastReturned.insn;
+        }
+
+        @Override
+        public int nextIndex() {
+            return mNextIndex;
+        }
+
+        @Override
+        public int previousIndex() {
+            return mNextIndex - 1;
+        }
+
+        @Override
+        public void remove() {
+            checkModCount();
+            if (mLastReturned == null) {
+                throw new IllegalStateException();
+            }
+            if (mNext == mLastReturned) {
+                mNext = mLastReturned.next;
+            } else {
+                mNextIndex--;
+            }
+            unlink(mLastReturned);
+            mLastReturned = null;
+            mExpectedModCount = modCount;
+        }
+
+        @Override
+        public void set(DexInsnNode insn) {
+            checkModCount();
+            if (mLastReturned == null) {
+                throw new IllegalStateException();
+            }
+            if (insn == null) {
+                throw new NullPointerException("insn is null");
+            }
+            mLastReturned.insn = insn;
+        }
+
+        @Override
+        public void add(DexInsnNode insn) {
+            checkModCount();
+            linkBefore(insn, mNext);
+            mNextIndex++;
+            mLastReturned = null;
+            mExpectedModCount = modCount;
+        }
+
+    }
+
+}
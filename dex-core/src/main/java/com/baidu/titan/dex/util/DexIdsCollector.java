@@ -24,6 +24,7 @@ import com.baidu.titan.dex.DexTypeList;
 import com.baidu.titan.dex.node.DexClassNode;
 import com.baidu.titan.dex.node.DexFieldIdNode;
 import com.baidu.titan.dex.node.DexMethodIdNode;
+import com.baidu.titan.dex.node.DexProtoNode;
 import com.baidu.titan.dex.visitor.DexAnnotationVisitor;
 import com.baidu.titan.dex.visitor.DexAnnotationVisitorInfo;
 import com.baidu.titan.dex.visitor.DexClassVisitor;
@@ -34,14 +35,14 @@ import com.baidu.titan.dex.visitor.DexLabel;
 import com.baidu.titan.dex.visitor.DexMethodVisitor;
 import com.baidu.titan.dex.visitor.DexMethodVisitorInfo;
 
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  *
- * 用来收集单个DexClassNode中诸如MethodID、FieldID、StringID等共享信息。
+ * 用来收集单个DexClassNode中诸如MethodID、FieldID、TypeID、StringID等共享信息。
  *
  * @author zhangdi07@baidu.com
  * @since 2018/6/1
@@ -52,8 +53,12 @@ public class DexIdsCollector extends DexClassVisitor {
 
     private HashSet<DexFieldIdNode> mFieldIds = new HashSet<>(128);
 
+    private HashSet<DexType> mTypeIds = new HashSet<>(128);
+
     private HashSet<DexString> mStringIds = new HashSet<>(128);
 
+    private HashSet<DexProtoNode> mProtoIds = new HashSet<>(128);
+
     private Cache mCache;
 
     public DexIdsCollector() {
@@ -68,6 +73,12 @@ public class DexIdsCollector extends DexClassVisitor {
 
     public static final int FLAG_COLLECT_TYPE_IDS = 1 << 3;
 
+    public static final int FLAG_COLLECT_PROTO_IDS = 1 << 4;
+
+    public static final int FLAG_COLLECT_ALL_IDS = FLAG_COLLECT_METHOD_IDS
+            | FLAG_COLLECT_FIELD_IDS | FLAG_COLLECT_STRING_IDS | FLAG_COLLECT_TYPE_IDS
+            | FLAG_COLLECT_PROTO_IDS;
+
     private Flags mFlags;
 
     public DexIdsCollector(Cache cache) {
@@ -82,33 +93,66 @@ public class DexIdsCollector extends DexClassVisitor {
         this.mFlags = new Flags(flags);
     }
 
+    /**
+     * ID驻留缓存，相等的ID共享同一个实例。线程安全，可以被并行收集的多个Collector共享，
+     * 命中时只做一次无锁的get
+     */
     public static class Cache {
 
-        private Map<DexMethodIdNode, DexMethodIdNode> mMethodIds = new HashMap<>();
+        private Map<DexMethodIdNode, DexMethodIdNode> mMethodIds = new ConcurrentHashMap<>();
+
+        private Map<DexFieldIdNode, DexFieldIdNode> mFieldIds = new ConcurrentHashMap<>();
+
+        private Map<DexType, DexType> mTypeIds = new ConcurrentHashMap<>();
 
-        private Map<DexFieldIdNode, DexFieldIdNode> mFieldIds = new HashMap<>();
+        private Map<DexString, DexString> mStringIds = new ConcurrentHashMap<>();
 
-        private Map<DexString, DexString> mStringIds = new HashMap<>();
+        private Map<DexProtoNode, DexProtoNode> mProtoIds = new ConcurrentHashMap<>();
 
         public Cache() {
 
         }
 
         public DexMethodIdNode intern(DexMethodIdNode methodIdNode) {
-            DexMethodIdNode cached = this.mMethodIds.putIfAbsent(methodIdNode, methodIdNode);
+            DexMethodIdNode cached = this.mMethodIds.get(methodIdNode);
+            if (cached == null) {
+                cached = this.mMethodIds.putIfAbsent(methodIdNode, methodIdNode);
+            }
             return cached != null ? cached : methodIdNode;
         }
 
         public DexFieldIdNode intern(DexFieldIdNode fieldIdNode) {
-            DexFieldIdNode cached = this.mFieldIds.putIfAbsent(fieldIdNode, fieldIdNode);
+            DexFieldIdNode cached = this.mFieldIds.get(fieldIdNode);
+            if (cached == null) {
+                cached = this.mFieldIds.putIfAbsent(fieldIdNode, fieldIdNode);
+            }
             return cached != null ? cached : fieldIdNode;
         }
 
+        public DexType intern(DexType typeId) {
+            DexType cached = this.mTypeIds.get(typeId);
+            if (cached == null) {
+                cached = this.mTypeIds.putIfAbsent(typeId, typeId);
+            }
+            return cached != null ? cached : typeId;
+        }
+
         public DexString intern(DexString stringId) {
-            DexString cached = this.mStringIds.putIfAbsent(stringId, stringId);
+            DexString cached = this.mStringIds.get(stringId);
+            if (cached == null) {
+                cached = this.mStringIds.putIfAbsent(stringId, stringId);
+            }
             return cached != null ? cached : stringId;
         }
 
+        public DexProtoNode intern(DexProtoNode protoId) {
+            DexProtoNode cached = this.mProtoIds.get(protoId);
+            if (cached == null) {
+                cached = this.mProtoIds.putIfAbsent(protoId, protoId);
+            }
+            return cached != null ? cached : protoId;
+        }
+
     }
 
     public Set<DexMethodIdNode> getMethodIds() {
@@ -119,12 +163,162 @@ public class DexIdsCollector extends DexClassVisitor {
         return this.mFieldIds;
     }
 
+    /**
+     * 需要FLAG_COLLECT_TYPE_IDS
+     */
+    public Set<DexType> getTypeIds() {
+        return this.mTypeIds;
+    }
+
+    /**
+     * 需要FLAG_COLLECT_STRING_IDS，包括类型描述符、成员名、方法原型的shorty以及各种字符串常量
+     */
+    public Set<DexString> getStringIds() {
+        return this.mStringIds;
+    }
+
+    /**
+     * 需要FLAG_COLLECT_PROTO_IDS，包括方法引用、invoke-polymorphic以及MethodType常量的原型
+     */
+    public Set<DexProtoNode> getProtoIds() {
+        return this.mProtoIds;
+    }
+
     public static DexIdsCollector collectDexIds(DexClassNode classNode, Cache cache) {
-        DexIdsCollector collector = new DexIdsCollector(cache);
-        classNode.accept(collector);
+        return collectDexIds(classNode, FLAG_COLLECT_METHOD_IDS | FLAG_COLLECT_FIELD_IDS, cache);
+    }
+
+    public static DexIdsCollector collectDexIds(DexClassNode classNode, int flags, Cache cache) {
+        DexIdsCollector collector = new DexIdsCollector(flags, cache);
+        collector.collect(classNode);
         return collector;
     }
 
+    /**
+     * 收集一个类引用的所有ID，包括类本身、父类以及接口
+     */
+    protected void collect(DexClassNode classNode) {
+        addType(classNode.type);
+        addType(classNode.superType);
+        addTypes(classNode.interfaces);
+        classNode.accept(this);
+    }
+
+    // 以下add方法是收集的入口，子类可以覆写，直接把ID转换为其他形式，不经过ID集合
+
+    protected void addString(DexString string) {
+        if (string != null && mFlags.containsOneOf(FLAG_COLLECT_STRING_IDS)) {
+            mStringIds.add(mCache.intern(string));
+        }
+    }
+
+    /**
+     * 字符串常量以及String类型的静态初始值
+     */
+    protected void addString(String string) {
+        if (string != null && mFlags.containsOneOf(FLAG_COLLECT_STRING_IDS)) {
+            addString(new DexString(string));
+        }
+    }
+
+    protected void addType(DexType type) {
+        if (type == null) {
+            return;
+        }
+        if (mFlags.containsOneOf(FLAG_COLLECT_TYPE_IDS)) {
+            mTypeIds.add(mCache.intern(type));
+        }
+        addString(type.getTypeDescriptor());
+    }
+
+    private void addTypes(DexTypeList types) {
+        if (types != null) {
+            for (DexType type : types.types()) {
+                addType(type);
+            }
+        }
+    }
+
+    protected void addProto(DexTypeList parameters, DexType returnType) {
+        addTypes(parameters);
+        addType(returnType);
+        if (mFlags.containsOneOf(FLAG_COLLECT_PROTO_IDS)) {
+            mProtoIds.add(mCache.intern(new DexProtoNode(parameters, returnType)));
+        }
+        if (mFlags.containsOneOf(FLAG_COLLECT_STRING_IDS)) {
+            addString(new DexString(shortyOf(parameters, returnType)));
+        }
+    }
+
+    /**
+     * @return 方法原型的shorty描述符
+     */
+    protected static String shortyOf(DexTypeList parameters, DexType returnType) {
+        StringBuilder shorty = new StringBuilder(parameters.count() + 1);
+        shorty.append(shortyOf(returnType));
+        for (DexType type : parameters.types()) {
+            shorty.append(shortyOf(type));
+        }
+        return shorty.toString();
+    }
+
+    private static char shortyOf(DexType type) {
+        char c = type.toShortDescriptor();
+        return c == '[' ? 'L' : c;
+    }
+
+    protected void addFieldId(DexType owner, DexString name, DexType type) {
+        if (mFlags.containsOneOf(FLAG_COLLECT_FIELD_IDS)) {
+            mFieldIds.add(mCache.intern(new DexFieldIdNode(owner, name, type)));
+        }
+        addType(owner);
+        addType(type);
+        addString(name);
+    }
+
+    protected void addMethodId(DexType owner, DexString name, DexTypeList parameters,
+                               DexType returnType) {
+        if (mFlags.containsOneOf(FLAG_COLLECT_METHOD_IDS)) {
+            mMethodIds.add(mCache.intern(
+                    new DexMethodIdNode(owner, name, parameters, returnType)));
+        }
+        addType(owner);
+        addString(name);
+        addProto(parameters, returnType);
+    }
+
+    private void addConst(DexConst dexConst) {
+        if (dexConst instanceof DexConst.ConstFieldRef) {
+            DexConst.ConstFieldRef fieldRef = (DexConst.ConstFieldRef) dexConst;
+            addFieldId(fieldRef.getOwner(), fieldRef.getName(), fieldRef.getType());
+        } else if (dexConst instanceof DexConst.ConstMethodRef) {
+            DexConst.ConstMethodRef methodRef = (DexConst.ConstMethodRef) dexConst;
+            addMethodId(methodRef.getOwner(), methodRef.getName(),
+                    methodRef.getParameterTypes(), methodRef.getReturnType());
+        } else if (dexConst instanceof DexConst.ConstString) {
+            addString(((DexConst.ConstString) dexConst).value());
+        } else if (dexConst instanceof DexConst.ConstType) {
+            addType(((DexConst.ConstType) dexConst).value());
+        } else if (dexConst instanceof DexConst.Proto) {
+            DexConst.Proto proto = (DexConst.Proto) dexConst;
+            addProto(proto.getParameterTypes(), proto.getReturnType());
+        } else if (dexConst instanceof DexConst.MethodAndProto) {
+            DexConst.MethodAndProto methodAndProto = (DexConst.MethodAndProto) dexConst;
+            addConst(methodAndProto.getMethodRef());
+            addConst(methodAndProto.getProto());
+        } else if (dexConst instanceof DexConst.MethodHandle) {
+            addConst(((DexConst.MethodHandle) dexConst).getMemberRef());
+        } else if (dexConst instanceof DexConst.CallSite) {
+            DexConst.CallSite callSite = (DexConst.CallSite) dexConst;
+            addConst(callSite.getMethodHandle());
+            addString(callSite.getMethodName());
+            addConst(callSite.getMethodType());
+            for (DexConst argument : callSite.getOrderedArguments()) {
+                addConst(argument);
+            }
+        }
+    }
+
     @Override
     public void visitBegin() {
         super.visitBegin();
@@ -133,45 +327,25 @@ public class DexIdsCollector extends DexClassVisitor {
     @Override
     public void visitSourceFile(DexString sourceFile) {
         super.visitSourceFile(sourceFile);
-
-        if (mFlags.containsOneOf(FLAG_COLLECT_STRING_IDS)) {
-            mStringIds.add(this.mCache.intern(sourceFile));
-        }
-
+        addString(sourceFile);
     }
 
     @Override
     public DexAnnotationVisitor visitAnnotation(DexAnnotationVisitorInfo annotationInfo) {
+        addType(annotationInfo.type);
         return new AnnotationCollector();
     }
 
     @Override
     public DexFieldVisitor visitField(DexFieldVisitorInfo fieldInfo) {
-
-        DexFieldIdNode fieldIdNode = new DexFieldIdNode(
-                fieldInfo.owner,
-                fieldInfo.name,
-                fieldInfo.type);
-
-        if (mFlags.containsOneOf(FLAG_COLLECT_FIELD_IDS)) {
-            this.mFieldIds.add(this.mCache.intern(fieldIdNode));
-        }
-
+        addFieldId(fieldInfo.owner, fieldInfo.name, fieldInfo.type);
         return new FieldCollector();
     }
 
     @Override
     public DexMethodVisitor visitMethod(DexMethodVisitorInfo methodInfo) {
-        DexMethodIdNode methodIdNode = new DexMethodIdNode(
-                methodInfo.owner,
-                methodInfo.name,
-                methodInfo.parameters,
+        addMethodId(methodInfo.owner, methodInfo.name, methodInfo.parameters,
                 methodInfo.returnType);
-
-        if (mFlags.containsOneOf(FLAG_COLLECT_METHOD_IDS)) {
-            this.mMethodIds.add(this.mCache.intern(methodIdNode));
-        }
-
         return new MethodCollector();
     }
 
@@ -198,12 +372,14 @@ public class DexIdsCollector extends DexClassVisitor {
 
         @Override
         public DexAnnotationVisitor visitAnnotation(DexAnnotationVisitorInfo annotationInfo) {
+            addType(annotationInfo.type);
             return new AnnotationCollector();
         }
 
         @Override
         public DexAnnotationVisitor visitParameterAnnotation(int parameter,
                                                           DexAnnotationVisitorInfo annotationInfo) {
+            addType(annotationInfo.type);
             return new AnnotationCollector();
         }
 
@@ -228,10 +404,16 @@ public class DexIdsCollector extends DexClassVisitor {
         @Override
         public void visitStaticValue(Object staticValue) {
             super.visitStaticValue(staticValue);
+            if (staticValue instanceof String) {
+                addString((String) staticValue);
+            } else if (staticValue instanceof DexString) {
+                addString((DexString) staticValue);
+            }
         }
 
         @Override
         public DexAnnotationVisitor visitAnnotation(DexAnnotationVisitorInfo annotation) {
+            addType(annotation.type);
             return new AnnotationCollector();
         }
 
@@ -262,7 +444,7 @@ public class DexIdsCollector extends DexClassVisitor {
         public void visitTryCatch(DexLabel start, DexLabel end, DexTypeList types,
                                   DexLabel[] handlers, DexLabel catchAllHandler) {
             super.visitTryCatch(start, end, types, handlers, catchAllHandler);
-
+            addTypes(types);
         }
 
         @Override
@@ -273,28 +455,7 @@ public class DexIdsCollector extends DexClassVisitor {
         @Override
         public void visitConstInsn(int op, DexRegisterList regs, DexConst dexConst) {
             super.visitConstInsn(op, regs, dexConst);
-            if (dexConst instanceof DexConst.ConstFieldRef) {
-                if (mFlags.containsOneOf(FLAG_COLLECT_FIELD_IDS)) {
-                    DexConst.ConstFieldRef fieldRef = (DexConst.ConstFieldRef)dexConst;
-                    mFieldIds.add(mCache.intern(new DexFieldIdNode(
-                            fieldRef.getOwner(),
-                            fieldRef.getName(),
-                            fieldRef.getType())));
-                }
-            } else if (dexConst instanceof DexConst.ConstMethodRef) {
-                if (mFlags.containsOneOf(FLAG_COLLECT_METHOD_IDS)) {
-                    DexConst.ConstMethodRef methodRef = (DexConst.ConstMethodRef)dexConst;
-                    mMethodIds.add(mCache.intern(new DexMethodIdNode(
-                            methodRef.getOwner(),
-                            methodRef.getName(),
-                            methodRef.getParameterTypes(),
-                            methodRef.getReturnType())));
-                }
-            } else if (dexConst instanceof DexConst.ConstString) {
-                DexConst.ConstString constString = (DexConst.ConstString)dexConst;
-                mStringIds.add(mCache.intern(new DexString(constString.value())));
-            }
-
+            addConst(dexConst);
         }
 
         @Override
@@ -315,12 +476,20 @@ public class DexIdsCollector extends DexClassVisitor {
         @Override
         public void visitParameters(DexString[] parameters) {
             super.visitParameters(parameters);
+            if (parameters != null) {
+                for (DexString parameter : parameters) {
+                    addString(parameter);
+                }
+            }
         }
 
         @Override
         public void visitLocal(int reg, DexString name, DexType type, DexString signature,
                                DexLabel start, DexLabel end) {
             super.visitLocal(reg, name, type, signature, start, end);
+            addString(name);
+            addType(type);
+            addString(signature);
         }
 
         @Override
@@ -344,56 +513,61 @@ public class DexIdsCollector extends DexClassVisitor {
         @Override
         public void visitPrimitive(DexString name, Object value) {
             super.visitPrimitive(name, value);
+            addString(name);
         }
 
         @Override
         public void visitString(DexString name, DexString value) {
             super.visitString(name, value);
+            addString(name);
+            addString(value);
         }
 
         @Override
         public void visitEnum(DexString name, DexType enumType, DexString enumName) {
             super.visitEnum(name, enumType, enumName);
-            DexFieldIdNode fieldIdNode = new DexFieldIdNode(
-                    enumType,
-                    enumName,
-                    enumType);
-            if (mFlags.containsOneOf(FLAG_COLLECT_FIELD_IDS)) {
-                mFieldIds.add(mCache.intern(fieldIdNode));
-            }
+            addString(name);
+            addFieldId(enumType, enumName, enumType);
         }
 
         @Override
         public DexAnnotationVisitor visitAnnotation(DexString name, DexType type) {
+            addString(name);
+            addType(type);
             return new AnnotationCollector();
         }
 
         @Override
         public DexAnnotationVisitor visitArray(DexString name) {
+            addString(name);
             return new AnnotationCollector();
         }
 
         @Override
         public void visitMethod(DexString name, DexConst.ConstMethodRef methodRef) {
             super.visitMethod(name, methodRef);
-            DexMethodIdNode methodIdNode = new DexMethodIdNode(
-                    methodRef.getOwner(),
-                    methodRef.getName(),
-                    methodRef.getParameterTypes(),
-                    methodRef.getReturnType());
-            if (mFlags.containsOneOf(FLAG_COLLECT_METHOD_IDS)) {
-                mMethodIds.add(mCache.intern(methodIdNode));
-            }
+            addString(name);
+            addConst(methodRef);
+        }
+
+        @Override
+        public void visitField(DexString name, DexConst.ConstFieldRef fieldRef) {
+            super.visitField(name, fieldRef);
+            addString(name);
+            addConst(fieldRef);
         }
 
         @Override
         public void visitType(DexString name, DexType type) {
             super.visitType(name, type);
+            addString(name);
+            addType(type);
         }
 
         @Override
         public void visitNull(DexString name) {
             super.visitNull(name);
+            addString(name);
         }
 
         @Override
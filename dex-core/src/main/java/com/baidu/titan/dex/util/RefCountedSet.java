@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) Baidu Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.baidu.titan.dex.util;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Set;
+
+/**
+ * 带引用计数的集合，同一元素可以被多次加入，全部释放之后才从集合中移除
+ *
+ * @author zhangdi07@baidu.com
+ * @since 2019/3/24
+ */
+public class RefCountedSet<T> {
+
+    private final HashMap<T, int[]> mCounts = new HashMap<>();
+
+    /**
+     * @return 元素是否是新加入的
+     */
+    public boolean acquire(T element) {
+        int[] count = mCounts.get(element);
+        if (count == null) {
+            mCounts.put(element, new int[] {1});
+            return true;
+        }
+        count[0]++;
+        return false;
+    }
+
+    /**
+     * @return 元素是否被移除
+     */
+    public boolean release(T element) {
+        int[] count = mCounts.get(element);
+        if (count == null) {
+            throw new IllegalStateException("release unknown element " + element);
+        }
+        if (--count[0] == 0) {
+            mCounts.remove(element);
+            return true;
+        }
+        return false;
+    }
+
+    public boolean contains(T element) {
+        return mCounts.containsKey(element);
+    }
+
+    public int getRefCount(T element) {
+        int[] count = mCounts.get(element);
+        return count == null ? 0 : count[0];
+    }
+
+    public int size() {
+        return mCounts.size();
+    }
+
+    public void clear() {
+        mCounts.clear();
+    }
+
+    /**
+     * @return 只读视图
+     */
+    public Set<T> asSet() {
+        return Collections.unmodifiableSet(mCounts.keySet());
+    }
+
+}
@@ -20,6 +20,18 @@ package com.baidu.titan.dex.visitor;
 import com.baidu.titan.dex.node.DexClassNode;
 
 /**
+ * 类池访问者。
+ *
+ * 通过{@link com.baidu.titan.dex.node.DexClassPoolNode#accept(DexClassPoolNodeVisitor,
+ * java.util.concurrent.ForkJoinPool)}并行访问时遵循以下约定：
+ * <ul>
+ *     <li>{@link #supportsParallelVisit()}返回false的访问者按顺序访问</li>
+ *     <li>每个并行任务通过{@link #fork()}获取一个访问者，对其调用{@link #visitClass(DexClassNode)}，
+ *     不同任务的访问者可能同时被调用，但每个类只会被访问一次，访问者只应修改当前访问的类</li>
+ *     <li>所有类访问完成后，在调用线程上按任务顺序对原访问者调用{@link #merge(DexClassPoolNodeVisitor)}，
+ *     最后调用{@link #classPoolVisitEnd()}</li>
+ * </ul>
+ *
  * @author zhangdi07
  * @since 2017/9/13
  */
@@ -30,4 +42,25 @@ public interface DexClassPoolNodeVisitor {
 
     void classPoolVisitEnd();
 
+    /**
+     * @return 是否允许并行访问
+     */
+    default boolean supportsParallelVisit() {
+        return false;
+    }
+
+    /**
+     * 为一个并行任务创建访问者，无状态的访问者直接返回自身，需要累积结果的访问者返回一个新的实例
+     */
+    default DexClassPoolNodeVisitor fork() {
+        return this;
+    }
+
+    /**
+     * 合并{@link #fork()}创建的访问者所累积的结果，fork返回自身时不会被调用
+     */
+    default void merge(DexClassPoolNodeVisitor forked) {
+
+    }
+
 }
@@ -19,8 +19,6 @@ package com.baidu.titan.dex.extensions;
 import com.baidu.titan.dex.DexType;
 import com.baidu.titan.dex.node.DexClassNode;
 import com.baidu.titan.dex.node.DexClassPoolNode;
-import com.baidu.titan.dex.node.DexFileNode;
-import com.baidu.titan.dex.util.DexIdsCollector;
 
 import java.util.Comparator;
 import java.util.List;
@@ -46,8 +44,6 @@ public class BestEffortMultiDexSplitter extends MultiDexSplitter {
 
     private boolean mMinimalMainDex = false;
 
-    private DexIdsCollector.Cache mDexIdsCache = new DexIdsCollector.Cache();
-
     public BestEffortMultiDexSplitter(DexClassPoolNode classPool,
                                       Set<DexType> mainDexTypeList,
                                       boolean minimalMainDex) {
@@ -66,13 +62,12 @@ public class BestEffortMultiDexSplitter extends MultiDexSplitter {
         AtomicInteger result = new AtomicInteger(SPLIT_SUCCESS);
 
         if (this.mMainDexTypeList != null && this.mMainDexTypeList.size() > 0) {
-            DexFileNode mainDexFile = getDexFile(1);
             classPoolNode.stream()
                     .filter(dcn -> this.mMainDexTypeList.contains(dcn.type))
                     .forEach(dcn -> {
                         if (result.get() == SPLIT_SUCCESS) {
-                            boolean success = mainDexFile.addClass(dcn);
-                            result.set(success ? SPLIT_SUCCESS : SPLIT_ERROR_TOO_MANY_MEMBER_IDS);
+                            boolean success = tryAddClass(1, dcn);
+                            result.set(success ? SPLIT_SUCCESS : getOverflowError());
                         }
                     });
 
@@ -92,24 +87,18 @@ public class BestEffortMultiDexSplitter extends MultiDexSplitter {
                 .collect(Collectors.toList());
 
         int nextDexId = mMinimalMainDex ? 2 : 1;
-        DexFileNode nextDexFileNode = getDexFile(nextDexId);
+        getDexFile(nextDexId);
 
         for (DexClassNode dcn : nonMainClasses) {
-            if (!nextDexFileNode.addClass(dcn)) {
-                nextDexFileNode = getDexFile(++nextDexId);
+            if (!tryAddClass(nextDexId, dcn)) {
+                ++nextDexId;
                 // huge class!!!
-                if (!nextDexFileNode.addClass(dcn)) {
-                    return SPLIT_ERROR_TOO_MANY_MEMBER_IDS;
+                if (!tryAddClass(nextDexId, dcn)) {
+                    return getOverflowError();
                 }
             }
         }
         return SPLIT_SUCCESS;
     }
 
-    @Override
-    protected DexFileNode createDexFileNode() {
-        DexFileNode dexFileNode = new DexFileNode(true, mDexIdsCache);
-        return dexFileNode;
-    }
-
 }
@@ -0,0 +1,362 @@
+/*
+ * Copyright (C) Baidu Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.baidu.titan.dex.extensions;
+
+import com.baidu.titan.dex.DexType;
+import com.baidu.titan.dex.node.DexClassNode;
+import com.baidu.titan.dex.node.DexClassPoolNode;
+import com.baidu.titan.dex.node.DexFileNode;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * 以最少Dex数量为目标的分包器。<br>
+ *
+ * 先按类在各项ID限制中占比最大的那一项从大到小排序，依次放入新增ID代价最小的已有Dex，
+ * 共享引用越多代价越小，都放不下时才新开一个Dex。之后可以在时间预算内做局部搜索：
+ * 对排序加入随机扰动后重新装箱，并尝试把最空的Dex中的类分散到其它Dex中从而去掉一个Dex，
+ * 保留Dex数量最少的结果。随机数种子固定，但搜索的轮数取决于机器速度，
+ * 需要稳定输出时不要开启局部搜索。<br>
+ *
+ * mainDexList与minimalMainDex的含义与{@link BestEffortMultiDexSplitter}相同
+ *
+ * @author zhangdi07@baidu.com
+ * @since 2019/3/29
+ */
+public class BinPackingMultiDexSplitter extends MultiDexSplitter {
+
+    private Set<DexType> mMainDexTypeList;
+
+    private boolean mMinimalMainDex;
+
+    private long mLocalSearchNanos;
+
+    /** 局部搜索时排序权重的最大扰动比例 */
+    private static final double PERTURBATION = 0.5;
+
+    private static final long RANDOM_SEED = 0x7469746eL;
+
+    public BinPackingMultiDexSplitter(DexClassPoolNode classPool,
+                                      Set<DexType> mainDexTypeList,
+                                      boolean minimalMainDex) {
+        super(classPool);
+        if ((mainDexTypeList == null || mainDexTypeList.isEmpty()) && minimalMainDex) {
+            throw new IllegalArgumentException("minimalMainDex requires a main dex list");
+        }
+        this.mMainDexTypeList = mainDexTypeList;
+        this.mMinimalMainDex = minimalMainDex;
+    }
+
+    /**
+     * 设置局部搜索阶段的时间预算，默认为0，即不做局部搜索
+     */
+    public void setLocalSearchTimeBudget(long millis) {
+        this.mLocalSearchNanos = millis * 1000000L;
+    }
+
+    /**
+     * 分包过程中的一个Dex
+     */
+    private static final class Bin {
+
+        DexCapacity capacity;
+
+        final List<DexClassNode> classes = new ArrayList<>();
+
+        /** 放有mainDexList中的类，不能被清空 */
+        boolean pinned;
+
+        Bin(DexCapacity capacity) {
+            this.capacity = capacity;
+        }
+
+        Bin copy() {
+            Bin copy = new Bin(capacity.copy());
+            copy.classes.addAll(classes);
+            copy.pinned = pinned;
+            return copy;
+        }
+
+    }
+
+    @Override
+    protected int doSplit() {
+        DexRefIndex index = getRefIndex();
+        List<Bin> mainBins = new ArrayList<>();
+
+        if (this.mMainDexTypeList != null && this.mMainDexTypeList.size() > 0) {
+            Bin mainBin = new Bin(createDexCapacity());
+            mainBin.pinned = true;
+            mainBins.add(mainBin);
+            List<DexClassNode> mainClasses = getClassPool().stream()
+                    .filter(dcn -> this.mMainDexTypeList.contains(dcn.type))
+                    .collect(Collectors.toList());
+            for (DexClassNode dcn : mainClasses) {
+                int kind = mainBin.capacity.checkFits(dcn.type);
+                if (kind >= 0) {
+                    recordOverflow(1, mainBin.capacity, dcn, kind);
+                    return getOverflowError();
+                }
+                mainBin.capacity.add(dcn.type);
+                mainBin.classes.add(dcn);
+            }
+        }
+        // 只有mainDexList中的类可以放入主Dex
+        int firstOpenBin = mMinimalMainDex ? mainBins.size() : 0;
+
+        DexCapacity empty = createDexCapacity();
+        Map<DexClassNode, Double> weights = new IdentityHashMap<>();
+        List<DexClassNode> classes = getClassPool().stream()
+                .filter(dcn -> this.mMainDexTypeList == null
+                        || !this.mMainDexTypeList.contains(dcn.type))
+                .collect(Collectors.toList());
+        for (DexClassNode dcn : classes) {
+            weights.put(dcn, weightOf(empty, index, dcn.type));
+        }
+        classes.sort(Comparator.<DexClassNode>comparingDouble(weights::get).reversed()
+                .thenComparing(dcn -> dcn.type));
+
+        List<Bin> bins = pack(mainBins, firstOpenBin, classes);
+        if (bins == null) {
+            return getOverflowError();
+        }
+        if (mLocalSearchNanos > 0) {
+            bins = improve(mainBins, firstOpenBin, classes, weights, bins,
+                    System.nanoTime() + mLocalSearchNanos);
+        }
+
+        // 没有任何类时也保证有一个Dex
+        getDexFile(mMinimalMainDex ? 2 : 1);
+        for (int i = 0; i < bins.size(); i++) {
+            DexFileNode dexFileNode = getDexFile(i + 1);
+            setDexCapacity(i + 1, bins.get(i).capacity);
+            for (DexClassNode dcn : bins.get(i).classes) {
+                addClassToDexFile(dexFileNode, dcn);
+            }
+        }
+        return SPLIT_SUCCESS;
+    }
+
+    /**
+     * 按给定顺序依次把类放入代价最小的Dex
+     *
+     * @param prefix 已经放好的主Dex，不会被修改
+     * @return 装箱结果，有类放不进空Dex时返回null
+     */
+    private List<Bin> pack(List<Bin> prefix, int firstOpenBin, List<DexClassNode> classes) {
+        List<Bin> bins = new ArrayList<>();
+        for (Bin bin : prefix) {
+            bins.add(bin.copy());
+        }
+        for (DexClassNode dcn : classes) {
+            Bin target = findCheapestBin(bins, firstOpenBin, dcn.type, null);
+            if (target == null) {
+                target = new Bin(createDexCapacity());
+                int kind = target.capacity.checkFits(dcn.type);
+                if (kind >= 0) {
+                    recordOverflow(bins.size() + 1, target.capacity, dcn, kind);
+                    return null;
+                }
+                bins.add(target);
+            }
+            target.capacity.add(dcn.type);
+            target.classes.add(dcn);
+        }
+        return bins;
+    }
+
+    /**
+     * @return 类在空Dex中占用最多的那一项ID占限制的比例
+     */
+    private static double weightOf(DexCapacity empty, DexRefIndex index, DexType type) {
+        double weight = 0;
+        for (int kind = 0; kind < DexRefIndex.KIND_COUNT; kind++) {
+            int limit = empty.getLimit(kind);
+            if (limit != DexCapacity.NO_LIMIT) {
+                weight = Math.max(weight, (double) index.getRefs(type, kind).length / limit);
+            }
+        }
+        return weight;
+    }
+
+    /**
+     * @return 加入该类新增的ID占剩余容量的比例之和，共享的引用越多越小
+     */
+    private static double costOf(DexCapacity capacity, DexType type) {
+        double cost = 0;
+        for (int kind = 0; kind < DexRefIndex.KIND_COUNT; kind++) {
+            int limit = capacity.getLimit(kind);
+            if (limit != DexCapacity.NO_LIMIT) {
+                cost += (double) capacity.countNewIds(type, kind) / limit;
+            }
+        }
+        return cost;
+    }
+
+    /**
+     * @return Dex中占用最多的那一项ID占限制的比例
+     */
+    private static double loadOf(DexCapacity capacity) {
+        double load = 0;
+        for (int kind = 0; kind < DexRefIndex.KIND_COUNT; kind++) {
+            int limit = capacity.getLimit(kind);
+            if (limit != DexCapacity.NO_LIMIT) {
+                load = Math.max(load, (double) capacity.getIdCount(kind) / limit);
+            }
+        }
+        return load;
+    }
+
+    /**
+     * @param capacities 不为null时使用其中的容量代替Bin自身的容量
+     * @return 能放下该类且代价最小的Bin，代价相同时取靠前的，都放不下时返回null
+     */
+    private static Bin findCheapestBin(List<Bin> bins, int firstOpenBin, DexType type,
+                                       Map<Bin, DexCapacity> capacities) {
+        Bin target = null;
+        double minCost = 0;
+        for (int i = firstOpenBin; i < bins.size(); i++) {
+            Bin bin = bins.get(i);
+            DexCapacity capacity = capacities != null ? capacities.get(bin) : bin.capacity;
+            if (capacity == null || capacity.checkFits(type) >= 0) {
+                continue;
+            }
+            double cost = costOf(capacity, type);
+            if (target == null || cost < minCost) {
+                target = bin;
+                minCost = cost;
+            }
+        }
+        return target;
+    }
+
+    /**
+     * 局部搜索：每一轮对排序权重加入随机扰动后重新装箱，再尝试去掉多余的Dex，
+     * 直到达到Dex数量的下界或者超出时间预算
+     *
+     * @return Dex数量最少的装箱结果
+     */
+    private List<Bin> improve(List<Bin> prefix, int firstOpenBin, List<DexClassNode> classes,
+                              Map<DexClassNode, Double> weights, List<Bin> best,
+                              long deadline) {
+        eliminate(best, firstOpenBin, weights, deadline);
+        int minBinCount = firstOpenBin + lowerBound(best.subList(firstOpenBin, best.size()));
+        Random random = new Random(RANDOM_SEED);
+        Map<DexClassNode, Double> keys = new IdentityHashMap<>();
+        List<DexClassNode> order = new ArrayList<>(classes);
+        while (System.nanoTime() < deadline && best.size() > minBinCount) {
+            for (DexClassNode dcn : classes) {
+                keys.put(dcn, weights.get(dcn) * (1 + PERTURBATION * random.nextDouble()));
+            }
+            order.sort(Comparator.<DexClassNode>comparingDouble(keys::get).reversed());
+            List<Bin> trial = pack(prefix, firstOpenBin, order);
+            eliminate(trial, firstOpenBin, weights, deadline);
+            if (trial.size() < best.size()) {
+                best = trial;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return 放下这些Dex中所有类至少需要的Dex数量，即各项不同ID总数除以限制的最大值
+     */
+    private int lowerBound(List<Bin> bins) {
+        DexCapacity union = createDexCapacity();
+        for (Bin bin : bins) {
+            for (DexClassNode dcn : bin.classes) {
+                union.add(dcn.type);
+            }
+        }
+        int bound = 1;
+        for (int kind = 0; kind < DexRefIndex.KIND_COUNT; kind++) {
+            int limit = union.getLimit(kind);
+            if (limit != DexCapacity.NO_LIMIT) {
+                bound = Math.max(bound, (union.getIdCount(kind) + limit - 1) / limit);
+            }
+        }
+        return bound;
+    }
+
+    /**
+     * 从最空的Dex开始，尝试把其中的类全部分散到其它Dex，成功则去掉该Dex并重新开始，
+     * 直到没有可去掉的Dex或者超出时间预算
+     */
+    private static void eliminate(List<Bin> bins, int firstOpenBin,
+                                  Map<DexClassNode, Double> weights, long deadline) {
+        boolean improved = true;
+        while (improved && System.nanoTime() < deadline) {
+            improved = false;
+            List<Bin> candidates = bins.subList(firstOpenBin, bins.size()).stream()
+                    .filter(bin -> !bin.pinned)
+                    .sorted(Comparator.comparingDouble(bin -> loadOf(bin.capacity)))
+                    .collect(Collectors.toList());
+            for (Bin victim : candidates) {
+                if (System.nanoTime() >= deadline) {
+                    return;
+                }
+                if (tryEliminate(bins, firstOpenBin, victim, weights, deadline)) {
+                    improved = true;
+                    break;
+                }
+            }
+        }
+    }
+
+    private static boolean tryEliminate(List<Bin> bins, int firstOpenBin, Bin victim,
+                                        Map<DexClassNode, Double> weights, long deadline) {
+        Map<Bin, DexCapacity> capacities = new HashMap<>();
+        for (int i = firstOpenBin; i < bins.size(); i++) {
+            Bin bin = bins.get(i);
+            if (bin != victim) {
+                capacities.put(bin, bin.capacity.copy());
+            }
+        }
+        List<DexClassNode> moving = new ArrayList<>(victim.classes);
+        moving.sort(Comparator.<DexClassNode>comparingDouble(weights::get).reversed()
+                .thenComparing(dcn -> dcn.type));
+        Map<DexClassNode, Bin> moves = new IdentityHashMap<>();
+        for (DexClassNode dcn : moving) {
+            if (System.nanoTime() >= deadline) {
+                return false;
+            }
+            Bin target = findCheapestBin(bins, firstOpenBin, dcn.type, capacities);
+            if (target == null) {
+                return false;
+            }
+            capacities.get(target).add(dcn.type);
+            moves.put(dcn, target);
+        }
+        for (DexClassNode dcn : moving) {
+            moves.get(dcn).classes.add(dcn);
+        }
+        for (Map.Entry<Bin, DexCapacity> entry : capacities.entrySet()) {
+            entry.getKey().capacity = entry.getValue();
+        }
+        bins.remove(victim);
+        return true;
+    }
+
+}
@@ -0,0 +1,387 @@
+/*
+ * Copyright (C) Baidu Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.baidu.titan.dex.extensions;
+
+import com.baidu.titan.dex.DexType;
+import com.baidu.titan.dex.node.DexClassNode;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 类继承关系索引，为每个类型分配稠密ID。<br>
+ *
+ * 父类关系使用display编码：每个类型记录从根类到自身的父类链，
+ * 判断A是否为B的父类只需比较B的链上与A同深度的元素，为常数时间。
+ * 接口单独编号，每个类型用位集合记录其实现的全部接口，包括父类以及父接口带来的接口，
+ * 没有直接实现接口的类与父类共享同一个位集合。<br>
+ *
+ * 被引用但不在类池中的类型同样分配ID，视为没有父类和接口的根类型。
+ * 加入或删除类时只重新计算其子类型，加入叶子类的开销与继承深度成正比。
+ * 查询可以并发进行，修改需要外部同步。
+ *
+ * @author zhangdi07@baidu.com
+ * @since 2019/3/31
+ */
+public final class ClassHierarchyIndex {
+
+    private static final BitSet NO_INTERFACES = new BitSet(0);
+
+    private static final Node[] NO_NODES = new Node[0];
+
+    private final List<Node> mNodes = new ArrayList<>();
+
+    private final List<Node> mInterfaces = new ArrayList<>();
+
+    private final Map<DexType, Node> mNodesByType = new HashMap<>();
+
+    private static final class Node {
+
+        final int id;
+
+        final DexType type;
+
+        /** 不在类池中时为null */
+        DexClassNode dcn;
+
+        Node superNode;
+
+        Node[] interfaces = NO_NODES;
+
+        /** 接口编号，不是接口时为-1 */
+        int interfaceId = -1;
+
+        /** 直接子类 */
+        final Set<Node> subClasses = new LinkedHashSet<>();
+
+        /** 直接实现该接口的类，以及直接继承该接口的接口 */
+        final Set<Node> implementors = new LinkedHashSet<>();
+
+        /** 从根类到自身的ID，为null时需要重新计算 */
+        int[] display;
+
+        BitSet interfaceBits;
+
+        boolean computing;
+
+        Node(int id, DexType type) {
+            this.id = id;
+            this.type = type;
+        }
+
+    }
+
+    public ClassHierarchyIndex() {
+    }
+
+    public static ClassHierarchyIndex build(Iterable<DexClassNode> classes) {
+        ClassHierarchyIndex index = new ClassHierarchyIndex();
+        List<Node> present = new ArrayList<>();
+        for (DexClassNode dcn : classes) {
+            Node node = index.nodeOf(dcn.type);
+            if (node.dcn == null) {
+                present.add(node);
+            }
+            node.dcn = dcn;
+        }
+        for (Node node : present) {
+            index.link(node);
+        }
+        for (int i = 0; i < index.mNodes.size(); i++) {
+            index.compute(index.mNodes.get(i));
+        }
+        return index;
+    }
+
+    private Node nodeOf(DexType type) {
+        Node node = mNodesByType.get(type);
+        if (node == null) {
+            node = new Node(mNodes.size(), type);
+            mNodes.add(node);
+            mNodesByType.put(type, node);
+        }
+        return node;
+    }
+
+    private void markInterface(Node node) {
+        if (node.interfaceId < 0) {
+            node.interfaceId = mInterfaces.size();
+            mInterfaces.add(node);
+        }
+    }
+
+    private void link(Node node) {
+        DexClassNode dcn = node.dcn;
+        if (dcn.isInterface()) {
+            markInterface(node);
+        }
+        if (dcn.superType != null) {
+            node.superNode = nodeOf(dcn.superType);
+            node.superNode.subClasses.add(node);
+        }
+        if (dcn.interfaces != null && dcn.interfaces.count() > 0) {
+            node.interfaces = new Node[dcn.interfaces.count()];
+            for (int i = 0; i < node.interfaces.length; i++) {
+                Node itf = nodeOf(dcn.interfaces.getType(i));
+                markInterface(itf);
+                itf.implementors.add(node);
+                node.interfaces[i] = itf;
+            }
+        }
+    }
+
+    private void unlink(Node node) {
+        if (node.superNode != null) {
+            node.superNode.subClasses.remove(node);
+            node.superNode = null;
+        }
+        for (Node itf : node.interfaces) {
+            itf.implementors.remove(node);
+        }
+        node.interfaces = NO_NODES;
+    }
+
+    private void compute(Node node) {
+        if (node.display != null || node.computing) {
+            // 已经计算过，或者是非法的循环继承
+            return;
+        }
+        node.computing = true;
+        Node superNode = node.superNode;
+        if (superNode != null) {
+            compute(superNode);
+        }
+        if (superNode != null && superNode.display != null) {
+            node.display = new int[superNode.display.length + 1];
+            System.arraycopy(superNode.display, 0, node.display, 0, superNode.display.length);
+            node.display[superNode.display.length] = node.id;
+        } else {
+            node.display = new int[] {node.id};
+        }
+
+        BitSet base = superNode != null && superNode.interfaceBits != null ?
+                superNode.interfaceBits : NO_INTERFACES;
+        if (node.interfaces.length == 0) {
+            node.interfaceBits = base;
+        } else {
+            BitSet bits = (BitSet) base.clone();
+            for (Node itf : node.interfaces) {
+                compute(itf);
+                bits.set(itf.interfaceId);
+                if (itf.interfaceBits != null) {
+                    bits.or(itf.interfaceBits);
+                }
+            }
+            node.interfaceBits = bits;
+        }
+        node.computing = false;
+    }
+
+    /**
+     * 重新计算该类型及其所有子类型
+     */
+    private void recompute(Node node) {
+        List<Node> affected = new ArrayList<>();
+        affected.add(node);
+        collectSubtypes(node, affected);
+        for (Node n : affected) {
+            n.display = null;
+            n.interfaceBits = null;
+        }
+        for (Node n : affected) {
+            compute(n);
+        }
+    }
+
+    private void collectSubtypes(Node node, List<Node> result) {
+        BitSet visited = new BitSet(mNodes.size());
+        visited.set(node.id);
+        Deque<Node> queue = new ArrayDeque<>();
+        queue.add(node);
+        while (!queue.isEmpty()) {
+            Node cur = queue.poll();
+            for (Node sub : cur.subClasses) {
+                if (!visited.get(sub.id)) {
+                    visited.set(sub.id);
+                    result.add(sub);
+                    queue.add(sub);
+                }
+            }
+            for (Node sub : cur.implementors) {
+                if (!visited.get(sub.id)) {
+                    visited.set(sub.id);
+                    result.add(sub);
+                    queue.add(sub);
+                }
+            }
+        }
+    }
+
+    /**
+     * 加入或替换一个类，之后重新计算其所有子类型
+     */
+    public void addClass(DexClassNode dcn) {
+        Node node = nodeOf(dcn.type);
+        if (node.dcn != null) {
+            unlink(node);
+        }
+        node.dcn = dcn;
+        link(node);
+        recompute(node);
+    }
+
+    /**
+     * 删除一个类，其ID保留，仍被引用时视为不在类池中的根类型
+     *
+     * @return 类是否存在
+     */
+    public boolean removeClass(DexType type) {
+        Node node = mNodesByType.get(type);
+        if (node == null || node.dcn == null) {
+            return false;
+        }
+        unlink(node);
+        node.dcn = null;
+        recompute(node);
+        return true;
+    }
+
+    /**
+     * @return 类池中是否有该类
+     */
+    public boolean contains(DexType type) {
+        Node node = mNodesByType.get(type);
+        return node != null && node.dcn != null;
+    }
+
+    /**
+     * @return 稠密ID，没有被引用过的类型返回-1
+     */
+    public int getId(DexType type) {
+        Node node = mNodesByType.get(type);
+        return node != null ? node.id : -1;
+    }
+
+    public int getIdCount() {
+        return mNodes.size();
+    }
+
+    public DexType getType(int id) {
+        return mNodes.get(id).type;
+    }
+
+    /**
+     * @return 不在类池中时返回null
+     */
+    public DexClassNode getClassNode(int id) {
+        return mNodes.get(id).dcn;
+    }
+
+    /**
+     * @return testType是否为superType本身或其子类，不考虑接口
+     */
+    public boolean isSubClass(DexType superType, DexType testType) {
+        if (superType.equals(testType)) {
+            return true;
+        }
+        Node superNode = mNodesByType.get(superType);
+        Node testNode = mNodesByType.get(testType);
+        if (superNode == null || testNode == null) {
+            return false;
+        }
+        int depth = superNode.display.length - 1;
+        return testNode.display.length > depth && testNode.display[depth] == superNode.id;
+    }
+
+    /**
+     * @return type是否实现了itf，包括父类实现的接口以及父接口
+     */
+    public boolean implementsInterface(DexType itf, DexType type) {
+        Node itfNode = mNodesByType.get(itf);
+        Node node = mNodesByType.get(type);
+        return itfNode != null && node != null && itfNode.interfaceId >= 0
+                && node.interfaceBits.get(itfNode.interfaceId);
+    }
+
+    /**
+     * @return testSubType的实例能否赋值给testSuperType，不处理数组类型
+     */
+    public boolean isAssignableFrom(DexType testSuperType, DexType testSubType) {
+        return isSubClass(testSuperType, testSubType)
+                || implementsInterface(testSuperType, testSubType);
+    }
+
+    /**
+     * @return 实现的全部接口
+     */
+    public Set<DexType> getInterfaces(DexType type) {
+        Node node = mNodesByType.get(type);
+        if (node == null) {
+            return Collections.emptySet();
+        }
+        Set<DexType> interfaces = new LinkedHashSet<>();
+        BitSet bits = node.interfaceBits;
+        for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+            interfaces.add(mInterfaces.get(i).type);
+        }
+        return interfaces;
+    }
+
+    /**
+     * @return 直接子类，接口时为直接实现它的类以及直接继承它的接口
+     */
+    public List<DexType> getDirectSubtypes(DexType type) {
+        Node node = mNodesByType.get(type);
+        if (node == null) {
+            return Collections.emptyList();
+        }
+        List<DexType> result = new ArrayList<>();
+        for (Node sub : node.subClasses) {
+            result.add(sub.type);
+        }
+        for (Node sub : node.implementors) {
+            result.add(sub.type);
+        }
+        return result;
+    }
+
+    /**
+     * @return 全部子类型，按广度优先顺序，不包括自身
+     */
+    public List<DexType> getAllSubtypes(DexType type) {
+        Node node = mNodesByType.get(type);
+        if (node == null) {
+            return Collections.emptyList();
+        }
+        List<Node> subtypes = new ArrayList<>();
+        collectSubtypes(node, subtypes);
+        List<DexType> result = new ArrayList<>(subtypes.size());
+        for (Node sub : subtypes) {
+            result.add(sub.type);
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) Baidu Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.baidu.titan.dex.extensions;
+
+import com.baidu.titan.dex.DexType;
+
+/**
+ * 单个Dex的容量模型：以位集合记录已占用的稠密ID，判断加入一个类是否超出ID数量限制
+ *
+ * @author zhangdi07@baidu.com
+ * @since 2019/3/28
+ */
+public final class DexCapacity {
+
+    /** MethodID、FieldID使用16位索引 */
+    public static final int MEMBER_ID_LIMIT = 0x10000;
+
+    /** TypeID、ProtoID同样使用16位索引 */
+    public static final int TYPE_ID_LIMIT = 0x10000;
+
+    public static final int PROTO_ID_LIMIT = 0x10000;
+
+    /** StringID默认不限制，超出0x10000后需要const-string/jumbo */
+    public static final int NO_LIMIT = Integer.MAX_VALUE;
+
+    private final DexRefIndex mIndex;
+
+    private final DexIdsBitSet[] mUsed = new DexIdsBitSet[DexRefIndex.KIND_COUNT];
+
+    private final int[] mLimits;
+
+    public DexCapacity(DexRefIndex index) {
+        this.mIndex = index;
+        for (int kind = 0; kind < DexRefIndex.KIND_COUNT; kind++) {
+            mUsed[kind] = new DexIdsBitSet(index.getIdCount(kind));
+        }
+        mLimits = new int[DexRefIndex.KIND_COUNT];
+        mLimits[DexRefIndex.KIND_METHOD] = MEMBER_ID_LIMIT;
+        mLimits[DexRefIndex.KIND_FIELD] = MEMBER_ID_LIMIT;
+        mLimits[DexRefIndex.KIND_TYPE] = TYPE_ID_LIMIT;
+        mLimits[DexRefIndex.KIND_PROTO] = PROTO_ID_LIMIT;
+        mLimits[DexRefIndex.KIND_STRING] = NO_LIMIT;
+    }
+
+    private DexCapacity(DexRefIndex index, int[] limits) {
+        this.mIndex = index;
+        this.mLimits = limits;
+    }
+
+    /**
+     * @return 独立的副本，用于试探性地加入一批类
+     */
+    public DexCapacity copy() {
+        DexCapacity copy = new DexCapacity(mIndex, mLimits.clone());
+        for (int kind = 0; kind < DexRefIndex.KIND_COUNT; kind++) {
+            copy.mUsed[kind] = mUsed[kind].copy();
+        }
+        return copy;
+    }
+
+    /**
+     * @param kind DexRefIndex.KIND_*
+     */
+    public int getIdCount(int kind) {
+        return mUsed[kind].cardinality();
+    }
+
+    public int getLimit(int kind) {
+        return mLimits[kind];
+    }
+
+    /**
+     * 修改指定KIND的限制，例如设置StringID的预算以避免jumbo字符串
+     */
+    public void setLimit(int kind, int limit) {
+        mLimits[kind] = limit;
+    }
+
+    /**
+     * @return 加入该类会新增的ID个数
+     */
+    public int countNewIds(DexType type, int kind) {
+        return mUsed[kind].countNew(mIndex.getRefs(type, kind));
+    }
+
+    /**
+     * @return 加入该类后超出限制的第一个KIND，能够加入时返回-1
+     */
+    public int checkFits(DexType type) {
+        for (int kind = 0; kind < DexRefIndex.KIND_COUNT; kind++) {
+            if (mUsed[kind].cardinality() + countNewIds(type, kind) > mLimits[kind]) {
+                return kind;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 与{@link #checkFits(DexType)}相同，用于一组类合并后的引用
+     *
+     * @param refs 按KIND索引的升序稠密ID
+     */
+    public int checkFits(int[][] refs) {
+        for (int kind = 0; kind < DexRefIndex.KIND_COUNT; kind++) {
+            if (mUsed[kind].cardinality() + mUsed[kind].countNew(refs[kind]) > mLimits[kind]) {
+                return kind;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 不检查限制，直接加入
+     */
+    public void add(DexType type) {
+        for (int kind = 0; kind < DexRefIndex.KIND_COUNT; kind++) {
+            mUsed[kind].addAll(mIndex.getRefs(type, kind));
+        }
+    }
+
+    /**
+     * @param refs 按KIND索引的升序稠密ID
+     */
+    public void add(int[][] refs) {
+        for (int kind = 0; kind < DexRefIndex.KIND_COUNT; kind++) {
+            mUsed[kind].addAll(refs[kind]);
+        }
+    }
+
+    /**
+     * @return 已占用的ID，不应被修改
+     */
+    DexIdsBitSet getUsedIds(int kind) {
+        return mUsed[kind];
+    }
+
+    /**
+     * @return 是否加入成功，超出限制时保持原状
+     */
+    public boolean tryAdd(DexType type) {
+        if (checkFits(type) >= 0) {
+            return false;
+        }
+        add(type);
+        return true;
+    }
+
+}
@@ -69,4 +69,12 @@ public class DexClassKindMarker implements DexClassPoolNodeVisitor {
 
     }
 
+    /**
+     * 只修改当前访问的类，可以并行访问
+     */
+    @Override
+    public boolean supportsParallelVisit() {
+        return true;
+    }
+
 }
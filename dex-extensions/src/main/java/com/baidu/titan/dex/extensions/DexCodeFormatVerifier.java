@@ -28,6 +28,9 @@ import com.baidu.titan.dex.Dops;
 import com.baidu.titan.dex.visitor.DexCodeVisitor;
 import com.baidu.titan.dex.visitor.DexLabel;
 
+import java.util.HashSet;
+import java.util.Set;
+
 /**
  *
  * 检查DexCode格式，工作量比较大，后继不断扩充检查case
@@ -37,8 +40,29 @@ import com.baidu.titan.dex.visitor.DexLabel;
  */
 public class DexCodeFormatVerifier extends DexCodeVisitor {
 
+    /** 寄存器数量未设置，或者指令使用的寄存器超出声明的数量 */
+    public static final int ERROR_REGISTER_COUNT = 1;
+
+    /** 指令的类别与访问方法不符 */
+    public static final int ERROR_OPCODE_FORMAT = 2;
+
+    /** invoke指令的寄存器与方法原型不符 */
+    public static final int ERROR_INVOKE_OPERANDS = 3;
+
+    public static final int ERROR_NULL_REGISTER = 4;
+
+    /** Label为空、重复放置，或者被引用但没有放置 */
+    public static final int ERROR_LABEL = 5;
+
+    /** 访问过程中抛出异常，例如未知的寄存器类型 */
+    public static final int ERROR_MALFORMED_CODE = 6;
+
     private VerifyCallback mVerifyCallback;
 
+    private final Set<DexLabel> mPlacedLabels = new HashSet<>();
+
+    private final Set<DexLabel> mReferencedLabels = new HashSet<>();
+
     private boolean mRegisterVisited = false;
 
     private int mMaxParameterRegIndex = -1;
@@ -68,6 +92,32 @@ public class DexCodeFormatVerifier extends DexCodeVisitor {
 
         void onError(String msg);
 
+        /**
+         * @param kind ERROR_*
+         */
+        default void onError(int kind, String msg) {
+            onError(msg);
+        }
+
+    }
+
+    public static String errorKindName(int kind) {
+        switch (kind) {
+            case ERROR_REGISTER_COUNT:
+                return "register-count";
+            case ERROR_OPCODE_FORMAT:
+                return "opcode-format";
+            case ERROR_INVOKE_OPERANDS:
+                return "invoke-operands";
+            case ERROR_NULL_REGISTER:
+                return "null-register";
+            case ERROR_LABEL:
+                return "label";
+            case ERROR_MALFORMED_CODE:
+                return "malformed-code";
+            default:
+                return "unknown";
+        }
     }
 
     public static class DefaultVerifyCallback implements VerifyCallback {
@@ -123,35 +173,65 @@ public class DexCodeFormatVerifier extends DexCodeVisitor {
 
     private void verifyRegsCount() {
         if (mMaxUnspecifiedRegIndex + 1 > mLocalRegCount + mParaRegCount) {
-            mVerifyCallback.onError(
+            mVerifyCallback.onError(ERROR_REGISTER_COUNT,
                     String.format("recode max unspecified reg index is %d, "
                                     + "but localReg count %d and paraReg count %d",
                             mMaxUnspecifiedRegIndex, mLocalRegCount, mParaRegCount));
         }
 
         if (mMaxLocalRegIndex + 1 > mLocalRegCount) {
-            mVerifyCallback.onError(
+            mVerifyCallback.onError(ERROR_REGISTER_COUNT,
                     String.format("recode max local reg index is %d, "
                                     + "but localReg count %d and paraReg count %d",
                             mMaxLocalRegIndex, mLocalRegCount, mParaRegCount));
         }
 
         if (mMaxParameterRegIndex + 1 > mParaRegCount) {
-            mVerifyCallback.onError(
+            mVerifyCallback.onError(ERROR_REGISTER_COUNT,
                     String.format("recode max parameter reg index is %d, "
                                     + "but localReg count %d and paraReg count %d",
                             mMaxParameterRegIndex, mLocalRegCount, mParaRegCount));
         }
     }
 
+    private void referenceLabel(int op, DexLabel label) {
+        if (label == null) {
+            mVerifyCallback.onError(ERROR_LABEL,
+                    String.format("%s references a null label", Dops.dopFor(op)));
+        } else {
+            mReferencedLabels.add(label);
+        }
+    }
+
     @Override
     public void visitTryCatch(DexLabel start, DexLabel end, DexTypeList types, DexLabel[] handlers,
                               DexLabel catchAllHandler) {
+        if (start == null || end == null) {
+            mVerifyCallback.onError(ERROR_LABEL, "try block with null start or end label");
+        } else {
+            mReferencedLabels.add(start);
+            mReferencedLabels.add(end);
+        }
+        if (handlers != null) {
+            for (DexLabel handler : handlers) {
+                if (handler == null) {
+                    mVerifyCallback.onError(ERROR_LABEL, "catch handler with null label");
+                } else {
+                    mReferencedLabels.add(handler);
+                }
+            }
+        }
+        if (catchAllHandler != null) {
+            mReferencedLabels.add(catchAllHandler);
+        }
         super.visitTryCatch(start, end, types, handlers, catchAllHandler);
     }
 
     @Override
     public void visitLabel(DexLabel label) {
+        if (!mPlacedLabels.add(label)) {
+            mVerifyCallback.onError(ERROR_LABEL, "label placed more than once");
+        }
         super.visitLabel(label);
     }
 
@@ -206,7 +286,7 @@ public class DexCodeFormatVerifier extends DexCodeVisitor {
         for (int i = 0; i < count; i++) {
             DexRegister reg = regs.get(i);
             if (reg == null) {
-                mVerifyCallback.onError(
+                mVerifyCallback.onError(ERROR_NULL_REGISTER,
                         String.format("%s opcode's regs at index %d is empty.",
                                 Dops.dopFor(op),
                                 i));
@@ -220,7 +300,7 @@ public class DexCodeFormatVerifier extends DexCodeVisitor {
         boolean staticCall = isInvokeStatic(op);
         int expectedRegCount = (staticCall ? 0 : 1) + methodRef.getParameterTypes().count();
         if (expectedRegCount != regs.count()) {
-            mVerifyCallback.onError(
+            mVerifyCallback.onError(ERROR_INVOKE_OPERANDS,
                     String.format("%s call %s expect %d regs, but %d regs",
                             Dops.dopFor(op).getOpcodeName(),
                             methodRef.toString(),
@@ -237,7 +317,7 @@ public class DexCodeFormatVerifier extends DexCodeVisitor {
             DexRegister thisReg = regs.get(nextRegIdx++);
             lastReg = thisReg;
             if (thisReg.getWidth() != DexRegister.REG_WIDTH_ONE_WORD) {
-                mVerifyCallback.onError(
+                mVerifyCallback.onError(ERROR_INVOKE_OPERANDS,
                         String.format("this reg for %s call expected one word width", Dops.dopFor(op)));
                 return false;
             }
@@ -251,7 +331,7 @@ public class DexCodeFormatVerifier extends DexCodeVisitor {
                 case DexItemFactory.LongClass.SHORT_DESCRIPTOR:
                 case DexItemFactory.DoubleClass.SHORT_DESCRIPTOR: {
                     if (reg.getWidth() != DexRegister.REG_WIDTH_DOUBLE_WORD) {
-                        mVerifyCallback.onError(
+                        mVerifyCallback.onError(ERROR_INVOKE_OPERANDS,
                                 String.format("%s call for para type (idx = %d) require reg pair",
                                         Dops.dopFor(op),
                                         i));
@@ -261,7 +341,7 @@ public class DexCodeFormatVerifier extends DexCodeVisitor {
                 }
                 default: {
                     if (reg.getWidth() != DexRegister.REG_WIDTH_ONE_WORD) {
-                        mVerifyCallback.onError(
+                        mVerifyCallback.onError(ERROR_INVOKE_OPERANDS,
                                 String.format("%s call for para type (idx = %d) require only one " +
                                                 "reg",
                                         Dops.dopFor(op),
@@ -278,7 +358,7 @@ public class DexCodeFormatVerifier extends DexCodeVisitor {
                     if (lastReg.getRef() == reg.getRef()) {
                         if (lastReg.getWidth() == DexRegister.REG_WIDTH_ONE_WORD) {
                             if (lastReg.getReg() + 1 != reg.getReg()) {
-                                mVerifyCallback.onError(
+                                mVerifyCallback.onError(ERROR_INVOKE_OPERANDS,
                                         String.format("rang call %s except seq regs, but %s",
                                                 Dops.dopFor(op),
                                                 regs));
@@ -286,7 +366,7 @@ public class DexCodeFormatVerifier extends DexCodeVisitor {
                             }
                         } else if (lastReg.getWidth() == DexRegister.REG_WIDTH_DOUBLE_WORD){
                             if (lastReg.getReg() + 2 != reg.getReg()) {
-                                mVerifyCallback.onError(
+                                mVerifyCallback.onError(ERROR_INVOKE_OPERANDS,
                                         String.format("rang call %s except seq regs, but %s",
                                                 Dops.dopFor(op),
                                                 regs));
@@ -310,7 +390,7 @@ public class DexCodeFormatVerifier extends DexCodeVisitor {
     public void visitConstInsn(int op, DexRegisterList regs, DexConst dexConst) {
         Dop dop = Dops.dopFor(op);
         if (!dop.isConstOpcode()) {
-            mVerifyCallback.onError(
+            mVerifyCallback.onError(ERROR_OPCODE_FORMAT,
                     String.format("%s expect const opcode, but %s", dop, dop.getOpcodeCategory()));
             return;
         }
@@ -328,7 +408,7 @@ public class DexCodeFormatVerifier extends DexCodeVisitor {
     public void visitTargetInsn(int op, DexRegisterList regs, DexLabel label) {
         Dop dop = Dops.dopFor(op);
         if (!dop.isTargetOpcode()) {
-            mVerifyCallback.onError(
+            mVerifyCallback.onError(ERROR_OPCODE_FORMAT,
                     String.format("%s expect target opcode, but %s", dop, dop.getOpcodeCategory()));
             return;
         }
@@ -336,6 +416,7 @@ public class DexCodeFormatVerifier extends DexCodeVisitor {
         if (verifyRegsNonNullable(op, regs)) {
 
         }
+        referenceLabel(op, label);
         super.visitTargetInsn(op, regs, label);
     }
 
@@ -343,7 +424,7 @@ public class DexCodeFormatVerifier extends DexCodeVisitor {
     public void visitSimpleInsn(int op, DexRegisterList regs) {
         Dop dop = Dops.dopFor(op);
         if (!dop.isSimpleOpcode()) {
-            mVerifyCallback.onError(
+            mVerifyCallback.onError(ERROR_OPCODE_FORMAT,
                     String.format("%s expect simple opcode, but %s", dop, dop.getOpcodeCategory()));
             return;
         }
@@ -358,13 +439,21 @@ public class DexCodeFormatVerifier extends DexCodeVisitor {
     public void visitSwitch(int op, DexRegisterList regs, int[] keys, DexLabel[] targets) {
         Dop dop = Dops.dopFor(op);
         if (!dop.isSwitchOpcode()) {
-            mVerifyCallback.onError(
+            mVerifyCallback.onError(ERROR_OPCODE_FORMAT,
                     String.format("%s expect switch opcode, but %s", dop, dop.getOpcodeCategory()));
             return;
         }
         statInsRegsCount(regs);
         if (verifyRegsNonNullable(op, regs)) {
 
+        }
+        if (keys.length != targets.length) {
+            mVerifyCallback.onError(ERROR_OPCODE_FORMAT,
+                    String.format("%s has %d keys but %d targets", dop, keys.length,
+                            targets.length));
+        }
+        for (DexLabel target : targets) {
+            referenceLabel(op, target);
         }
         super.visitSwitch(op, regs, keys, targets);
     }
@@ -389,10 +478,21 @@ public class DexCodeFormatVerifier extends DexCodeVisitor {
     public void visitEnd() {
         super.visitEnd();
         if (!mRegisterVisited) {
-            mVerifyCallback.onError("end of code visit, but no register count is set");
+            mVerifyCallback.onError(ERROR_REGISTER_COUNT,
+                    "end of code visit, but no register count is set");
             return;
         }
         verifyRegsCount();
+        int unplaced = 0;
+        for (DexLabel label : mReferencedLabels) {
+            if (!mPlacedLabels.contains(label)) {
+                unplaced++;
+            }
+        }
+        if (unplaced > 0) {
+            mVerifyCallback.onError(ERROR_LABEL,
+                    String.format("%d referenced labels are never placed", unplaced));
+        }
     }
 
 }
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) Baidu Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.baidu.titan.dex.extensions;
+
+import java.util.Arrays;
+
+/**
+ * 稠密ID的位集合，用于统计一个Dex已经占用的ID。<br>
+ *
+ * 批量操作的参数为升序的ID数组，同一个64位字内的ID合并为一个掩码后再做popcount，
+ * 因此统计一个类会新增多少ID只需要访问少量的字
+ *
+ * @author zhangdi07@baidu.com
+ * @since 2019/3/28
+ */
+public final class DexIdsBitSet {
+
+    private long[] mWords;
+
+    private int mCardinality;
+
+    public DexIdsBitSet(int capacity) {
+        mWords = new long[Math.max(1, (capacity + 63) >>> 6)];
+    }
+
+    /**
+     * @return 独立的副本
+     */
+    public DexIdsBitSet copy() {
+        DexIdsBitSet copy = new DexIdsBitSet(0);
+        copy.mWords = mWords.clone();
+        copy.mCardinality = mCardinality;
+        return copy;
+    }
+
+    private long word(int wordIdx) {
+        return wordIdx < mWords.length ? mWords[wordIdx] : 0L;
+    }
+
+    public boolean contains(int id) {
+        return (word(id >>> 6) & (1L << id)) != 0;
+    }
+
+    public int cardinality() {
+        return mCardinality;
+    }
+
+    /**
+     * @param sortedIds 升序的ID数组
+     * @return 不在集合中的ID个数
+     */
+    public int countNew(int[] sortedIds) {
+        int count = 0;
+        int i = 0;
+        int n = sortedIds.length;
+        while (i < n) {
+            int wordIdx = sortedIds[i] >>> 6;
+            long mask = 0;
+            do {
+                mask |= 1L << sortedIds[i++];
+            } while (i < n && (sortedIds[i] >>> 6) == wordIdx);
+            count += Long.bitCount(mask & ~word(wordIdx));
+        }
+        return count;
+    }
+
+    /**
+     * 并入另一个集合中的所有ID
+     */
+    public void addAll(DexIdsBitSet other) {
+        if (other.mWords.length > mWords.length) {
+            mWords = Arrays.copyOf(mWords, other.mWords.length);
+        }
+        int cardinality = 0;
+        for (int i = 0; i < mWords.length; i++) {
+            if (i < other.mWords.length) {
+                mWords[i] |= other.mWords[i];
+            }
+            cardinality += Long.bitCount(mWords[i]);
+        }
+        mCardinality = cardinality;
+    }
+
+    /**
+     * @return 两个集合共有的ID个数
+     */
+    public int countIntersection(DexIdsBitSet other) {
+        int count = 0;
+        int n = Math.min(mWords.length, other.mWords.length);
+        for (int i = 0; i < n; i++) {
+            count += Long.bitCount(mWords[i] & other.mWords[i]);
+        }
+        return count;
+    }
+
+    /**
+     * @param sortedIds 升序的ID数组
+     * @return 新加入的ID个数
+     */
+    public int addAll(int[] sortedIds) {
+        int added = 0;
+        int i = 0;
+        int n = sortedIds.length;
+        while (i < n) {
+            int wordIdx = sortedIds[i] >>> 6;
+            long mask = 0;
+            do {
+                mask |= 1L << sortedIds[i++];
+            } while (i < n && (sortedIds[i] >>> 6) == wordIdx);
+            if (wordIdx >= mWords.length) {
+                mWords = Arrays.copyOf(mWords, Math.max(wordIdx + 1, mWords.length * 2));
+            }
+            added += Long.bitCount(mask & ~mWords[wordIdx]);
+            mWords[wordIdx] |= mask;
+        }
+        mCardinality += added;
+        return added;
+    }
+
+}
@@ -66,5 +66,13 @@ public class DexInterfacesHierarchyFiller implements DexClassPoolNodeVisitor {
 
     }
 
+    /**
+     * 只修改当前访问的类，lookups需要线程安全
+     */
+    @Override
+    public boolean supportsParallelVisit() {
+        return true;
+    }
+
 }
 
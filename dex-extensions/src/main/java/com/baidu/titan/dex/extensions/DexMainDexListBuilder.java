@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) Baidu Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.baidu.titan.dex.extensions;
+
+import com.baidu.titan.dex.DexAnnotationVisibilitys;
+import com.baidu.titan.dex.DexType;
+import com.baidu.titan.dex.node.DexAnnotationNode;
+import com.baidu.titan.dex.node.DexClassNode;
+import com.baidu.titan.dex.node.DexClassPoolNode;
+import com.baidu.titan.dex.node.DexFieldNode;
+import com.baidu.titan.dex.node.DexMethodNode;
+import com.baidu.titan.dex.util.DexIdsCollector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+/**
+ * 直接在DexClassPoolNode上计算mainDexList，结果用于{@link BestEffortMultiDexSplitter}的mainDexTypeList。<br>
+ *
+ * 规则与dx的MainDexListBuilder、ClassReferenceListBuilder基本相同：
+ * 根类为显式指定的类、继承或实现了根基类型（默认为Application、Instrumentation、BackupAgent
+ * 以及注解接口）的类，以及开启keepAnnotated时带有运行时注解的类；
+ * 之后加入根类直接引用的类型，以及这些类型的父类与接口。不在类池中的类型视为系统类，被忽略。
+ * 与dx不同的是带注解的类的引用同样会被加入，注解中用到的枚举类因此也在主Dex中。<br>
+ *
+ * 根类的查找以及引用的收集在ForkJoinPool中并行进行
+ *
+ * @author zhangdi07@baidu.com
+ * @since 2019/3/30
+ */
+public class DexMainDexListBuilder {
+
+    /** 与mainDexClasses.rules一致的默认根基类型 */
+    public static final List<String> DEFAULT_ROOT_BASE_TYPES = Arrays.asList(
+            "Landroid/app/Application;",
+            "Landroid/app/Instrumentation;",
+            "Landroid/app/backup/BackupAgent;",
+            "Landroid/test/InstrumentationTestCase;",
+            "Ljava/lang/annotation/Annotation;");
+
+    private final DexClassPoolNode mClassPool;
+
+    private final Set<DexType> mRoots = new HashSet<>();
+
+    private final Set<DexType> mRootBaseTypes = new HashSet<>();
+
+    private boolean mKeepAnnotated = true;
+
+    public DexMainDexListBuilder(DexClassPoolNode classPool) {
+        this.mClassPool = classPool;
+        for (String baseType : DEFAULT_ROOT_BASE_TYPES) {
+            mRootBaseTypes.add(new DexType(baseType));
+        }
+    }
+
+    /**
+     * 是否把带有运行时注解的类作为根类，默认开启，用于规避Dalvik解析注解中枚举参数的问题
+     */
+    public void setKeepAnnotated(boolean keepAnnotated) {
+        this.mKeepAnnotated = keepAnnotated;
+    }
+
+    public void addRoot(DexType type) {
+        mRoots.add(type);
+    }
+
+    /**
+     * 继承或实现了该类型的类都作为根类
+     */
+    public void addRootBaseType(DexType type) {
+        mRootBaseTypes.add(type);
+    }
+
+    /**
+     * 使用公共ForkJoinPool并行计算
+     */
+    public Set<DexType> build() {
+        return build(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @return mainDexList，只包含类池中的类
+     */
+    public Set<DexType> build(ForkJoinPool pool) {
+        List<DexClassNode> classes = mClassPool.stream().collect(Collectors.toList());
+        List<DexClassNode> roots = pool.submit(() -> classes.parallelStream()
+                .filter(this::isRoot)
+                .collect(Collectors.toList())).join();
+
+        DexIdsCollector.Cache cache = new DexIdsCollector.Cache();
+        List<Set<DexType>> references = pool.submit(() -> roots.parallelStream()
+                .map(dcn -> DexIdsCollector.collectDexIds(dcn,
+                        DexIdsCollector.FLAG_COLLECT_TYPE_IDS, cache).getTypeIds())
+                .collect(Collectors.toList())).join();
+
+        Set<DexType> mainDexList = new LinkedHashSet<>();
+        for (DexClassNode root : roots) {
+            mainDexList.add(root.type);
+        }
+        for (Set<DexType> types : references) {
+            for (DexType type : types) {
+                addClassWithHierarchy(elementType(type), mainDexList);
+            }
+        }
+        return mainDexList;
+    }
+
+    private boolean isRoot(DexClassNode dcn) {
+        return mRoots.contains(dcn.type)
+                || isSubtypeOfRootBase(dcn, new HashSet<>())
+                || (mKeepAnnotated && hasRuntimeVisibleAnnotation(dcn));
+    }
+
+    /**
+     * 沿着类池中的父类与接口向上查找
+     */
+    private boolean isSubtypeOfRootBase(DexClassNode dcn, Set<DexType> visited) {
+        List<DexType> supers = new ArrayList<>();
+        if (dcn.superType != null) {
+            supers.add(dcn.superType);
+        }
+        if (dcn.interfaces != null) {
+            supers.addAll(Arrays.asList(dcn.interfaces.types()));
+        }
+        for (DexType superType : supers) {
+            if (mRootBaseTypes.contains(superType)) {
+                return true;
+            }
+            if (!visited.add(superType)) {
+                continue;
+            }
+            DexClassNode superClass = mClassPool.getClass(superType);
+            if (superClass != null && isSubtypeOfRootBase(superClass, visited)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasRuntimeVisibleAnnotation(DexClassNode dcn) {
+        if (hasRuntimeVisibleAnnotation(dcn.getClassAnnotations())) {
+            return true;
+        }
+        for (DexMethodNode dmn : dcn.getMethods()) {
+            if (hasRuntimeVisibleAnnotation(dmn.getMethodAnnotations())) {
+                return true;
+            }
+        }
+        for (DexFieldNode dfn : dcn.getFields()) {
+            if (hasRuntimeVisibleAnnotation(dfn.getFieldAnnotations())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasRuntimeVisibleAnnotation(List<DexAnnotationNode> annotations) {
+        if (annotations != null) {
+            for (DexAnnotationNode dan : annotations) {
+                if (dan.getVisibility().get()
+                        == DexAnnotationVisibilitys.ANNOTATION_VISIBILITY_RUNTIME) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return 数组的元素类型，非数组原样返回
+     */
+    private static DexType elementType(DexType type) {
+        if (!type.isArrayType()) {
+            return type;
+        }
+        String descriptor = type.toTypeDescriptor();
+        return new DexType(descriptor.substring(descriptor.lastIndexOf('[') + 1));
+    }
+
+    private void addClassWithHierarchy(DexType type, Set<DexType> mainDexList) {
+        if (mainDexList.contains(type)) {
+            return;
+        }
+        DexClassNode dcn = mClassPool.getClass(type);
+        if (dcn == null) {
+            // 不在类池中，属于系统类或者基本类型
+            return;
+        }
+        mainDexList.add(type);
+        if (dcn.superType != null) {
+            addClassWithHierarchy(dcn.superType, mainDexList);
+        }
+        if (dcn.interfaces != null) {
+            for (DexType itf : dcn.interfaces.types()) {
+                addClassWithHierarchy(itf, mainDexList);
+            }
+        }
+    }
+
+}
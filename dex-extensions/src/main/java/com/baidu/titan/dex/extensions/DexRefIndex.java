@@ -0,0 +1,469 @@
+/*
+ * Copyright (C) Baidu Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.baidu.titan.dex.extensions;
+
+import com.baidu.titan.dex.DexString;
+import com.baidu.titan.dex.DexType;
+import com.baidu.titan.dex.DexTypeList;
+import com.baidu.titan.dex.node.DexClassNode;
+import com.baidu.titan.dex.node.DexFieldIdNode;
+import com.baidu.titan.dex.node.DexMethodIdNode;
+import com.baidu.titan.dex.node.DexProtoNode;
+import com.baidu.titan.dex.util.DexIdsCollector;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+/**
+ * 类引用索引：为类池中所有类引用的MethodID、FieldID、TypeID、ProtoID、StringID分配稠密编号，
+ * 每个类的引用只收集一次，保存为升序的int数组，供分包、可达性分析以及统计复用。<br>
+ *
+ * 收集在ForkJoinPool中按类并行进行，遍历复用{@link DexIdsCollector}，但引用直接转换为稠密编号，
+ * 不经过每个类的ID集合：方法、字段以及原型按其组成部分的稠密编号查找，
+ * 类型以及类型列表在每个线程内先按引用查找，只有第一次遇到时才计算哈希。
+ * 稠密编号与类的处理顺序有关，每次构建可能不同，只应用于集合运算与计数
+ *
+ * @author zhangdi07@baidu.com
+ * @since 2019/3/28
+ */
+public final class DexRefIndex {
+
+    public static final int KIND_METHOD = 0;
+
+    public static final int KIND_FIELD = 1;
+
+    public static final int KIND_TYPE = 2;
+
+    public static final int KIND_PROTO = 3;
+
+    public static final int KIND_STRING = 4;
+
+    static final int KIND_COUNT = 5;
+
+    private static final String[] KIND_NAMES = {"method", "field", "type", "proto", "string"};
+
+    private final Map<DexType, int[][]> mClassRefs = new HashMap<>();
+
+    /** 每个KIND下稠密编号对应的ID */
+    private final Object[][] mItems = new Object[KIND_COUNT][];
+
+    private DexRefIndex() {
+    }
+
+    /**
+     * 使用公共ForkJoinPool并行构建
+     */
+    public static DexRefIndex build(Collection<DexClassNode> classes) {
+        return build(classes, ForkJoinPool.commonPool());
+    }
+
+    public static DexRefIndex build(Collection<DexClassNode> classes, ForkJoinPool pool) {
+        DexClassNode[] classArray = classes.toArray(new DexClassNode[0]);
+        // 按声明的方法与字段数预估表大小，避免并发收集过程中反复扩容
+        int methodCount = 0;
+        int fieldCount = 0;
+        for (DexClassNode classNode : classArray) {
+            methodCount += classNode.getMethods().size();
+            fieldCount += classNode.getFields().size();
+        }
+        IdTable[] tables = new IdTable[KIND_COUNT];
+        tables[KIND_METHOD] = new IdTable(methodCount * 2);
+        tables[KIND_FIELD] = new IdTable(fieldCount * 2);
+        tables[KIND_TYPE] = new IdTable(classArray.length * 2);
+        tables[KIND_PROTO] = new IdTable(methodCount / 4);
+        tables[KIND_STRING] = new IdTable((methodCount + fieldCount + classArray.length) * 2);
+        Map<Thread, ThreadState> states = new ConcurrentHashMap<>();
+        AtomicInteger nextStamp = new AtomicInteger(1);
+        int[][][] classRefs = new int[classArray.length][][];
+        pool.submit(() -> IntStream.range(0, classArray.length).parallel().forEach(i -> {
+            ThreadState state = states.computeIfAbsent(Thread.currentThread(),
+                    t -> new ThreadState());
+            DenseIdsCollector collector =
+                    new DenseIdsCollector(tables, state, nextStamp.getAndIncrement());
+            collector.collect(classArray[i]);
+            classRefs[i] = collector.getRefs();
+        })).join();
+
+        DexRefIndex index = new DexRefIndex();
+        for (int i = 0; i < classArray.length; i++) {
+            index.mClassRefs.put(classArray[i].type, classRefs[i]);
+        }
+        for (int kind = 0; kind < KIND_COUNT; kind++) {
+            index.mItems[kind] = tables[kind].toArray();
+        }
+        return index;
+    }
+
+    /**
+     * 一个类的引用收集器，覆写所有add方法，直接记录稠密编号
+     */
+    private static final class DenseIdsCollector extends DexIdsCollector {
+
+        /** 所有add方法都被覆写，不会用到 */
+        private static final DexIdsCollector.Cache UNUSED_CACHE = new DexIdsCollector.Cache();
+
+        private final IdTable[] mTables;
+
+        private final ThreadState mState;
+
+        /** 本类的标记值，{@link ThreadState#mStamps}中等于该值的编号已经收集过 */
+        private final int mStamp;
+
+        private final int[][] mRefs = new int[KIND_COUNT][];
+
+        private final int[] mRefCounts = new int[KIND_COUNT];
+
+        DenseIdsCollector(IdTable[] tables, ThreadState state, int stamp) {
+            super(FLAG_COLLECT_ALL_IDS, UNUSED_CACHE);
+            this.mTables = tables;
+            this.mState = state;
+            this.mStamp = stamp;
+            for (int kind = 0; kind < KIND_COUNT; kind++) {
+                mRefs[kind] = new int[16];
+            }
+        }
+
+        /** 覆写以便在本包内调用 */
+        @Override
+        protected void collect(DexClassNode classNode) {
+            super.collect(classNode);
+        }
+
+        int[][] getRefs() {
+            int[][] refs = new int[KIND_COUNT][];
+            for (int kind = 0; kind < KIND_COUNT; kind++) {
+                refs[kind] = Arrays.copyOf(mRefs[kind], mRefCounts[kind]);
+                Arrays.sort(refs[kind]);
+            }
+            return refs;
+        }
+
+        private void mark(int kind, int id) {
+            int[] stamps = mState.mStamps[kind];
+            if (id >= stamps.length) {
+                stamps = Arrays.copyOf(stamps, Math.max(id + 1, stamps.length * 2));
+                mState.mStamps[kind] = stamps;
+            }
+            if (stamps[id] == mStamp) {
+                return;
+            }
+            stamps[id] = mStamp;
+            int[] refs = mRefs[kind];
+            int count = mRefCounts[kind];
+            if (count == refs.length) {
+                refs = Arrays.copyOf(refs, count * 2);
+                mRefs[kind] = refs;
+            }
+            refs[count] = id;
+            mRefCounts[kind] = count + 1;
+        }
+
+        private void markType(IdTable.Entry type) {
+            mark(KIND_TYPE, type.id);
+            mark(KIND_STRING, type.aux);
+        }
+
+        private int stringId(DexString string) {
+            return mTables[KIND_STRING].intern(string, string, -1).id;
+        }
+
+        private IdTable.Entry typeEntry(DexType type) {
+            IdTable.Entry entry = mState.mTypes.get(type);
+            if (entry == null) {
+                entry = mTables[KIND_TYPE].get(type);
+                if (entry == null) {
+                    entry = mTables[KIND_TYPE].intern(type, type,
+                            stringId(type.getTypeDescriptor()));
+                }
+                mState.mTypes.put(type, entry);
+            }
+            return entry;
+        }
+
+        private IdTable.Entry[] typeListEntries(DexTypeList types) {
+            IdTable.Entry[] entries = mState.mTypeLists.get(types);
+            if (entries == null) {
+                DexType[] typeArray = types.types();
+                entries = new IdTable.Entry[typeArray.length];
+                for (int i = 0; i < typeArray.length; i++) {
+                    entries[i] = typeEntry(typeArray[i]);
+                }
+                mState.mTypeLists.put(types, entries);
+            }
+            return entries;
+        }
+
+        /**
+         * 标记原型以及其中的类型、shorty
+         *
+         * @return 原型的稠密编号
+         */
+        private int protoId(DexTypeList parameters, DexType returnType) {
+            IdTable.Entry[] parameterEntries = typeListEntries(parameters);
+            IdTable.Entry returnEntry = typeEntry(returnType);
+            int[] key = new int[parameterEntries.length + 1];
+            key[0] = returnEntry.id;
+            markType(returnEntry);
+            for (int i = 0; i < parameterEntries.length; i++) {
+                key[i + 1] = parameterEntries[i].id;
+                markType(parameterEntries[i]);
+            }
+            IdKey protoKey = new IdKey(key);
+            IdTable.Entry entry = mTables[KIND_PROTO].get(protoKey);
+            if (entry == null) {
+                int shortyId = mTables[KIND_STRING].intern(
+                        new DexString(shortyOf(parameters, returnType)), null, -1).id;
+                entry = mTables[KIND_PROTO].intern(protoKey,
+                        new DexProtoNode(parameters, returnType), shortyId);
+            }
+            mark(KIND_PROTO, entry.id);
+            mark(KIND_STRING, entry.aux);
+            return entry.id;
+        }
+
+        @Override
+        protected void addString(DexString string) {
+            if (string != null) {
+                mark(KIND_STRING, stringId(string));
+            }
+        }
+
+        @Override
+        protected void addString(String string) {
+            if (string != null) {
+                Integer id = mState.mConstStrings.get(string);
+                if (id == null) {
+                    DexString dexString = new DexString(string);
+                    id = mTables[KIND_STRING].intern(dexString, dexString, -1).id;
+                    mState.mConstStrings.put(string, id);
+                }
+                mark(KIND_STRING, id);
+            }
+        }
+
+        @Override
+        protected void addType(DexType type) {
+            if (type != null) {
+                markType(typeEntry(type));
+            }
+        }
+
+        @Override
+        protected void addProto(DexTypeList parameters, DexType returnType) {
+            protoId(parameters, returnType);
+        }
+
+        @Override
+        protected void addFieldId(DexType owner, DexString name, DexType type) {
+            IdTable.Entry ownerEntry = typeEntry(owner);
+            IdTable.Entry typeEntry = typeEntry(type);
+            int nameId = stringId(name);
+            markType(ownerEntry);
+            markType(typeEntry);
+            mark(KIND_STRING, nameId);
+            IdKey key = new IdKey(new int[] {ownerEntry.id, nameId, typeEntry.id});
+            IdTable.Entry entry = mTables[KIND_FIELD].get(key);
+            if (entry == null) {
+                entry = mTables[KIND_FIELD].intern(key,
+                        new DexFieldIdNode(owner, name, type), -1);
+            }
+            mark(KIND_FIELD, entry.id);
+        }
+
+        @Override
+        protected void addMethodId(DexType owner, DexString name, DexTypeList parameters,
+                                   DexType returnType) {
+            IdTable.Entry ownerEntry = typeEntry(owner);
+            int nameId = stringId(name);
+            markType(ownerEntry);
+            mark(KIND_STRING, nameId);
+            int protoId = protoId(parameters, returnType);
+            IdKey key = new IdKey(new int[] {ownerEntry.id, nameId, protoId});
+            IdTable.Entry entry = mTables[KIND_METHOD].get(key);
+            if (entry == null) {
+                entry = mTables[KIND_METHOD].intern(key,
+                        new DexMethodIdNode(owner, name, parameters, returnType), -1);
+            }
+            mark(KIND_METHOD, entry.id);
+        }
+
+    }
+
+    /**
+     * 每个线程独占的查找缓存与标记数组，在该线程处理的所有类之间复用
+     */
+    private static final class ThreadState {
+
+        final Map<String, Integer> mConstStrings = new HashMap<>();
+
+        /** 按引用查找，DexItemFactory创建的类型通常是共享的实例 */
+        final Map<DexType, IdTable.Entry> mTypes = new IdentityHashMap<>();
+
+        final Map<DexTypeList, IdTable.Entry[]> mTypeLists = new IdentityHashMap<>();
+
+        /** 每个KIND下各编号最近一次被哪个类收集 */
+        final int[][] mStamps = new int[KIND_COUNT][];
+
+        ThreadState() {
+            for (int kind = 0; kind < KIND_COUNT; kind++) {
+                mStamps[kind] = new int[1024];
+            }
+        }
+
+    }
+
+    /**
+     * 由组成部分的稠密编号构成的键，用于方法、字段以及原型
+     */
+    private static final class IdKey {
+
+        private final int[] mIds;
+
+        private final int mHash;
+
+        IdKey(int[] ids) {
+            this.mIds = ids;
+            this.mHash = Arrays.hashCode(ids);
+        }
+
+        @Override
+        public int hashCode() {
+            return mHash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof IdKey && Arrays.equals(mIds, ((IdKey) o).mIds);
+        }
+
+    }
+
+    /**
+     * 一个KIND的稠密编号分配表，线程安全
+     */
+    private static final class IdTable {
+
+        static final class Entry {
+
+            final int id;
+
+            /** 编号对应的ID */
+            final Object item;
+
+            /** 类型描述符或者原型shorty的字符串编号，其他KIND为-1 */
+            final int aux;
+
+            Entry(int id, Object item, int aux) {
+                this.id = id;
+                this.item = item;
+                this.aux = aux;
+            }
+
+        }
+
+        private final ConcurrentHashMap<Object, Entry> mEntries;
+
+        private final AtomicInteger mNextId = new AtomicInteger();
+
+        IdTable(int expectedSize) {
+            this.mEntries = new ConcurrentHashMap<>(Math.max(16, expectedSize));
+        }
+
+        Entry get(Object key) {
+            return mEntries.get(key);
+        }
+
+        /**
+         * @param item 键第一次出现时记录的ID，为null时使用键本身
+         */
+        Entry intern(Object key, Object item, int aux) {
+            Entry entry = mEntries.get(key);
+            if (entry == null) {
+                entry = mEntries.computeIfAbsent(key, k -> new Entry(mNextId.getAndIncrement(),
+                        item != null ? item : key, aux));
+            }
+            return entry;
+        }
+
+        Object[] toArray() {
+            Object[] items = new Object[mNextId.get()];
+            mEntries.forEach((key, entry) -> items[entry.id] = entry.item);
+            return items;
+        }
+
+    }
+
+    /**
+     * @param kind KIND_*
+     * @return 用于诊断信息的名称
+     */
+    public static String kindName(int kind) {
+        return KIND_NAMES[kind];
+    }
+
+    public boolean contains(DexType type) {
+        return mClassRefs.containsKey(type);
+    }
+
+    /**
+     * @param kind KIND_*
+     * @return 指定类引用的升序稠密ID，类不在索引中时抛出IllegalArgumentException
+     */
+    public int[] getRefs(DexType type, int kind) {
+        int[][] refs = mClassRefs.get(type);
+        if (refs == null) {
+            throw new IllegalArgumentException("class " + type + " is not indexed");
+        }
+        return refs[kind];
+    }
+
+    /**
+     * @param kind KIND_*
+     * @return 所有类引用的不同ID个数
+     */
+    public int getIdCount(int kind) {
+        return mItems[kind].length;
+    }
+
+    public DexMethodIdNode getMethodId(int id) {
+        return (DexMethodIdNode) mItems[KIND_METHOD][id];
+    }
+
+    public DexFieldIdNode getFieldId(int id) {
+        return (DexFieldIdNode) mItems[KIND_FIELD][id];
+    }
+
+    public DexType getTypeId(int id) {
+        return (DexType) mItems[KIND_TYPE][id];
+    }
+
+    public DexProtoNode getProtoId(int id) {
+        return (DexProtoNode) mItems[KIND_PROTO][id];
+    }
+
+    public DexString getStringId(int id) {
+        return (DexString) mItems[KIND_STRING][id];
+    }
+
+}
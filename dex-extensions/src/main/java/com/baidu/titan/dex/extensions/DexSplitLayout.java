@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) Baidu Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.baidu.titan.dex.extensions;
+
+import com.baidu.titan.dex.DexItemFactory;
+import com.baidu.titan.dex.DexType;
+import com.baidu.titan.dex.node.DexClassNode;
+import com.baidu.titan.dex.node.DexFileNode;
+import com.baidu.titan.dex.node.MultiDexFileNode;
+import com.baidu.titan.dex.writer.DexWriterCache;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * 一次分包的结果：每个Dex中按写入顺序排列的类，以及每个类内容的Hash，
+ * 供下一次构建的{@link IncrementalMultiDexSplitter}使用。<br>
+ *
+ * 文本格式如下，#开头的行为注释：
+ * <pre>
+ * dex 1
+ * Lcom/foo/Bar; 3f7a...
+ * </pre>
+ *
+ * @author zhangdi07@baidu.com
+ * @since 2019/3/31
+ */
+public final class DexSplitLayout {
+
+    private static final String DEX_PREFIX = "dex ";
+
+    private final Map<Integer, List<DexType>> mDexClasses = new TreeMap<>();
+
+    private final Map<DexType, Integer> mDexIds = new HashMap<>();
+
+    private final Map<DexType, String> mDigests = new HashMap<>();
+
+    public DexSplitLayout() {
+    }
+
+    /**
+     * 记录分包结果，类的Hash与{@link DexWriterCache#classDigest(DexClassNode)}一致
+     */
+    public static DexSplitLayout of(MultiDexFileNode mdfn) {
+        DexSplitLayout layout = new DexSplitLayout();
+        for (Map.Entry<Integer, DexFileNode> entry : mdfn.getDexNodes().entrySet()) {
+            for (DexClassNode dcn : entry.getValue().getClassesList()) {
+                layout.addClass(entry.getKey(), dcn.type, digestOf(dcn));
+            }
+        }
+        return layout;
+    }
+
+    public static DexSplitLayout read(File file, DexItemFactory factory) throws IOException {
+        try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            return read(reader, factory);
+        }
+    }
+
+    public static DexSplitLayout read(Reader reader, DexItemFactory factory) throws IOException {
+        DexSplitLayout layout = new DexSplitLayout();
+        BufferedReader br = reader instanceof BufferedReader ?
+                (BufferedReader) reader : new BufferedReader(reader);
+        int dexId = -1;
+        String line;
+        while ((line = br.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            if (line.startsWith(DEX_PREFIX)) {
+                dexId = Integer.parseInt(line.substring(DEX_PREFIX.length()).trim());
+                continue;
+            }
+            int space = line.indexOf(' ');
+            if (dexId < 0 || space < 0) {
+                throw new IOException("malformed layout line: " + line);
+            }
+            layout.addClass(dexId, factory.createType(line.substring(0, space)),
+                    line.substring(space + 1).trim());
+        }
+        return layout;
+    }
+
+    public void write(File file) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            write(writer);
+        }
+    }
+
+    public void write(Writer writer) throws IOException {
+        for (Map.Entry<Integer, List<DexType>> entry : mDexClasses.entrySet()) {
+            writer.write(DEX_PREFIX + entry.getKey() + "\n");
+            for (DexType type : entry.getValue()) {
+                writer.write(type.toTypeDescriptor() + " " + mDigests.get(type) + "\n");
+            }
+        }
+        writer.flush();
+    }
+
+    static String digestOf(DexClassNode dcn) {
+        byte[] digest = DexWriterCache.classDigest(dcn);
+        StringBuilder sb = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16))
+                    .append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 同一个类重复加入时以最后一次为准
+     */
+    public void addClass(int dexId, DexType type, String digest) {
+        Integer previous = mDexIds.put(type, dexId);
+        if (previous != null) {
+            mDexClasses.get(previous).remove(type);
+        }
+        mDexClasses.computeIfAbsent(dexId, k -> new ArrayList<>()).add(type);
+        mDigests.put(type, digest);
+    }
+
+    /**
+     * @return 类所在的Dex，不存在时返回-1
+     */
+    public int getDexId(DexType type) {
+        Integer dexId = mDexIds.get(type);
+        return dexId != null ? dexId : -1;
+    }
+
+    public String getDigest(DexType type) {
+        return mDigests.get(type);
+    }
+
+    public Set<Integer> getDexIds() {
+        return Collections.unmodifiableSet(mDexClasses.keySet());
+    }
+
+    /**
+     * @return 按写入顺序排列的类
+     */
+    public List<DexType> getClasses(int dexId) {
+        List<DexType> classes = mDexClasses.get(dexId);
+        return classes != null ? Collections.unmodifiableList(classes) : Collections.emptyList();
+    }
+
+    public int size() {
+        return mDexIds.size();
+    }
+
+}
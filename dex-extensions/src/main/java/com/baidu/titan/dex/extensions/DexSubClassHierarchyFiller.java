@@ -22,6 +22,7 @@ import com.baidu.titan.dex.visitor.DexClassPoolNodeVisitor;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.function.Consumer;
 import java.util.function.Function;
@@ -41,6 +42,11 @@ public class DexSubClassHierarchyFiller implements DexClassPoolNodeVisitor {
 
     private static final Map<DexType, DexClassNode> EMPTY = new HashMap<>();
 
+    /**
+     * 并行访问时记录的(父类, 子类)对，在merge时统一写入父类，为null时直接写入
+     */
+    private List<DexClassNode> mPendingPairs;
+
     public DexSubClassHierarchyFiller(Function<DexType, DexClassNode> lookups) {
         this.mLookups = lookups;
     }
@@ -74,13 +80,12 @@ public class DexSubClassHierarchyFiller implements DexClassPoolNodeVisitor {
         if (superType != null) {
             DexClassNode superDcn = mLookups.apply(superType);
             if (superDcn != null) {
-                Map<DexType, DexClassNode> subClasses = superDcn
-                        .getExtraInfo(EXTRA_KEY_SUBCLASSES, null);
-                if (subClasses == null) {
-                    subClasses = new HashMap<>();
-                    superDcn.setExtraInfo(EXTRA_KEY_SUBCLASSES, subClasses);
+                if (mPendingPairs != null) {
+                    mPendingPairs.add(superDcn);
+                    mPendingPairs.add(dcn);
+                } else {
+                    addSubClass(superDcn, dcn);
                 }
-                subClasses.put(dcn.type, dcn);
             }
 
         }
@@ -90,4 +95,27 @@ public class DexSubClassHierarchyFiller implements DexClassPoolNodeVisitor {
     public void classPoolVisitEnd() {
 
     }
+
+    /**
+     * 父类节点被多个子类共享，并行访问时先在各任务中累积，再由merge写入
+     */
+    @Override
+    public boolean supportsParallelVisit() {
+        return true;
+    }
+
+    @Override
+    public DexClassPoolNodeVisitor fork() {
+        DexSubClassHierarchyFiller forked = new DexSubClassHierarchyFiller(mLookups);
+        forked.mPendingPairs = new ArrayList<>();
+        return forked;
+    }
+
+    @Override
+    public void merge(DexClassPoolNodeVisitor forked) {
+        List<DexClassNode> pairs = ((DexSubClassHierarchyFiller) forked).mPendingPairs;
+        for (int i = 0; i < pairs.size(); i += 2) {
+            addSubClass(pairs.get(i), pairs.get(i + 1));
+        }
+    }
 }
@@ -75,4 +75,12 @@ public class DexSuperClassHierarchyFiller implements DexClassPoolNodeVisitor {
 
     }
 
+    /**
+     * 只修改当前访问的类，lookups需要线程安全
+     */
+    @Override
+    public boolean supportsParallelVisit() {
+        return true;
+    }
+
 }
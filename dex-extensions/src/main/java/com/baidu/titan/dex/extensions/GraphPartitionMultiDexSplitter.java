@@ -0,0 +1,370 @@
+/*
+ * Copyright (C) Baidu Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.baidu.titan.dex.extensions;
+
+import com.baidu.titan.dex.DexType;
+import com.baidu.titan.dex.node.DexClassNode;
+import com.baidu.titan.dex.node.DexClassPoolNode;
+import com.baidu.titan.dex.node.DexFileNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * 以减少跨Dex重复ID为目标的分包器。<br>
+ *
+ * 一个类引用另一个Dex中类的方法或字段时，这些MethodID、FieldID在两个Dex中都要占用。
+ * 这里把类看作图的节点，类之间的引用看作边，边的权重为引用对方成员的个数，
+ * 父类与接口关系额外加上{@link #HIERARCHY_WEIGHT}。同一个外部类的内部类合并为一个节点，
+ * 除非合并后一个空Dex都放不下。<br>
+ *
+ * 每个Dex从按类型排序的第一个未分配节点开始，每次加入与当前Dex连接权重最大、且能放下的节点，
+ * 没有相连的节点时按类型顺序继续填充，直到放不下为止。各个Dex中重复的ID可以通过
+ * {@link #getDuplicatedIdCount(int, int)}查询。<br>
+ *
+ * mainDexList与minimalMainDex的含义与{@link BestEffortMultiDexSplitter}相同
+ *
+ * @author zhangdi07@baidu.com
+ * @since 2019/3/31
+ */
+public class GraphPartitionMultiDexSplitter extends MultiDexSplitter {
+
+    /** 父类、接口在同一个Dex中时，子类对其成员的引用通常较多，给予额外的权重 */
+    public static final int HIERARCHY_WEIGHT = 16;
+
+    /** 一个Dex连续这么多次放不下候选节点时，认为已经填满 */
+    private static final int MAX_CONSECUTIVE_REJECTS = 1024;
+
+    private Set<DexType> mMainDexTypeList;
+
+    private boolean mMinimalMainDex;
+
+    public GraphPartitionMultiDexSplitter(DexClassPoolNode classPool,
+                                          Set<DexType> mainDexTypeList,
+                                          boolean minimalMainDex) {
+        super(classPool);
+        if ((mainDexTypeList == null || mainDexTypeList.isEmpty()) && minimalMainDex) {
+            throw new IllegalArgumentException("minimalMainDex requires a main dex list");
+        }
+        this.mMainDexTypeList = mainDexTypeList;
+        this.mMinimalMainDex = minimalMainDex;
+    }
+
+    /**
+     * 图中的一个节点，即必须放在同一个Dex中的一组类
+     */
+    private static final class Unit {
+
+        final List<DexClassNode> classes = new ArrayList<>();
+
+        /** 组内所有类的引用合并后的稠密ID，按KIND索引 */
+        int[][] refs;
+
+        /** 相邻节点下标到边权重 */
+        final Map<Integer, Integer> edges = new HashMap<>();
+
+        /** 所在Dex的下标，未分配时为-1 */
+        int dex = -1;
+
+        /** 最近一次放不下时所在Dex的下标 */
+        int rejectedBy = -1;
+
+        /** 与当前Dex的连接权重 */
+        long gain;
+
+    }
+
+    /**
+     * 分包过程中的一个Dex
+     */
+    private static final class Partition {
+
+        final DexCapacity capacity;
+
+        final List<DexClassNode> classes = new ArrayList<>();
+
+        Partition(DexCapacity capacity) {
+            this.capacity = capacity;
+        }
+
+    }
+
+    @Override
+    protected int doSplit() {
+        DexRefIndex index = getRefIndex();
+        List<Unit> mainUnits = new ArrayList<>();
+        Map<String, Unit> groups = new LinkedHashMap<>();
+        getClassPool().stream()
+                .sorted(Comparator.comparing(dcn -> dcn.type))
+                .forEach(dcn -> {
+                    if (this.mMainDexTypeList != null && this.mMainDexTypeList.contains(dcn.type)) {
+                        Unit unit = new Unit();
+                        unit.classes.add(dcn);
+                        mainUnits.add(unit);
+                    } else {
+                        groups.computeIfAbsent(outerTypeOf(dcn.type), k -> new Unit())
+                                .classes.add(dcn);
+                    }
+                });
+
+        // 合并后放不下的组拆成单个类
+        DexCapacity empty = createDexCapacity();
+        List<Unit> units = new ArrayList<>(mainUnits);
+        for (Unit group : groups.values()) {
+            group.refs = mergeRefs(index, group.classes);
+            if (group.classes.size() == 1 || empty.checkFits(group.refs) < 0) {
+                units.add(group);
+            } else {
+                for (DexClassNode dcn : group.classes) {
+                    Unit unit = new Unit();
+                    unit.classes.add(dcn);
+                    units.add(unit);
+                }
+            }
+        }
+        for (Unit unit : units) {
+            if (unit.refs == null) {
+                unit.refs = mergeRefs(index, unit.classes);
+            }
+        }
+        buildEdges(index, units);
+
+        List<Partition> partitions = new ArrayList<>();
+        if (!mainUnits.isEmpty()) {
+            Partition main = new Partition(createDexCapacity());
+            partitions.add(main);
+            PriorityQueue<long[]> queue = newQueue();
+            for (int i = 0; i < mainUnits.size(); i++) {
+                Unit unit = mainUnits.get(i);
+                int kind = main.capacity.checkFits(unit.refs);
+                if (kind >= 0) {
+                    recordOverflow(1, main.capacity, unit.classes.get(0), kind);
+                    return getOverflowError();
+                }
+                place(units, unit, 0, main, queue);
+            }
+            if (mMinimalMainDex) {
+                resetGains(units, queue);
+            } else {
+                grow(units, 0, main, queue);
+            }
+        }
+
+        int cursor = 0;
+        while (true) {
+            while (cursor < units.size() && units.get(cursor).dex >= 0) {
+                cursor++;
+            }
+            if (cursor == units.size()) {
+                break;
+            }
+            Unit seed = units.get(cursor);
+            int dex = partitions.size();
+            Partition partition = new Partition(createDexCapacity());
+            partitions.add(partition);
+            int kind = partition.capacity.checkFits(seed.refs);
+            if (kind >= 0) {
+                // 能放进空Dex的组都已经拆开，这里只会是单个类
+                recordOverflow(dex + 1, partition.capacity, seed.classes.get(0), kind);
+                return getOverflowError();
+            }
+            PriorityQueue<long[]> queue = newQueue();
+            place(units, seed, dex, partition, queue);
+            grow(units, dex, partition, queue);
+        }
+
+        // 没有任何类时也保证有一个Dex
+        getDexFile(mMinimalMainDex ? 2 : 1);
+        for (int i = 0; i < partitions.size(); i++) {
+            DexFileNode dexFileNode = getDexFile(i + 1);
+            setDexCapacity(i + 1, partitions.get(i).capacity);
+            for (DexClassNode dcn : partitions.get(i).classes) {
+                addClassToDexFile(dexFileNode, dcn);
+            }
+        }
+        return SPLIT_SUCCESS;
+    }
+
+    /**
+     * @return 内部类所属的最外层类型描述，例如Lfoo/Bar$Inner$1;对应Lfoo/Bar;
+     */
+    static String outerTypeOf(DexType type) {
+        String desc = type.toTypeDescriptor();
+        int nest = desc.indexOf('$', desc.lastIndexOf('/') + 1);
+        return nest > 1 ? desc.substring(0, nest) + ";" : desc;
+    }
+
+    private static int[][] mergeRefs(DexRefIndex index, List<DexClassNode> classes) {
+        int[][] refs = new int[DexRefIndex.KIND_COUNT][];
+        for (int kind = 0; kind < DexRefIndex.KIND_COUNT; kind++) {
+            if (classes.size() == 1) {
+                refs[kind] = index.getRefs(classes.get(0).type, kind);
+                continue;
+            }
+            int length = 0;
+            for (DexClassNode dcn : classes) {
+                length += index.getRefs(dcn.type, kind).length;
+            }
+            int[] merged = new int[length];
+            int pos = 0;
+            for (DexClassNode dcn : classes) {
+                int[] ids = index.getRefs(dcn.type, kind);
+                System.arraycopy(ids, 0, merged, pos, ids.length);
+                pos += ids.length;
+            }
+            Arrays.sort(merged);
+            int distinct = 0;
+            for (int i = 0; i < merged.length; i++) {
+                if (i == 0 || merged[i] != merged[i - 1]) {
+                    merged[distinct++] = merged[i];
+                }
+            }
+            refs[kind] = Arrays.copyOf(merged, distinct);
+        }
+        return refs;
+    }
+
+    /**
+     * 边权重为引用对方声明的方法、字段的个数，加上继承关系的权重，两个方向的权重累加
+     */
+    private void buildEdges(DexRefIndex index, List<Unit> units) {
+        Map<DexType, Integer> unitOf = new HashMap<>();
+        for (int i = 0; i < units.size(); i++) {
+            for (DexClassNode dcn : units.get(i).classes) {
+                unitOf.put(dcn.type, i);
+            }
+        }
+        int[] methodOwners = new int[index.getIdCount(DexRefIndex.KIND_METHOD)];
+        for (int id = 0; id < methodOwners.length; id++) {
+            methodOwners[id] = unitOf.getOrDefault(index.getMethodId(id).owner, -1);
+        }
+        int[] fieldOwners = new int[index.getIdCount(DexRefIndex.KIND_FIELD)];
+        for (int id = 0; id < fieldOwners.length; id++) {
+            fieldOwners[id] = unitOf.getOrDefault(index.getFieldId(id).owner, -1);
+        }
+
+        for (int i = 0; i < units.size(); i++) {
+            Unit unit = units.get(i);
+            for (int id : unit.refs[DexRefIndex.KIND_METHOD]) {
+                connect(units, i, methodOwners[id], 1);
+            }
+            for (int id : unit.refs[DexRefIndex.KIND_FIELD]) {
+                connect(units, i, fieldOwners[id], 1);
+            }
+            for (DexClassNode dcn : unit.classes) {
+                if (dcn.superType != null) {
+                    connect(units, i, unitOf.getOrDefault(dcn.superType, -1), HIERARCHY_WEIGHT);
+                }
+                if (dcn.interfaces != null) {
+                    for (DexType itf : dcn.interfaces.types()) {
+                        connect(units, i, unitOf.getOrDefault(itf, -1), HIERARCHY_WEIGHT);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void connect(List<Unit> units, int from, int to, int weight) {
+        if (to < 0 || to == from) {
+            return;
+        }
+        units.get(from).edges.merge(to, weight, Integer::sum);
+        units.get(to).edges.merge(from, weight, Integer::sum);
+    }
+
+    /**
+     * 队列元素为{连接权重, 节点下标}，权重大的优先，相同时取类型靠前的。
+     * 节点权重变化时直接加入新元素，取出时丢弃与当前权重不一致的旧元素
+     */
+    private static PriorityQueue<long[]> newQueue() {
+        return new PriorityQueue<>((a, b) -> a[0] != b[0] ? Long.compare(b[0], a[0])
+                : Long.compare(a[1], b[1]));
+    }
+
+    private static void place(List<Unit> units, Unit unit, int dex, Partition partition,
+                              PriorityQueue<long[]> queue) {
+        unit.dex = dex;
+        partition.capacity.add(unit.refs);
+        partition.classes.addAll(unit.classes);
+        for (Map.Entry<Integer, Integer> edge : unit.edges.entrySet()) {
+            Unit neighbor = units.get(edge.getKey());
+            if (neighbor.dex >= 0 || neighbor.rejectedBy == dex) {
+                continue;
+            }
+            neighbor.gain += edge.getValue();
+            queue.add(new long[] {neighbor.gain, edge.getKey()});
+        }
+    }
+
+    /**
+     * 不断加入与当前Dex连接最紧密的节点，没有相连的节点时按类型顺序取下一个，直到放不下为止
+     */
+    private static void grow(List<Unit> units, int dex, Partition partition,
+                             PriorityQueue<long[]> queue) {
+        int cursor = 0;
+        int rejects = 0;
+        while (rejects < MAX_CONSECUTIVE_REJECTS) {
+            Unit next = null;
+            while (next == null && !queue.isEmpty()) {
+                long[] entry = queue.poll();
+                Unit unit = units.get((int) entry[1]);
+                if (unit.dex < 0 && unit.rejectedBy != dex && unit.gain == entry[0]) {
+                    next = unit;
+                }
+            }
+            if (next == null) {
+                while (cursor < units.size() && (units.get(cursor).dex >= 0
+                        || units.get(cursor).rejectedBy == dex)) {
+                    cursor++;
+                }
+                if (cursor == units.size()) {
+                    break;
+                }
+                next = units.get(cursor);
+            }
+            if (partition.capacity.checkFits(next.refs) < 0) {
+                place(units, next, dex, partition, queue);
+                rejects = 0;
+            } else {
+                // 被拒绝的节点不会再被当前Dex取出，其权重需要在这里清零，resetGains只覆盖仍在队列中的节点
+                next.rejectedBy = dex;
+                next.gain = 0;
+                rejects++;
+            }
+        }
+        resetGains(units, queue);
+    }
+
+    /**
+     * 连接权重只在当前Dex内累计，开始下一个Dex前清零。
+     * 已取出的节点要么已放入当前Dex，要么在被拒绝时清零，这里只需处理仍在队列中的节点
+     */
+    private static void resetGains(List<Unit> units, PriorityQueue<long[]> queue) {
+        for (long[] entry : queue) {
+            units.get((int) entry[1]).gain = 0;
+        }
+        queue.clear();
+    }
+
+}
@@ -0,0 +1,355 @@
+/*
+ * Copyright (C) Baidu Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.baidu.titan.dex.extensions;
+
+import com.baidu.titan.dex.DexType;
+import com.baidu.titan.dex.node.DexClassNode;
+import com.baidu.titan.dex.node.DexClassPoolNode;
+import com.baidu.titan.dex.node.DexFileNode;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+/**
+ * 以上一次构建的分包结果为基础的增量分包器。<br>
+ *
+ * 内容没有变化的类留在原来的Dex中，并保持原来的顺序；内容变化的类优先放回原来的Dex，
+ * 放不下时与新增的类一起重新放置：优先放入已经发生变化的Dex，其次是编号最大的未变化的Dex，
+ * 都放不下时新开一个Dex。mainDexList中新增的类放不下时，从主Dex末尾移出非mainDexList的类。<br>
+ *
+ * 类的集合、顺序与内容都没有变化的Dex编码结果完全相同，可以通过
+ * {@link com.baidu.titan.dex.writer.DexWriterCache}直接复用，也可以在安装时跳过，
+ * 参见{@link Report#getUnchangedDexIds()}。被删空的Dex不再保留，后面的Dex编号依次前移。
+ *
+ * @author zhangdi07@baidu.com
+ * @since 2019/3/31
+ */
+public class IncrementalMultiDexSplitter extends MultiDexSplitter {
+
+    private final DexSplitLayout mPreviousLayout;
+
+    private Set<DexType> mMainDexTypeList;
+
+    private boolean mMinimalMainDex;
+
+    private Report mReport;
+
+    private DexSplitLayout mLayout;
+
+    /**
+     * @param previousLayout 上一次构建的分包结果，为空时等同于全量分包
+     */
+    public IncrementalMultiDexSplitter(DexClassPoolNode classPool,
+                                       DexSplitLayout previousLayout,
+                                       Set<DexType> mainDexTypeList,
+                                       boolean minimalMainDex) {
+        super(classPool);
+        if ((mainDexTypeList == null || mainDexTypeList.isEmpty()) && minimalMainDex) {
+            throw new IllegalArgumentException("minimalMainDex requires a main dex list");
+        }
+        this.mPreviousLayout = previousLayout != null ? previousLayout : new DexSplitLayout();
+        this.mMainDexTypeList = mainDexTypeList;
+        this.mMinimalMainDex = minimalMainDex;
+    }
+
+    /**
+     * 分包过程中的一个Dex
+     */
+    private static final class Slot {
+
+        /** 上一次构建中的编号，新开的Dex为-1 */
+        final int previousId;
+
+        DexCapacity capacity;
+
+        /** 按写入顺序排列 */
+        final List<DexClassNode> classes = new ArrayList<>();
+
+        boolean dirty;
+
+        Slot(int previousId, DexCapacity capacity) {
+            this.previousId = previousId;
+            this.capacity = capacity;
+        }
+
+    }
+
+    private boolean isMainClass(DexType type) {
+        return mMainDexTypeList != null && mMainDexTypeList.contains(type);
+    }
+
+    @Override
+    protected int doSplit() {
+        mReport = null;
+        mLayout = null;
+        Map<DexType, DexClassNode> classes = new HashMap<>();
+        getClassPool().stream().forEach(dcn -> classes.put(dcn.type, dcn));
+        // 生成smali文本计算Hash的开销较大，并行计算
+        Map<DexType, String> digests = classes.values().parallelStream()
+                .collect(Collectors.toConcurrentMap(dcn -> dcn.type, DexSplitLayout::digestOf));
+
+        List<Slot> slots = new ArrayList<>();
+        Slot mainSlot = new Slot(mPreviousLayout.getDexIds().contains(1) ? 1 : -1,
+                createDexCapacity());
+        slots.add(mainSlot);
+        for (int previousId : mPreviousLayout.getDexIds()) {
+            if (previousId != 1) {
+                slots.add(new Slot(previousId, createDexCapacity()));
+            }
+        }
+
+        // 先放入内容没有变化的类，再尝试把变化的类放回原来的Dex
+        List<DexClassNode> pending = new ArrayList<>();
+        Map<Slot, List<DexClassNode>> candidates = new HashMap<>();
+        Set<DexClassNode> changed = Collections.newSetFromMap(new IdentityHashMap<>());
+        int removedCount = 0;
+        for (Slot slot : slots) {
+            List<DexClassNode> kept = new ArrayList<>();
+            candidates.put(slot, kept);
+            for (DexType type : mPreviousLayout.getClasses(slot.previousId)) {
+                DexClassNode dcn = classes.get(type);
+                if (dcn == null) {
+                    removedCount++;
+                    slot.dirty = true;
+                } else if (slot == mainSlot ? mMinimalMainDex && !isMainClass(type)
+                        : isMainClass(type)) {
+                    pending.add(dcn);
+                    slot.dirty = true;
+                } else if (!digests.get(type).equals(mPreviousLayout.getDigest(type))) {
+                    changed.add(dcn);
+                    kept.add(dcn);
+                    slot.dirty = true;
+                } else if (slot.capacity.tryAdd(type)) {
+                    kept.add(dcn);
+                } else {
+                    // 限制比上一次构建更严格
+                    pending.add(dcn);
+                    slot.dirty = true;
+                }
+            }
+        }
+        for (Slot slot : slots) {
+            for (DexClassNode dcn : candidates.get(slot)) {
+                if (!changed.contains(dcn) || slot.capacity.tryAdd(dcn.type)) {
+                    slot.classes.add(dcn);
+                } else {
+                    pending.add(dcn);
+                }
+            }
+        }
+
+        int newCount = 0;
+        for (DexClassNode dcn : classes.values()) {
+            if (mPreviousLayout.getDexId(dcn.type) < 0) {
+                pending.add(dcn);
+                newCount++;
+            }
+        }
+        Comparator<DexClassNode> order = Comparator.comparing(dcn -> {
+            String typeDesc = dcn.type.toTypeDescriptor();
+            return typeDesc.replace('$', '0');
+        });
+        pending.sort(order);
+
+        List<DexClassNode> others = new ArrayList<>();
+        for (DexClassNode dcn : pending) {
+            if (!isMainClass(dcn.type)) {
+                others.add(dcn);
+            } else if (!addToMainDex(mainSlot, dcn, others)) {
+                return getOverflowError();
+            }
+        }
+        others.sort(order);
+        for (DexClassNode dcn : others) {
+            Slot target = findSlot(slots, mainSlot, dcn.type);
+            if (target == null) {
+                target = new Slot(-1, createDexCapacity());
+                int kind = target.capacity.checkFits(dcn.type);
+                if (kind >= 0) {
+                    recordOverflow(slots.size() + 1, target.capacity, dcn, kind);
+                    return getOverflowError();
+                }
+                slots.add(target);
+            }
+            target.capacity.add(dcn.type);
+            target.classes.add(dcn);
+            target.dirty = true;
+        }
+
+        // 主Dex始终保留，其余被删空的Dex去掉，编号依次前移
+        mReport = new Report(newCount, removedCount);
+        mLayout = new DexSplitLayout();
+        int nextDexId = 1;
+        for (Slot slot : slots) {
+            if (slot != mainSlot && slot.classes.isEmpty()) {
+                continue;
+            }
+            int dexId = nextDexId++;
+            DexFileNode dexFileNode = getDexFile(dexId);
+            setDexCapacity(dexId, slot.capacity);
+            for (DexClassNode dcn : slot.classes) {
+                addClassToDexFile(dexFileNode, dcn);
+                mLayout.addClass(dexId, dcn.type, digests.get(dcn.type));
+                int previousId = mPreviousLayout.getDexId(dcn.type);
+                if (previousId >= 0 && previousId != slot.previousId) {
+                    mReport.mMovedClasses.add(dcn.type);
+                }
+            }
+            if (slot.previousId >= 0) {
+                mReport.mPreviousDexIds.put(dexId, slot.previousId);
+            }
+            if (!slot.dirty && slot.previousId >= 0) {
+                mReport.mUnchangedDexIds.add(dexId);
+            }
+        }
+        if (mMinimalMainDex && nextDexId == 2) {
+            getDexFile(2);
+        }
+        return SPLIT_SUCCESS;
+    }
+
+    /**
+     * 主Dex放不下时从末尾开始移出非mainDexList的类，直到能够放下
+     *
+     * @param evicted 被移出的类
+     */
+    private boolean addToMainDex(Slot mainSlot, DexClassNode dcn, List<DexClassNode> evicted) {
+        mainSlot.dirty = true;
+        int kind = mainSlot.capacity.checkFits(dcn.type);
+        for (int i = mainSlot.classes.size() - 1; kind >= 0 && i >= 0; i--) {
+            DexClassNode victim = mainSlot.classes.get(i);
+            if (isMainClass(victim.type)) {
+                continue;
+            }
+            mainSlot.classes.remove(i);
+            evicted.add(victim);
+            // DexCapacity只能加入，移出后重新统计
+            mainSlot.capacity = createDexCapacity();
+            for (DexClassNode remaining : mainSlot.classes) {
+                mainSlot.capacity.add(remaining.type);
+            }
+            kind = mainSlot.capacity.checkFits(dcn.type);
+        }
+        if (kind >= 0) {
+            recordOverflow(1, mainSlot.capacity, dcn, kind);
+            return false;
+        }
+        mainSlot.capacity.add(dcn.type);
+        mainSlot.classes.add(dcn);
+        return true;
+    }
+
+    /**
+     * @return 优先选择已经变化的Dex，其次是编号最大的未变化的Dex，都放不下时返回null
+     */
+    private Slot findSlot(List<Slot> slots, Slot mainSlot, DexType type) {
+        for (Slot slot : slots) {
+            if (slot.dirty && (slot != mainSlot || !mMinimalMainDex)
+                    && slot.capacity.checkFits(type) < 0) {
+                return slot;
+            }
+        }
+        for (int i = slots.size() - 1; i >= 0; i--) {
+            Slot slot = slots.get(i);
+            if (!slot.dirty && (slot != mainSlot || !mMinimalMainDex)
+                    && slot.capacity.checkFits(type) < 0) {
+                return slot;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return 本次分包的结果，作为下一次构建的输入
+     */
+    public DexSplitLayout getLayout() {
+        return mLayout;
+    }
+
+    public Report getReport() {
+        return mReport;
+    }
+
+    /**
+     * 与上一次构建相比的变化
+     */
+    public static final class Report {
+
+        private final int mNewClassCount;
+
+        private final int mRemovedClassCount;
+
+        private final Set<DexType> mMovedClasses = new HashSet<>();
+
+        private final Set<Integer> mUnchangedDexIds = new TreeSet<>();
+
+        private final Map<Integer, Integer> mPreviousDexIds = new HashMap<>();
+
+        Report(int newClassCount, int removedClassCount) {
+            this.mNewClassCount = newClassCount;
+            this.mRemovedClassCount = removedClassCount;
+        }
+
+        public int getNewClassCount() {
+            return mNewClassCount;
+        }
+
+        public int getRemovedClassCount() {
+            return mRemovedClassCount;
+        }
+
+        /**
+         * @return 保留下来但换了Dex的类，不包括只是因为编号前移而换了编号的Dex
+         */
+        public Set<DexType> getMovedClasses() {
+            return Collections.unmodifiableSet(mMovedClasses);
+        }
+
+        /**
+         * @return 类的集合、顺序与内容都没有变化的Dex，使用本次的编号
+         */
+        public Set<Integer> getUnchangedDexIds() {
+            return Collections.unmodifiableSet(mUnchangedDexIds);
+        }
+
+        /**
+         * @return 对应的上一次构建中的编号，新开的Dex返回-1
+         */
+        public int getPreviousDexId(int dexId) {
+            Integer previousId = mPreviousDexIds.get(dexId);
+            return previousId != null ? previousId : -1;
+        }
+
+        @Override
+        public String toString() {
+            return "new classes: " + mNewClassCount + ", removed: " + mRemovedClassCount
+                    + ", moved: " + mMovedClasses.size() + ", unchanged dex: " + mUnchangedDexIds
+                    + "\n";
+        }
+
+    }
+
+}
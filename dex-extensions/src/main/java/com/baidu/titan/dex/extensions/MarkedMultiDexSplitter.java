@@ -18,8 +18,6 @@ package com.baidu.titan.dex.extensions;
 
 import com.baidu.titan.dex.node.DexClassNode;
 import com.baidu.titan.dex.node.DexClassPoolNode;
-import com.baidu.titan.dex.node.DexFileNode;
-import com.baidu.titan.dex.util.DexIdsCollector;
 import com.baidu.titan.dex.visitor.DexClassPoolNodeVisitor;
 
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -33,8 +31,6 @@ import java.util.concurrent.atomic.AtomicInteger;
  */
 public class MarkedMultiDexSplitter extends MultiDexSplitter {
 
-    private DexIdsCollector.Cache mDexIdsCache = new DexIdsCollector.Cache();
-
     public MarkedMultiDexSplitter(DexClassPoolNode classPool) {
         super(classPool);
     }
@@ -51,14 +47,6 @@ public class MarkedMultiDexSplitter extends MultiDexSplitter {
         dcn.setExtraInfo(EXTRA_CLASS_DEXID, dexId);
     }
 
-    @Override
-    protected DexFileNode createDexFileNode() {
-        DexFileNode dexFileNode = new DexFileNode(true, mDexIdsCache);
-        return dexFileNode;
-    }
-
-
-
     @Override
     protected int doSplit() {
 
@@ -78,10 +66,10 @@ public class MarkedMultiDexSplitter extends MultiDexSplitter {
                 int dexId = getDexIdForClassNode(dcn);
                 if (dexId < 0) {
                     result.set(SPLIT_ERROR_DEX_ID_MISSING);
+                    setErrorMessage("class " + dcn.type.toTypeDescriptor() + " has no dex id");
                 } else {
-                    DexFileNode dfn = getDexFile(dexId);
-                    boolean success = dfn.addClass(dcn);
-                    result.set(success ? SPLIT_SUCCESS : SPLIT_ERROR_TOO_MANY_MEMBER_IDS);
+                    boolean success = tryAddClass(dexId, dcn);
+                    result.set(success ? SPLIT_SUCCESS : getOverflowError());
                 }
             }
 
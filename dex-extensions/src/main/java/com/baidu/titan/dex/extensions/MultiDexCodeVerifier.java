@@ -0,0 +1,279 @@
+/*
+ * Copyright (C) Baidu Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.baidu.titan.dex.extensions;
+
+import com.baidu.titan.dex.DexType;
+import com.baidu.titan.dex.node.DexClassNode;
+import com.baidu.titan.dex.node.DexCodeNode;
+import com.baidu.titan.dex.node.DexFileNode;
+import com.baidu.titan.dex.node.DexMethodNode;
+import com.baidu.titan.dex.node.MultiDexFileNode;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * 对MultiDexFileNode中的所有方法进行结构检查，按类在ForkJoinPool中并行进行。<br>
+ *
+ * 每个方法依次经过{@link DexCodeFormatVerifier}与{@link DexCodeRegisterCalculator}，
+ * 检查指令格式、invoke操作数、Label，以及声明的寄存器数量是否与指令、方法原型相符，
+ * 所有问题汇总到{@link Report}中，不会在第一个问题处抛出异常。<br>
+ *
+ * 设置{@link #setMaxErrors(int)}后，发现的问题达到上限时不再检查剩余的方法，
+ * 由于并行执行，此时报告中具体是哪些问题不是确定的。
+ *
+ * @author zhangdi07@baidu.com
+ * @since 2019/3/31
+ */
+public class MultiDexCodeVerifier {
+
+    private int mMaxErrors;
+
+    public MultiDexCodeVerifier() {
+    }
+
+    /**
+     * @param maxErrors 发现这么多问题后停止检查，0表示不限制
+     */
+    public void setMaxErrors(int maxErrors) {
+        this.mMaxErrors = maxErrors;
+    }
+
+    /**
+     * 使用公共ForkJoinPool并行检查
+     */
+    public Report verify(MultiDexFileNode mdfn) {
+        return verify(mdfn, ForkJoinPool.commonPool());
+    }
+
+    public Report verify(MultiDexFileNode mdfn, ForkJoinPool pool) {
+        List<DexClassNode> classes = new ArrayList<>();
+        for (DexFileNode dfn : mdfn.getDexNodes().values()) {
+            classes.addAll(dfn.getClassesList());
+        }
+        return verify(classes, pool);
+    }
+
+    public Report verify(List<DexClassNode> classes, ForkJoinPool pool) {
+        AtomicInteger errorCount = new AtomicInteger();
+        AtomicInteger methodCount = new AtomicInteger();
+        AtomicBoolean skipped = new AtomicBoolean();
+        List<List<Issue>> issues = new ArrayList<>(Collections.nCopies(classes.size(), null));
+        pool.submit(() -> IntStream.range(0, classes.size()).parallel()
+                .forEach(i -> issues.set(i,
+                        verifyClass(classes.get(i), errorCount, methodCount, skipped)))).join();
+
+        List<Issue> all = issues.stream()
+                .filter(list -> list != null)
+                .flatMap(List::stream)
+                .collect(Collectors.toList());
+        boolean stopped = skipped.get();
+        if (mMaxErrors > 0 && all.size() > mMaxErrors) {
+            all = new ArrayList<>(all.subList(0, mMaxErrors));
+            stopped = true;
+        }
+        return new Report(all, methodCount.get(), stopped);
+    }
+
+    private List<Issue> verifyClass(DexClassNode dcn, AtomicInteger errorCount,
+                                    AtomicInteger methodCount, AtomicBoolean skipped) {
+        List<Issue> issues = null;
+        for (DexMethodNode dmn : dcn.getMethods()) {
+            DexCodeNode code = dmn.getCode();
+            if (code == null) {
+                continue;
+            }
+            if (mMaxErrors > 0 && errorCount.get() >= mMaxErrors) {
+                skipped.set(true);
+                break;
+            }
+            List<Issue> methodIssues = verifyMethod(dcn, dmn, code);
+            methodCount.incrementAndGet();
+            if (!methodIssues.isEmpty()) {
+                if (issues == null) {
+                    issues = new ArrayList<>();
+                }
+                issues.addAll(methodIssues);
+                errorCount.addAndGet(methodIssues.size());
+            }
+        }
+        return issues;
+    }
+
+    private static List<Issue> verifyMethod(DexClassNode dcn, DexMethodNode dmn,
+                                            DexCodeNode code) {
+        List<Issue> issues = new ArrayList<>();
+        DexCodeFormatVerifier.VerifyCallback callback = new DexCodeFormatVerifier.VerifyCallback() {
+
+            @Override
+            public void onError(String msg) {
+                onError(DexCodeFormatVerifier.ERROR_MALFORMED_CODE, msg);
+            }
+
+            @Override
+            public void onError(int kind, String msg) {
+                issues.add(new Issue(dcn.type, dmn, kind, msg));
+            }
+
+        };
+        DexCodeRegisterCalculator calculator = new DexCodeRegisterCalculator(dmn);
+        try {
+            code.accept(new DexCodeFormatVerifier(calculator, callback));
+        } catch (RuntimeException e) {
+            callback.onError(DexCodeFormatVerifier.ERROR_MALFORMED_CODE, e.toString());
+            return issues;
+        }
+        // 宽寄存器占用两个寄存器，DexCodeFormatVerifier只检查了起始编号
+        boolean reported = issues.stream()
+                .anyMatch(issue -> issue.getKind() == DexCodeFormatVerifier.ERROR_REGISTER_COUNT);
+        if (!reported && code.getLocalRegCount() < calculator.getLocalRegCount()) {
+            callback.onError(DexCodeFormatVerifier.ERROR_REGISTER_COUNT,
+                    String.format("code uses %d local regs, but only %d declared",
+                            calculator.getLocalRegCount(), code.getLocalRegCount()));
+        }
+        if (code.getParameterRegCount() != calculator.getParaRegCount()) {
+            callback.onError(DexCodeFormatVerifier.ERROR_REGISTER_COUNT,
+                    String.format("method prototype requires %d parameter regs, but %d declared",
+                            calculator.getParaRegCount(), code.getParameterRegCount()));
+        }
+        return issues;
+    }
+
+    /**
+     * 一个方法中的一个问题
+     */
+    public static final class Issue {
+
+        private final DexType mOwner;
+
+        private final DexMethodNode mMethod;
+
+        private final int mKind;
+
+        private final String mMessage;
+
+        Issue(DexType owner, DexMethodNode method, int kind, String message) {
+            this.mOwner = owner;
+            this.mMethod = method;
+            this.mKind = kind;
+            this.mMessage = message;
+        }
+
+        public DexType getOwner() {
+            return mOwner;
+        }
+
+        public DexMethodNode getMethod() {
+            return mMethod;
+        }
+
+        /**
+         * @return DexCodeFormatVerifier.ERROR_*
+         */
+        public int getKind() {
+            return mKind;
+        }
+
+        public String getMessage() {
+            return mMessage;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(mOwner.toTypeDescriptor()).append("->").append(mMethod.name).append('(');
+            for (DexType para : mMethod.parameters.types()) {
+                sb.append(para.toTypeDescriptor());
+            }
+            sb.append(')').append(mMethod.returnType.toTypeDescriptor());
+            sb.append(" [").append(DexCodeFormatVerifier.errorKindName(mKind)).append("] ")
+                    .append(mMessage);
+            return sb.toString();
+        }
+
+    }
+
+    /**
+     * 检查结果，问题按Dex、类以及方法的顺序排列
+     */
+    public static final class Report {
+
+        private final List<Issue> mIssues;
+
+        private final int mVerifiedMethodCount;
+
+        private final boolean mStopped;
+
+        Report(List<Issue> issues, int verifiedMethodCount, boolean stopped) {
+            this.mIssues = Collections.unmodifiableList(issues);
+            this.mVerifiedMethodCount = verifiedMethodCount;
+            this.mStopped = stopped;
+        }
+
+        public boolean hasErrors() {
+            return !mIssues.isEmpty();
+        }
+
+        public List<Issue> getIssues() {
+            return mIssues;
+        }
+
+        public List<Issue> getIssues(DexType owner) {
+            return mIssues.stream()
+                    .filter(issue -> issue.getOwner().equals(owner))
+                    .collect(Collectors.toList());
+        }
+
+        public int getIssueCount(int kind) {
+            return (int) mIssues.stream().filter(issue -> issue.getKind() == kind).count();
+        }
+
+        public int getVerifiedMethodCount() {
+            return mVerifiedMethodCount;
+        }
+
+        /**
+         * @return 是否因为达到问题数量上限而没有检查全部方法
+         */
+        public boolean isStopped() {
+            return mStopped;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("verified ").append(mVerifiedMethodCount).append(" methods, ")
+                    .append(mIssues.size()).append(" issues");
+            if (mStopped) {
+                sb.append(" (stopped)");
+            }
+            sb.append('\n');
+            for (Issue issue : mIssues) {
+                sb.append(issue).append('\n');
+            }
+            return sb.toString();
+        }
+
+    }
+
+}
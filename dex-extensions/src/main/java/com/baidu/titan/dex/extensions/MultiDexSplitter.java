@@ -21,6 +21,11 @@ import com.baidu.titan.dex.node.DexClassPoolNode;
 import com.baidu.titan.dex.node.DexFileNode;
 import com.baidu.titan.dex.node.MultiDexFileNode;
 
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Collectors;
+
 /**
  *
  * 多Dex分包器：因为一个Dex文件的索引有65K限制，该类是为了而引入的
@@ -34,6 +39,16 @@ public abstract class MultiDexSplitter {
 
     private MultiDexFileNode mMultiDexFileNode = new MultiDexFileNode();
 
+    private DexRefIndex mRefIndex;
+
+    private Map<Integer, DexCapacity> mDexCapacities = new HashMap<>();
+
+    private int[] mIdLimits;
+
+    private int mOverflowKind = -1;
+
+    private String mErrorMessage;
+
     public MultiDexSplitter(DexClassPoolNode classPool) {
         this.mDexClassPool = classPool;
     }
@@ -42,8 +57,50 @@ public abstract class MultiDexSplitter {
 
     public static final int SPLIT_ERROR_TOO_MANY_MEMBER_IDS = -1;
 
+    public static final int SPLIT_ERROR_TOO_MANY_TYPE_IDS = -3;
+
+    public static final int SPLIT_ERROR_TOO_MANY_PROTO_IDS = -4;
+
+    public static final int SPLIT_ERROR_TOO_MANY_STRING_IDS = -5;
+
     public int split() {
-        return doSplit();
+        mErrorMessage = null;
+        int result = doSplit();
+        if (result == SPLIT_SUCCESS) {
+            mErrorMessage = null;
+        }
+        return result;
+    }
+
+    /**
+     * @return 分包失败的原因，包括出错的类以及超出的限制，成功时为null
+     */
+    public String getErrorMessage() {
+        return mErrorMessage;
+    }
+
+    protected void setErrorMessage(String message) {
+        this.mErrorMessage = message;
+    }
+
+    /**
+     * 修改每个Dex指定KIND的ID数量限制，需要在split之前调用
+     *
+     * @param kind DexRefIndex.KIND_*
+     */
+    public void setIdLimit(int kind, int limit) {
+        if (mIdLimits == null) {
+            mIdLimits = new int[DexRefIndex.KIND_COUNT];
+            Arrays.fill(mIdLimits, -1);
+        }
+        mIdLimits[kind] = limit;
+    }
+
+    /**
+     * 设置每个Dex的StringID预算，例如0x10000可以保证不需要const-string/jumbo
+     */
+    public void setStringIdLimit(int limit) {
+        setIdLimit(DexRefIndex.KIND_STRING, limit);
     }
 
     protected abstract int doSplit();
@@ -61,11 +118,127 @@ public abstract class MultiDexSplitter {
         return dexFileNode;
     }
 
+    /**
+     * @return 类池中所有类的引用索引，第一次调用时构建
+     */
+    protected DexRefIndex getRefIndex() {
+        if (mRefIndex == null) {
+            mRefIndex = DexRefIndex.build(mDexClassPool.stream().collect(Collectors.toList()));
+        }
+        return mRefIndex;
+    }
+
+    protected DexCapacity getDexCapacity(int dexId) {
+        DexCapacity capacity = mDexCapacities.get(dexId);
+        if (capacity == null) {
+            capacity = createDexCapacity();
+            mDexCapacities.put(dexId, capacity);
+        }
+        return capacity;
+    }
+
+    /**
+     * @return 一个空Dex的容量模型，已应用{@link #setIdLimit(int, int)}设置的限制
+     */
+    protected DexCapacity createDexCapacity() {
+        DexCapacity capacity = new DexCapacity(getRefIndex());
+        if (mIdLimits != null) {
+            for (int kind = 0; kind < mIdLimits.length; kind++) {
+                if (mIdLimits[kind] >= 0) {
+                    capacity.setLimit(kind, mIdLimits[kind]);
+                }
+            }
+        }
+        return capacity;
+    }
+
+    /**
+     * 不通过{@link #tryAddClass(int, DexClassNode)}装箱的分包器在完成后登记各个Dex的容量，
+     * 以便统计重复的ID
+     */
+    protected void setDexCapacity(int dexId, DexCapacity capacity) {
+        mDexCapacities.put(dexId, capacity);
+    }
+
+    /**
+     * 一个类引用其它Dex中的成员时，对应的ID在两个Dex中都要占用
+     *
+     * @param kind DexRefIndex.KIND_*
+     * @return 指定Dex中同时出现在其它Dex中的ID个数
+     */
+    public int getDuplicatedIdCount(int dexId, int kind) {
+        DexCapacity capacity = mDexCapacities.get(dexId);
+        if (capacity == null) {
+            return 0;
+        }
+        DexIdsBitSet others = new DexIdsBitSet(getRefIndex().getIdCount(kind));
+        for (Map.Entry<Integer, DexCapacity> entry : mDexCapacities.entrySet()) {
+            if (entry.getKey() != dexId) {
+                others.addAll(entry.getValue().getUsedIds(kind));
+            }
+        }
+        return capacity.getUsedIds(kind).countIntersection(others);
+    }
+
+    /**
+     * 通过容量模型判断能否放入，能放入时加入对应的DexFileNode，
+     * 不能放入时记录超出的限制，参见{@link #getOverflowError()}
+     *
+     * @return 是否加入成功
+     */
+    protected boolean tryAddClass(int dexId, DexClassNode dcn) {
+        DexCapacity capacity = getDexCapacity(dexId);
+        int kind = capacity.checkFits(dcn.type);
+        if (kind >= 0) {
+            recordOverflow(dexId, capacity, dcn, kind);
+            return false;
+        }
+        capacity.add(dcn.type);
+        addClassToDexFile(getDexFile(dexId), dcn);
+        return true;
+    }
+
+    /**
+     * 记录类无法放入指定Dex的原因，之后可通过{@link #getOverflowError()}获取错误码
+     *
+     * @param kind 超出限制的DexRefIndex.KIND_*
+     */
+    protected void recordOverflow(int dexId, DexCapacity capacity, DexClassNode dcn, int kind) {
+        mOverflowKind = kind;
+        mErrorMessage = String.format("class %s does not fit in dex %d: %s ids %d + %d > %d",
+                dcn.type.toTypeDescriptor(), dexId, DexRefIndex.kindName(kind),
+                capacity.getIdCount(kind), capacity.countNewIds(dcn.type, kind),
+                capacity.getLimit(kind));
+    }
+
+    /**
+     * @return 最近一次记录的超限对应的错误码
+     */
+    protected int getOverflowError() {
+        switch (mOverflowKind) {
+            case DexRefIndex.KIND_TYPE:
+                return SPLIT_ERROR_TOO_MANY_TYPE_IDS;
+            case DexRefIndex.KIND_PROTO:
+                return SPLIT_ERROR_TOO_MANY_PROTO_IDS;
+            case DexRefIndex.KIND_STRING:
+                return SPLIT_ERROR_TOO_MANY_STRING_IDS;
+            default:
+                return SPLIT_ERROR_TOO_MANY_MEMBER_IDS;
+        }
+    }
+
     protected DexClassPoolNode getClassPool() {
         return mDexClassPool;
     }
 
-    protected abstract DexFileNode createDexFileNode();
+    /**
+     * 创建新的DexFileNode，ID数量由{@link DexCapacity}检查，DexFileNode本身不再重复统计
+     *
+     * @return dex file node
+     */
+    protected DexFileNode createDexFileNode() {
+        return new DexFileNode();
+    }
 
     public MultiDexFileNode getMultiDexFileNode() {
         return mMultiDexFileNode;
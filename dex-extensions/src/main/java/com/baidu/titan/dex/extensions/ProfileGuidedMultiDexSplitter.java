@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) Baidu Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.baidu.titan.dex.extensions;
+
+import com.baidu.titan.dex.DexType;
+import com.baidu.titan.dex.node.DexClassNode;
+import com.baidu.titan.dex.node.DexClassPoolNode;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * 根据启动Profile布局的分包器，用于优化冷启动。<br>
+ *
+ * mainDexList中的类最先放入主Dex，之后Profile中的类按首次使用顺序依次填充主Dex以及后续的Dex，
+ * 不在Profile中的冷类不会放入主Dex，从最后一个放有Profile类的Dex（至少是第二个Dex）开始，
+ * 按{@link BestEffortMultiDexSplitter}的顺序填充。
+ * 每个DexFileNode中的类保持加入的顺序，写入时class_def的顺序由Writer决定。<br>
+ *
+ * 分包完成后可以通过{@link #getReport()}查看Profile中的类分布在哪些Dex中
+ *
+ * @author zhangdi07@baidu.com
+ * @since 2019/3/29
+ */
+public class ProfileGuidedMultiDexSplitter extends MultiDexSplitter {
+
+    private final StartupProfile mProfile;
+
+    private final Set<DexType> mMainDexTypeList;
+
+    private Report mReport;
+
+    /**
+     * @param mainDexTypeList 必须放入主Dex的类，可以为null
+     */
+    public ProfileGuidedMultiDexSplitter(DexClassPoolNode classPool, StartupProfile profile,
+                                         Set<DexType> mainDexTypeList) {
+        super(classPool);
+        this.mProfile = profile;
+        this.mMainDexTypeList = mainDexTypeList;
+    }
+
+    /**
+     * Profile中的类在各个Dex中的分布
+     */
+    public static final class Report {
+
+        private final int mProfileSize;
+
+        private final List<DexType> mMissingClasses = new ArrayList<>();
+
+        /** dexId -> {Profile中的类数，其它类数} */
+        private final Map<Integer, int[]> mDexCounts = new TreeMap<>();
+
+        Report(int profileSize) {
+            this.mProfileSize = profileSize;
+        }
+
+        private int[] counts(int dexId) {
+            return mDexCounts.computeIfAbsent(dexId, k -> new int[2]);
+        }
+
+        /**
+         * @return Profile中不在类池中的类
+         */
+        public List<DexType> getMissingClasses() {
+            return Collections.unmodifiableList(mMissingClasses);
+        }
+
+        public int getProfiledClassCount(int dexId) {
+            int[] counts = mDexCounts.get(dexId);
+            return counts != null ? counts[0] : 0;
+        }
+
+        public int getColdClassCount(int dexId) {
+            int[] counts = mDexCounts.get(dexId);
+            return counts != null ? counts[1] : 0;
+        }
+
+        /**
+         * @return 放入指定Dex的Profile类占Profile中全部类的比例
+         */
+        public double getProfileCoverage(int dexId) {
+            return mProfileSize == 0 ? 0 : (double) getProfiledClassCount(dexId) / mProfileSize;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("profile classes: %d, missing: %d%n",
+                    mProfileSize, mMissingClasses.size()));
+            for (Map.Entry<Integer, int[]> entry : mDexCounts.entrySet()) {
+                sb.append(String.format("dex %d: %d profiled (%.1f%%), %d cold%n",
+                        entry.getKey(), entry.getValue()[0],
+                        getProfileCoverage(entry.getKey()) * 100, entry.getValue()[1]));
+            }
+            return sb.toString();
+        }
+
+    }
+
+    /**
+     * @return 分包结果中Profile的分布，分包成功之后可用
+     */
+    public Report getReport() {
+        return mReport;
+    }
+
+    @Override
+    protected int doSplit() {
+        DexClassPoolNode classPool = getClassPool();
+        Report report = new Report(mProfile.size());
+        int dexId = 1;
+
+        if (mMainDexTypeList != null && mMainDexTypeList.size() > 0) {
+            // 主Dex中的类同样按首次使用顺序排列，不在Profile中的排在最后
+            List<DexClassNode> mainClasses = classPool.stream()
+                    .filter(dcn -> mMainDexTypeList.contains(dcn.type))
+                    .sorted(Comparator.comparingInt(dcn -> {
+                        int order = mProfile.getOrder(dcn.type);
+                        return order >= 0 ? order : Integer.MAX_VALUE;
+                    }))
+                    .collect(Collectors.toList());
+            for (DexClassNode dcn : mainClasses) {
+                if (!tryAddClass(1, dcn)) {
+                    return getOverflowError();
+                }
+                report.counts(1)[mProfile.contains(dcn.type) ? 0 : 1]++;
+            }
+        }
+
+        getDexFile(dexId);
+        for (DexType type : mProfile.getClasses()) {
+            DexClassNode dcn = classPool.getClass(type);
+            if (dcn == null) {
+                report.mMissingClasses.add(type);
+                continue;
+            }
+            if (mMainDexTypeList != null && mMainDexTypeList.contains(type)) {
+                continue;
+            }
+            if (!tryAddClass(dexId, dcn)) {
+                dexId++;
+                if (!tryAddClass(dexId, dcn)) {
+                    return getOverflowError();
+                }
+            }
+            report.counts(dexId)[0]++;
+        }
+
+        List<DexClassNode> coldClasses = classPool.stream()
+                .filter(dcn -> !mProfile.contains(dcn.type)
+                        && (mMainDexTypeList == null || !mMainDexTypeList.contains(dcn.type)))
+                .sorted(Comparator.comparing(dcn -> {
+                    String typeDesc = dcn.type.toTypeDescriptor();
+                    return typeDesc.replace('$', '0');
+                }))
+                .collect(Collectors.toList());
+        dexId = Math.max(dexId, 2);
+        for (DexClassNode dcn : coldClasses) {
+            if (!tryAddClass(dexId, dcn)) {
+                dexId++;
+                if (!tryAddClass(dexId, dcn)) {
+                    return getOverflowError();
+                }
+            }
+            report.counts(dexId)[1]++;
+        }
+        mReport = report;
+        return SPLIT_SUCCESS;
+    }
+
+}
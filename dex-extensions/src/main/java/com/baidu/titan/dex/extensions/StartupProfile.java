@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) Baidu Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.baidu.titan.dex.extensions;
+
+import com.baidu.titan.dex.DexItemFactory;
+import com.baidu.titan.dex.DexType;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 启动Profile：按首次使用顺序排列的类。<br>
+ *
+ * 支持两种文本格式，可以混用：
+ * <ul>
+ *     <li>ART文本Profile，如{@code HSPLcom/foo/Bar;->run()V}或{@code Lcom/foo/Bar;}，
+ *     方法行取其所属的类，含通配符的规则被忽略</li>
+ *     <li>类列表，如{@code com.foo.Bar}或{@code com/foo/Bar.class}</li>
+ * </ul>
+ * 空行以及#开头的注释被忽略，同一个类只保留第一次出现的位置
+ *
+ * @author zhangdi07@baidu.com
+ * @since 2019/3/29
+ */
+public final class StartupProfile {
+
+    private final List<DexType> mClasses = new ArrayList<>();
+
+    private final Map<DexType, Integer> mOrders = new HashMap<>();
+
+    public StartupProfile() {
+    }
+
+    public static StartupProfile parse(File file, DexItemFactory factory) throws IOException {
+        try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            return parse(reader, factory);
+        }
+    }
+
+    public static StartupProfile parse(Reader reader, DexItemFactory factory) throws IOException {
+        StartupProfile profile = new StartupProfile();
+        BufferedReader br = reader instanceof BufferedReader ?
+                (BufferedReader) reader : new BufferedReader(reader);
+        String line;
+        while ((line = br.readLine()) != null) {
+            String descriptor = toTypeDescriptor(line.trim());
+            if (descriptor != null) {
+                profile.addClass(factory.createType(descriptor));
+            }
+        }
+        return profile;
+    }
+
+    /**
+     * @return 行中的类描述符，不是类或方法规则时返回null
+     */
+    private static String toTypeDescriptor(String line) {
+        if (line.isEmpty() || line.startsWith("#")
+                || line.indexOf('*') >= 0 || line.indexOf('?') >= 0) {
+            return null;
+        }
+        int end = line.indexOf(';');
+        if (end >= 0) {
+            // ART Profile：可选的HSP标记之后是类描述符
+            int start = 0;
+            while (start < end && "HSP".indexOf(line.charAt(start)) >= 0) {
+                start++;
+            }
+            return line.charAt(start) == 'L' ? line.substring(start, end + 1) : null;
+        }
+        String name = line.endsWith(".class") ?
+                line.substring(0, line.length() - ".class".length()) : line;
+        return "L" + name.replace('.', '/') + ";";
+    }
+
+    /**
+     * 加入一个类，已存在时保持原先的顺序
+     */
+    public void addClass(DexType type) {
+        if (!mOrders.containsKey(type)) {
+            mOrders.put(type, mClasses.size());
+            mClasses.add(type);
+        }
+    }
+
+    /**
+     * @return 按首次使用顺序排列的类
+     */
+    public List<DexType> getClasses() {
+        return Collections.unmodifiableList(mClasses);
+    }
+
+    public boolean contains(DexType type) {
+        return mOrders.containsKey(type);
+    }
+
+    /**
+     * @return 类的首次使用顺序，不在Profile中时返回-1
+     */
+    public int getOrder(DexType type) {
+        Integer order = mOrders.get(type);
+        return order != null ? order : -1;
+    }
+
+    public int size() {
+        return mClasses.size();
+    }
+
+}
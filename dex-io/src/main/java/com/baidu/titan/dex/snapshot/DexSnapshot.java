@@ -0,0 +1,690 @@
+/*
+ * Copyright (C) Baidu Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.baidu.titan.dex.snapshot;
+
+import com.baidu.titan.dex.DexAccessFlags;
+import com.baidu.titan.dex.DexAnnotationVisibilitys;
+import com.baidu.titan.dex.DexConst;
+import com.baidu.titan.dex.DexFileVersion;
+import com.baidu.titan.dex.DexItemFactory;
+import com.baidu.titan.dex.DexRegister;
+import com.baidu.titan.dex.DexRegisterList;
+import com.baidu.titan.dex.DexString;
+import com.baidu.titan.dex.DexType;
+import com.baidu.titan.dex.DexTypeList;
+import com.baidu.titan.dex.node.DexAnnotationNode;
+import com.baidu.titan.dex.node.DexClassNode;
+import com.baidu.titan.dex.node.DexCodeNode;
+import com.baidu.titan.dex.node.DexFieldNode;
+import com.baidu.titan.dex.node.DexFileNode;
+import com.baidu.titan.dex.node.DexMethodNode;
+import com.baidu.titan.dex.node.MultiDexFileNode;
+import com.baidu.titan.dex.reader.DexReadErrorException;
+import com.baidu.titan.dex.visitor.DexAnnotationVisitor;
+import com.baidu.titan.dex.visitor.DexCodeVisitor;
+import com.baidu.titan.dex.visitor.DexLabel;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+import static com.baidu.titan.dex.snapshot.DexSnapshotFormat.*;
+
+/**
+ * 读取{@link DexSnapshotWriter}写出的快照。<br>
+ *
+ * 文件通过mmap映射，打开时只解析header与目录，类在被访问时才解码，各个Dex可以并行读取。
+ * 同一个DexSnapshot可以被多个线程同时读取
+ *
+ * @author zhangdi07@baidu.com
+ * @since 2019/3/25
+ */
+public final class DexSnapshot {
+
+    private final ByteBuffer mBuffer;
+
+    private final Map<Integer, Section> mSections = new LinkedHashMap<>();
+
+    private final DexItemFactory mFactory;
+
+    private volatile boolean mPackCode;
+
+    private DexSnapshot(ByteBuffer buffer, DexItemFactory factory) {
+        this.mBuffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+        this.mFactory = factory;
+        readHeader();
+    }
+
+    /**
+     * 以只读方式映射快照文件
+     *
+     * @param factory 用于复用字符串与类型对象，可以为null
+     */
+    public static DexSnapshot open(File file, DexItemFactory factory) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            return new DexSnapshot(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()),
+                    factory);
+        }
+    }
+
+    public static DexSnapshot wrap(byte[] content, DexItemFactory factory) {
+        return new DexSnapshot(ByteBuffer.wrap(content), factory);
+    }
+
+    /**
+     * 设置为true时方法体直接解码为紧凑存储，参见{@link DexCodeNode#asPackedVisitor()}
+     */
+    public void setPackCode(boolean packCode) {
+        this.mPackCode = packCode;
+    }
+
+    private void readHeader() {
+        int limit = mBuffer.limit();
+        if (limit < HEADER_SIZE || mBuffer.getInt(0) != MAGIC) {
+            throw new DexReadErrorException("not a dex snapshot");
+        }
+        int version = mBuffer.getInt(4);
+        if (version != FORMAT_VERSION) {
+            throw new DexReadErrorException("unsupported snapshot version " + version);
+        }
+        if (mBuffer.getInt(12) != limit) {
+            throw new DexReadErrorException("snapshot size mismatch, expected "
+                    + mBuffer.getInt(12) + " but was " + limit);
+        }
+        int dexCount = mBuffer.getInt(16);
+        ByteSource directory = new ByteSource(mBuffer, mBuffer.getInt(20));
+        for (int i = 0; i < dexCount; i++) {
+            int dexId = directory.readInt();
+            int offset = directory.readInt();
+            int size = directory.readInt();
+            if (offset < HEADER_SIZE || offset + size > limit) {
+                throw new DexReadErrorException("bad section for dex " + dexId);
+            }
+            mSections.put(dexId, new Section(offset));
+        }
+    }
+
+    /**
+     * 校验header之后所有内容的CRC32，需要读取整个文件
+     */
+    public boolean verifyChecksum() {
+        ByteBuffer content = mBuffer.duplicate();
+        content.position(HEADER_SIZE);
+        CRC32 crc32 = new CRC32();
+        byte[] chunk = new byte[64 * 1024];
+        while (content.hasRemaining()) {
+            int length = Math.min(chunk.length, content.remaining());
+            content.get(chunk, 0, length);
+            crc32.update(chunk, 0, length);
+        }
+        return (int) crc32.getValue() == mBuffer.getInt(HEADER_CHECKSUM_OFFSET);
+    }
+
+    public List<Integer> getDexIds() {
+        return new ArrayList<>(mSections.keySet());
+    }
+
+    private Section section(int dexId) {
+        Section section = mSections.get(dexId);
+        if (section == null) {
+            throw new IllegalArgumentException("no dex " + dexId + " in snapshot");
+        }
+        return section;
+    }
+
+    public int getClassCount(int dexId) {
+        return section(dexId).mClassCount;
+    }
+
+    /**
+     * @return 指定Dex中的类型，顺序与类编号一致
+     */
+    public List<DexType> getClassTypes(int dexId) {
+        Section section = section(dexId);
+        List<DexType> types = new ArrayList<>(section.mClassCount);
+        for (int i = 0; i < section.mClassCount; i++) {
+            types.add(section.classType(i));
+        }
+        return types;
+    }
+
+    public DexClassNode readClass(int dexId, int classIndex) {
+        return section(dexId).readClass(classIndex);
+    }
+
+    /**
+     * @return 类不存在时返回null
+     */
+    public DexClassNode readClass(int dexId, DexType type) {
+        Section section = section(dexId);
+        int classIndex = section.indexOf(type);
+        return classIndex < 0 ? null : section.readClass(classIndex);
+    }
+
+    public DexFileNode readDexFile(int dexId) {
+        Section section = section(dexId);
+        DexFileNode dfn = new DexFileNode();
+        dfn.setDexVersion(section.mDexVersion);
+        for (int i = 0; i < section.mClassCount; i++) {
+            dfn.addClass(section.readClass(i));
+        }
+        return dfn;
+    }
+
+    public MultiDexFileNode readMultiDexFile() {
+        return readMultiDexFile(null);
+    }
+
+    /**
+     * @param executor 用于并行解码各个Dex，为null时顺序解码
+     */
+    public MultiDexFileNode readMultiDexFile(ExecutorService executor) {
+        MultiDexFileNode mdfn = new MultiDexFileNode();
+        if (executor == null) {
+            for (Integer dexId : mSections.keySet()) {
+                mdfn.addDexFile(dexId, readDexFile(dexId));
+            }
+            return mdfn;
+        }
+        Map<Integer, Future<DexFileNode>> futures = new LinkedHashMap<>();
+        for (Integer dexId : mSections.keySet()) {
+            futures.put(dexId, executor.submit(() -> readDexFile(dexId)));
+        }
+        try {
+            for (Map.Entry<Integer, Future<DexFileNode>> entry : futures.entrySet()) {
+                mdfn.addDexFile(entry.getKey(), entry.getValue().get());
+            }
+        } catch (ExecutionException | InterruptedException e) {
+            throw new DexReadErrorException(e);
+        }
+        return mdfn;
+    }
+
+    /**
+     * 单个Dex的字符串表、类型表与类索引，字符串与类型在首次使用时解码并缓存
+     */
+    private final class Section {
+
+        private final int mOffset;
+
+        private final DexFileVersion mDexVersion;
+
+        private final int mStringIndexOffset;
+
+        private final int mTypeIndexOffset;
+
+        private final int mClassCount;
+
+        private final int mClassIndexOffset;
+
+        private final DexString[] mStrings;
+
+        private final DexType[] mTypes;
+
+        private volatile Map<DexType, Integer> mClassIndex;
+
+        Section(int offset) {
+            this.mOffset = offset;
+            ByteSource in = new ByteSource(mBuffer, offset);
+            int dexVersion = in.readInt();
+            this.mDexVersion = dexVersion == 0 ? null
+                    : DexFileVersion.getVersion(String.format("%03d", dexVersion));
+            this.mStrings = new DexString[in.readInt()];
+            this.mStringIndexOffset = offset + in.readInt();
+            this.mTypes = new DexType[in.readInt()];
+            this.mTypeIndexOffset = offset + in.readInt();
+            this.mClassCount = in.readInt();
+            this.mClassIndexOffset = offset + in.readInt();
+        }
+
+        DexString string(int idx) {
+            DexString string = mStrings[idx];
+            if (string == null) {
+                ByteSource in = new ByteSource(mBuffer,
+                        mOffset + mBuffer.getInt(mStringIndexOffset + idx * 4));
+                int size = in.readUleb128();
+                string = DexString.fromEncoded(size, in.readBytes(in.readUleb128()));
+                if (mFactory != null) {
+                    string = mFactory.intern(string);
+                }
+                // 并发时可能重复解码，结果相等，不影响正确性
+                mStrings[idx] = string;
+            }
+            return string;
+        }
+
+        DexType type(int idx) {
+            DexType type = mTypes[idx];
+            if (type == null) {
+                DexString descriptor = string(mBuffer.getInt(mTypeIndexOffset + idx * 4));
+                type = mFactory != null ? mFactory.createType(descriptor) : new DexType(descriptor);
+                mTypes[idx] = type;
+            }
+            return type;
+        }
+
+        DexType classType(int classIndex) {
+            return type(mBuffer.getInt(mClassIndexOffset + classIndex * CLASS_INDEX_ENTRY_SIZE));
+        }
+
+        int indexOf(DexType type) {
+            Map<DexType, Integer> classIndex = mClassIndex;
+            if (classIndex == null) {
+                classIndex = new HashMap<>(mClassCount * 2);
+                for (int i = 0; i < mClassCount; i++) {
+                    classIndex.put(classType(i), i);
+                }
+                mClassIndex = classIndex;
+            }
+            Integer idx = classIndex.get(type);
+            return idx == null ? -1 : idx;
+        }
+
+        DexClassNode readClass(int classIndex) {
+            if (classIndex < 0 || classIndex >= mClassCount) {
+                throw new IndexOutOfBoundsException("class index " + classIndex
+                        + ", class count " + mClassCount);
+            }
+            int dataOffset = mBuffer.getInt(mClassIndexOffset
+                    + classIndex * CLASS_INDEX_ENTRY_SIZE + 4);
+            return new ClassDecoder(this, mOffset + dataOffset).readClass();
+        }
+
+    }
+
+    /**
+     * 解码单个类，每次解码使用独立的实例
+     */
+    private final class ClassDecoder {
+
+        private final Section mSection;
+
+        private final ByteSource mIn;
+
+        /** 避免每个寄存器都进入DexRegister.make的全局锁 */
+        private final Map<Integer, DexRegister> mRegisters = new HashMap<>();
+
+        ClassDecoder(Section section, int offset) {
+            this.mSection = section;
+            this.mIn = new ByteSource(mBuffer, offset);
+        }
+
+        private DexString readString() {
+            return mSection.string(mIn.readUleb128());
+        }
+
+        private DexString readNullableString() {
+            int idx = mIn.readUleb128();
+            return idx == 0 ? null : mSection.string(idx - 1);
+        }
+
+        private DexType readType() {
+            return mSection.type(mIn.readUleb128());
+        }
+
+        private DexType readNullableType() {
+            int idx = mIn.readUleb128();
+            return idx == 0 ? null : mSection.type(idx - 1);
+        }
+
+        private DexTypeList readTypeList() {
+            int count = mIn.readUleb128();
+            if (count == 0) {
+                return null;
+            }
+            DexType[] types = new DexType[count - 1];
+            for (int i = 0; i < types.length; i++) {
+                types[i] = readType();
+            }
+            return new DexTypeList(types);
+        }
+
+        DexClassNode readClass() {
+            DexAccessFlags access = new DexAccessFlags(mIn.readUleb128());
+            DexType type = readType();
+            DexType superType = readNullableType();
+            DexTypeList interfaces = readTypeList();
+            DexClassNode dcn = new DexClassNode(type, access, superType, interfaces);
+            dcn.sourceFile = readNullableString();
+            dcn.setClassAnnotations(readAnnotations());
+
+            int fieldCount = mIn.readUleb128();
+            for (int i = 0; i < fieldCount; i++) {
+                DexAccessFlags fieldAccess = new DexAccessFlags(mIn.readUleb128());
+                DexString name = readString();
+                DexType fieldType = readType();
+                DexType owner = readType();
+                DexFieldNode dfn = new DexFieldNode(name, fieldType, owner, fieldAccess);
+                dfn.staticValue = readValue();
+                dfn.setFieldAnnotations(readAnnotations());
+                dcn.addField(dfn);
+            }
+
+            int methodCount = mIn.readUleb128();
+            for (int i = 0; i < methodCount; i++) {
+                DexAccessFlags methodAccess = new DexAccessFlags(mIn.readUleb128());
+                DexString name = readString();
+                DexType owner = readType();
+                DexTypeList parameters = readTypeList();
+                DexType returnType = readType();
+                DexMethodNode dmn = new DexMethodNode(name, owner, parameters, returnType,
+                        methodAccess);
+                dmn.setMethodAnnotations(readAnnotations());
+                int parameterCount = mIn.readUleb128();
+                if (parameterCount > 0) {
+                    @SuppressWarnings("unchecked")
+                    List<DexAnnotationNode>[] parameterAnnotations =
+                            (List<DexAnnotationNode>[]) new List<?>[parameterCount - 1];
+                    for (int p = 0; p < parameterAnnotations.length; p++) {
+                        parameterAnnotations[p] = readAnnotations();
+                    }
+                    dmn.setParameterAnnotations(parameterAnnotations);
+                }
+                if (mIn.readByte() != 0) {
+                    DexCodeNode code = new DexCodeNode();
+                    readCode(mPackCode ? code.asPackedVisitor() : code.asVisitor());
+                    dmn.setCode(code);
+                }
+                dcn.addMethod(dmn);
+            }
+            return dcn;
+        }
+
+        private List<DexAnnotationNode> readAnnotations() {
+            int count = mIn.readUleb128();
+            if (count == 0) {
+                return null;
+            }
+            List<DexAnnotationNode> annotations = new ArrayList<>(count - 1);
+            for (int i = 0; i < count - 1; i++) {
+                DexType type = readType();
+                DexAnnotationNode dan = new DexAnnotationNode(type,
+                        DexAnnotationVisibilitys.get(mIn.readUleb128()));
+                if (mIn.readByte() != 0) {
+                    DexAnnotationVisitor dav = dan.asVisitor();
+                    dav.visitBegin();
+                    readAnnotationEvents(dav);
+                }
+                annotations.add(dan);
+            }
+            return annotations;
+        }
+
+        private void readAnnotationEvents(DexAnnotationVisitor dav) {
+            while (true) {
+                int tag = mIn.readByte();
+                if (tag == ANNOTATION_END) {
+                    dav.visitEnd();
+                    return;
+                }
+                DexString name = readNullableString();
+                switch (tag) {
+                    case ANNOTATION_PRIMITIVE:
+                        dav.visitPrimitive(name, readValue());
+                        break;
+                    case ANNOTATION_STRING:
+                        dav.visitString(name, readString());
+                        break;
+                    case ANNOTATION_ENUM:
+                        dav.visitEnum(name, readType(), readString());
+                        break;
+                    case ANNOTATION_ANNOTATION: {
+                        DexAnnotationVisitor child = dav.visitAnnotation(name, readType());
+                        child.visitBegin();
+                        readAnnotationEvents(child);
+                        break;
+                    }
+                    case ANNOTATION_ARRAY: {
+                        DexAnnotationVisitor child = dav.visitArray(name);
+                        child.visitBegin();
+                        readAnnotationEvents(child);
+                        break;
+                    }
+                    case ANNOTATION_METHOD:
+                        dav.visitMethod(name, (DexConst.ConstMethodRef) readConst());
+                        break;
+                    case ANNOTATION_FIELD:
+                        dav.visitField(name, (DexConst.ConstFieldRef) readConst());
+                        break;
+                    case ANNOTATION_TYPE:
+                        dav.visitType(name, readType());
+                        break;
+                    case ANNOTATION_NULL:
+                        dav.visitNull(name);
+                        break;
+                    default:
+                        throw new DexReadErrorException("bad annotation tag " + tag);
+                }
+            }
+        }
+
+        private Object readValue() {
+            int tag = mIn.readByte();
+            switch (tag) {
+                case VALUE_NULL:
+                    return null;
+                case VALUE_BYTE:
+                    return (byte) mIn.readByte();
+                case VALUE_SHORT:
+                    return (short) mIn.readSleb128();
+                case VALUE_CHAR:
+                    return (char) mIn.readUleb128();
+                case VALUE_INT:
+                    return mIn.readSleb128();
+                case VALUE_LONG:
+                    return mIn.readLong();
+                case VALUE_FLOAT:
+                    return Float.intBitsToFloat(mIn.readInt());
+                case VALUE_DOUBLE:
+                    return Double.longBitsToDouble(mIn.readLong());
+                case VALUE_BOOLEAN:
+                    return mIn.readByte() != 0;
+                case VALUE_STRING:
+                    return readString().toString();
+                case VALUE_DEX_STRING:
+                    return readString();
+                default:
+                    throw new DexReadErrorException("bad value tag " + tag);
+            }
+        }
+
+        private DexRegisterList readRegisters() {
+            int count = mIn.readUleb128();
+            if (count == 0) {
+                return DexRegisterList.empty();
+            }
+            DexRegisterList regs = new DexRegisterList(count);
+            for (int i = 0; i < count; i++) {
+                int packed = mIn.readUleb128();
+                DexRegister reg = mRegisters.get(packed);
+                if (reg == null) {
+                    reg = DexRegister.make(packed >>> 4, (packed >> 2) & 0x3, packed & 0x3);
+                    mRegisters.put(packed, reg);
+                }
+                regs.setReg(i, reg);
+            }
+            return regs;
+        }
+
+        private DexConst readConst() {
+            int tag = mIn.readByte();
+            switch (tag) {
+                case CONST_LITERAL32:
+                    return DexConst.LiteralBits32.make(mIn.readSleb128());
+                case CONST_LITERAL64:
+                    return DexConst.LiteralBits64.make(mIn.readLong());
+                case CONST_STRING:
+                    return DexConst.ConstString.make(readString().toString());
+                case CONST_TYPE:
+                    return DexConst.ConstType.make(readType());
+                case CONST_FIELD: {
+                    DexType owner = readType();
+                    DexType type = readType();
+                    return DexConst.ConstFieldRef.make(owner, type, readString());
+                }
+                case CONST_METHOD: {
+                    DexType owner = readType();
+                    DexString name = readString();
+                    DexType returnType = readType();
+                    return DexConst.ConstMethodRef.make(owner, name, returnType, readTypeList());
+                }
+                case CONST_PROTO: {
+                    DexType returnType = readType();
+                    return DexConst.Proto.make(returnType, readTypeList());
+                }
+                case CONST_METHOD_AND_PROTO: {
+                    DexConst.ConstMethodRef methodRef = (DexConst.ConstMethodRef) readConst();
+                    return DexConst.MethodAndProto.make(methodRef, (DexConst.Proto) readConst());
+                }
+                case CONST_METHOD_HANDLE: {
+                    int handleType = mIn.readUleb128();
+                    return DexConst.MethodHandle.make(handleType,
+                            (DexConst.ConstMemberRef) readConst());
+                }
+                case CONST_CALL_SITE: {
+                    DexConst.MethodHandle methodHandle = (DexConst.MethodHandle) readConst();
+                    DexString methodName = readString();
+                    DexConst.Proto methodType = (DexConst.Proto) readConst();
+                    int count = mIn.readUleb128();
+                    List<DexConst> arguments = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        arguments.add(readConst());
+                    }
+                    return DexConst.CallSite.make(methodHandle, methodName, methodType, arguments);
+                }
+                case CONST_ARRAY_DATA: {
+                    int width = mIn.readUleb128();
+                    int length = mIn.readUleb128();
+                    return DexConst.ArrayData.make(width, length, mIn.readBytes(mIn.readUleb128()));
+                }
+                default:
+                    throw new DexReadErrorException("bad const tag " + tag);
+            }
+        }
+
+        private DexLabel label(List<DexLabel> labels, int id) {
+            while (labels.size() <= id) {
+                labels.add(new DexLabel());
+            }
+            return labels.get(id);
+        }
+
+        private void readCode(DexCodeVisitor dcv) {
+            List<DexLabel> labels = new ArrayList<>();
+            dcv.visitBegin();
+            dcv.visitRegisters(mIn.readUleb128(), mIn.readUleb128());
+            while (true) {
+                int tag = mIn.readByte();
+                switch (tag) {
+                    case CODE_END:
+                        dcv.visitEnd();
+                        return;
+                    case CODE_PARAMETERS: {
+                        DexString[] parameters = new DexString[mIn.readUleb128()];
+                        for (int i = 0; i < parameters.length; i++) {
+                            parameters[i] = readNullableString();
+                        }
+                        dcv.visitParameters(parameters);
+                        break;
+                    }
+                    case CODE_TRY_CATCH: {
+                        DexLabel start = label(labels, mIn.readUleb128());
+                        DexLabel end = label(labels, mIn.readUleb128());
+                        DexTypeList types = readTypeList();
+                        int handlerCount = mIn.readUleb128();
+                        DexLabel[] handlers = null;
+                        if (handlerCount > 0) {
+                            handlers = new DexLabel[handlerCount - 1];
+                            for (int i = 0; i < handlers.length; i++) {
+                                handlers[i] = label(labels, mIn.readUleb128());
+                            }
+                        }
+                        int catchAll = mIn.readUleb128();
+                        dcv.visitTryCatch(start, end, types, handlers,
+                                catchAll == 0 ? null : label(labels, catchAll - 1));
+                        break;
+                    }
+                    case CODE_LABEL:
+                        dcv.visitLabel(label(labels, mIn.readUleb128()));
+                        break;
+                    case CODE_LINE: {
+                        int line = mIn.readUleb128();
+                        dcv.visitLineNumber(line, label(labels, mIn.readUleb128()));
+                        break;
+                    }
+                    case CODE_LOCAL: {
+                        int reg = mIn.readUleb128();
+                        DexString name = readNullableString();
+                        DexType type = readNullableType();
+                        DexString signature = readNullableString();
+                        DexLabel start = label(labels, mIn.readUleb128());
+                        int end = mIn.readUleb128();
+                        dcv.visitLocal(reg, name, type, signature, start,
+                                end == 0 ? null : label(labels, end - 1));
+                        break;
+                    }
+                    case CODE_SIMPLE: {
+                        int op = mIn.readUleb128();
+                        dcv.visitSimpleInsn(op, readRegisters());
+                        break;
+                    }
+                    case CODE_CONST: {
+                        int op = mIn.readUleb128();
+                        DexRegisterList regs = readRegisters();
+                        dcv.visitConstInsn(op, regs, readConst());
+                        break;
+                    }
+                    case CODE_TARGET: {
+                        int op = mIn.readUleb128();
+                        DexRegisterList regs = readRegisters();
+                        dcv.visitTargetInsn(op, regs, label(labels, mIn.readUleb128()));
+                        break;
+                    }
+                    case CODE_SWITCH: {
+                        int op = mIn.readUleb128();
+                        DexRegisterList regs = readRegisters();
+                        int[] keys = new int[mIn.readUleb128()];
+                        DexLabel[] targets = new DexLabel[keys.length];
+                        for (int i = 0; i < keys.length; i++) {
+                            keys[i] = mIn.readSleb128();
+                            targets[i] = label(labels, mIn.readUleb128());
+                        }
+                        dcv.visitSwitch(op, regs, keys, targets);
+                        break;
+                    }
+                    default:
+                        throw new DexReadErrorException("bad code tag " + tag);
+                }
+            }
+        }
+
+    }
+
+}
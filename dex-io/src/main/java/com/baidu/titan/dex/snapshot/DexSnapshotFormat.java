@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) Baidu Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.baidu.titan.dex.snapshot;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * 快照文件格式，所有整数均为小端序。<br>
+ *
+ * <pre>
+ * header       magic, formatVersion, checksum, fileSize, dexCount, directoryOffset, 保留 x2
+ * directory    每个Dex一项：dexId, sectionOffset, sectionSize
+ * section      每个Dex独立的字符串表、类型表以及类索引，可以独立并行写入与读取
+ *   header     dexVersion, stringCount, stringIndexOffset, typeCount, typeIndexOffset,
+ *              classCount, classIndexOffset, 保留 x2
+ *   strings    偏移表以及(uleb utf16Size, uleb byteCount, MUTF-8)
+ *   types      每个类型对应的字符串编号
+ *   classes    每个类为(typeIdx, dataOffset, dataSize)，dataOffset相对于section
+ *   data       每个类的编码数据，可以单独解码
+ * </pre>
+ *
+ * checksum为header之后所有内容的CRC32
+ *
+ * @author zhangdi07@baidu.com
+ * @since 2019/3/25
+ */
+final class DexSnapshotFormat {
+
+    /** "TDNS" */
+    static final int MAGIC = 0x534e4454;
+
+    static final int FORMAT_VERSION = 1;
+
+    static final int HEADER_SIZE = 32;
+
+    static final int HEADER_CHECKSUM_OFFSET = 8;
+
+    static final int DIRECTORY_ENTRY_SIZE = 12;
+
+    static final int SECTION_HEADER_SIZE = 36;
+
+    static final int CLASS_INDEX_ENTRY_SIZE = 12;
+
+    // code
+    static final int CODE_END = 0;
+    static final int CODE_PARAMETERS = 1;
+    static final int CODE_TRY_CATCH = 2;
+    static final int CODE_LABEL = 3;
+    static final int CODE_LINE = 4;
+    static final int CODE_LOCAL = 5;
+    static final int CODE_SIMPLE = 6;
+    static final int CODE_CONST = 7;
+    static final int CODE_TARGET = 8;
+    static final int CODE_SWITCH = 9;
+
+    // DexConst
+    static final int CONST_LITERAL32 = 1;
+    static final int CONST_LITERAL64 = 2;
+    static final int CONST_STRING = 3;
+    static final int CONST_TYPE = 4;
+    static final int CONST_FIELD = 5;
+    static final int CONST_METHOD = 6;
+    static final int CONST_PROTO = 7;
+    static final int CONST_METHOD_AND_PROTO = 8;
+    static final int CONST_METHOD_HANDLE = 9;
+    static final int CONST_CALL_SITE = 10;
+    static final int CONST_ARRAY_DATA = 11;
+
+    // 字段静态值以及注解中的基本类型值
+    static final int VALUE_NULL = 0;
+    static final int VALUE_BYTE = 1;
+    static final int VALUE_SHORT = 2;
+    static final int VALUE_CHAR = 3;
+    static final int VALUE_INT = 4;
+    static final int VALUE_LONG = 5;
+    static final int VALUE_FLOAT = 6;
+    static final int VALUE_DOUBLE = 7;
+    static final int VALUE_BOOLEAN = 8;
+    static final int VALUE_STRING = 9;
+    static final int VALUE_DEX_STRING = 10;
+
+    // 注解访问事件
+    static final int ANNOTATION_END = 0;
+    static final int ANNOTATION_PRIMITIVE = 1;
+    static final int ANNOTATION_STRING = 2;
+    static final int ANNOTATION_ENUM = 3;
+    static final int ANNOTATION_ANNOTATION = 4;
+    static final int ANNOTATION_ARRAY = 5;
+    static final int ANNOTATION_METHOD = 6;
+    static final int ANNOTATION_FIELD = 7;
+    static final int ANNOTATION_TYPE = 8;
+    static final int ANNOTATION_NULL = 9;
+
+    private DexSnapshotFormat() {
+    }
+
+    /**
+     * 可增长的小端序字节缓冲
+     */
+    static final class ByteSink {
+
+        private byte[] mData;
+
+        private int mSize;
+
+        ByteSink(int capacity) {
+            mData = new byte[capacity];
+        }
+
+        private void ensure(int more) {
+            if (mSize + more > mData.length) {
+                mData = Arrays.copyOf(mData, Math.max(mData.length * 2, mSize + more));
+            }
+        }
+
+        int size() {
+            return mSize;
+        }
+
+        void writeByte(int b) {
+            ensure(1);
+            mData[mSize++] = (byte) b;
+        }
+
+        void writeInt(int v) {
+            ensure(4);
+            mData[mSize++] = (byte) v;
+            mData[mSize++] = (byte) (v >> 8);
+            mData[mSize++] = (byte) (v >> 16);
+            mData[mSize++] = (byte) (v >> 24);
+        }
+
+        void setInt(int offset, int v) {
+            mData[offset] = (byte) v;
+            mData[offset + 1] = (byte) (v >> 8);
+            mData[offset + 2] = (byte) (v >> 16);
+            mData[offset + 3] = (byte) (v >> 24);
+        }
+
+        void writeLong(long v) {
+            writeInt((int) v);
+            writeInt((int) (v >> 32));
+        }
+
+        void writeUleb128(int v) {
+            ensure(5);
+            while ((v & ~0x7f) != 0) {
+                mData[mSize++] = (byte) ((v & 0x7f) | 0x80);
+                v >>>= 7;
+            }
+            mData[mSize++] = (byte) v;
+        }
+
+        void writeSleb128(int v) {
+            ensure(5);
+            while (true) {
+                int b = v & 0x7f;
+                v >>= 7;
+                if ((v == 0 && (b & 0x40) == 0) || (v == -1 && (b & 0x40) != 0)) {
+                    mData[mSize++] = (byte) b;
+                    return;
+                }
+                mData[mSize++] = (byte) (b | 0x80);
+            }
+        }
+
+        void writeBytes(byte[] bytes) {
+            writeBytes(bytes, 0, bytes.length);
+        }
+
+        void writeBytes(byte[] bytes, int offset, int length) {
+            ensure(length);
+            System.arraycopy(bytes, offset, mData, mSize, length);
+            mSize += length;
+        }
+
+        void align(int alignment) {
+            while (mSize % alignment != 0) {
+                writeByte(0);
+            }
+        }
+
+        byte[] data() {
+            return mData;
+        }
+
+    }
+
+    /**
+     * 从ByteBuffer的指定位置顺序读取，内部持有独立的duplicate，每个线程使用自己的实例
+     */
+    static final class ByteSource {
+
+        private final ByteBuffer mBuffer;
+
+        private int mPosition;
+
+        ByteSource(ByteBuffer buffer, int position) {
+            this.mBuffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            this.mPosition = position;
+        }
+
+        void seek(int position) {
+            this.mPosition = position;
+        }
+
+        int readByte() {
+            return mBuffer.get(mPosition++) & 0xff;
+        }
+
+        int readInt() {
+            int v = mBuffer.getInt(mPosition);
+            mPosition += 4;
+            return v;
+        }
+
+        long readLong() {
+            long v = mBuffer.getLong(mPosition);
+            mPosition += 8;
+            return v;
+        }
+
+        int readUleb128() {
+            int result = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = mBuffer.get(mPosition++);
+                result |= (b & 0x7f) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return result;
+        }
+
+        int readSleb128() {
+            int result = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = mBuffer.get(mPosition++);
+                result |= (b & 0x7f) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            if (shift < 32 && (b & 0x40) != 0) {
+                result |= -1 << shift;
+            }
+            return result;
+        }
+
+        byte[] readBytes(int length) {
+            byte[] bytes = new byte[length];
+            mBuffer.position(mPosition);
+            mBuffer.get(bytes);
+            mPosition += length;
+            return bytes;
+        }
+
+    }
+
+}
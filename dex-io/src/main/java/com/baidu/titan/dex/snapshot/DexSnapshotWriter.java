@@ -0,0 +1,661 @@
+/*
+ * Copyright (C) Baidu Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.baidu.titan.dex.snapshot;
+
+import com.baidu.titan.dex.DexConst;
+import com.baidu.titan.dex.DexFileVersion;
+import com.baidu.titan.dex.DexRegister;
+import com.baidu.titan.dex.DexRegisterList;
+import com.baidu.titan.dex.DexString;
+import com.baidu.titan.dex.DexType;
+import com.baidu.titan.dex.DexTypeList;
+import com.baidu.titan.dex.node.DexAnnotationNode;
+import com.baidu.titan.dex.node.DexClassNode;
+import com.baidu.titan.dex.node.DexCodeNode;
+import com.baidu.titan.dex.node.DexFieldNode;
+import com.baidu.titan.dex.node.DexFileNode;
+import com.baidu.titan.dex.node.DexMethodNode;
+import com.baidu.titan.dex.node.MultiDexFileNode;
+import com.baidu.titan.dex.visitor.DexAnnotationVisitor;
+import com.baidu.titan.dex.visitor.DexCodeVisitor;
+import com.baidu.titan.dex.visitor.DexLabel;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+import static com.baidu.titan.dex.snapshot.DexSnapshotFormat.*;
+
+/**
+ * 将MultiDexFileNode写为二进制快照，用于增量构建时跳过Dex解析，通过{@link DexSnapshot}读取。<br>
+ *
+ * 每个Dex独立编码，提供ExecutorService时并行编码。节点上的额外信息不会被保存
+ *
+ * @author zhangdi07@baidu.com
+ * @since 2019/3/25
+ */
+public class DexSnapshotWriter {
+
+    private final ExecutorService mExecutor;
+
+    public DexSnapshotWriter() {
+        this(null);
+    }
+
+    /**
+     * @param executor 用于并行编码各个Dex，为null时顺序编码
+     */
+    public DexSnapshotWriter(ExecutorService executor) {
+        this.mExecutor = executor;
+    }
+
+    public void write(MultiDexFileNode multiDexFileNode, File file) throws IOException {
+        byte[] content = write(multiDexFileNode);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(content);
+        }
+    }
+
+    public byte[] write(MultiDexFileNode multiDexFileNode) {
+        List<Integer> dexIds = new ArrayList<>(multiDexFileNode.getDexNodes().keySet());
+        List<byte[]> sections = new ArrayList<>(dexIds.size());
+        if (mExecutor == null) {
+            for (Integer dexId : dexIds) {
+                sections.add(encodeSection(multiDexFileNode.getDexNodes().get(dexId)));
+            }
+        } else {
+            List<Future<byte[]>> futures = new ArrayList<>(dexIds.size());
+            for (Integer dexId : dexIds) {
+                DexFileNode dfn = multiDexFileNode.getDexNodes().get(dexId);
+                futures.add(mExecutor.submit(() -> encodeSection(dfn)));
+            }
+            try {
+                for (Future<byte[]> future : futures) {
+                    sections.add(future.get());
+                }
+            } catch (ExecutionException | InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        int directoryOffset = HEADER_SIZE;
+        int offset = directoryOffset + dexIds.size() * DIRECTORY_ENTRY_SIZE;
+        int fileSize = offset;
+        for (byte[] section : sections) {
+            fileSize += align4(section.length);
+        }
+
+        ByteSink out = new ByteSink(fileSize);
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(0);
+        out.writeInt(fileSize);
+        out.writeInt(dexIds.size());
+        out.writeInt(directoryOffset);
+        out.writeInt(0);
+        out.writeInt(0);
+        for (int i = 0; i < dexIds.size(); i++) {
+            out.writeInt(dexIds.get(i));
+            out.writeInt(offset);
+            out.writeInt(sections.get(i).length);
+            offset += align4(sections.get(i).length);
+        }
+        for (byte[] section : sections) {
+            out.writeBytes(section);
+            out.align(4);
+        }
+
+        CRC32 crc32 = new CRC32();
+        crc32.update(out.data(), HEADER_SIZE, fileSize - HEADER_SIZE);
+        out.setInt(HEADER_CHECKSUM_OFFSET, (int) crc32.getValue());
+        return out.data();
+    }
+
+    private static int align4(int size) {
+        return (size + 3) & ~3;
+    }
+
+    private static byte[] encodeSection(DexFileNode dfn) {
+        SectionEncoder encoder = new SectionEncoder();
+        List<DexClassNode> classes = dfn.getClassesList();
+        int[] classTypes = new int[classes.size()];
+        int[] classOffsets = new int[classes.size()];
+        int[] classSizes = new int[classes.size()];
+        for (int i = 0; i < classes.size(); i++) {
+            DexClassNode dcn = classes.get(i);
+            classTypes[i] = encoder.type(dcn.type);
+            classOffsets[i] = encoder.mData.size();
+            encoder.writeClass(dcn);
+            classSizes[i] = encoder.mData.size() - classOffsets[i];
+        }
+
+        List<DexString> strings = encoder.mStrings;
+        ByteSink stringData = new ByteSink(strings.size() * 16 + 16);
+        int[] stringOffsets = new int[strings.size()];
+        for (int i = 0; i < strings.size(); i++) {
+            DexString string = strings.get(i);
+            stringOffsets[i] = stringData.size();
+            stringData.writeUleb128(string.size);
+            stringData.writeUleb128(string.content.length);
+            stringData.writeBytes(string.content);
+        }
+
+        int stringIndexOffset = SECTION_HEADER_SIZE;
+        int typeIndexOffset = stringIndexOffset + strings.size() * 4;
+        int classIndexOffset = typeIndexOffset + encoder.mTypes.size() * 4;
+        int stringDataOffset = classIndexOffset + classes.size() * CLASS_INDEX_ENTRY_SIZE;
+        int classDataOffset = stringDataOffset + stringData.size();
+
+        ByteSink out = new ByteSink(classDataOffset + encoder.mData.size());
+        DexFileVersion version = dfn.getDexVersion();
+        out.writeInt(version == null ? 0 : Integer.parseInt(version.dexVersion));
+        out.writeInt(strings.size());
+        out.writeInt(stringIndexOffset);
+        out.writeInt(encoder.mTypes.size());
+        out.writeInt(typeIndexOffset);
+        out.writeInt(classes.size());
+        out.writeInt(classIndexOffset);
+        out.writeInt(0);
+        out.writeInt(0);
+        for (int stringOffset : stringOffsets) {
+            out.writeInt(stringDataOffset + stringOffset);
+        }
+        for (DexType type : encoder.mTypes) {
+            out.writeInt(encoder.string(type.getTypeDescriptor()));
+        }
+        for (int i = 0; i < classes.size(); i++) {
+            out.writeInt(classTypes[i]);
+            out.writeInt(classDataOffset + classOffsets[i]);
+            out.writeInt(classSizes[i]);
+        }
+        out.writeBytes(stringData.data(), 0, stringData.size());
+        out.writeBytes(encoder.mData.data(), 0, encoder.mData.size());
+        return out.size() == out.data().length ? out.data()
+                : Arrays.copyOf(out.data(), out.size());
+    }
+
+    /**
+     * 编码单个Dex中的所有类，字符串与类型在Dex内编号
+     */
+    private static final class SectionEncoder {
+
+        final Map<DexString, Integer> mStringIds = new HashMap<>();
+
+        final List<DexString> mStrings = new ArrayList<>();
+
+        final Map<DexType, Integer> mTypeIds = new HashMap<>();
+
+        final List<DexType> mTypes = new ArrayList<>();
+
+        final ByteSink mData = new ByteSink(64 * 1024);
+
+        int string(DexString string) {
+            Integer id = mStringIds.get(string);
+            if (id == null) {
+                id = mStrings.size();
+                mStringIds.put(string, id);
+                mStrings.add(string);
+            }
+            return id;
+        }
+
+        int type(DexType type) {
+            Integer id = mTypeIds.get(type);
+            if (id == null) {
+                id = mTypes.size();
+                mTypeIds.put(type, id);
+                mTypes.add(type);
+                // 类型描述符需要在写类型表之前加入字符串表
+                string(type.getTypeDescriptor());
+            }
+            return id;
+        }
+
+        void writeString(DexString string) {
+            mData.writeUleb128(string(string));
+        }
+
+        /** 可为null的字符串，编号加1 */
+        void writeNullableString(DexString string) {
+            mData.writeUleb128(string == null ? 0 : string(string) + 1);
+        }
+
+        void writeType(DexType type) {
+            mData.writeUleb128(type(type));
+        }
+
+        void writeNullableType(DexType type) {
+            mData.writeUleb128(type == null ? 0 : type(type) + 1);
+        }
+
+        void writeTypeList(DexTypeList types) {
+            if (types == null) {
+                mData.writeUleb128(0);
+                return;
+            }
+            mData.writeUleb128(types.count() + 1);
+            for (DexType type : types.types()) {
+                writeType(type);
+            }
+        }
+
+        void writeClass(DexClassNode dcn) {
+            mData.writeUleb128(dcn.accessFlags.getFlags());
+            writeType(dcn.type);
+            writeNullableType(dcn.superType);
+            writeTypeList(dcn.interfaces);
+            writeNullableString(dcn.sourceFile);
+            writeAnnotations(dcn.getClassAnnotations());
+
+            List<DexFieldNode> fields = dcn.getFields();
+            mData.writeUleb128(fields.size());
+            for (DexFieldNode dfn : fields) {
+                mData.writeUleb128(dfn.accessFlags.getFlags());
+                writeString(dfn.name);
+                writeType(dfn.type);
+                writeType(dfn.owner);
+                writeValue(dfn.staticValue);
+                writeAnnotations(dfn.getFieldAnnotations());
+            }
+
+            List<DexMethodNode> methods = dcn.getMethods();
+            mData.writeUleb128(methods.size());
+            for (DexMethodNode dmn : methods) {
+                mData.writeUleb128(dmn.accessFlags.getFlags());
+                writeString(dmn.name);
+                writeType(dmn.owner);
+                writeTypeList(dmn.parameters);
+                writeType(dmn.returnType);
+                writeAnnotations(dmn.getMethodAnnotations());
+                List<DexAnnotationNode>[] parameterAnnotations = dmn.getParameterAnnotations();
+                if (parameterAnnotations == null) {
+                    mData.writeUleb128(0);
+                } else {
+                    mData.writeUleb128(parameterAnnotations.length + 1);
+                    for (List<DexAnnotationNode> annotations : parameterAnnotations) {
+                        writeAnnotations(annotations);
+                    }
+                }
+                DexCodeNode code = dmn.getCode();
+                if (code == null) {
+                    mData.writeByte(0);
+                } else {
+                    mData.writeByte(1);
+                    writeCode(code);
+                }
+            }
+        }
+
+        void writeAnnotations(List<DexAnnotationNode> annotations) {
+            if (annotations == null) {
+                mData.writeUleb128(0);
+                return;
+            }
+            mData.writeUleb128(annotations.size() + 1);
+            for (DexAnnotationNode dan : annotations) {
+                writeType(dan.getType());
+                mData.writeUleb128(dan.getVisibility().get());
+                if (dan.getEncodedAnnotation() == null) {
+                    mData.writeByte(0);
+                } else {
+                    mData.writeByte(1);
+                    dan.accept(new AnnotationEncoder());
+                }
+            }
+        }
+
+        void writeValue(Object value) {
+            if (value == null) {
+                mData.writeByte(VALUE_NULL);
+            } else if (value instanceof Byte) {
+                mData.writeByte(VALUE_BYTE);
+                mData.writeByte((Byte) value);
+            } else if (value instanceof Short) {
+                mData.writeByte(VALUE_SHORT);
+                mData.writeSleb128((Short) value);
+            } else if (value instanceof Character) {
+                mData.writeByte(VALUE_CHAR);
+                mData.writeUleb128((Character) value);
+            } else if (value instanceof Integer) {
+                mData.writeByte(VALUE_INT);
+                mData.writeSleb128((Integer) value);
+            } else if (value instanceof Long) {
+                mData.writeByte(VALUE_LONG);
+                mData.writeLong((Long) value);
+            } else if (value instanceof Float) {
+                mData.writeByte(VALUE_FLOAT);
+                mData.writeInt(Float.floatToRawIntBits((Float) value));
+            } else if (value instanceof Double) {
+                mData.writeByte(VALUE_DOUBLE);
+                mData.writeLong(Double.doubleToRawLongBits((Double) value));
+            } else if (value instanceof Boolean) {
+                mData.writeByte(VALUE_BOOLEAN);
+                mData.writeByte((Boolean) value ? 1 : 0);
+            } else if (value instanceof String) {
+                mData.writeByte(VALUE_STRING);
+                writeString(new DexString((String) value));
+            } else if (value instanceof DexString) {
+                mData.writeByte(VALUE_DEX_STRING);
+                writeString((DexString) value);
+            } else {
+                throw new IllegalStateException("unsupported value " + value);
+            }
+        }
+
+        void writeRegisters(DexRegisterList regs) {
+            mData.writeUleb128(regs.count());
+            for (int i = 0; i < regs.count(); i++) {
+                DexRegister reg = regs.get(i);
+                mData.writeUleb128(reg.getReg() << 4 | reg.getWidth() << 2 | reg.getRef());
+            }
+        }
+
+        void writeConst(DexConst dexConst) {
+            if (dexConst instanceof DexConst.LiteralBits32) {
+                mData.writeByte(CONST_LITERAL32);
+                mData.writeSleb128(((DexConst.LiteralBits32) dexConst).getIntBits());
+            } else if (dexConst instanceof DexConst.LiteralBits64) {
+                mData.writeByte(CONST_LITERAL64);
+                mData.writeLong(((DexConst.LiteralBits64) dexConst).getLongBits());
+            } else if (dexConst instanceof DexConst.ConstString) {
+                mData.writeByte(CONST_STRING);
+                writeString(new DexString(((DexConst.ConstString) dexConst).value()));
+            } else if (dexConst instanceof DexConst.ConstType) {
+                mData.writeByte(CONST_TYPE);
+                writeType(((DexConst.ConstType) dexConst).value());
+            } else if (dexConst instanceof DexConst.ConstFieldRef) {
+                DexConst.ConstFieldRef fieldRef = (DexConst.ConstFieldRef) dexConst;
+                mData.writeByte(CONST_FIELD);
+                writeType(fieldRef.getOwner());
+                writeType(fieldRef.getType());
+                writeString(fieldRef.getName());
+            } else if (dexConst instanceof DexConst.ConstMethodRef) {
+                DexConst.ConstMethodRef methodRef = (DexConst.ConstMethodRef) dexConst;
+                mData.writeByte(CONST_METHOD);
+                writeType(methodRef.getOwner());
+                writeString(methodRef.getName());
+                writeType(methodRef.getReturnType());
+                writeTypeList(methodRef.getParameterTypes());
+            } else if (dexConst instanceof DexConst.Proto) {
+                DexConst.Proto proto = (DexConst.Proto) dexConst;
+                mData.writeByte(CONST_PROTO);
+                writeType(proto.getReturnType());
+                writeTypeList(proto.getParameterTypes());
+            } else if (dexConst instanceof DexConst.MethodAndProto) {
+                DexConst.MethodAndProto methodAndProto = (DexConst.MethodAndProto) dexConst;
+                mData.writeByte(CONST_METHOD_AND_PROTO);
+                writeConst(methodAndProto.getMethodRef());
+                writeConst(methodAndProto.getProto());
+            } else if (dexConst instanceof DexConst.MethodHandle) {
+                DexConst.MethodHandle methodHandle = (DexConst.MethodHandle) dexConst;
+                mData.writeByte(CONST_METHOD_HANDLE);
+                mData.writeUleb128(methodHandle.getHandleType());
+                writeConst(methodHandle.getMemberRef());
+            } else if (dexConst instanceof DexConst.CallSite) {
+                DexConst.CallSite callSite = (DexConst.CallSite) dexConst;
+                mData.writeByte(CONST_CALL_SITE);
+                writeConst(callSite.getMethodHandle());
+                writeString(callSite.getMethodName());
+                writeConst(callSite.getMethodType());
+                mData.writeUleb128(callSite.getOrderedArguments().size());
+                for (DexConst argument : callSite.getOrderedArguments()) {
+                    writeConst(argument);
+                }
+            } else if (dexConst instanceof DexConst.ArrayData) {
+                DexConst.ArrayData arrayData = (DexConst.ArrayData) dexConst;
+                mData.writeByte(CONST_ARRAY_DATA);
+                mData.writeUleb128(arrayData.getWidth());
+                mData.writeUleb128(arrayData.getLength());
+                mData.writeUleb128(arrayData.getData().length);
+                mData.writeBytes(arrayData.getData());
+            } else {
+                throw new IllegalStateException("unsupported const " + dexConst);
+            }
+        }
+
+        void writeCode(DexCodeNode code) {
+            DexString[] parameterNames = code.getParameterNames();
+            CodeEncoder encoder = new CodeEncoder();
+            // accept不会回调visitParameters，单独写入
+            if (parameterNames != null) {
+                encoder.visitParameters(parameterNames);
+            }
+            code.accept(encoder);
+        }
+
+        /**
+         * 将代码的访问事件编码，Label按首次出现的顺序编号
+         */
+        private final class CodeEncoder extends DexCodeVisitor {
+
+            private final Map<DexLabel, Integer> mLabelIds = new IdentityHashMap<>();
+
+            private boolean mRegistersWritten;
+
+            private DexString[] mParameterNames;
+
+            private int label(DexLabel label) {
+                Integer id = mLabelIds.get(label);
+                if (id == null) {
+                    id = mLabelIds.size();
+                    mLabelIds.put(label, id);
+                }
+                return id;
+            }
+
+            @Override
+            public void visitRegisters(int localRegCount, int parameterRegCount) {
+                mData.writeUleb128(localRegCount);
+                mData.writeUleb128(parameterRegCount);
+                mRegistersWritten = true;
+                if (mParameterNames != null) {
+                    writeParameters(mParameterNames);
+                }
+            }
+
+            @Override
+            public void visitParameters(DexString[] parameters) {
+                if (!mRegistersWritten) {
+                    mParameterNames = parameters;
+                } else {
+                    writeParameters(parameters);
+                }
+            }
+
+            private void writeParameters(DexString[] parameters) {
+                mData.writeByte(CODE_PARAMETERS);
+                mData.writeUleb128(parameters.length);
+                for (DexString parameter : parameters) {
+                    writeNullableString(parameter);
+                }
+            }
+
+            @Override
+            public void visitTryCatch(DexLabel start, DexLabel end, DexTypeList types,
+                                      DexLabel[] handlers, DexLabel catchAllHandler) {
+                mData.writeByte(CODE_TRY_CATCH);
+                mData.writeUleb128(label(start));
+                mData.writeUleb128(label(end));
+                writeTypeList(types);
+                if (handlers == null) {
+                    mData.writeUleb128(0);
+                } else {
+                    mData.writeUleb128(handlers.length + 1);
+                    for (DexLabel handler : handlers) {
+                        mData.writeUleb128(label(handler));
+                    }
+                }
+                mData.writeUleb128(catchAllHandler == null ? 0 : label(catchAllHandler) + 1);
+            }
+
+            @Override
+            public void visitLabel(DexLabel label) {
+                mData.writeByte(CODE_LABEL);
+                mData.writeUleb128(label(label));
+            }
+
+            @Override
+            public void visitLineNumber(int line, DexLabel start) {
+                mData.writeByte(CODE_LINE);
+                mData.writeUleb128(line);
+                mData.writeUleb128(label(start));
+            }
+
+            @Override
+            public void visitLocal(int reg, DexString name, DexType type, DexString signature,
+                                   DexLabel start, DexLabel end) {
+                mData.writeByte(CODE_LOCAL);
+                mData.writeUleb128(reg);
+                writeNullableString(name);
+                writeNullableType(type);
+                writeNullableString(signature);
+                mData.writeUleb128(label(start));
+                mData.writeUleb128(end == null ? 0 : label(end) + 1);
+            }
+
+            @Override
+            public void visitSimpleInsn(int op, DexRegisterList regs) {
+                mData.writeByte(CODE_SIMPLE);
+                mData.writeUleb128(op);
+                writeRegisters(regs);
+            }
+
+            @Override
+            public void visitConstInsn(int op, DexRegisterList regs, DexConst dexConst) {
+                mData.writeByte(CODE_CONST);
+                mData.writeUleb128(op);
+                writeRegisters(regs);
+                writeConst(dexConst);
+            }
+
+            @Override
+            public void visitTargetInsn(int op, DexRegisterList regs, DexLabel label) {
+                mData.writeByte(CODE_TARGET);
+                mData.writeUleb128(op);
+                writeRegisters(regs);
+                mData.writeUleb128(label(label));
+            }
+
+            @Override
+            public void visitSwitch(int op, DexRegisterList regs, int[] keys,
+                                    DexLabel[] targets) {
+                mData.writeByte(CODE_SWITCH);
+                mData.writeUleb128(op);
+                writeRegisters(regs);
+                mData.writeUleb128(keys.length);
+                for (int i = 0; i < keys.length; i++) {
+                    mData.writeSleb128(keys[i]);
+                    mData.writeUleb128(label(targets[i]));
+                }
+            }
+
+            @Override
+            public void visitEnd() {
+                mData.writeByte(CODE_END);
+            }
+
+        }
+
+        /**
+         * 将注解的访问事件编码，嵌套的注解与数组以ANNOTATION_END结束
+         */
+        private final class AnnotationEncoder extends DexAnnotationVisitor {
+
+            @Override
+            public void visitPrimitive(DexString name, Object value) {
+                mData.writeByte(ANNOTATION_PRIMITIVE);
+                writeNullableString(name);
+                writeValue(value);
+            }
+
+            @Override
+            public void visitString(DexString name, DexString value) {
+                mData.writeByte(ANNOTATION_STRING);
+                writeNullableString(name);
+                writeString(value);
+            }
+
+            @Override
+            public void visitEnum(DexString name, DexType enumType, DexString enumName) {
+                mData.writeByte(ANNOTATION_ENUM);
+                writeNullableString(name);
+                writeType(enumType);
+                writeString(enumName);
+            }
+
+            @Override
+            public DexAnnotationVisitor visitAnnotation(DexString name, DexType type) {
+                mData.writeByte(ANNOTATION_ANNOTATION);
+                writeNullableString(name);
+                writeType(type);
+                return new AnnotationEncoder();
+            }
+
+            @Override
+            public DexAnnotationVisitor visitArray(DexString name) {
+                mData.writeByte(ANNOTATION_ARRAY);
+                writeNullableString(name);
+                return new AnnotationEncoder();
+            }
+
+            @Override
+            public void visitMethod(DexString name, DexConst.ConstMethodRef methodRef) {
+                mData.writeByte(ANNOTATION_METHOD);
+                writeNullableString(name);
+                writeConst(methodRef);
+            }
+
+            @Override
+            public void visitField(DexString name, DexConst.ConstFieldRef fieldRef) {
+                mData.writeByte(ANNOTATION_FIELD);
+                writeNullableString(name);
+                writeConst(fieldRef);
+            }
+
+            @Override
+            public void visitType(DexString name, DexType type) {
+                mData.writeByte(ANNOTATION_TYPE);
+                writeNullableString(name);
+                writeType(type);
+            }
+
+            @Override
+            public void visitNull(DexString name) {
+                mData.writeByte(ANNOTATION_NULL);
+                writeNullableString(name);
+            }
+
+            @Override
+            public void visitEnd() {
+                mData.writeByte(ANNOTATION_END);
+            }
+
+        }
+
+    }
+
+}
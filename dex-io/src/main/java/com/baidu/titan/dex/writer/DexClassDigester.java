@@ -0,0 +1,547 @@
+/*
+ * Copyright (C) Baidu Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.baidu.titan.dex.writer;
+
+import com.baidu.titan.dex.DexConst;
+import com.baidu.titan.dex.DexRegister;
+import com.baidu.titan.dex.DexRegisterList;
+import com.baidu.titan.dex.DexString;
+import com.baidu.titan.dex.DexType;
+import com.baidu.titan.dex.DexTypeList;
+import com.baidu.titan.dex.node.DexClassNode;
+import com.baidu.titan.dex.visitor.DexAnnotationVisitor;
+import com.baidu.titan.dex.visitor.DexAnnotationVisitorInfo;
+import com.baidu.titan.dex.visitor.DexClassVisitor;
+import com.baidu.titan.dex.visitor.DexClassVisitorInfo;
+import com.baidu.titan.dex.visitor.DexCodeVisitor;
+import com.baidu.titan.dex.visitor.DexFieldVisitor;
+import com.baidu.titan.dex.visitor.DexFieldVisitorInfo;
+import com.baidu.titan.dex.visitor.DexLabel;
+import com.baidu.titan.dex.visitor.DexMethodVisitor;
+import com.baidu.titan.dex.visitor.DexMethodVisitorInfo;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.IdentityHashMap;
+
+/**
+ * 以Visitor的方式遍历类结构，直接把Writer可见的内容喂给MessageDigest。<br>
+ * 覆盖的内容与{@link DexClassWriter}接收的完全一致，不需要像smali文本那样格式化字符串。
+ * 标签按照首次出现的顺序编号，与对象身份无关
+ *
+ * @author zhangdi07@baidu.com
+ * @since 2019/3/31
+ */
+final class DexClassDigester {
+
+    private static final int TAG_CLASS = 1;
+    private static final int TAG_SOURCE_FILE = 2;
+    private static final int TAG_ANNOTATION = 3;
+    private static final int TAG_FIELD = 4;
+    private static final int TAG_STATIC_VALUE = 5;
+    private static final int TAG_METHOD = 6;
+    private static final int TAG_ANNOTATION_DEFAULT = 7;
+    private static final int TAG_PARAMETER_ANNOTATION = 8;
+    private static final int TAG_CODE = 9;
+    private static final int TAG_REGISTERS = 10;
+    private static final int TAG_TRY_CATCH = 11;
+    private static final int TAG_LABEL = 12;
+    private static final int TAG_CONST_INSN = 13;
+    private static final int TAG_TARGET_INSN = 14;
+    private static final int TAG_SIMPLE_INSN = 15;
+    private static final int TAG_SWITCH = 16;
+    private static final int TAG_PARAMETERS = 17;
+    private static final int TAG_LOCAL = 18;
+    private static final int TAG_LINE = 19;
+    private static final int TAG_ELEMENT_PRIMITIVE = 20;
+    private static final int TAG_ELEMENT_STRING = 21;
+    private static final int TAG_ELEMENT_ENUM = 22;
+    private static final int TAG_ELEMENT_ANNOTATION = 23;
+    private static final int TAG_ELEMENT_ARRAY = 24;
+    private static final int TAG_ELEMENT_METHOD = 25;
+    private static final int TAG_ELEMENT_FIELD = 26;
+    private static final int TAG_ELEMENT_TYPE = 27;
+    private static final int TAG_ELEMENT_NULL = 28;
+    private static final int TAG_END = 29;
+
+    private static final int TAG_CONST_LITERAL = 1;
+    private static final int TAG_CONST_STRING = 2;
+    private static final int TAG_CONST_TYPE = 3;
+    private static final int TAG_CONST_FIELD = 4;
+    private static final int TAG_CONST_METHOD = 5;
+    private static final int TAG_CONST_ARRAY_DATA = 6;
+    private static final int TAG_CONST_OTHER = 7;
+
+    private final MessageDigest mDigest;
+
+    private final byte[] mBuffer = new byte[4096];
+
+    private int mPosition;
+
+    private final IdentityHashMap<DexLabel, Integer> mLabels = new IdentityHashMap<>();
+
+    private DexClassDigester(MessageDigest digest) {
+        this.mDigest = digest;
+    }
+
+    /**
+     * 计算类的结构化Hash
+     *
+     * @param dcn class node
+     * @param digest 用于计算Hash的MessageDigest，调用结束后被重置
+     * @return digest bytes
+     */
+    static byte[] digest(DexClassNode dcn, MessageDigest digest) {
+        DexClassDigester digester = new DexClassDigester(digest);
+        digester.writeByte(TAG_CLASS);
+        digester.writeType(dcn.type);
+        digester.writeType(dcn.superType);
+        digester.writeTypes(dcn.interfaces);
+        digester.writeInt(dcn.accessFlags.getFlags());
+        dcn.accept(digester.new ClassDigester());
+        digester.flush();
+        return digest.digest();
+    }
+
+    private void flush() {
+        if (mPosition > 0) {
+            mDigest.update(mBuffer, 0, mPosition);
+            mPosition = 0;
+        }
+    }
+
+    private void writeByte(int b) {
+        if (mPosition == mBuffer.length) {
+            flush();
+        }
+        mBuffer[mPosition++] = (byte) b;
+    }
+
+    private void writeInt(int v) {
+        if (mPosition + 4 > mBuffer.length) {
+            flush();
+        }
+        mBuffer[mPosition++] = (byte) (v >>> 24);
+        mBuffer[mPosition++] = (byte) (v >>> 16);
+        mBuffer[mPosition++] = (byte) (v >>> 8);
+        mBuffer[mPosition++] = (byte) v;
+    }
+
+    private void writeLong(long v) {
+        writeInt((int) (v >>> 32));
+        writeInt((int) v);
+    }
+
+    private void writeBytes(byte[] bytes) {
+        writeInt(bytes.length);
+        if (bytes.length > mBuffer.length - mPosition) {
+            flush();
+            mDigest.update(bytes);
+        } else {
+            System.arraycopy(bytes, 0, mBuffer, mPosition, bytes.length);
+            mPosition += bytes.length;
+        }
+    }
+
+    private void writeString(DexString s) {
+        if (s == null) {
+            writeInt(-1);
+        } else {
+            writeBytes(s.content);
+        }
+    }
+
+    private void writeString(String s) {
+        if (s == null) {
+            writeInt(-1);
+        } else {
+            writeBytes(s.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private void writeType(DexType type) {
+        writeString(type == null ? null : type.getTypeDescriptor());
+    }
+
+    private void writeTypes(DexTypeList types) {
+        if (types == null) {
+            writeInt(-1);
+            return;
+        }
+        writeInt(types.count());
+        for (int i = 0; i < types.count(); i++) {
+            writeType(types.getType(i));
+        }
+    }
+
+    private void writeRegs(DexRegisterList regs) {
+        if (regs == null) {
+            writeInt(-1);
+            return;
+        }
+        writeInt(regs.count());
+        for (int i = 0; i < regs.count(); i++) {
+            DexRegister reg = regs.get(i);
+            writeInt(reg.getReg());
+            writeByte(reg.getWidth());
+            writeByte(reg.getRef());
+        }
+    }
+
+    private void writeLabel(DexLabel label) {
+        if (label == null) {
+            writeInt(-1);
+            return;
+        }
+        Integer id = mLabels.get(label);
+        if (id == null) {
+            id = mLabels.size();
+            mLabels.put(label, id);
+        }
+        writeInt(id);
+    }
+
+    private void writeConst(DexConst dexConst) {
+        if (dexConst instanceof DexConst.LiteralBits) {
+            writeByte(TAG_CONST_LITERAL);
+            writeLong(((DexConst.LiteralBits) dexConst).getLongBits());
+        } else if (dexConst instanceof DexConst.ConstString) {
+            writeByte(TAG_CONST_STRING);
+            writeString(((DexConst.ConstString) dexConst).value());
+        } else if (dexConst instanceof DexConst.ConstType) {
+            writeByte(TAG_CONST_TYPE);
+            writeType(((DexConst.ConstType) dexConst).value());
+        } else if (dexConst instanceof DexConst.ConstFieldRef) {
+            DexConst.ConstFieldRef fieldRef = (DexConst.ConstFieldRef) dexConst;
+            writeByte(TAG_CONST_FIELD);
+            writeType(fieldRef.getOwner());
+            writeString(fieldRef.getName());
+            writeType(fieldRef.getType());
+        } else if (dexConst instanceof DexConst.ConstMethodRef) {
+            DexConst.ConstMethodRef methodRef = (DexConst.ConstMethodRef) dexConst;
+            writeByte(TAG_CONST_METHOD);
+            writeType(methodRef.getOwner());
+            writeString(methodRef.getName());
+            writeTypes(methodRef.getParameterTypes());
+            writeType(methodRef.getReturnType());
+        } else if (dexConst instanceof DexConst.ArrayData) {
+            DexConst.ArrayData arrayData = (DexConst.ArrayData) dexConst;
+            writeByte(TAG_CONST_ARRAY_DATA);
+            writeInt(arrayData.getWidth());
+            writeInt(arrayData.getLength());
+            writeBytes(arrayData.getData());
+        } else if (dexConst == null) {
+            writeByte(0);
+        } else {
+            // method handle、call site等较少出现的常量直接使用smali文本
+            writeByte(TAG_CONST_OTHER);
+            writeString(dexConst.getClass().getName());
+            writeString(dexConst.toSmaliString());
+        }
+    }
+
+    private void writeValue(Object value) {
+        if (value == null) {
+            writeInt(-1);
+        } else {
+            // String以及基本类型的包装类
+            writeString(value.getClass().getName());
+            writeString(value.toString());
+        }
+    }
+
+    private void writeAnnotationInfo(DexAnnotationVisitorInfo info) {
+        writeType(info.type);
+        writeInt(info.visibility.get());
+    }
+
+    private class ClassDigester extends DexClassVisitor {
+
+        @Override
+        public void visitSourceFile(DexString sourceFile) {
+            writeByte(TAG_SOURCE_FILE);
+            writeString(sourceFile);
+        }
+
+        @Override
+        public DexAnnotationVisitor visitAnnotation(DexAnnotationVisitorInfo annotationInfo) {
+            writeByte(TAG_ANNOTATION);
+            writeAnnotationInfo(annotationInfo);
+            return new AnnotationDigester();
+        }
+
+        @Override
+        public DexFieldVisitor visitField(DexFieldVisitorInfo fieldInfo) {
+            writeByte(TAG_FIELD);
+            writeType(fieldInfo.owner);
+            writeString(fieldInfo.name);
+            writeType(fieldInfo.type);
+            writeInt(fieldInfo.accessFlags.getFlags());
+            return new FieldDigester();
+        }
+
+        @Override
+        public DexMethodVisitor visitMethod(DexMethodVisitorInfo methodInfo) {
+            writeByte(TAG_METHOD);
+            writeType(methodInfo.owner);
+            writeString(methodInfo.name);
+            writeTypes(methodInfo.parameters);
+            writeType(methodInfo.returnType);
+            writeInt(methodInfo.accessFlags.getFlags());
+            return new MethodDigester();
+        }
+
+        @Override
+        public void visitEnd() {
+            writeByte(TAG_END);
+        }
+    }
+
+    private class FieldDigester extends DexFieldVisitor {
+
+        @Override
+        public void visitStaticValue(Object staticValue) {
+            writeByte(TAG_STATIC_VALUE);
+            writeValue(staticValue);
+        }
+
+        @Override
+        public DexAnnotationVisitor visitAnnotation(DexAnnotationVisitorInfo annotation) {
+            writeByte(TAG_ANNOTATION);
+            writeAnnotationInfo(annotation);
+            return new AnnotationDigester();
+        }
+
+        @Override
+        public void visitEnd() {
+            writeByte(TAG_END);
+        }
+    }
+
+    private class MethodDigester extends DexMethodVisitor {
+
+        @Override
+        public DexAnnotationVisitor visitAnnotationDefault() {
+            writeByte(TAG_ANNOTATION_DEFAULT);
+            return new AnnotationDigester();
+        }
+
+        @Override
+        public DexAnnotationVisitor visitAnnotation(DexAnnotationVisitorInfo annotationInfo) {
+            writeByte(TAG_ANNOTATION);
+            writeAnnotationInfo(annotationInfo);
+            return new AnnotationDigester();
+        }
+
+        @Override
+        public DexAnnotationVisitor visitParameterAnnotation(int parameter,
+                                                             DexAnnotationVisitorInfo annotationInfo) {
+            writeByte(TAG_PARAMETER_ANNOTATION);
+            writeInt(parameter);
+            writeAnnotationInfo(annotationInfo);
+            return new AnnotationDigester();
+        }
+
+        @Override
+        public DexCodeVisitor visitCode() {
+            writeByte(TAG_CODE);
+            mLabels.clear();
+            return new CodeDigester();
+        }
+
+        @Override
+        public void visitEnd() {
+            writeByte(TAG_END);
+        }
+    }
+
+    private class CodeDigester extends DexCodeVisitor {
+
+        @Override
+        public void visitRegisters(int localRegCount, int parameterRegCount) {
+            writeByte(TAG_REGISTERS);
+            writeInt(localRegCount);
+            writeInt(parameterRegCount);
+        }
+
+        @Override
+        public void visitTryCatch(DexLabel start, DexLabel end, DexTypeList types,
+                                  DexLabel[] handlers, DexLabel catchAllHandler) {
+            writeByte(TAG_TRY_CATCH);
+            writeLabel(start);
+            writeLabel(end);
+            writeTypes(types);
+            writeInt(handlers == null ? -1 : handlers.length);
+            if (handlers != null) {
+                for (DexLabel handler : handlers) {
+                    writeLabel(handler);
+                }
+            }
+            writeLabel(catchAllHandler);
+        }
+
+        @Override
+        public void visitLabel(DexLabel label) {
+            writeByte(TAG_LABEL);
+            writeLabel(label);
+        }
+
+        @Override
+        public void visitConstInsn(int op, DexRegisterList regs, DexConst dexConst) {
+            writeByte(TAG_CONST_INSN);
+            writeInt(op);
+            writeRegs(regs);
+            writeConst(dexConst);
+        }
+
+        @Override
+        public void visitTargetInsn(int op, DexRegisterList regs, DexLabel label) {
+            writeByte(TAG_TARGET_INSN);
+            writeInt(op);
+            writeRegs(regs);
+            writeLabel(label);
+        }
+
+        @Override
+        public void visitSimpleInsn(int op, DexRegisterList regs) {
+            writeByte(TAG_SIMPLE_INSN);
+            writeInt(op);
+            writeRegs(regs);
+        }
+
+        @Override
+        public void visitSwitch(int op, DexRegisterList regs, int[] keys, DexLabel[] targets) {
+            writeByte(TAG_SWITCH);
+            writeInt(op);
+            writeRegs(regs);
+            writeInt(keys.length);
+            for (int key : keys) {
+                writeInt(key);
+            }
+            writeInt(targets.length);
+            for (DexLabel target : targets) {
+                writeLabel(target);
+            }
+        }
+
+        @Override
+        public void visitParameters(DexString[] parameters) {
+            writeByte(TAG_PARAMETERS);
+            writeInt(parameters.length);
+            for (DexString parameter : parameters) {
+                writeString(parameter);
+            }
+        }
+
+        @Override
+        public void visitLocal(int reg, DexString name, DexType type, DexString signature,
+                               DexLabel start, DexLabel end) {
+            writeByte(TAG_LOCAL);
+            writeInt(reg);
+            writeString(name);
+            writeType(type);
+            writeString(signature);
+            writeLabel(start);
+            writeLabel(end);
+        }
+
+        @Override
+        public void visitLineNumber(int line, DexLabel start) {
+            writeByte(TAG_LINE);
+            writeInt(line);
+            writeLabel(start);
+        }
+
+        @Override
+        public void visitEnd() {
+            writeByte(TAG_END);
+        }
+    }
+
+    private class AnnotationDigester extends DexAnnotationVisitor {
+
+        @Override
+        public void visitPrimitive(DexString name, Object value) {
+            writeByte(TAG_ELEMENT_PRIMITIVE);
+            writeString(name);
+            writeValue(value);
+        }
+
+        @Override
+        public void visitString(DexString name, DexString value) {
+            writeByte(TAG_ELEMENT_STRING);
+            writeString(name);
+            writeString(value);
+        }
+
+        @Override
+        public void visitEnum(DexString name, DexType enumType, DexString enumName) {
+            writeByte(TAG_ELEMENT_ENUM);
+            writeString(name);
+            writeType(enumType);
+            writeString(enumName);
+        }
+
+        @Override
+        public DexAnnotationVisitor visitAnnotation(DexString name, DexType type) {
+            writeByte(TAG_ELEMENT_ANNOTATION);
+            writeString(name);
+            writeType(type);
+            return new AnnotationDigester();
+        }
+
+        @Override
+        public DexAnnotationVisitor visitArray(DexString name) {
+            writeByte(TAG_ELEMENT_ARRAY);
+            writeString(name);
+            return new AnnotationDigester();
+        }
+
+        @Override
+        public void visitMethod(DexString name, DexConst.ConstMethodRef methodRef) {
+            writeByte(TAG_ELEMENT_METHOD);
+            writeString(name);
+            writeConst(methodRef);
+        }
+
+        @Override
+        public void visitField(DexString name, DexConst.ConstFieldRef fieldRef) {
+            writeByte(TAG_ELEMENT_FIELD);
+            writeString(name);
+            writeConst(fieldRef);
+        }
+
+        @Override
+        public void visitType(DexString name, DexType type) {
+            writeByte(TAG_ELEMENT_TYPE);
+            writeString(name);
+            writeType(type);
+        }
+
+        @Override
+        public void visitNull(DexString name) {
+            writeByte(TAG_ELEMENT_NULL);
+            writeString(name);
+        }
+
+        @Override
+        public void visitEnd() {
+            writeByte(TAG_END);
+        }
+    }
+
+}
@@ -79,10 +79,13 @@ import java.util.ArrayList;
     ClassDefItem mClassDefItem;
     DexFile mDexFile;
     Annotations mClassAnnotations = new Annotations();
+    DexWriterOptions mOptions;
 
-    public DexClassWriter(DexFile dexFile, DexClassVisitorInfo classInfo) {
+    public DexClassWriter(DexFile dexFile, DexWriterOptions options,
+                          DexClassVisitorInfo classInfo) {
         super();
         this.mDexFile = dexFile;
+        this.mOptions = options;
 
         StdTypeList interfaceList = new StdTypeList(
                 classInfo.interfaces != null ? classInfo.interfaces.count() : 0);
@@ -430,7 +433,8 @@ import java.util.ArrayList;
 
         @Override
         public DexCodeVisitor visitCode() {
-            DexCodeWriter dcw = new DexCodeWriter(mDexMethodInfo) {
+            DexCodeWriter dcw = new DexCodeWriter(mDexMethodInfo, mOptions,
+                    mDexFile.getDexOptions()) {
                 @Override
                 public void writeDexCodeEnd(DalvCode dalvCode) {
                     mDalvCode = dalvCode;
@@ -22,11 +22,13 @@ import com.baidu.titan.dex.DexType;
 import com.baidu.titan.dex.DexTypeList;
 import com.baidu.titan.dex.Dops;
 import com.baidu.titan.dex.visitor.DexMethodVisitorInfo;
+import com.baidu.titan.dexlib.dex.DexFormat;
 import com.baidu.titan.dexlib.dx.dex.DexOptions;
 import com.baidu.titan.dexlib.dx.dex.code.ArrayData;
 import com.baidu.titan.dexlib.dx.dex.code.CatchBuilder;
 import com.baidu.titan.dexlib.dx.dex.code.DalvCode;
 import com.baidu.titan.dexlib.dx.dex.code.LocalList;
+import com.baidu.titan.dexlib.dx.dex.code.MultiCstInsn;
 import com.baidu.titan.dexlib.dx.dex.code.PositionList;
 import com.baidu.titan.dexlib.dx.dex.code.SimpleInsn;
 import com.baidu.titan.dexlib.dx.dex.code.SwitchData;
@@ -34,11 +36,15 @@ import com.baidu.titan.dexlib.dx.rop.code.RegisterSpec;
 import com.baidu.titan.dexlib.dx.rop.code.RegisterSpecList;
 import com.baidu.titan.dexlib.dx.rop.code.SourcePosition;
 import com.baidu.titan.dexlib.dx.rop.cst.Constant;
+import com.baidu.titan.dexlib.dx.rop.cst.CstCallSite;
+import com.baidu.titan.dexlib.dx.rop.cst.CstCallSiteRef;
 import com.baidu.titan.dexlib.dx.rop.cst.CstFieldRef;
 import com.baidu.titan.dexlib.dx.rop.cst.CstInteger;
 import com.baidu.titan.dexlib.dx.rop.cst.CstLiteral32;
+import com.baidu.titan.dexlib.dx.rop.cst.CstMethodHandle;
 import com.baidu.titan.dexlib.dx.rop.cst.CstMethodRef;
 import com.baidu.titan.dexlib.dx.rop.cst.CstNat;
+import com.baidu.titan.dexlib.dx.rop.cst.CstProtoRef;
 import com.baidu.titan.dexlib.dx.rop.cst.CstType;
 import com.baidu.titan.dexlib.dx.rop.type.Type;
 import com.baidu.titan.dexlib.dx.util.IntList;
@@ -103,10 +109,18 @@ import java.util.List;
 
     private int mParameterRegSize;
 
+    /** 只输出行号信息，忽略局部变量、参数名以及同一位置上多余的行号 */
+    private boolean mLinesOnly;
 
-    public DexCodeWriter(DexMethodVisitorInfo dexMethodInfo) {
+    /** 所属DexFile的dx选项，决定目标API支持的指令 */
+    private DexOptions mDexOptions;
+
+    public DexCodeWriter(DexMethodVisitorInfo dexMethodInfo, DexWriterOptions options,
+                         DexOptions dexOptions) {
         super();
         this.mDexMethodInfo = dexMethodInfo;
+        this.mLinesOnly = options.minimalDebugInfo;
+        this.mDexOptions = dexOptions;
         mDexCatchBuilder = new DexCatchBuilder();
         mInsnInterpter = new InstructionInterpter();
     }
@@ -128,7 +142,7 @@ import java.util.List;
     public void visitRegisters(int localRegCount, int parameterRegCount) {
         this.mRegSize = localRegCount + parameterRegCount;
         this.mParameterRegSize = parameterRegCount;
-        mOutputCollector = new OutputCollector(new DexOptions(), 30, 10,
+        mOutputCollector = new OutputCollector(mDexOptions, 30, 10,
                 this.mRegSize, this.mParameterRegSize);
     }
 
@@ -140,12 +154,18 @@ import java.util.List;
 
     @Override
     public void visitParameters(DexString[] parameters) {
+        if (mLinesOnly) {
+            return;
+        }
         this.mParameterNames = parameters;
     }
 
     @Override
     public void visitLocal(int reg, DexString name, DexType type, DexString signature,
                            DexLabel start, DexLabel end) {
+        if (mLinesOnly) {
+            return;
+        }
         CodeAddress startAddr = newCodeAddressFromLabel(start);
         CodeAddress endAddr = newCodeAddressFromLabel(end);
 
@@ -162,6 +182,9 @@ import java.util.List;
         if (mCurrentLineNumLabel != start) {
             mCurrentLineNumLabel = start;
             mCurrentLineNums.clear();
+        } else if (mLinesOnly) {
+            // 同一地址上只保留第一个行号，运行时按pc精确匹配时同样只取第一个
+            return;
         }
         mCurrentLineNums.add(line);
     }
@@ -179,7 +202,27 @@ import java.util.List;
             return;
         }
 
+        RegisterSpecList regList = mInsnInterpter.visitConstInsn(op, regs, dexConst);
+
+        if (dexConst instanceof DexConst.MethodAndProto) {
+            DexConst.MethodAndProto methodAndProto = (DexConst.MethodAndProto) dexConst;
+            mOutputCollector.add(new MultiCstInsn(getDop(op), createCurSourcePosition(), regList,
+                    new Constant[] {toDxConstant(methodAndProto.getMethodRef(), op),
+                            toDxConstant(methodAndProto.getProto(), op)}));
+            return;
+        }
+
+        Constant constant = toDxConstant(dexConst, op);
+        if (dexConst instanceof DexConst.CallSite) {
+            // 每条invoke-custom指令对应一个独立的call_site_id
+            constant = new CstCallSiteRef((CstCallSite) constant);
+        }
+
+        mOutputCollector.add(
+                new CstInsn(getDop(op), createCurSourcePosition(), regList, constant));
+    }
 
+    private Constant toDxConstant(DexConst dexConst, int op) {
         Constant constant;
         if (dexConst instanceof DexConst.LiteralBits32) {
             constant = CstInteger.make(((DexConst.LiteralBits32)dexConst).getIntBits());
@@ -199,23 +242,45 @@ import java.util.List;
         } else if (dexConst instanceof DexConst.ConstMethodRef) {
             DexConst.ConstMethodRef constMethodRef = (DexConst.ConstMethodRef) dexConst;
 
-            StringBuilder dp = new StringBuilder();
-            dp.append("(");
-            constMethodRef.getParameterTypes().forEach(t -> dp.append(t.toTypeDescriptor()));
-            dp.append(")");
-            dp.append(constMethodRef.getReturnType().toTypeDescriptor());
-
             constant = new CstMethodRef(
                     CstType.intern(Type.intern(constMethodRef.getOwner().toTypeDescriptor())),
                     new CstNat(new CstString(constMethodRef.getName().toString()),
-                            new CstString(dp.toString())));
+                            new CstString(protoDescriptor(constMethodRef.getParameterTypes(),
+                                    constMethodRef.getReturnType()))));
+        } else if (dexConst instanceof DexConst.Proto) {
+            DexConst.Proto proto = (DexConst.Proto) dexConst;
+            constant = CstProtoRef.make(
+                    protoDescriptor(proto.getParameterTypes(), proto.getReturnType()));
+        } else if (dexConst instanceof DexConst.MethodHandle) {
+            DexConst.MethodHandle methodHandle = (DexConst.MethodHandle) dexConst;
+            constant = CstMethodHandle.make(methodHandle.getHandleType(),
+                    toDxConstant(methodHandle.getMemberRef(), op));
+        } else if (dexConst instanceof DexConst.CallSite) {
+            DexConst.CallSite callSite = (DexConst.CallSite) dexConst;
+            List<Constant> extraArgs = new ArrayList<>(callSite.getOrderedArguments().size());
+            for (DexConst arg : callSite.getOrderedArguments()) {
+                extraArgs.add(toDxConstant(arg, op));
+            }
+            constant = CstCallSite.make(
+                    (CstMethodHandle) toDxConstant(callSite.getMethodHandle(), op),
+                    new CstString(callSite.getMethodName().toString()),
+                    (CstProtoRef) toDxConstant(callSite.getMethodType(), op),
+                    extraArgs);
         } else {
             throw new IllegalStateException("unkown const " + dexConst + " op = " + op);
         }
-        RegisterSpecList regList = mInsnInterpter.visitConstInsn(op, regs, dexConst);
+        return constant;
+    }
 
-        mOutputCollector.add(
-                new CstInsn(getDop(op), createCurSourcePosition(), regList, constant));
+    private static String protoDescriptor(DexTypeList parameterTypes, DexType returnType) {
+        StringBuilder dp = new StringBuilder();
+        dp.append("(");
+        if (parameterTypes != null) {
+            parameterTypes.forEach(t -> dp.append(t.toTypeDescriptor()));
+        }
+        dp.append(")");
+        dp.append(returnType.toTypeDescriptor());
+        return dp.toString();
     }
 
     private SourcePosition createCurSourcePosition() {
@@ -430,6 +495,15 @@ import java.util.List;
             }
         }
 
+        private void checkApiSupported(int op, int apiLevel, String dexVersion) {
+            if (!mDexOptions.apiIsSupported(apiLevel)) {
+                throw new IllegalStateException(String.format(
+                        "op = 0x%x requires dex version %s, target api level = %d ", op,
+                        dexVersion, mDexOptions.targetApiLevel)
+                        + mDexMethodInfo.owner + " " + mDexMethodInfo.name);
+            }
+        }
+
         RegisterSpecList getRegs() {
             return null;
         }
@@ -596,6 +670,44 @@ import java.util.List;
                     }
                     break;
                 }
+                // 参数类型由proto决定，而不是被调用的MethodHandle.invoke(Object...)
+                case Dops.INVOKE_POLYMORPHIC:
+                case Dops.INVOKE_POLYMORPHIC_RANGE: {
+                    checkApiSupported(op, DexFormat.API_METHOD_HANDLES,
+                            DexFormat.VERSION_FOR_API_26);
+                    regList.set(0, RegisterSpec.make(getRegNumber(regs.get(0)), Type.OBJECT));
+                    DexTypeList types =
+                            ((DexConst.MethodAndProto) dexConst).getProto().getParameterTypes();
+
+                    for (int i = 0; i < types.count(); i++) {
+                        String typeDesc = types.getType(i).toTypeDescriptor();
+                        regList.set(i + 1, RegisterSpec.make(
+                                getRegNumber(regs.get(i + 1)), Type.intern(typeDesc)));
+                    }
+                    break;
+                }
+                case Dops.INVOKE_CUSTOM:
+                case Dops.INVOKE_CUSTOM_RANGE: {
+                    checkApiSupported(op, DexFormat.API_METHOD_HANDLES,
+                            DexFormat.VERSION_FOR_API_26);
+                    DexTypeList types =
+                            ((DexConst.CallSite) dexConst).getMethodType().getParameterTypes();
+
+                    for (int i = 0; i < types.count(); i++) {
+                        String typeDesc = types.getType(i).toTypeDescriptor();
+                        regList.set(i, RegisterSpec.make(
+                                getRegNumber(regs.get(i)), Type.intern(typeDesc)));
+                    }
+                    break;
+                }
+                case Dops.CONST_METHOD_HANDLE:
+                case Dops.CONST_METHOD_TYPE: {
+                    checkApiSupported(op, DexFormat.API_CONST_METHOD_HANDLE,
+                            DexFormat.VERSION_FOR_API_28);
+                    Type type = op == Dops.CONST_METHOD_HANDLE ? Type.METHOD_HANDLE : Type.METHOD_TYPE;
+                    regList.set(0, RegisterSpec.make(getRegNumber(regs.get(0)), type));
+                    break;
+                }
 
                 // binop/lit16 vA, vB, #+CCCC
                 // binop/lit8 vAA, vBB, #+CC
@@ -17,6 +17,7 @@
 package com.baidu.titan.dex.writer;
 
 import com.baidu.titan.dex.DexFileVersion;
+import com.baidu.titan.dex.node.DexClassNode;
 import com.baidu.titan.dex.visitor.DexClassVisitor;
 import com.baidu.titan.dex.visitor.DexClassVisitorInfo;
 import com.baidu.titan.dex.visitor.DexFileVisitor;
@@ -24,6 +25,8 @@ import com.baidu.titan.dexlib.dx.dex.DexOptions;
 import com.baidu.titan.dexlib.dx.dex.file.DexFile;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * 用于生成DexFile<br>
@@ -37,30 +40,138 @@ public class DexFileWriter extends DexFileVisitor {
 
     private DexFile mDexFile;
 
+    private DexWriterOptions mOptions;
+
+    private DexWriterCache mCache;
+
+    /**
+     * 启用缓存时，先将所有类缓存为DexClassNode，在visitEnd时统一计算Key。
+     * 整个Dex的类会同时驻留内存，并且每个类都要遍历一次计算Hash，见{@link DexWriterCache}
+     */
+    private List<DexClassNode> mPendingClasses;
+
+    /** 缓存命中或者已经编码完成的Dex字节 */
+    private byte[] mEncodedBytes;
+
+    /** 目标Dex版本，为null时使用dx默认的035版本 */
+    private DexFileVersion mDexVersion;
+
     public DexFileWriter() {
+        this(new DexWriterOptions(), null);
+    }
+
+    /**
+     * @param cache 编码结果缓存，为null时不使用缓存
+     */
+    public DexFileWriter(DexWriterCache cache) {
+        this(new DexWriterOptions(), cache);
+    }
+
+    /**
+     * @param options 写入选项
+     * @param cache 编码结果缓存，为null时不使用缓存
+     */
+    public DexFileWriter(DexWriterOptions options, DexWriterCache cache) {
         super();
+        this.mOptions = options;
+        this.mCache = cache;
     }
 
     @Override
     public void visitBegin() {
-        DexOptions dexOptions = new DexOptions();
+        DexOptions dexOptions = mOptions.toDxOptions();
         mDexFile = new DexFile(dexOptions);
+        mEncodedBytes = null;
+        mDexVersion = null;
+        mPendingClasses = mCache != null ? new ArrayList<>() : null;
     }
 
     @Override
     public void visitDexVersion(DexFileVersion version) {
-        // TODO 暂时先写入固定Dex Version，后继支持多种版本写入
         super.visitDexVersion(version);
+        // 目标API决定了写入的magic版本，以及是否允许写入call_site_id与method_handle
+        mDexVersion = version;
+        if (version != null) {
+            mDexFile.getDexOptions().targetApiLevel = version.androidApiLevel;
+        }
     }
 
     @Override
     public DexClassVisitor visitClass(DexClassVisitorInfo classInfo) {
-        return new DexClassWriter(mDexFile, classInfo);
+        if (mPendingClasses != null) {
+            DexClassNode dcn = new DexClassNode(classInfo);
+            mPendingClasses.add(dcn);
+            return dcn.asVisitor();
+        }
+        return new DexClassWriter(mDexFile, mOptions, classInfo);
     }
 
     @Override
     public void visitEnd() {
+        if (mPendingClasses != null) {
+            List<byte[]> classDigests = new ArrayList<>(mPendingClasses.size());
+            for (DexClassNode dcn : mPendingClasses) {
+                classDigests.add(DexWriterCache.classDigest(dcn));
+            }
+            String key = DexWriterCache.computeKey(getOptionsSignature(), classDigests);
+            mEncodedBytes = mCache.get(key);
+            if (mEncodedBytes == null) {
+                for (DexClassNode dcn : mPendingClasses) {
+                    DexClassWriter dcw = new DexClassWriter(mDexFile, mOptions, new DexClassVisitorInfo(
+                            dcn.type, dcn.superType, dcn.interfaces, dcn.accessFlags));
+                    dcn.accept(dcw);
+                }
+                mEncodedBytes = encode();
+                if (mEncodedBytes != null) {
+                    mCache.put(key, mEncodedBytes);
+                }
+            }
+            mPendingClasses = null;
+        }
+    }
 
+    /**
+     * 描述影响编码结果的Writer选项，作为缓存Key的一部分
+     *
+     * @return options signature
+     */
+    protected String getOptionsSignature() {
+        if (mDexVersion != null) {
+            return mOptions.signature() + ";dexVersion=" + mDexVersion.dexVersion;
+        }
+        return mOptions.signature();
+    }
+
+    /**
+     * 与其他方法共享code_item或debug_info_item而省略的item个数，编码完成后有效，缓存命中时为0
+     *
+     * @return deduplicated item count
+     */
+    public int getDeduplicatedItemCount() {
+        return mDexFile.getDeduplicatedItemCount();
+    }
+
+    /**
+     * 共享code_item与debug_info_item节省的字节数，编码完成后有效，缓存命中时为0
+     *
+     * @return saved bytes
+     */
+    public int getDeduplicatedSize() {
+        return mDexFile.getDeduplicatedSize();
+    }
+
+    /**
+     * 编码失败时计入缓存的错误计数并返回null，writeTo()会重新编码，由调用方收到异常
+     *
+     * @return dex bytes
+     */
+    private byte[] encode() {
+        try {
+            return mDexFile.toDex(null, false);
+        } catch (IOException e) {
+            mCache.onError(e);
+            return null;
+        }
     }
 
     /**
@@ -78,13 +189,18 @@ public class DexFileWriter extends DexFileVisitor {
     }
 
     /**
-     * 生成Dex文件，并输出到Stream
+     * 生成Dex文件，并输出到Stream<br>
+     * 启用缓存时，humanOut不会输出内容
      * @param out
      * @param humanOut
      * @param verbose
      * @throws IOException
      */
     public void writeTo(OutputStream out, Writer humanOut, boolean verbose) throws IOException{
+        if (mEncodedBytes != null) {
+            out.write(mEncodedBytes);
+            return;
+        }
         mDexFile.writeTo(out, humanOut, verbose);
     }
 }
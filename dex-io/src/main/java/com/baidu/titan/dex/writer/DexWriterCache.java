@@ -0,0 +1,300 @@
+/*
+ * Copyright (C) Baidu Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.baidu.titan.dex.writer;
+
+import com.baidu.titan.dex.node.DexClassNode;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 基于内容寻址的Dex编码结果磁盘缓存，可在多次构建之间复用。<br>
+ *
+ * 缓存Key由Dex内每个DexClassNode的结构化Hash以及Writer选项共同决定，Value为编码后的Dex字节。
+ * dx在整个Dex范围内分配各类ID，并依据ID大小选择jumbo等指令格式，
+ * 因此缓存粒度为单个Dex文件：只要Dex内任意一个类发生变化，该Dex就需要重新编码。<br>
+ *
+ * 缓存目录总大小受限，超出后按照最近访问时间进行LRU淘汰。
+ * 写入采用临时文件 + 原子rename，淘汰在跨进程文件锁保护下进行，同一台机器上的并发构建可以共享同一目录。
+ * 读写以及淘汰失败不会中断构建，只计入{@link #getErrorCount()}，最近一次异常可以通过{@link #getLastError()}获取。<br>
+ *
+ * 注意缓存本身有代价：计算Key需要把Dex内所有类先缓存为DexClassNode，
+ * 再逐个遍历类结构计算SHA-256，耗时与内存都与类的大小成正比，未命中时这部分开销全部是额外的。
+ * 遍历的代价远小于编码，因此命中率较高时收益明显。
+ *
+ * @author zhangdi07@baidu.com
+ * @since 2019/3/12
+ */
+public class DexWriterCache {
+
+    /** 缓存格式版本，编码结果的格式发生变化时需要递增 */
+    private static final int CACHE_FORMAT_VERSION = 2;
+
+    private static final String ENTRY_SUFFIX = ".dex";
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final String LOCK_FILE_NAME = ".lock";
+
+    /** 同一进程内对同一目录的淘汰操作需要互斥，FileLock无法处理进程内的重叠加锁 */
+    private static final ConcurrentHashMap<Path, Object> sDirMonitors = new ConcurrentHashMap<>();
+
+    private final Path mCacheDir;
+
+    private final long mMaxBytes;
+
+    private final AtomicLong mHits = new AtomicLong();
+
+    private final AtomicLong mMisses = new AtomicLong();
+
+    private final AtomicLong mEvictions = new AtomicLong();
+
+    private final AtomicLong mErrors = new AtomicLong();
+
+    private volatile IOException mLastError;
+
+    /**
+     * @param cacheDir 缓存目录，不存在时自动创建
+     * @param maxBytes 缓存目录允许占用的最大字节数
+     */
+    public DexWriterCache(File cacheDir, long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be positive: " + maxBytes);
+        }
+        this.mCacheDir = cacheDir.toPath().toAbsolutePath().normalize();
+        this.mMaxBytes = maxBytes;
+        try {
+            Files.createDirectories(mCacheDir);
+        } catch (IOException e) {
+            throw new IllegalStateException("cannot create cache dir " + mCacheDir, e);
+        }
+    }
+
+    /**
+     * 计算DexClassNode的结构化Hash，与对象身份无关，只与类的内容有关。<br>
+     * 直接遍历类结构，覆盖注解、静态值、指令、try-catch、行号以及参数名，不生成中间文本
+     *
+     * @param dcn class node
+     * @return sha-256 digest
+     */
+    public static byte[] classDigest(DexClassNode dcn) {
+        return DexClassDigester.digest(dcn, newDigest());
+    }
+
+    /**
+     * 根据Writer选项以及各个类的结构化Hash生成缓存Key
+     *
+     * @param writerOptions Writer选项描述，选项不同的编码结果互不复用
+     * @param classDigests 按写入顺序排列的类Hash
+     * @return 十六进制缓存Key
+     */
+    public static String computeKey(String writerOptions, List<byte[]> classDigests) {
+        MessageDigest md = newDigest();
+        md.update(("v" + CACHE_FORMAT_VERSION + ";" + writerOptions + ";")
+                .getBytes(StandardCharsets.UTF_8));
+        for (byte[] digest : classDigests) {
+            md.update(digest);
+        }
+        return toHex(md.digest());
+    }
+
+    /**
+     * 读取缓存，命中时刷新访问时间
+     *
+     * @param key cache key
+     * @return 缓存的Dex字节，未命中返回null
+     */
+    public byte[] get(String key) {
+        Path entry = entryPath(key);
+        try {
+            byte[] bytes = Files.readAllBytes(entry);
+            entry.toFile().setLastModified(System.currentTimeMillis());
+            mHits.incrementAndGet();
+            return bytes;
+        } catch (NoSuchFileException e) {
+            // miss
+        } catch (IOException e) {
+            // 读取失败等同于未命中
+            onError(e);
+        }
+        mMisses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * 写入缓存，写入失败不影响构建结果
+     *
+     * @param key cache key
+     * @param bytes 编码后的Dex字节
+     */
+    public void put(String key, byte[] bytes) {
+        Path entry = entryPath(key);
+        Path temp = null;
+        try {
+            temp = Files.createTempFile(mCacheDir, key, TEMP_SUFFIX);
+            Files.write(temp, bytes);
+            try {
+                Files.move(temp, entry, StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING);
+            }
+            temp = null;
+        } catch (IOException e) {
+            onError(e);
+            return;
+        } finally {
+            if (temp != null) {
+                temp.toFile().delete();
+            }
+        }
+        trim();
+    }
+
+    /**
+     * 按照最近访问时间淘汰缓存，直到总大小不超过上限
+     */
+    public void trim() {
+        Object monitor = sDirMonitors.computeIfAbsent(mCacheDir, k -> new Object());
+        synchronized (monitor) {
+            try (FileChannel channel = FileChannel.open(mCacheDir.resolve(LOCK_FILE_NAME),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                FileLock lock = channel.lock();
+                try {
+                    trimLocked();
+                } finally {
+                    lock.release();
+                }
+            } catch (IOException e) {
+                // 淘汰失败，下次写入时重试
+                onError(e);
+            }
+        }
+    }
+
+    private void trimLocked() {
+        File[] files = mCacheDir.toFile().listFiles(
+                (dir, name) -> name.endsWith(ENTRY_SUFFIX));
+        if (files == null) {
+            return;
+        }
+        List<File> entries = new ArrayList<>(files.length);
+        long totalBytes = 0;
+        for (File file : files) {
+            entries.add(file);
+            totalBytes += file.length();
+        }
+        if (totalBytes <= mMaxBytes) {
+            return;
+        }
+        entries.sort(Comparator.comparingLong(File::lastModified));
+        for (File file : entries) {
+            if (totalBytes <= mMaxBytes) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                totalBytes -= length;
+                mEvictions.incrementAndGet();
+            }
+        }
+    }
+
+    public long getHitCount() {
+        return mHits.get();
+    }
+
+    public long getMissCount() {
+        return mMisses.get();
+    }
+
+    public long getEvictionCount() {
+        return mEvictions.get();
+    }
+
+    /**
+     * @return 读写以及淘汰过程中被忽略的IO异常个数
+     */
+    public long getErrorCount() {
+        return mErrors.get();
+    }
+
+    /**
+     * @return 最近一次被忽略的IO异常，没有时返回null
+     */
+    public IOException getLastError() {
+        return mLastError;
+    }
+
+    public File getCacheDir() {
+        return mCacheDir.toFile();
+    }
+
+    /**
+     * 记录被忽略的IO异常，Writer编码失败时也通过这里计数
+     *
+     * @param e io exception
+     */
+    void onError(IOException e) {
+        mLastError = e;
+        mErrors.incrementAndGet();
+    }
+
+    private Path entryPath(String key) {
+        return mCacheDir.resolve(key + ENTRY_SUFFIX);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "DexWriterCache{dir=" + mCacheDir + ", hits=" + mHits + ", misses=" + mMisses
+                + ", evictions=" + mEvictions + ", errors=" + mErrors + "}";
+    }
+
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) Baidu Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.baidu.titan.dex.writer;
+
+import com.baidu.titan.dexlib.dx.dex.DexOptions;
+
+/**
+ * DexFileWriter 写入选项
+ *
+ * @author zhangdi07@baidu.com
+ * @since 2019/3/14
+ */
+public class DexWriterOptions {
+
+    /**
+     * 内容完全相同的code_item与debug_info_item只写入一份，多个方法共享同一个偏移。默认关闭，与dx保持一致
+     */
+    public boolean deduplicateItems = false;
+
+    /**
+     * 只写入行号信息：丢弃局部变量与参数名，同一地址上只保留一个行号，连续相同的行号合并为一项。
+     * 行号表在差分编码后相同的方法会生成完全相同的debug_info_item，配合{@link #deduplicateItems}共享同一份
+     */
+    public boolean minimalDebugInfo = false;
+
+    public DexWriterOptions() {
+    }
+
+    /**
+     * 生成dx对应的DexOptions
+     *
+     * @return dx options
+     */
+    /** package */ DexOptions toDxOptions() {
+        DexOptions dexOptions = new DexOptions();
+        dexOptions.deduplicateItems = deduplicateItems;
+        return dexOptions;
+    }
+
+    /**
+     * 描述所有影响编码结果的选项，用于编码结果缓存
+     *
+     * @return options signature
+     */
+    public String signature() {
+        return "dedup=" + deduplicateItems + ";minimalDebugInfo=" + minimalDebugInfo;
+    }
+
+}
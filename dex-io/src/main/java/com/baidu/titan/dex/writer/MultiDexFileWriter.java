@@ -23,6 +23,7 @@ import com.baidu.titan.dex.visitor.MultiDexFileVisitor;
 
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author zhangdi07
@@ -33,18 +34,45 @@ public class MultiDexFileWriter extends MultiDexFileVisitor {
 
     private MultiDexFileBytes mMultiDexFileBytes = new MultiDexFileBytes();
 
+    private DexWriterOptions mOptions;
+
+    private DexWriterCache mCache;
+
+    private AtomicInteger mDeduplicatedItemCount = new AtomicInteger();
+
+    private AtomicInteger mDeduplicatedSize = new AtomicInteger();
+
     public MultiDexFileWriter() {
+        this(new DexWriterOptions(), null);
+    }
+
+    /**
+     * @param cache 编码结果缓存，所有Dex共享同一个缓存
+     */
+    public MultiDexFileWriter(DexWriterCache cache) {
+        this(new DexWriterOptions(), cache);
+    }
+
+    /**
+     * @param options 写入选项，所有Dex共享
+     * @param cache 编码结果缓存，所有Dex共享同一个缓存
+     */
+    public MultiDexFileWriter(DexWriterOptions options, DexWriterCache cache) {
         super();
+        this.mOptions = options;
+        this.mCache = cache;
     }
 
     @Override
     public DexFileVisitor visitDexFile(final int dexId) {
         System.out.println("writer dexid = " + dexId);
-        DexFileWriter mdfw = new DexFileWriter() {
+        DexFileWriter mdfw = new DexFileWriter(mOptions, mCache) {
             @Override
             public void visitEnd() {
                 super.visitEnd();
                 mMultiDexFileBytes.addDexFileBytes(dexId, new DexFileBytes(this.toByteArray()));
+                mDeduplicatedItemCount.addAndGet(getDeduplicatedItemCount());
+                mDeduplicatedSize.addAndGet(getDeduplicatedSize());
             }
         };
         return mdfw;
@@ -54,4 +82,18 @@ public class MultiDexFileWriter extends MultiDexFileVisitor {
         return mMultiDexFileBytes;
     }
 
+    /**
+     * @return 所有Dex中共享code_item与debug_info_item而省略的item个数
+     */
+    public int getDeduplicatedItemCount() {
+        return mDeduplicatedItemCount.get();
+    }
+
+    /**
+     * @return 所有Dex中共享code_item与debug_info_item节省的字节数
+     */
+    public int getDeduplicatedSize() {
+        return mDeduplicatedSize.get();
+    }
+
 }
@@ -23,11 +23,26 @@ package com.baidu.titan.dexlib.dex;
 public final class DexFormat {
     private DexFormat() {}
 
+    /**
+     * API level to target in order to allow const-method-handle and
+     * const-method-type
+     */
+    public static final int API_CONST_METHOD_HANDLE = 28;
+
+    /**
+     * API level to target in order to allow invoke-polymorphic,
+     * invoke-custom, call sites and method handles
+     */
+    public static final int API_METHOD_HANDLES = 26;
+
+    /** API level to target in order to define default and static interface methods */
+    public static final int API_DEFINE_INTERFACE_METHODS = 24;
+
     /**
      * API level to target in order to produce the most modern file
      * format
      */
-    public static final int API_CURRENT = 24;
+    public static final int API_CURRENT = API_CONST_METHOD_HANDLE;
 
     /** API level to target in order to suppress extended opcode usage */
     public static final int API_NO_EXTENDED_OPCODES = 13;
@@ -51,7 +66,16 @@ public final class DexFormat {
      * completed and is not considered a valid dex file format.
      * </p>
      */
-    public static final String VERSION_CURRENT = "037";
+    public static final String VERSION_CURRENT = "039";
+
+    /** dex file version number for API level 28 and later */
+    public static final String VERSION_FOR_API_28 = "039";
+
+    /** dex file version number for API level 26 and 27 */
+    public static final String VERSION_FOR_API_26 = "038";
+
+    /** dex file version number for API level 24 and 25 */
+    public static final String VERSION_FOR_API_24 = "037";
 
     /** dex file version number for API level 13 and earlier */
     public static final String VERSION_FOR_API_13 = "035";
@@ -91,8 +115,12 @@ public final class DexFormat {
 
         String version = "" + ((char) magic[4]) + ((char) magic[5]) +((char) magic[6]);
 
-        if (version.equals(VERSION_CURRENT)) {
-            return API_CURRENT;
+        if (version.equals(VERSION_FOR_API_28)) {
+            return API_CONST_METHOD_HANDLE;
+        } else if (version.equals(VERSION_FOR_API_26)) {
+            return API_METHOD_HANDLES;
+        } else if (version.equals(VERSION_FOR_API_24)) {
+            return API_DEFINE_INTERFACE_METHODS;
         } else if (version.equals(VERSION_FOR_API_13)) {
             return API_NO_EXTENDED_OPCODES;
         }
@@ -120,8 +148,12 @@ public final class DexFormat {
     public static String apiToMagic(int targetApiLevel) {
         String version;
 
-        if (targetApiLevel >= API_CURRENT) {
-            version = VERSION_CURRENT;
+        if (targetApiLevel >= API_CONST_METHOD_HANDLE) {
+            version = VERSION_FOR_API_28;
+        } else if (targetApiLevel >= API_METHOD_HANDLES) {
+            version = VERSION_FOR_API_26;
+        } else if (targetApiLevel >= API_DEFINE_INTERFACE_METHODS) {
+            version = VERSION_FOR_API_24;
         } else {
             version = VERSION_FOR_API_13;
         }
@@ -130,7 +162,6 @@ public final class DexFormat {
     }
 
     public static boolean isSupportedDexMagic(byte[] magic) {
-        int api = magicToApi(magic);
-        return api == API_NO_EXTENDED_OPCODES || api == API_CURRENT;
+        return magicToApi(magic) > 0;
     }
 }
@@ -93,6 +93,19 @@ public final class SizeOf {
      */
     public static final int CLASS_DEF_ITEM = 8 * UINT;
 
+    /**
+     * call_site_off uint
+     */
+    public static final int CALL_SITE_ID_ITEM = UINT;
+
+    /**
+     * method_handle_type ushort
+     * unused ushort
+     * field_or_method_id ushort
+     * unused ushort
+     */
+    public static final int METHOD_HANDLE_ITEM = USHORT + USHORT + USHORT + USHORT;
+
     /**
      * type ushort
      * unused ushort
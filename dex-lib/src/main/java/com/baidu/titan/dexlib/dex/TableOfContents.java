@@ -36,6 +36,8 @@ public final class TableOfContents {
     public final Section fieldIds = new Section(0x0004);
     public final Section methodIds = new Section(0x0005);
     public final Section classDefs = new Section(0x0006);
+    public final Section callSiteIds = new Section(0x0007);
+    public final Section methodHandles = new Section(0x0008);
     public final Section mapList = new Section(0x1000);
     public final Section typeLists = new Section(0x1001);
     public final Section annotationSetRefLists = new Section(0x1002);
@@ -48,9 +50,9 @@ public final class TableOfContents {
     public final Section encodedArrays = new Section(0x2005);
     public final Section annotationsDirectories = new Section(0x2006);
     public final Section[] sections = {
-            header, stringIds, typeIds, protoIds, fieldIds, methodIds, classDefs, mapList,
-            typeLists, annotationSetRefLists, annotationSets, classDatas, codes, stringDatas,
-            debugInfos, annotations, encodedArrays, annotationsDirectories
+            header, stringIds, typeIds, protoIds, fieldIds, methodIds, classDefs, callSiteIds,
+            methodHandles, mapList, typeLists, annotationSetRefLists, annotationSets, classDatas,
+            codes, stringDatas, debugInfos, annotations, encodedArrays, annotationsDirectories
     };
 
     public int apiLevel;
@@ -44,6 +44,23 @@ public class DexOptions {
     /** force generation of jumbo opcodes */
     public boolean forceJumbo = false;
 
+    /**
+     * whether byte-identical code items and debug info items are emitted
+     * once and shared by all referencing methods
+     */
+    public boolean deduplicateItems = false;
+
+    /**
+     * Returns whether the target API level supports the features
+     * introduced at the given API level.
+     *
+     * @param apiLevel the API level introducing the feature
+     * @return {@code true} iff the feature can be used
+     */
+    public boolean apiIsSupported(int apiLevel) {
+        return targetApiLevel >= apiLevel;
+    }
+
     /**
      * Gets the dex file magic number corresponding to this instance.
      */
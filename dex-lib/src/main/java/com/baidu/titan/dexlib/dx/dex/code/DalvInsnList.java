@@ -20,6 +20,8 @@ import com.baidu.titan.dexlib.dex.util.ExceptionWithContext;
 import com.baidu.titan.dexlib.dx.io.Opcodes;
 import com.baidu.titan.dexlib.dx.rop.cst.Constant;
 import com.baidu.titan.dexlib.dx.rop.cst.CstBaseMethodRef;
+import com.baidu.titan.dexlib.dx.rop.cst.CstCallSiteRef;
+import com.baidu.titan.dexlib.dx.rop.cst.CstProtoRef;
 import com.baidu.titan.dexlib.dx.util.AnnotatedOutput;
 import com.baidu.titan.dexlib.dx.util.FixedSizeList;
 import com.baidu.titan.dexlib.dx.util.IndentingWriter;
@@ -191,21 +193,31 @@ public final class DalvInsnList extends FixedSizeList {
         for (int i = 0; i < sz; i++) {
             DalvInsn insn = (DalvInsn) get0(i);
 
-            if (!(insn instanceof CstInsn)) {
-                continue;
-            }
-
-            Constant cst = ((CstInsn) insn).getConstant();
-
-            if (!(cst instanceof CstBaseMethodRef)) {
+            int count;
+
+            if (insn instanceof MultiCstInsn) {
+                // invoke-polymorphic: the receiver plus the call site prototype
+                Constant proto = ((MultiCstInsn) insn).getConstant(1);
+                count = ((CstProtoRef) proto).getPrototype()
+                        .getParameterTypes().getWordCount() + 1;
+            } else if (insn instanceof CstInsn) {
+                Constant cst = ((CstInsn) insn).getConstant();
+
+                if (cst instanceof CstBaseMethodRef) {
+                    boolean isStatic =
+                        (insn.getOpcode().getFamily() == Opcodes.INVOKE_STATIC);
+                    count =
+                        ((CstBaseMethodRef) cst).getParameterWordCount(isStatic);
+                } else if (cst instanceof CstCallSiteRef) {
+                    count = ((CstCallSiteRef) cst).getPrototype()
+                            .getParameterTypes().getWordCount();
+                } else {
+                    continue;
+                }
+            } else {
                 continue;
             }
 
-            boolean isStatic =
-                (insn.getOpcode().getFamily() == Opcodes.INVOKE_STATIC);
-            int count =
-                ((CstBaseMethodRef) cst).getParameterWordCount(isStatic);
-
             if (count > result) {
                 result = count;
             }
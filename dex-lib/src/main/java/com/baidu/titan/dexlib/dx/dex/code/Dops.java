@@ -40,6 +40,8 @@ import com.baidu.titan.dexlib.dx.dex.code.form.Form31t;
 import com.baidu.titan.dexlib.dx.dex.code.form.Form32x;
 import com.baidu.titan.dexlib.dx.dex.code.form.Form35c;
 import com.baidu.titan.dexlib.dx.dex.code.form.Form3rc;
+import com.baidu.titan.dexlib.dx.dex.code.form.Form45cc;
+import com.baidu.titan.dexlib.dx.dex.code.form.Form4rcc;
 import com.baidu.titan.dexlib.dx.dex.code.form.Form51l;
 import com.baidu.titan.dexlib.dx.dex.code.form.SpecialFormat;
 import com.baidu.titan.dexlib.dx.io.Opcodes;
@@ -935,6 +937,30 @@ public final class Dops {
         new Dop(Opcodes.USHR_INT_LIT8, Opcodes.USHR_INT,
             Opcodes.NO_NEXT, Form22b.THE_ONE, true).setFlags(Dop.FLAG_CFG_CONTINUE | Dop.FLAG_CFG_CONST);
 
+    public static final Dop INVOKE_POLYMORPHIC =
+        new Dop(Opcodes.INVOKE_POLYMORPHIC, Opcodes.INVOKE_POLYMORPHIC,
+            Opcodes.INVOKE_POLYMORPHIC_RANGE, Form45cc.THE_ONE, false).setFlags(Dop.FLAG_CFG_CONTINUE | Dop.FLAG_CFG_THROW | Dop.FLAG_CFG_INVOKE | Dop.FLAG_CFG_CONST);
+
+    public static final Dop INVOKE_POLYMORPHIC_RANGE =
+        new Dop(Opcodes.INVOKE_POLYMORPHIC_RANGE, Opcodes.INVOKE_POLYMORPHIC,
+            Opcodes.NO_NEXT, Form4rcc.THE_ONE, false).setFlags(Dop.FLAG_CFG_CONTINUE | Dop.FLAG_CFG_THROW | Dop.FLAG_CFG_INVOKE | Dop.FLAG_CFG_CONST);
+
+    public static final Dop INVOKE_CUSTOM =
+        new Dop(Opcodes.INVOKE_CUSTOM, Opcodes.INVOKE_CUSTOM,
+            Opcodes.INVOKE_CUSTOM_RANGE, Form35c.THE_ONE, false).setFlags(Dop.FLAG_CFG_CONTINUE | Dop.FLAG_CFG_THROW | Dop.FLAG_CFG_INVOKE | Dop.FLAG_CFG_CONST);
+
+    public static final Dop INVOKE_CUSTOM_RANGE =
+        new Dop(Opcodes.INVOKE_CUSTOM_RANGE, Opcodes.INVOKE_CUSTOM,
+            Opcodes.NO_NEXT, Form3rc.THE_ONE, false).setFlags(Dop.FLAG_CFG_CONTINUE | Dop.FLAG_CFG_THROW | Dop.FLAG_CFG_INVOKE | Dop.FLAG_CFG_CONST);
+
+    public static final Dop CONST_METHOD_HANDLE =
+        new Dop(Opcodes.CONST_METHOD_HANDLE, Opcodes.CONST_METHOD_HANDLE,
+            Opcodes.NO_NEXT, Form21c.THE_ONE, true).setFlags(Dop.FLAG_CFG_CONTINUE | Dop.FLAG_CFG_THROW | Dop.FLAG_CFG_CONST);
+
+    public static final Dop CONST_METHOD_TYPE =
+        new Dop(Opcodes.CONST_METHOD_TYPE, Opcodes.CONST_METHOD_TYPE,
+            Opcodes.NO_NEXT, Form21c.THE_ONE, true).setFlags(Dop.FLAG_CFG_CONTINUE | Dop.FLAG_CFG_THROW | Dop.FLAG_CFG_CONST);
+
     // END(dops)
 
     // Static initialization.
@@ -1162,6 +1188,12 @@ public final class Dops {
         set(SHL_INT_LIT8);
         set(SHR_INT_LIT8);
         set(USHR_INT_LIT8);
+        set(INVOKE_POLYMORPHIC);
+        set(INVOKE_POLYMORPHIC_RANGE);
+        set(INVOKE_CUSTOM);
+        set(INVOKE_CUSTOM_RANGE);
+        set(CONST_METHOD_HANDLE);
+        set(CONST_METHOD_TYPE);
         // END(dops-init)
     }
 
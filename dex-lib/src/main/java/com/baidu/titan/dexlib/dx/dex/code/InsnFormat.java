@@ -334,6 +334,10 @@ public abstract class InsnFormat {
      * constant
      */
     protected static String cstString(DalvInsn insn) {
+        if (insn instanceof MultiCstInsn) {
+            return ((MultiCstInsn) insn).argString();
+        }
+
         CstInsn ci = (CstInsn) insn;
         Constant cst = ci.getConstant();
 
@@ -347,6 +351,10 @@ public abstract class InsnFormat {
      * @return {@code non-null;} comment string representing the constant
      */
     protected static String cstComment(DalvInsn insn) {
+        if (insn instanceof MultiCstInsn) {
+            return multiCstComment((MultiCstInsn) insn);
+        }
+
         CstInsn ci = (CstInsn) insn;
 
         if (! ci.hasIndex()) {
@@ -368,6 +376,34 @@ public abstract class InsnFormat {
         return sb.toString();
     }
 
+    /**
+     * Helper method to return an instruction comment for the constants
+     * of a {@link MultiCstInsn}.
+     *
+     * @param mci {@code non-null;} a multi-constant instruction
+     * @return {@code non-null;} comment string representing the constants
+     */
+    private static String multiCstComment(MultiCstInsn mci) {
+        StringBuilder sb = new StringBuilder(40);
+
+        for (int i = 0; i < mci.getNumberOfConstants(); i++) {
+            if (!mci.hasIndex(i)) {
+                return "";
+            }
+
+            if (i > 0) {
+                sb.append(", ");
+            }
+
+            int index = mci.getIndex(i);
+            sb.append(mci.getConstant(i).typeName());
+            sb.append('@');
+            sb.append(index < 65536 ? Hex.u2(index) : Hex.u4(index));
+        }
+
+        return sb.toString();
+    }
+
     /**
      * Helper method to determine if a signed int value fits in a nibble.
      *
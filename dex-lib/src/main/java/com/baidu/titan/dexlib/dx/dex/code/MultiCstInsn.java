@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.titan.dexlib.dx.dex.code;
+
+import com.baidu.titan.dexlib.dx.rop.code.RegisterSpecList;
+import com.baidu.titan.dexlib.dx.rop.code.SourcePosition;
+import com.baidu.titan.dexlib.dx.rop.cst.Constant;
+
+/**
+ * An instruction which has multiple constant arguments in addition
+ * to a register list, such as {@code invoke-polymorphic}, whose
+ * arguments are a method reference and a prototype reference.
+ */
+public final class MultiCstInsn extends FixedSizeInsn {
+    /** {@code non-null;} the constant arguments to this instruction */
+    private final Constant[] constants;
+
+    /**
+     * indices of the constants in the file; {@code -1} for an index
+     * not yet set
+     */
+    private final int[] index;
+
+    /**
+     * Constructs an instance. The output address of this instance is
+     * initially unknown ({@code -1}) as are the constant indices.
+     *
+     * @param opcode the opcode; one of the constants from {@link Dops}
+     * @param position {@code non-null;} source position
+     * @param registers {@code non-null;} register list, including a
+     * result register if appropriate (that is, registers may be either
+     * ins or outs)
+     * @param constants {@code non-null;} constant arguments
+     */
+    public MultiCstInsn(Dop opcode, SourcePosition position,
+            RegisterSpecList registers, Constant[] constants) {
+        super(opcode, position, registers);
+
+        if (constants == null) {
+            throw new NullPointerException("constants == null");
+        }
+
+        this.constants = constants;
+        this.index = new int[constants.length];
+        for (int i = 0; i < index.length; ++i) {
+            if (constants[i] == null) {
+                throw new NullPointerException("constants[" + i + "] == null");
+            }
+            this.index[i] = -1;
+        }
+    }
+
+    /**
+     * Constructs a copy of the given instance with the given opcode
+     * and registers, keeping the assigned indices.
+     */
+    private MultiCstInsn(Dop opcode, SourcePosition position,
+            RegisterSpecList registers, Constant[] constants, int[] index) {
+        super(opcode, position, registers);
+        this.constants = constants;
+        this.index = index.clone();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public DalvInsn withOpcode(Dop opcode) {
+        return new MultiCstInsn(opcode, getPosition(), getRegisters(),
+                constants, index);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public DalvInsn withRegisters(RegisterSpecList registers) {
+        return new MultiCstInsn(getOpcode(), getPosition(), registers,
+                constants, index);
+    }
+
+    /**
+     * Gets the number of constants.
+     *
+     * @return {@code > 0;} the number of constants
+     */
+    public int getNumberOfConstants() {
+        return constants.length;
+    }
+
+    /**
+     * Gets a constant argument.
+     *
+     * @param position the position of the constant
+     * @return {@code non-null;} the constant
+     */
+    public Constant getConstant(int position) {
+        return constants[position];
+    }
+
+    /**
+     * Gets the constant's index. It is only valid to call this after
+     * {@link #setIndex} has been called for the same position.
+     *
+     * @param position the position of the constant
+     * @return {@code >= 0;} the constant pool index
+     */
+    public int getIndex(int position) {
+        if (!hasIndex(position)) {
+            throw new IllegalStateException("index not yet set for constant "
+                    + position + " value = " + constants[position]);
+        }
+
+        return index[position];
+    }
+
+    /**
+     * Returns whether the constant's index has been set for this
+     * instance.
+     *
+     * @param position the position of the constant
+     * @return {@code true} iff the index has been set
+     */
+    public boolean hasIndex(int position) {
+        return index[position] != -1;
+    }
+
+    /**
+     * Sets the constant's index. It is only valid to call this method
+     * once per position per instance.
+     *
+     * @param position the position of the constant
+     * @param index {@code >= 0;} the constant pool index
+     */
+    public void setIndex(int position, int index) {
+        if (index < 0) {
+            throw new IllegalArgumentException("index < 0");
+        }
+
+        if (hasIndex(position)) {
+            throw new IllegalStateException("index already set");
+        }
+
+        this.index[position] = index;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected String argString() {
+        StringBuilder sb = new StringBuilder();
+
+        for (int i = 0; i < constants.length; ++i) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(constants[i].toHuman());
+        }
+
+        return sb.toString();
+    }
+}
@@ -186,6 +186,11 @@ public final class OutputFinisher {
         if (insn instanceof CstInsn) {
             Constant cst = ((CstInsn) insn).getConstant();
             result.add(cst);
+        } else if (insn instanceof MultiCstInsn) {
+            MultiCstInsn m = (MultiCstInsn) insn;
+            for (int i = 0; i < m.getNumberOfConstants(); i++) {
+                result.add(m.getConstant(i));
+            }
         } else if (insn instanceof LocalSnapshot) {
             RegisterSpecSet specs = ((LocalSnapshot) insn).getLocals();
             int size = specs.size();
@@ -315,6 +320,25 @@ public final class OutputFinisher {
         for (DalvInsn insn : insns) {
             if (insn instanceof CstInsn) {
                 assignIndices((CstInsn) insn, callback);
+            } else if (insn instanceof MultiCstInsn) {
+                assignIndices((MultiCstInsn) insn, callback);
+            }
+        }
+    }
+
+    /**
+     * Helper for {@link #assignIndices} which does assignment for one
+     * multi-constant instruction.
+     *
+     * @param insn {@code non-null;} the instruction
+     * @param callback {@code non-null;} the callback
+     */
+    private static void assignIndices(MultiCstInsn insn,
+            DalvCode.AssignIndicesCallback callback) {
+        for (int i = 0; i < insn.getNumberOfConstants(); i++) {
+            int index = callback.getIndex(insn.getConstant(i));
+            if (index >= 0) {
+                insn.setIndex(i, index);
             }
         }
     }
@@ -697,13 +721,18 @@ public final class OutputFinisher {
      * addresses to each instruction, possibly rewriting branches to
      * fix ones that wouldn't otherwise be able to reach their
      * targets.
+     *
+     * <p>This is a branch relaxation stage: instructions only ever grow
+     * while relaxing, so branch distances never shrink, and a branch that
+     * doesn't fit under the current addresses won't fit in the final
+     * layout either. Each round therefore widens every misfit branch at
+     * once, rebuilding the list in a single linear pass instead of
+     * inserting into it, and rounds repeat only while something grew.</p>
      */
     private void assignAddressesAndFixBranches() {
-        for (;;) {
+        assignAddresses();
+        while (fixBranches()) {
             assignAddresses();
-            if (!fixBranches()) {
-                break;
-            }
         }
     }
 
@@ -731,26 +760,31 @@ public final class OutputFinisher {
      * test is reversed in order to branch around a {@code goto}
      * to the original target.
      *
+     * <p>Gotos are widened in place. The list is only copied once the
+     * first conditional has to be reversed, since that inserts a new
+     * {@code goto}, so rounds that only widen gotos don't allocate.</p>
+     *
      * @return whether any branches had to be fixed
      */
     private boolean fixBranches() {
         int size = insns.size();
         boolean anyFixed = false;
+        ArrayList<DalvInsn> result = null;
 
         for (int i = 0; i < size; i++) {
             DalvInsn insn = insns.get(i);
-            if (!(insn instanceof TargetInsn)) {
-                // This loop only needs to inspect TargetInsns.
+            if (!(insn instanceof TargetInsn)
+                    || insn.getOpcode().getFormat().branchFits((TargetInsn) insn)) {
+                if (result != null) {
+                    result.add(insn);
+                }
                 continue;
             }
 
+            anyFixed = true;
             Dop opcode = insn.getOpcode();
             TargetInsn target = (TargetInsn) insn;
 
-            if (opcode.getFormat().branchFits(target)) {
-                continue;
-            }
-
             if (opcode.getFamily() == Opcodes.GOTO) {
                 // It is a goto; widen it if possible.
                 opcode = findOpcodeForInsn(insn, opcode);
@@ -762,7 +796,12 @@ public final class OutputFinisher {
                      */
                     throw new UnsupportedOperationException("method too long");
                 }
-                insns.set(i, insn.withOpcode(opcode));
+                DalvInsn widened = insn.withOpcode(opcode);
+                if (result != null) {
+                    result.add(widened);
+                } else {
+                    insns.set(i, widened);
+                }
             } else {
                 /*
                  * It is a conditional: Reverse its sense, and arrange for
@@ -775,11 +814,8 @@ public final class OutputFinisher {
                  * after a TargetInsn and cast it to CodeAddress, as
                  * is happening a few lines down.
                  *
-                 * Also note: Size gets incremented by one here, as we
-                 * have -- in the net -- added one additional element
-                 * to the list, so we increment i to match. The added
-                 * and changed elements will be inspected by a repeat
-                 * call to this method after this invocation returns.
+                 * The new goto starts out in its smallest form and is
+                 * widened by a later round if needed.
                  */
                 CodeAddress newTarget;
                 try {
@@ -795,13 +831,17 @@ public final class OutputFinisher {
                 TargetInsn gotoInsn =
                     new TargetInsn(Dops.GOTO, target.getPosition(),
                             RegisterSpecList.EMPTY, target.getTarget());
-                insns.set(i, gotoInsn);
-                insns.add(i, target.withNewTargetAndReversed(newTarget));
-                size++;
-                i++;
+                if (result == null) {
+                    result = new ArrayList<DalvInsn>(size + (size >> 4) + 1);
+                    result.addAll(insns.subList(0, i));
+                }
+                result.add(target.withNewTargetAndReversed(newTarget));
+                result.add(gotoInsn);
             }
+        }
 
-            anyFixed = true;
+        if (result != null) {
+            insns = result;
         }
 
         return anyFixed;
@@ -23,6 +23,8 @@ import com.baidu.titan.dexlib.dx.rop.code.RegisterSpec;
 import com.baidu.titan.dexlib.dx.rop.code.RegisterSpecList;
 import com.baidu.titan.dexlib.dx.rop.cst.Constant;
 import com.baidu.titan.dexlib.dx.rop.cst.CstFieldRef;
+import com.baidu.titan.dexlib.dx.rop.cst.CstMethodHandle;
+import com.baidu.titan.dexlib.dx.rop.cst.CstProtoRef;
 import com.baidu.titan.dexlib.dx.rop.cst.CstString;
 import com.baidu.titan.dexlib.dx.rop.cst.CstType;
 import com.baidu.titan.dexlib.dx.util.AnnotatedOutput;
@@ -113,7 +115,9 @@ public final class Form21c extends InsnFormat {
 
         return (cst instanceof CstType) ||
             (cst instanceof CstFieldRef) ||
-            (cst instanceof CstString);
+            (cst instanceof CstString) ||
+            (cst instanceof CstMethodHandle) ||
+            (cst instanceof CstProtoRef);
     }
 
     /** {@inheritDoc} */
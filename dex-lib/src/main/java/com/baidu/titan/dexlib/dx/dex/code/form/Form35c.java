@@ -22,6 +22,7 @@ import com.baidu.titan.dexlib.dx.dex.code.InsnFormat;
 import com.baidu.titan.dexlib.dx.rop.code.RegisterSpec;
 import com.baidu.titan.dexlib.dx.rop.code.RegisterSpecList;
 import com.baidu.titan.dexlib.dx.rop.cst.Constant;
+import com.baidu.titan.dexlib.dx.rop.cst.CstCallSiteRef;
 import com.baidu.titan.dexlib.dx.rop.cst.CstMethodRef;
 import com.baidu.titan.dexlib.dx.rop.cst.CstType;
 import com.baidu.titan.dexlib.dx.rop.type.Type;
@@ -87,7 +88,8 @@ public final class Form35c extends InsnFormat {
 
         Constant cst = ci.getConstant();
         if (!((cst instanceof CstMethodRef) ||
-              (cst instanceof CstType))) {
+              (cst instanceof CstType) ||
+              (cst instanceof CstCallSiteRef))) {
             return false;
         }
 
@@ -21,6 +21,7 @@ import com.baidu.titan.dexlib.dx.dex.code.DalvInsn;
 import com.baidu.titan.dexlib.dx.dex.code.InsnFormat;
 import com.baidu.titan.dexlib.dx.rop.code.RegisterSpecList;
 import com.baidu.titan.dexlib.dx.rop.cst.Constant;
+import com.baidu.titan.dexlib.dx.rop.cst.CstCallSiteRef;
 import com.baidu.titan.dexlib.dx.rop.cst.CstMethodRef;
 import com.baidu.titan.dexlib.dx.rop.cst.CstType;
 import com.baidu.titan.dexlib.dx.util.AnnotatedOutput;
@@ -80,7 +81,8 @@ public final class Form3rc extends InsnFormat {
         }
 
         if (!((cst instanceof CstMethodRef) ||
-              (cst instanceof CstType))) {
+              (cst instanceof CstType) ||
+              (cst instanceof CstCallSiteRef))) {
             return false;
         }
 
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.titan.dexlib.dx.dex.code.form;
+
+import com.baidu.titan.dexlib.dx.dex.code.DalvInsn;
+import com.baidu.titan.dexlib.dx.dex.code.InsnFormat;
+import com.baidu.titan.dexlib.dx.dex.code.MultiCstInsn;
+import com.baidu.titan.dexlib.dx.rop.code.RegisterSpecList;
+import com.baidu.titan.dexlib.dx.rop.cst.CstMethodRef;
+import com.baidu.titan.dexlib.dx.rop.cst.CstProtoRef;
+import com.baidu.titan.dexlib.dx.util.AnnotatedOutput;
+
+/**
+ * Instruction format {@code 4rcc}. See the instruction format spec
+ * for details.
+ */
+public final class Form4rcc extends InsnFormat {
+    /** {@code non-null;} unique instance of this class */
+    public static final InsnFormat THE_ONE = new Form4rcc();
+
+    /**
+     * Constructs an instance. This class is not publicly
+     * instantiable. Use {@link #THE_ONE}.
+     */
+    private Form4rcc() {
+        // This space intentionally left blank.
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String insnArgString(DalvInsn insn) {
+        return regRangeString(insn.getRegisters()) + ", " + cstString(insn);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String insnCommentString(DalvInsn insn, boolean noteIndices) {
+        if (noteIndices) {
+            return cstComment(insn);
+        } else {
+            return "";
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int codeSize() {
+        return 4;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean isCompatible(DalvInsn insn) {
+        if (!(insn instanceof MultiCstInsn)) {
+            return false;
+        }
+
+        MultiCstInsn mci = (MultiCstInsn) insn;
+        if (mci.getNumberOfConstants() != 2) {
+            return false;
+        }
+
+        int methodIdx = mci.getIndex(0);
+        int protoIdx = mci.getIndex(1);
+        if (!unsignedFitsInShort(methodIdx) || !unsignedFitsInShort(protoIdx)) {
+            return false;
+        }
+
+        if (!(mci.getConstant(0) instanceof CstMethodRef)
+                || !(mci.getConstant(1) instanceof CstProtoRef)) {
+            return false;
+        }
+
+        RegisterSpecList regs = mci.getRegisters();
+        return (regs.size() == 0) ||
+            (isRegListSequential(regs) &&
+             unsignedFitsInShort(regs.get(0).getReg()) &&
+             unsignedFitsInByte(regs.getWordCount()));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void writeTo(AnnotatedOutput out, DalvInsn insn) {
+        MultiCstInsn mci = (MultiCstInsn) insn;
+        int methodIdx = mci.getIndex(0);
+        int protoIdx = mci.getIndex(1);
+        RegisterSpecList regs = insn.getRegisters();
+        int firstReg = (regs.size() == 0) ? 0 : regs.get(0).getReg();
+        int count = regs.getWordCount();
+
+        write(out, opcodeUnit(insn, count), (short) methodIdx,
+              (short) firstReg, (short) protoIdx);
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.titan.dexlib.dx.dex.file;
+
+import com.baidu.titan.dexlib.dex.SizeOf;
+import com.baidu.titan.dexlib.dx.rop.cst.CstCallSiteRef;
+import com.baidu.titan.dexlib.dx.util.AnnotatedOutput;
+import com.baidu.titan.dexlib.dx.util.Hex;
+
+/**
+ * Representation of a call site reference inside a Dalvik file.
+ */
+public final class CallSiteIdItem extends IndexedItem {
+    /** {@code non-null;} the call site reference */
+    private final CstCallSiteRef callSiteRef;
+
+    /**
+     * {@code null-ok;} the call site contents, interned in the byte data
+     * section; {@code null} until {@link #addContents} is called
+     */
+    private EncodedArrayItem data;
+
+    /**
+     * Constructs an instance.
+     *
+     * @param callSiteRef {@code non-null;} the call site reference
+     */
+    public CallSiteIdItem(CstCallSiteRef callSiteRef) {
+        if (callSiteRef == null) {
+            throw new NullPointerException("callSiteRef == null");
+        }
+
+        this.callSiteRef = callSiteRef;
+        this.data = null;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public ItemType itemType() {
+        return ItemType.TYPE_CALL_SITE_ID_ITEM;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int writeSize() {
+        return SizeOf.CALL_SITE_ID_ITEM;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void addContents(DexFile file) {
+        // Equal call sites share one call_site_item.
+        data = file.getByteData().intern(
+                new EncodedArrayItem(callSiteRef.getCallSite().getArray()));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void writeTo(DexFile file, AnnotatedOutput out) {
+        int offset = data.getAbsoluteOffset();
+
+        if (out.annotates()) {
+            out.annotate(0, indexString() + ' ' + callSiteRef.toHuman());
+            out.annotate(4, "  call_site_off: " + Hex.u4(offset));
+        }
+
+        out.writeInt(offset);
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.titan.dexlib.dx.dex.file;
+
+import com.baidu.titan.dexlib.dx.rop.cst.Constant;
+import com.baidu.titan.dexlib.dx.rop.cst.CstCallSiteRef;
+
+import java.util.Collection;
+import java.util.TreeMap;
+
+/**
+ * Call site identifiers list section of a {@code .dex} file. Only
+ * present in files of version 038 and later.
+ */
+public final class CallSiteIdsSection extends UniformItemSection {
+    /**
+     * {@code non-null;} map from call site references to {@link
+     * CallSiteIdItem} instances
+     */
+    private final TreeMap<CstCallSiteRef, CallSiteIdItem> callSiteIds;
+
+    /**
+     * Constructs an instance. The file offset is initially unknown.
+     *
+     * @param file {@code non-null;} file that this instance is part of
+     */
+    public CallSiteIdsSection(DexFile file) {
+        super("call_site_ids", file, 4);
+
+        callSiteIds = new TreeMap<CstCallSiteRef, CallSiteIdItem>();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Collection<? extends Item> items() {
+        return callSiteIds.values();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public IndexedItem get(Constant cst) {
+        if (cst == null) {
+            throw new NullPointerException("cst == null");
+        }
+
+        throwIfNotPrepared();
+
+        IndexedItem result = callSiteIds.get((CstCallSiteRef) cst);
+
+        if (result == null) {
+            throw new IllegalArgumentException("not found");
+        }
+
+        return result;
+    }
+
+    /**
+     * Interns an element into this instance.
+     *
+     * @param callSiteRef {@code non-null;} the reference to intern
+     * @return {@code non-null;} the interned item
+     */
+    public synchronized CallSiteIdItem intern(CstCallSiteRef callSiteRef) {
+        if (callSiteRef == null) {
+            throw new NullPointerException("callSiteRef == null");
+        }
+
+        throwIfPrepared();
+
+        CallSiteIdItem result = callSiteIds.get(callSiteRef);
+
+        if (result == null) {
+            result = new CallSiteIdItem(callSiteRef);
+            callSiteIds.put(callSiteRef, result);
+        }
+
+        return result;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void orderItems() {
+        int idx = 0;
+
+        for (CallSiteIdItem item : callSiteIds.values()) {
+            item.setIndex(idx);
+            idx++;
+        }
+    }
+}
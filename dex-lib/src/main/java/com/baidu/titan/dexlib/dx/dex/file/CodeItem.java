@@ -28,9 +28,11 @@ import com.baidu.titan.dexlib.dx.rop.type.StdTypeList;
 import com.baidu.titan.dexlib.dx.rop.type.Type;
 import com.baidu.titan.dexlib.dx.rop.type.TypeList;
 import com.baidu.titan.dexlib.dx.util.AnnotatedOutput;
+import com.baidu.titan.dexlib.dx.util.ByteArrayAnnotatedOutput;
 import com.baidu.titan.dexlib.dx.util.Hex;
 
 import java.io.PrintWriter;
+import java.nio.ByteBuffer;
 import java.util.List;
 
 /**
@@ -329,6 +331,37 @@ public final class CodeItem extends OffsettedItem {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * The key covers everything written for this item except for the
+     * debug info offset, which is replaced by the encoded debug info
+     * itself, as the debug info items are placed after the code items.
+     */
+    @Override
+    protected Object contentKey(DexFile file) {
+        ByteArrayAnnotatedOutput out = new ByteArrayAnnotatedOutput();
+        int insnsSz = code.getInsns().codeSize();
+
+        out.writeShort(getRegistersSize());
+        out.writeShort(getInsSize());
+        out.writeShort(getOutsSize());
+        out.writeShort((catches == null) ? 0 : catches.triesSize());
+        out.writeInt(insnsSz);
+        writeCodes(file, out);
+        if (catches != null) {
+            if ((insnsSz & 1) != 0) {
+                out.writeShort(0);
+            }
+            catches.writeTo(file, out);
+        }
+        if (debugInfo != null) {
+            out.write(debugInfo.getEncoded(file));
+        }
+
+        return ByteBuffer.wrap(out.toByteArray());
+    }
+
     /**
      * Helper for {@link #writeTo0} which writes out the actual bytecode.
      *
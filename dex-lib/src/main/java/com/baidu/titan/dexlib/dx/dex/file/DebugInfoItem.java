@@ -25,6 +25,7 @@ import com.baidu.titan.dexlib.dx.rop.cst.CstMethodRef;
 import com.baidu.titan.dexlib.dx.util.AnnotatedOutput;
 
 import java.io.PrintWriter;
+import java.nio.ByteBuffer;
 
 public class DebugInfoItem extends OffsettedItem {
     /** the required alignment for instances of this class */
@@ -70,14 +71,34 @@ public class DebugInfoItem extends OffsettedItem {
     protected void place0(Section addedTo, int offset) {
         // Encode the data and note the size.
         try {
-            encoded = encode(addedTo.getFile(), null, null, null, false);
-            setWriteSize(encoded.length);
+            setWriteSize(getEncoded(addedTo.getFile()).length);
         } catch (RuntimeException ex) {
             throw ExceptionWithContext.withContext(ex,
                     "...while placing debug info for " + ref.toHuman());
         }
     }
 
+    /**
+     * Gets the encoded form of this instance, encoding it if necessary.
+     * This may be called once all indices of the file are assigned.
+     *
+     * @param file {@code non-null;} file this instance belongs to
+     * @return {@code non-null;} the encoded bytes
+     */
+    /*package*/ byte[] getEncoded(DexFile file) {
+        if (encoded == null) {
+            encoded = encode(file, null, null, null, false);
+        }
+
+        return encoded;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected Object contentKey(DexFile file) {
+        return ByteBuffer.wrap(encoded);
+    }
+
     /** {@inheritDoc} */
     @Override
     public String toHuman() {
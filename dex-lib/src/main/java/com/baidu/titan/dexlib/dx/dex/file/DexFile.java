@@ -16,12 +16,17 @@
 
 package com.baidu.titan.dexlib.dx.dex.file;
 
+import com.baidu.titan.dexlib.dex.DexException;
+import com.baidu.titan.dexlib.dex.DexFormat;
 import com.baidu.titan.dexlib.dex.util.ExceptionWithContext;
 import com.baidu.titan.dexlib.dx.dex.DexOptions;
 import com.baidu.titan.dexlib.dx.rop.cst.Constant;
 import com.baidu.titan.dexlib.dx.rop.cst.CstBaseMethodRef;
+import com.baidu.titan.dexlib.dx.rop.cst.CstCallSiteRef;
 import com.baidu.titan.dexlib.dx.rop.cst.CstEnumRef;
 import com.baidu.titan.dexlib.dx.rop.cst.CstFieldRef;
+import com.baidu.titan.dexlib.dx.rop.cst.CstMethodHandle;
+import com.baidu.titan.dexlib.dx.rop.cst.CstProtoRef;
 import com.baidu.titan.dexlib.dx.rop.cst.CstString;
 import com.baidu.titan.dexlib.dx.rop.cst.CstType;
 import com.baidu.titan.dexlib.dx.rop.type.Type;
@@ -81,6 +86,12 @@ public final class DexFile {
     /** {@code non-null;} class definitions section */
     private final ClassDefsSection classDefs;
 
+    /** {@code non-null;} call site identifiers section */
+    private final CallSiteIdsSection callSiteIds;
+
+    /** {@code non-null;} method handles section */
+    private final MethodHandlesSection methodHandles;
+
     /** {@code non-null;} class data section */
     private final MixedItemSection classData;
 
@@ -121,16 +132,20 @@ public final class DexFile {
         fieldIds = new FieldIdsSection(this);
         methodIds = new MethodIdsSection(this);
         classDefs = new ClassDefsSection(this);
+        callSiteIds = new CallSiteIdsSection(this);
+        methodHandles = new MethodHandlesSection(this);
         map = new MixedItemSection("map", this, 4, MixedItemSection.SortType.NONE);
 
         /*
          * This is the list of sections in the order they appear in
-         * the final output.
+         * the final output. The call site and method handle sections
+         * stay empty, and thus take no space, unless the target API
+         * level supports them.
          */
         sections = new Section[] {
             header, stringIds, typeIds, protoIds, fieldIds, methodIds,
-            classDefs, wordData, typeLists, stringData, byteData,
-            classData, map };
+            classDefs, callSiteIds, methodHandles, wordData, typeLists,
+            stringData, byteData, classData, map };
 
         fileSize = -1;
         dumpWidth = 79;
@@ -391,6 +406,32 @@ public final class DexFile {
         return methodIds;
     }
 
+    /**
+     * Gets the call site identifiers section.
+     *
+     * <p>This is package-scope in order to allow
+     * the various {@link Item} instances to add items to the
+     * instance.</p>
+     *
+     * @return {@code non-null;} the call site identifiers section
+     */
+    /*package*/ CallSiteIdsSection getCallSiteIds() {
+        return callSiteIds;
+    }
+
+    /**
+     * Gets the method handles section.
+     *
+     * <p>This is package-scope in order to allow
+     * the various {@link Item} instances to add items to the
+     * instance.</p>
+     *
+     * @return {@code non-null;} the method handles section
+     */
+    /*package*/ MethodHandlesSection getMethodHandles() {
+        return methodHandles;
+    }
+
     /**
      * Gets the byte data section.
      *
@@ -448,6 +489,14 @@ public final class DexFile {
             fieldIds.intern((CstFieldRef) cst);
         } else if (cst instanceof CstEnumRef) {
             fieldIds.intern(((CstEnumRef) cst).getFieldRef());
+        } else if (cst instanceof CstProtoRef) {
+            protoIds.intern(((CstProtoRef) cst).getPrototype());
+        } else if (cst instanceof CstMethodHandle) {
+            checkMethodHandlesSupported(cst);
+            methodHandles.intern((CstMethodHandle) cst);
+        } else if (cst instanceof CstCallSiteRef) {
+            checkMethodHandlesSupported(cst);
+            callSiteIds.intern((CstCallSiteRef) cst);
         } else if (cst == null) {
             throw new NullPointerException("cst == null");
         }
@@ -475,11 +524,31 @@ public final class DexFile {
             return methodIds.get(cst);
         } else if (cst instanceof CstFieldRef) {
             return fieldIds.get(cst);
+        } else if (cst instanceof CstProtoRef) {
+            return protoIds.get(cst);
+        } else if (cst instanceof CstMethodHandle) {
+            return methodHandles.get(cst);
+        } else if (cst instanceof CstCallSiteRef) {
+            return callSiteIds.get(cst);
         } else {
             return null;
         }
     }
 
+    /**
+     * Throws if the target API level of this file does not support
+     * method handles and call sites.
+     *
+     * @param cst {@code non-null;} the offending constant
+     */
+    private void checkMethodHandlesSupported(Constant cst) {
+        if (!dexOptions.apiIsSupported(DexFormat.API_METHOD_HANDLES)) {
+            throw new DexException(cst.typeName() + " requires dex version "
+                    + DexFormat.VERSION_FOR_API_26 + " (target API level "
+                    + dexOptions.targetApiLevel + ")");
+        }
+    }
+
     /**
      * Returns the contents of this instance as a {@code .dex} file,
      * in a {@link ByteArrayAnnotatedOutput} instance.
@@ -499,7 +568,13 @@ public final class DexFile {
         classDefs.prepare();
         classData.prepare();
         wordData.prepare();
+        /*
+         * Call sites add their encoded arrays to byteData, whose
+         * values may in turn refer to method handles.
+         */
+        callSiteIds.prepare();
         byteData.prepare();
+        methodHandles.prepare();
         methodIds.prepare();
         fieldIds.prepare();
         protoIds.prepare();
@@ -598,6 +673,27 @@ public final class DexFile {
         return out;
     }
 
+    /**
+     * Gets the number of code and debug info items that were folded into
+     * a byte-identical item. Only meaningful after the file was written
+     * with {@link DexOptions#deduplicateItems} enabled.
+     *
+     * @return {@code >= 0;} the folded item count
+     */
+    public int getDeduplicatedItemCount() {
+        return wordData.getFoldedCount() + byteData.getFoldedCount();
+    }
+
+    /**
+     * Gets the number of bytes saved by folding byte-identical code and
+     * debug info items, not counting alignment padding.
+     *
+     * @return {@code >= 0;} the saved byte count
+     */
+    public int getDeduplicatedSize() {
+        return wordData.getFoldedSize() + byteData.getFoldedSize();
+    }
+
     /**
      * Generates and returns statistics for all the items in the file.
      *
@@ -29,6 +29,8 @@ public enum ItemType implements ToHuman {
     TYPE_FIELD_ID_ITEM(             0x0004, "field_id_item"),
     TYPE_METHOD_ID_ITEM(            0x0005, "method_id_item"),
     TYPE_CLASS_DEF_ITEM(            0x0006, "class_def_item"),
+    TYPE_CALL_SITE_ID_ITEM(         0x0007, "call_site_id_item"),
+    TYPE_METHOD_HANDLE_ITEM(        0x0008, "method_handle_item"),
     TYPE_MAP_LIST(                  0x1000, "map_list"),
     TYPE_TYPE_LIST(                 0x1001, "type_list"),
     TYPE_ANNOTATION_SET_REF_LIST(   0x1002, "annotation_set_ref_list"),
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.titan.dexlib.dx.dex.file;
+
+import com.baidu.titan.dexlib.dex.SizeOf;
+import com.baidu.titan.dexlib.dx.rop.cst.Constant;
+import com.baidu.titan.dexlib.dx.rop.cst.CstBaseMethodRef;
+import com.baidu.titan.dexlib.dx.rop.cst.CstFieldRef;
+import com.baidu.titan.dexlib.dx.rop.cst.CstMethodHandle;
+import com.baidu.titan.dexlib.dx.util.AnnotatedOutput;
+import com.baidu.titan.dexlib.dx.util.Hex;
+
+/**
+ * Representation of a method handle inside a Dalvik file.
+ */
+public final class MethodHandleItem extends IndexedItem {
+    /** {@code non-null;} the method handle constant */
+    private final CstMethodHandle methodHandle;
+
+    /**
+     * Constructs an instance.
+     *
+     * @param methodHandle {@code non-null;} the method handle constant
+     */
+    public MethodHandleItem(CstMethodHandle methodHandle) {
+        if (methodHandle == null) {
+            throw new NullPointerException("methodHandle == null");
+        }
+
+        this.methodHandle = methodHandle;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public ItemType itemType() {
+        return ItemType.TYPE_METHOD_HANDLE_ITEM;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int writeSize() {
+        return SizeOf.METHOD_HANDLE_ITEM;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void addContents(DexFile file) {
+        file.internIfAppropriate(methodHandle.getRef());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void writeTo(DexFile file, AnnotatedOutput out) {
+        int type = methodHandle.getMethodHandleType();
+        int targetIndex = getTargetIndex(file);
+
+        if (out.annotates()) {
+            out.annotate(0, indexString() + ' ' + methodHandle.toHuman());
+            out.annotate(2, "  method_handle_type: " + Hex.u2(type));
+            out.annotate(2, "  unused:             0");
+            out.annotate(2, "  field_or_method_id: " + Hex.u2(targetIndex));
+            out.annotate(2, "  unused:             0");
+        }
+
+        out.writeShort(type);
+        out.writeShort(0);
+        out.writeShort(targetIndex);
+        out.writeShort(0);
+    }
+
+    /**
+     * Gets the index of the field or method referenced by the handle.
+     *
+     * @param file {@code non-null;} the file being written
+     * @return {@code >= 0;} the field or method index
+     */
+    private int getTargetIndex(DexFile file) {
+        Constant ref = methodHandle.getRef();
+
+        if (methodHandle.isAccessor()) {
+            return file.getFieldIds().indexOf((CstFieldRef) ref);
+        } else {
+            return file.getMethodIds().indexOf((CstBaseMethodRef) ref);
+        }
+    }
+}
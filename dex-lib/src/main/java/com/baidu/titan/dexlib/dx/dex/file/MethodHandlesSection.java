@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.titan.dexlib.dx.dex.file;
+
+import com.baidu.titan.dexlib.dx.rop.cst.Constant;
+import com.baidu.titan.dexlib.dx.rop.cst.CstMethodHandle;
+
+import java.util.Collection;
+import java.util.TreeMap;
+
+/**
+ * Method handles list section of a {@code .dex} file. Only present in
+ * files of version 038 and later.
+ */
+public final class MethodHandlesSection extends UniformItemSection {
+    /**
+     * {@code non-null;} map from method handle constants to {@link
+     * MethodHandleItem} instances
+     */
+    private final TreeMap<CstMethodHandle, MethodHandleItem> methodHandles;
+
+    /**
+     * Constructs an instance. The file offset is initially unknown.
+     *
+     * @param file {@code non-null;} file that this instance is part of
+     */
+    public MethodHandlesSection(DexFile file) {
+        super("method_handles", file, 4);
+
+        methodHandles = new TreeMap<CstMethodHandle, MethodHandleItem>();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Collection<? extends Item> items() {
+        return methodHandles.values();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public IndexedItem get(Constant cst) {
+        if (cst == null) {
+            throw new NullPointerException("cst == null");
+        }
+
+        throwIfNotPrepared();
+
+        IndexedItem result = methodHandles.get((CstMethodHandle) cst);
+
+        if (result == null) {
+            throw new IllegalArgumentException("not found");
+        }
+
+        return result;
+    }
+
+    /**
+     * Interns an element into this instance.
+     *
+     * @param methodHandle {@code non-null;} the method handle to intern
+     * @return {@code non-null;} the interned item
+     */
+    public synchronized MethodHandleItem intern(CstMethodHandle methodHandle) {
+        if (methodHandle == null) {
+            throw new NullPointerException("methodHandle == null");
+        }
+
+        throwIfPrepared();
+
+        MethodHandleItem result = methodHandles.get(methodHandle);
+
+        if (result == null) {
+            result = new MethodHandleItem(methodHandle);
+            methodHandles.put(methodHandle, result);
+        }
+
+        return result;
+    }
+
+    /**
+     * Gets the index of the given method handle, which must have
+     * been added to this instance.
+     *
+     * @param methodHandle {@code non-null;} the method handle to look up
+     * @return {@code >= 0;} the method handle's index
+     */
+    public int indexOf(CstMethodHandle methodHandle) {
+        return get(methodHandle).getIndex();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void orderItems() {
+        int idx = 0;
+
+        for (MethodHandleItem item : methodHandles.values()) {
+            item.setIndex(idx);
+            idx++;
+        }
+    }
+}
@@ -75,6 +75,12 @@ public final class MixedItemSection extends Section {
      */
     private int writeSize;
 
+    /** {@code >= 0;} number of items folded into an equivalent item */
+    private int foldedCount;
+
+    /** {@code >= 0;} total write size of the folded items */
+    private int foldedSize;
+
     /**
      * Constructs an instance. The file offset is initially unknown.
      *
@@ -304,6 +310,17 @@ public final class MixedItemSection extends Section {
             }
         }
 
+        /*
+         * When enabled, items that report equal content keys are folded
+         * into the first such item and dropped from the output, since the
+         * dex format allows several references to share one offset.
+         */
+        HashMap<Object, OffsettedItem> canonicals =
+                getFile().getDexOptions().deduplicateItems ?
+                        new HashMap<Object, OffsettedItem>() : null;
+        ArrayList<OffsettedItem> kept = canonicals == null ?
+                null : new ArrayList<OffsettedItem>(items.size());
+
         int sz = items.size();
         int outAt = 0;
         for (int i = 0; i < sz; i++) {
@@ -316,6 +333,22 @@ public final class MixedItemSection extends Section {
                             one);
                 }
 
+                if (canonicals != null) {
+                    Object key = one.contentKey(getFile());
+                    if (key != null) {
+                        key = Arrays.asList(one.itemType(), key);
+                        OffsettedItem canonical = canonicals.get(key);
+                        if (canonical != null) {
+                            one.foldInto(canonical);
+                            foldedCount++;
+                            foldedSize += one.writeSize();
+                            continue;
+                        }
+                        canonicals.put(key, one);
+                    }
+                    kept.add(one);
+                }
+
                 outAt = placedAt + one.writeSize();
             } catch (RuntimeException ex) {
                 throw ExceptionWithContext.withContext(ex,
@@ -323,9 +356,34 @@ public final class MixedItemSection extends Section {
             }
         }
 
+        if (kept != null && kept.size() != sz) {
+            items.clear();
+            items.addAll(kept);
+        }
+
         writeSize = outAt;
     }
 
+    /**
+     * Gets the number of items folded into an equivalent item when
+     * placing this instance.
+     *
+     * @return {@code >= 0;} the folded item count
+     */
+    public int getFoldedCount() {
+        return foldedCount;
+    }
+
+    /**
+     * Gets the number of bytes saved by folding equivalent items, not
+     * counting alignment padding.
+     *
+     * @return {@code >= 0;} the saved byte count
+     */
+    public int getFoldedSize() {
+        return foldedSize;
+    }
+
     /** {@inheritDoc} */
     @Override
     protected void writeTo0(AnnotatedOutput out) {
@@ -43,6 +43,12 @@ public abstract class OffsettedItem extends Item
      */
     private int offset;
 
+    /**
+     * {@code null-ok;} equivalent item this instance was folded into
+     * during placement, if any
+     */
+    private OffsettedItem canonical;
+
     /**
      * Gets the absolute offset of the given item, returning {@code 0}
      * if handed {@code null}.
@@ -186,6 +192,10 @@ public abstract class OffsettedItem extends Item
      * @throws RuntimeException thrown if the offset is not yet known
      */
     public final int getRelativeOffset() {
+        if (canonical != null) {
+            return canonical.getRelativeOffset();
+        }
+
         if (offset < 0) {
             throw new RuntimeException("offset not yet known");
         }
@@ -201,6 +211,10 @@ public abstract class OffsettedItem extends Item
      * @throws RuntimeException thrown if the offset is not yet known
      */
     public final int getAbsoluteOffset() {
+        if (canonical != null) {
+            return canonical.getAbsoluteOffset();
+        }
+
         if (offset < 0) {
             throw new RuntimeException("offset not yet known");
         }
@@ -254,6 +268,47 @@ public abstract class OffsettedItem extends Item
         return alignment;
     }
 
+    /**
+     * Gets the key used to fold byte-identical items of the same type
+     * together. This is only called after {@link #place0}, so the
+     * contents of this instance are final. The default implementation
+     * returns {@code null}, meaning this item is never folded.
+     *
+     * @param file {@code non-null;} file this instance belongs to
+     * @return {@code null-ok;} key with value semantics, or {@code null}
+     */
+    protected Object contentKey(DexFile file) {
+        return null;
+    }
+
+    /**
+     * Folds this instance into an equivalent, already placed item. After
+     * this call, all offset queries on this instance answer the offset of
+     * the canonical item, and this instance is no longer written.
+     *
+     * @param canonical {@code non-null;} the equivalent item
+     */
+    /*package*/ final void foldInto(OffsettedItem canonical) {
+        if (canonical == null) {
+            throw new NullPointerException("canonical == null");
+        }
+
+        if (canonical == this || canonical.canonical != null) {
+            throw new IllegalArgumentException("bogus canonical item");
+        }
+
+        this.canonical = canonical;
+    }
+
+    /**
+     * Gets whether this instance was folded into an equivalent item.
+     *
+     * @return whether folded
+     */
+    public final boolean isFolded() {
+        return canonical != null;
+    }
+
     /**
      * Gets the absolute offset of this item as a string, suitable for
      * including in annotations.
@@ -17,6 +17,7 @@
 package com.baidu.titan.dexlib.dx.dex.file;
 
 import com.baidu.titan.dexlib.dx.rop.cst.Constant;
+import com.baidu.titan.dexlib.dx.rop.cst.CstProtoRef;
 import com.baidu.titan.dexlib.dx.rop.type.Prototype;
 import com.baidu.titan.dexlib.dx.util.AnnotatedOutput;
 import com.baidu.titan.dexlib.dx.util.Hex;
@@ -54,7 +55,23 @@ public final class ProtoIdsSection extends UniformItemSection {
     /** {@inheritDoc} */
     @Override
     public IndexedItem get(Constant cst) {
-        throw new UnsupportedOperationException("unsupported");
+        if (cst == null) {
+            throw new NullPointerException("cst == null");
+        }
+
+        if (!(cst instanceof CstProtoRef)) {
+            throw new UnsupportedOperationException("unsupported");
+        }
+
+        throwIfNotPrepared();
+
+        IndexedItem result = protoIds.get(((CstProtoRef) cst).getPrototype());
+
+        if (result == null) {
+            throw new IllegalArgumentException("not found");
+        }
+
+        return result;
     }
 
     /**
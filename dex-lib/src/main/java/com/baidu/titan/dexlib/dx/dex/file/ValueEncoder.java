@@ -33,7 +33,9 @@ import com.baidu.titan.dexlib.dx.rop.cst.CstInteger;
 import com.baidu.titan.dexlib.dx.rop.cst.CstKnownNull;
 import com.baidu.titan.dexlib.dx.rop.cst.CstLiteralBits;
 import com.baidu.titan.dexlib.dx.rop.cst.CstLong;
+import com.baidu.titan.dexlib.dx.rop.cst.CstMethodHandle;
 import com.baidu.titan.dexlib.dx.rop.cst.CstMethodRef;
+import com.baidu.titan.dexlib.dx.rop.cst.CstProtoRef;
 import com.baidu.titan.dexlib.dx.rop.cst.CstShort;
 import com.baidu.titan.dexlib.dx.rop.cst.CstString;
 import com.baidu.titan.dexlib.dx.rop.cst.CstType;
@@ -68,6 +70,12 @@ public final class ValueEncoder {
     /** annotation value type constant: {@code double} */
     private static final int VALUE_DOUBLE = 0x11;
 
+    /** annotation value type constant: {@code method type} */
+    private static final int VALUE_METHOD_TYPE = 0x15;
+
+    /** annotation value type constant: {@code method handle} */
+    private static final int VALUE_METHOD_HANDLE = 0x16;
+
     /** annotation value type constant: {@code string} */
     private static final int VALUE_STRING = 0x17;
 
@@ -154,6 +162,16 @@ public final class ValueEncoder {
                 EncodedValueCodec.writeRightZeroExtendedValue(out, type, value);
                 break;
             }
+            case VALUE_METHOD_TYPE: {
+                int index = file.getProtoIds().indexOf(((CstProtoRef) cst).getPrototype());
+                EncodedValueCodec.writeUnsignedIntegralValue(out, type, (long) index);
+                break;
+            }
+            case VALUE_METHOD_HANDLE: {
+                int index = file.getMethodHandles().indexOf((CstMethodHandle) cst);
+                EncodedValueCodec.writeUnsignedIntegralValue(out, type, (long) index);
+                break;
+            }
             case VALUE_STRING: {
                 int index = file.getStringIds().indexOf((CstString) cst);
                 EncodedValueCodec.writeUnsignedIntegralValue(out, type, (long) index);
@@ -232,6 +250,10 @@ public final class ValueEncoder {
             return VALUE_FLOAT;
         } else if (cst instanceof CstDouble) {
             return VALUE_DOUBLE;
+        } else if (cst instanceof CstProtoRef) {
+            return VALUE_METHOD_TYPE;
+        } else if (cst instanceof CstMethodHandle) {
+            return VALUE_METHOD_HANDLE;
         } else if (cst instanceof CstString) {
             return VALUE_STRING;
         } else if (cst instanceof CstType) {
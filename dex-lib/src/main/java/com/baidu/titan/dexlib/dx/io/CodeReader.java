@@ -28,6 +28,7 @@ public final class CodeReader {
     private Visitor typeVisitor = null;
     private Visitor fieldVisitor = null;
     private Visitor methodVisitor = null;
+    private Visitor methodAndProtoVisitor = null;
 
     /**
      * Sets {@code visitor} as the visitor for all instructions.
@@ -38,6 +39,7 @@ public final class CodeReader {
         typeVisitor = visitor;
         fieldVisitor = visitor;
         methodVisitor = visitor;
+        methodAndProtoVisitor = visitor;
     }
 
     /**
@@ -76,6 +78,15 @@ public final class CodeReader {
         methodVisitor = visitor;
     }
 
+    /**
+     * Sets {@code visitor} as the visitor for all instructions that
+     * refer to a method and a proto, that is {@code invoke-polymorphic}
+     * and {@code invoke-polymorphic/range}.
+     */
+    public void setMethodAndProtoVisitor(Visitor visitor) {
+        methodAndProtoVisitor = visitor;
+    }
+
     public void visitAll(DecodedInstruction[] decodedInstructions)
             throws DexException {
         int size = decodedInstructions.length;
@@ -104,6 +115,7 @@ public final class CodeReader {
             case TYPE_REF:   visitor = typeVisitor;   break;
             case FIELD_REF:  visitor = fieldVisitor;  break;
             case METHOD_REF: visitor = methodVisitor; break;
+            case METHOD_AND_PROTO_REF: visitor = methodAndProtoVisitor; break;
         }
 
         if (visitor == null) {
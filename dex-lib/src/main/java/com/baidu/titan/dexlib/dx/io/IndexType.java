@@ -41,6 +41,18 @@ public enum IndexType {
     /** field reference index */
     FIELD_REF,
 
+    /** method reference index plus proto reference index */
+    METHOD_AND_PROTO_REF,
+
+    /** call site reference index */
+    CALL_SITE_REF,
+
+    /** method handle reference index */
+    METHOD_HANDLE_REF,
+
+    /** proto reference index */
+    PROTO_REF,
+
     /** inline method index (for inline linked method invocations) */
     INLINE_METHOD,
 
@@ -476,4 +476,22 @@ public abstract class DecodedInstruction {
      * with the given one.
      */
     public abstract DecodedInstruction withIndex(int newIndex);
+
+    /**
+     * Gets the proto index of an instruction that has one, that is
+     * {@code invoke-polymorphic} and {@code invoke-polymorphic/range}.
+     * This will throw for any other instruction.
+     */
+    public int getProtoIndex() {
+        throw new IllegalStateException(getClass().toString());
+    }
+
+    /**
+     * Returns an instance just like this one, except with the index and
+     * the proto index replaced with the given ones. This will throw for
+     * instructions that have no proto index.
+     */
+    public DecodedInstruction withProtoIndex(int newIndex, int newProtoIndex) {
+        throw new IllegalStateException(getClass().toString());
+    }
 }
@@ -23,6 +23,7 @@ import com.baidu.titan.dexlib.dx.io.Opcodes;
 import com.baidu.titan.dexlib.dx.util.Hex;
 
 import java.io.EOFException;
+import java.util.Arrays;
 
 /**
  * Representation of an instruction format, which knows how to decode into
@@ -582,6 +583,59 @@ public enum InstructionCodec {
         }
     },
 
+    FORMAT_45CC() {
+        @Override public DecodedInstruction decode(int opcodeUnit,
+                CodeInput in) throws EOFException {
+            int opcode = byte0(opcodeUnit);
+            int e = nibble2(opcodeUnit);
+            int registerCount = nibble3(opcodeUnit);
+            int index = in.read();
+            int abcd = in.read();
+            int protoIndex = in.read();
+            IndexType indexType = OpcodeInfo.getIndexType(opcode);
+
+            if (registerCount < 1 || registerCount > 5) {
+                throw new DexException("bogus registerCount: "
+                        + Hex.uNibble(registerCount));
+            }
+
+            int[] registers = {
+                nibble0(abcd), nibble1(abcd), nibble2(abcd), nibble3(abcd), e };
+            return new InvokePolymorphicDecodedInstruction(
+                    this, opcode, index, indexType, protoIndex,
+                    Arrays.copyOf(registers, registerCount));
+        }
+
+        @Override public void encode(DecodedInstruction insn, CodeOutput out) {
+            out.write(codeUnit(insn.getOpcode(),
+                            makeByte(insn.getE(), insn.getRegisterCount())),
+                    insn.getIndexUnit(),
+                    codeUnit(insn.getA(), insn.getB(), insn.getC(), insn.getD()),
+                    (short) insn.getProtoIndex());
+        }
+    },
+
+    FORMAT_4RCC() {
+        @Override public DecodedInstruction decode(int opcodeUnit,
+                CodeInput in) throws EOFException {
+            int opcode = byte0(opcodeUnit);
+            int registerCount = byte1(opcodeUnit);
+            int index = in.read();
+            int a = in.read();
+            int protoIndex = in.read();
+            IndexType indexType = OpcodeInfo.getIndexType(opcode);
+            return new InvokePolymorphicRangeDecodedInstruction(
+                    this, opcode, index, indexType, a, registerCount, protoIndex);
+        }
+
+        @Override public void encode(DecodedInstruction insn, CodeOutput out) {
+            out.write(codeUnit(insn.getOpcode(), insn.getRegisterCount()),
+                    insn.getIndexUnit(),
+                    insn.getAUnit(),
+                    (short) insn.getProtoIndex());
+        }
+    },
+
     FORMAT_51L() {
         @Override public DecodedInstruction decode(int opcodeUnit,
                 CodeInput in) throws EOFException {
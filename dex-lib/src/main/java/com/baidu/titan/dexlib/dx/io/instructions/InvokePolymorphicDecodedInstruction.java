@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.baidu.titan.dexlib.dx.io.instructions;
+
+import com.baidu.titan.dexlib.dx.io.IndexType;
+
+/**
+ * A decoded invoke-polymorphic instruction (format 45cc): a method
+ * index, up to five register arguments and a proto index.
+ */
+public final class InvokePolymorphicDecodedInstruction extends DecodedInstruction {
+    /** proto reference index */
+    private final int protoIndex;
+
+    /** register arguments, in order "A" through "E" */
+    private final int[] registers;
+
+    /**
+     * Constructs an instance.
+     */
+    public InvokePolymorphicDecodedInstruction(InstructionCodec format, int opcode,
+                                               int index, IndexType indexType, int protoIndex,
+                                               int[] registers) {
+        super(format, opcode, index, indexType, 0, 0L);
+
+        if (protoIndex != (char) protoIndex) {
+            throw new IllegalArgumentException(
+                    "protoIndex doesn't fit in a code unit: " + protoIndex);
+        }
+
+        this.protoIndex = protoIndex;
+        this.registers = registers;
+    }
+
+    /** @inheritDoc */
+    public int getRegisterCount() {
+        return registers.length;
+    }
+
+    private int getRegister(int n) {
+        return n < registers.length ? registers[n] : 0;
+    }
+
+    /** @inheritDoc */
+    public int getA() {
+        return getRegister(0);
+    }
+
+    /** @inheritDoc */
+    public int getB() {
+        return getRegister(1);
+    }
+
+    /** @inheritDoc */
+    public int getC() {
+        return getRegister(2);
+    }
+
+    /** @inheritDoc */
+    public int getD() {
+        return getRegister(3);
+    }
+
+    /** @inheritDoc */
+    public int getE() {
+        return getRegister(4);
+    }
+
+    /** @inheritDoc */
+    public int getProtoIndex() {
+        return protoIndex;
+    }
+
+    /** @inheritDoc */
+    public DecodedInstruction withIndex(int newIndex) {
+        return withProtoIndex(newIndex, protoIndex);
+    }
+
+    /** @inheritDoc */
+    public DecodedInstruction withProtoIndex(int newIndex, int newProtoIndex) {
+        return new InvokePolymorphicDecodedInstruction(
+                getFormat(), getOpcode(), newIndex, getIndexType(),
+                newProtoIndex, registers);
+    }
+}
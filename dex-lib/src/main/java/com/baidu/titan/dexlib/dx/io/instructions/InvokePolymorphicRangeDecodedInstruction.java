@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.baidu.titan.dexlib.dx.io.instructions;
+
+import com.baidu.titan.dexlib.dx.io.IndexType;
+
+/**
+ * A decoded invoke-polymorphic/range instruction (format 4rcc): a
+ * method index, a register range and a proto index.
+ */
+public final class InvokePolymorphicRangeDecodedInstruction extends DecodedInstruction {
+    /** register argument "A", the first register of the range */
+    private final int a;
+
+    /** register count */
+    private final int registerCount;
+
+    /** proto reference index */
+    private final int protoIndex;
+
+    /**
+     * Constructs an instance.
+     */
+    public InvokePolymorphicRangeDecodedInstruction(InstructionCodec format, int opcode,
+                                                    int index, IndexType indexType, int a,
+                                                    int registerCount, int protoIndex) {
+        super(format, opcode, index, indexType, 0, 0L);
+
+        if (protoIndex != (char) protoIndex) {
+            throw new IllegalArgumentException(
+                    "protoIndex doesn't fit in a code unit: " + protoIndex);
+        }
+
+        this.a = a;
+        this.registerCount = registerCount;
+        this.protoIndex = protoIndex;
+    }
+
+    /** @inheritDoc */
+    public int getRegisterCount() {
+        return registerCount;
+    }
+
+    /** @inheritDoc */
+    public int getA() {
+        return a;
+    }
+
+    /** @inheritDoc */
+    public int getProtoIndex() {
+        return protoIndex;
+    }
+
+    /** @inheritDoc */
+    public DecodedInstruction withIndex(int newIndex) {
+        return withProtoIndex(newIndex, protoIndex);
+    }
+
+    /** @inheritDoc */
+    public DecodedInstruction withProtoIndex(int newIndex, int newProtoIndex) {
+        return new InvokePolymorphicRangeDecodedInstruction(
+                getFormat(), getOpcode(), newIndex, getIndexType(),
+                a, registerCount, newProtoIndex);
+    }
+}
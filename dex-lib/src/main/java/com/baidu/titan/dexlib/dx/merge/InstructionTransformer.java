@@ -37,6 +37,7 @@ final class InstructionTransformer {
         this.reader.setTypeVisitor(new TypeVisitor());
         this.reader.setFieldVisitor(new FieldVisitor());
         this.reader.setMethodVisitor(new MethodVisitor());
+        this.reader.setMethodAndProtoVisitor(new MethodAndProtoVisitor());
     }
 
     public short[] transform(IndexMap indexMap, short[] encodedInstructions) throws DexException {
@@ -106,6 +107,16 @@ final class InstructionTransformer {
         }
     }
 
+    private class MethodAndProtoVisitor implements CodeReader.Visitor {
+        public void visit(DecodedInstruction[] all, DecodedInstruction one) {
+            int mappedId = indexMap.adjustMethod(one.getIndex());
+            int mappedProtoId = indexMap.adjustProto(one.getProtoIndex());
+            jumboCheck(false, mappedId);
+            jumboCheck(false, mappedProtoId);
+            mappedInstructions[mappedAt++] = one.withProtoIndex(mappedId, mappedProtoId);
+        }
+    }
+
     private static void jumboCheck(boolean isJumbo, int newIndex) {
         if (!isJumbo && (newIndex > 0xffff)) {
             throw new DexIndexOverflowException("Cannot merge new index " + newIndex +
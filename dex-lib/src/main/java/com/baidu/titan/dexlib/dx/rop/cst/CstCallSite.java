@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.titan.dexlib.dx.rop.cst;
+
+import com.baidu.titan.dexlib.dx.rop.type.Prototype;
+
+import java.util.List;
+
+/**
+ * Constant type to represent a call site, that is the bootstrap method
+ * handle, the method name and type and the extra bootstrap arguments
+ * of an {@code invoke-custom} instruction. The contents are written as
+ * a {@code call_site_item}, which is an encoded array.
+ */
+public final class CstCallSite extends Constant {
+    /** {@code non-null;} the encoded form of the call site */
+    private final CstArray array;
+
+    /**
+     * Makes an instance.
+     *
+     * @param bootstrapHandle {@code non-null;} the bootstrap method handle
+     * @param name {@code non-null;} the method name
+     * @param protoRef {@code non-null;} the method type
+     * @param extraArguments {@code non-null;} the extra bootstrap arguments
+     * @return {@code non-null;} an appropriately-constructed instance
+     */
+    public static CstCallSite make(CstMethodHandle bootstrapHandle, CstString name,
+            CstProtoRef protoRef, List<Constant> extraArguments) {
+        if (bootstrapHandle == null) {
+            throw new NullPointerException("bootstrapHandle == null");
+        }
+
+        if (name == null) {
+            throw new NullPointerException("name == null");
+        }
+
+        if (protoRef == null) {
+            throw new NullPointerException("protoRef == null");
+        }
+
+        CstArray.List list = new CstArray.List(3 + extraArguments.size());
+        list.set(0, bootstrapHandle);
+        list.set(1, name);
+        list.set(2, protoRef);
+        for (int i = 0; i < extraArguments.size(); i++) {
+            list.set(3 + i, extraArguments.get(i));
+        }
+        list.setImmutable();
+
+        return new CstCallSite(new CstArray(list));
+    }
+
+    /**
+     * Constructs an instance. This class is not publicly instantiable. Use
+     * {@link #make}.
+     */
+    private CstCallSite(CstArray array) {
+        this.array = array;
+    }
+
+    /**
+     * Gets the bootstrap method handle.
+     *
+     * @return {@code non-null;} the bootstrap method handle
+     */
+    public CstMethodHandle getBootstrapHandle() {
+        return (CstMethodHandle) array.getList().get(0);
+    }
+
+    /**
+     * Gets the method name.
+     *
+     * @return {@code non-null;} the method name
+     */
+    public CstString getName() {
+        return (CstString) array.getList().get(1);
+    }
+
+    /**
+     * Gets the method prototype of the call site.
+     *
+     * @return {@code non-null;} the prototype
+     */
+    public Prototype getPrototype() {
+        return ((CstProtoRef) array.getList().get(2)).getPrototype();
+    }
+
+    /**
+     * Gets the encoded form of this call site.
+     *
+     * @return {@code non-null;} the array written as {@code call_site_item}
+     */
+    public CstArray getArray() {
+        return array;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof CstCallSite)) {
+            return false;
+        }
+
+        return array.equals(((CstCallSite) other).array);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int hashCode() {
+        return array.hashCode();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected int compareTo0(Constant other) {
+        return array.compareTo(((CstCallSite) other).array);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+        return typeName() + array.toHuman();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String typeName() {
+        return "call site";
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean isCategory2() {
+        return false;
+    }
+
+    /** {@inheritDoc} */
+    public String toHuman() {
+        return array.toHuman();
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.titan.dexlib.dx.rop.cst;
+
+import com.baidu.titan.dexlib.dx.rop.type.Prototype;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Constant type to represent the use of a {@link CstCallSite} by one
+ * {@code invoke-custom} instruction. Every instruction is linked to its
+ * own {@code call_site_id_item}, even if the call sites are equal, so
+ * that each site gets its own linkage at runtime. Equal call sites share
+ * the same {@code call_site_item}.
+ */
+public final class CstCallSiteRef extends Constant {
+    /** source of ids, only used to keep distinct references ordered */
+    private static final AtomicInteger sNextId = new AtomicInteger();
+
+    /** {@code non-null;} the referenced call site */
+    private final CstCallSite callSite;
+
+    /** the id of this reference, in creation order */
+    private final int id;
+
+    /**
+     * Constructs an instance.
+     *
+     * @param callSite {@code non-null;} the referenced call site
+     */
+    public CstCallSiteRef(CstCallSite callSite) {
+        if (callSite == null) {
+            throw new NullPointerException("callSite == null");
+        }
+
+        this.callSite = callSite;
+        this.id = sNextId.getAndIncrement();
+    }
+
+    /**
+     * Gets the referenced call site.
+     *
+     * @return {@code non-null;} the call site
+     */
+    public CstCallSite getCallSite() {
+        return callSite;
+    }
+
+    /**
+     * Gets the method prototype of the call site.
+     *
+     * @return {@code non-null;} the prototype
+     */
+    public Prototype getPrototype() {
+        return callSite.getPrototype();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected int compareTo0(Constant other) {
+        CstCallSiteRef otherRef = (CstCallSiteRef) other;
+        int cmp = callSite.compareTo(otherRef.callSite);
+
+        if (cmp != 0) {
+            return cmp;
+        }
+
+        return Integer.compare(id, otherRef.id);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+        return typeName() + "{" + id + ", " + callSite.toHuman() + '}';
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String typeName() {
+        return "call site ref";
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean isCategory2() {
+        return false;
+    }
+
+    /** {@inheritDoc} */
+    public String toHuman() {
+        return callSite.toHuman();
+    }
+}
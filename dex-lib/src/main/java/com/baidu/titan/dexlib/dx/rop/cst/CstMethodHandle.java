@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.titan.dexlib.dx.rop.cst;
+
+import com.baidu.titan.dexlib.dx.rop.type.Type;
+
+/**
+ * Constant type to represent a method handle, as used by
+ * {@code const-method-handle}, call site bootstrap methods and
+ * method-handle encoded values.
+ */
+public final class CstMethodHandle extends TypedConstant {
+
+    public static final int METHOD_HANDLE_TYPE_STATIC_PUT = 0;
+    public static final int METHOD_HANDLE_TYPE_STATIC_GET = 1;
+    public static final int METHOD_HANDLE_TYPE_INSTANCE_PUT = 2;
+    public static final int METHOD_HANDLE_TYPE_INSTANCE_GET = 3;
+    public static final int METHOD_HANDLE_TYPE_INVOKE_STATIC = 4;
+    public static final int METHOD_HANDLE_TYPE_INVOKE_INSTANCE = 5;
+    public static final int METHOD_HANDLE_TYPE_INVOKE_CONSTRUCTOR = 6;
+    public static final int METHOD_HANDLE_TYPE_INVOKE_DIRECT = 7;
+    public static final int METHOD_HANDLE_TYPE_INVOKE_INTERFACE = 8;
+
+    /** names of the method handle types, indexed by type */
+    private static final String[] TYPE_NAMES = {
+        "static-put", "static-get", "instance-put", "instance-get",
+        "invoke-static", "invoke-instance", "invoke-constructor",
+        "invoke-direct", "invoke-interface"
+    };
+
+    /** the method handle type */
+    private final int type;
+
+    /**
+     * {@code non-null;} the referenced member, a {@link CstFieldRef} for
+     * field accessor handles and a {@link CstBaseMethodRef} otherwise
+     */
+    private final Constant ref;
+
+    /**
+     * Makes an instance.
+     *
+     * @param type the method handle type
+     * @param ref {@code non-null;} the referenced field or method
+     * @return {@code non-null;} an appropriately-constructed instance
+     */
+    public static CstMethodHandle make(int type, Constant ref) {
+        if (ref == null) {
+            throw new NullPointerException("ref == null");
+        }
+
+        if (type < METHOD_HANDLE_TYPE_STATIC_PUT
+                || type > METHOD_HANDLE_TYPE_INVOKE_INTERFACE) {
+            throw new IllegalArgumentException("bogus method handle type " + type);
+        }
+
+        if (isAccessor(type)) {
+            if (!(ref instanceof CstFieldRef)) {
+                throw new IllegalArgumentException("ref has wrong type: " + ref.getClass());
+            }
+        } else if (!(ref instanceof CstBaseMethodRef)) {
+            throw new IllegalArgumentException("ref has wrong type: " + ref.getClass());
+        }
+
+        return new CstMethodHandle(type, ref);
+    }
+
+    /**
+     * Constructs an instance. This class is not publicly instantiable. Use
+     * {@link #make}.
+     */
+    private CstMethodHandle(int type, Constant ref) {
+        this.type = type;
+        this.ref = ref;
+    }
+
+    /**
+     * Gets whether the given method handle type accesses a field.
+     *
+     * @param type the method handle type
+     * @return {@code true} iff the type is a field accessor
+     */
+    public static boolean isAccessor(int type) {
+        return type <= METHOD_HANDLE_TYPE_INSTANCE_GET;
+    }
+
+    /**
+     * Gets the method handle type.
+     *
+     * @return the type
+     */
+    public int getMethodHandleType() {
+        return type;
+    }
+
+    /**
+     * Gets the referenced field or method.
+     *
+     * @return {@code non-null;} the reference
+     */
+    public Constant getRef() {
+        return ref;
+    }
+
+    /**
+     * Gets whether this handle accesses a field.
+     *
+     * @return {@code true} iff this is a field accessor handle
+     */
+    public boolean isAccessor() {
+        return isAccessor(type);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof CstMethodHandle)) {
+            return false;
+        }
+
+        CstMethodHandle otherHandle = (CstMethodHandle) other;
+        return type == otherHandle.type && ref.equals(otherHandle.ref);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int hashCode() {
+        return type * 31 + ref.hashCode();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected int compareTo0(Constant other) {
+        CstMethodHandle otherHandle = (CstMethodHandle) other;
+
+        if (type != otherHandle.type) {
+            return Integer.compare(type, otherHandle.type);
+        }
+
+        return ref.compareTo(otherHandle.ref);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+        return typeName() + "{" + toHuman() + '}';
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String typeName() {
+        return "method handle";
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean isCategory2() {
+        return false;
+    }
+
+    /** {@inheritDoc} */
+    public String toHuman() {
+        return TYPE_NAMES[type] + "," + ref.toHuman();
+    }
+
+    /** {@inheritDoc} */
+    public Type getType() {
+        return Type.METHOD_HANDLE;
+    }
+}
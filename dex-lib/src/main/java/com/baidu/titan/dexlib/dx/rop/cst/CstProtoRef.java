@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.baidu.titan.dexlib.dx.rop.cst;
+
+import com.baidu.titan.dexlib.dx.rop.type.Prototype;
+import com.baidu.titan.dexlib.dx.rop.type.Type;
+
+/**
+ * Constant type to represent a reference to a method prototype, as
+ * used by {@code const-method-type}, {@code invoke-polymorphic} and
+ * method-type encoded values.
+ */
+public final class CstProtoRef extends TypedConstant {
+    /** {@code non-null;} the referenced prototype */
+    private final Prototype prototype;
+
+    /**
+     * Constructs an instance.
+     *
+     * @param prototype {@code non-null;} the referenced prototype
+     */
+    public CstProtoRef(Prototype prototype) {
+        if (prototype == null) {
+            throw new NullPointerException("prototype == null");
+        }
+
+        this.prototype = prototype;
+    }
+
+    /**
+     * Makes an instance for the given method descriptor.
+     *
+     * @param descriptor {@code non-null;} the method descriptor
+     * @return {@code non-null;} an appropriately-constructed instance
+     */
+    public static CstProtoRef make(String descriptor) {
+        return new CstProtoRef(Prototype.intern(descriptor));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof CstProtoRef)) {
+            return false;
+        }
+
+        return prototype.equals(((CstProtoRef) other).prototype);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int hashCode() {
+        return prototype.hashCode();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected int compareTo0(Constant other) {
+        return prototype.compareTo(((CstProtoRef) other).prototype);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+        return typeName() + "{" + toHuman() + '}';
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String typeName() {
+        return "proto";
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean isCategory2() {
+        return false;
+    }
+
+    /** {@inheritDoc} */
+    public String toHuman() {
+        return prototype.getDescriptor();
+    }
+
+    /** {@inheritDoc} */
+    public Type getType() {
+        return Type.METHOD_TYPE;
+    }
+
+    /**
+     * Gets the referenced prototype.
+     *
+     * @return {@code non-null;} the prototype
+     */
+    public Prototype getPrototype() {
+        return prototype;
+    }
+}
@@ -132,6 +132,20 @@ public final class Type implements TypeBearer, Comparable<Type> {
     /** {@code non-null;} instance representing {@code java.lang.Class} */
     public static final Type CLASS = intern("Ljava/lang/Class;");
 
+    /**
+     * {@code non-null;} instance representing
+     * {@code java.lang.invoke.MethodHandle}
+     */
+    public static final Type METHOD_HANDLE =
+        intern("Ljava/lang/invoke/MethodHandle;");
+
+    /**
+     * {@code non-null;} instance representing
+     * {@code java.lang.invoke.MethodType}
+     */
+    public static final Type METHOD_TYPE =
+        intern("Ljava/lang/invoke/MethodType;");
+
     /** {@code non-null;} instance representing {@code java.lang.Cloneable} */
     public static final Type CLONEABLE = intern("Ljava/lang/Cloneable;");
 
@@ -21,6 +21,7 @@ import com.baidu.titan.dex.DexItemFactory;
 import com.baidu.titan.dex.DexString;
 import com.baidu.titan.dex.DexType;
 import com.baidu.titan.dex.DexTypeList;
+import com.baidu.titan.dex.extensions.ClassHierarchyIndex;
 import com.baidu.titan.dex.extensions.DexInterfacesHierarchyFiller;
 import com.baidu.titan.dex.extensions.DexSuperClassHierarchyFiller;
 import com.baidu.titan.dex.node.DexClassNode;
@@ -31,7 +32,6 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 import java.util.Set;
 
 /**
@@ -44,10 +44,20 @@ public class ClassLinker {
 
     private DexItemFactory mFactory;
 
+    private ClassHierarchyIndex mHierarchyIndex;
+
     public ClassLinker(DexItemFactory factory) {
         this.mFactory = factory;
     }
 
+    /**
+     * 设置后，基于DexClassNode的父类、接口判断在两个类都在索引中时直接查询索引，
+     * 不再沿继承链遍历。类池发生变化时需要同步更新索引
+     */
+    public void setClassHierarchyIndex(ClassHierarchyIndex index) {
+        this.mHierarchyIndex = index;
+    }
+
 
     public DexFieldNode resolveFieldJLS(DexType owner,
                                         DexString name,
@@ -80,12 +90,7 @@ public class ClassLinker {
     }
 
     private DexFieldNode findDeclaredField(DexClassNode dcn, DexString name, DexType type) {
-        for (DexFieldNode dfn : dcn.getFields()) {
-            if (dfn.type.equals(type) && dfn.name.equals(name)) {
-                return dfn;
-            }
-        }
-        return null;
+        return dcn.findField(name, type);
     }
 
     public DexClassNode resolveType(DexType type, DexClassLoader loader) {
@@ -136,6 +141,10 @@ public class ClassLinker {
     }
 
     public boolean implementInterfaces(DexClassNode itf, DexClassNode dcn) {
+        if (mHierarchyIndex != null && mHierarchyIndex.contains(itf.type)
+                && mHierarchyIndex.contains(dcn.type)) {
+            return mHierarchyIndex.implementsInterface(itf.type, dcn.type);
+        }
         return getInterfaceTable(dcn).containsKey(itf.type);
     }
 
@@ -215,6 +224,10 @@ public class ClassLinker {
     }
 
     public boolean isSubClass(DexClassNode superDcn, DexClassNode testDcn) {
+        if (mHierarchyIndex != null && mHierarchyIndex.contains(superDcn.type)
+                && mHierarchyIndex.contains(testDcn.type)) {
+            return mHierarchyIndex.isSubClass(superDcn.type, testDcn.type);
+        }
         for (DexClassNode c = testDcn; c != null; c = DexSuperClassHierarchyFiller.getSuperClass(c)) {
             if (superDcn.type.equals(c.type)) {
                 return true;
@@ -340,25 +353,7 @@ public class ClassLinker {
                                                    DexTypeList param,
                                                    DexType returnType,
                                                    DexString name) {
-        Optional<DexMethodNode> optional = classNode.getMethods().stream()
-                .filter(m -> {
-                    if (!name.equals(m.name)) {
-                        return false;
-                    }
-                    if (!param.equals(m.parameters)) {
-                        return false;
-                    }
-                    if (!returnType.equals(m.returnType)) {
-                        return false;
-                    }
-                    return true;
-                })
-                .findFirst();
-
-        if (optional.isPresent()) {
-            return optional.get();
-        }
-        return null;
+        return classNode.findMethod(name, param, returnType);
     }
 
     private Map<DexType, DexClassNode> getDirectInterfaceTable(DexClassNode classNode) {
@@ -376,30 +371,17 @@ public class ClassLinker {
 
     private DexMethodNode findDeclaredVirtualMethod(DexClassNode classNode, DexTypeList param,
                                                    DexType returnType, DexString name) {
-        Optional<DexMethodNode> optional = classNode.getMethods().stream().filter(m -> {
-            if (!name.equals(m.name)) {
-                return false;
-            }
-            if (!param.equals(m.parameters)) {
-                return false;
-            }
-            if (!returnType.equals(m.returnType)) {
-                return false;
-            }
-            return true;
-        }).findFirst();
-        if (optional.isPresent()) {
-            return optional.get();
+        DexMethodNode method = classNode.findMethod(name, param, returnType);
+        if (method != null) {
+            return method;
         } else {
             // find Miranda methods
 
             Map<DexType, DexClassNode> interfaces = getDirectInterfaceTable(classNode);
             for (DexClassNode itf : interfaces.values()) {
-                for (DexMethodNode im : itf.getMethods()) {
-                    if (im.name.equals(name) && im.parameters.equals(param)
-                            && im.returnType.equals(returnType)) {
-                        return im;
-                    }
+                DexMethodNode im = itf.findMethod(name, param, returnType);
+                if (im != null) {
+                    return im;
                 }
             }
             return null;
@@ -412,23 +394,9 @@ public class ClassLinker {
                                                     DexType returnType,
                                                     DexString name,
                                                     DexClassLoader loader) {
-        Optional<DexMethodNode> optional = classNode.getMethods().stream()
-                .filter(m -> {
-                    if (!name.equals(m.name)) {
-                        return false;
-                    }
-                    if (!param.equals(m.parameters)) {
-                        return false;
-                    }
-                    if (!returnType.equals(m.returnType)) {
-                        return false;
-                    }
-                    return true;
-                })
-                .findFirst();
-
-        if (optional.isPresent()) {
-            return optional.get();
+        DexMethodNode method = classNode.findMethod(name, param, returnType);
+        if (method != null) {
+            return method;
         } else {
             // find Miranda methods
 
@@ -436,11 +404,9 @@ public class ClassLinker {
             if (interfaces != null) {
                 for (DexType interfaceType : interfaces) {
                     DexClassNode interfaceClassNode = loader.findClass(interfaceType);
-                    for (DexMethodNode im : interfaceClassNode.getMethods()) {
-                        if (im.name.equals(name) && im.parameters.equals(param)
-                                && im.returnType.equals(returnType)) {
-                            return im;
-                        }
+                    DexMethodNode im = interfaceClassNode.findMethod(name, param, returnType);
+                    if (im != null) {
+                        return im;
                     }
                 }
             }
@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) Baidu Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.baidu.titan.dex.tests;
+
+import org.junit.Assume;
+
+/**
+ * 计时对比类的测试默认跳过，避免拖慢默认测试集，正确性断言放在普通测试中。<br>
+ * 需要时通过-Dtitan.benchmark=true运行
+ *
+ * @author zhangdi07@baidu.com
+ * @since 2019/3/31
+ */
+final class Benchmarks {
+
+    static final String PROPERTY = "titan.benchmark";
+
+    private Benchmarks() {
+    }
+
+    static void assumeEnabled() {
+        Assume.assumeTrue("set -D" + PROPERTY + "=true to run", Boolean.getBoolean(PROPERTY));
+    }
+
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) Baidu Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.baidu.titan.dex.tests;
+
+import com.baidu.titan.dex.DexAccessFlags;
+import com.baidu.titan.dex.DexItemFactory;
+import com.baidu.titan.dex.DexType;
+import com.baidu.titan.dex.DexTypeList;
+import com.baidu.titan.dex.extensions.ClassHierarchyIndex;
+import com.baidu.titan.dex.node.DexClassNode;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * 基于稠密ID的类继承关系索引
+ *
+ * @author zhangdi07@baidu.com
+ * @since 2019/3/31
+ */
+public class ClassHierarchyIndexTest {
+
+    private static DexClassNode createClass(DexItemFactory factory, String name, String superName,
+                                            boolean isInterface, String... interfaces) {
+        DexType[] itfs = new DexType[interfaces.length];
+        for (int i = 0; i < interfaces.length; i++) {
+            itfs[i] = factory.createType(interfaces[i]);
+        }
+        int access = DexAccessFlags.ACC_PUBLIC;
+        if (isInterface) {
+            access |= DexAccessFlags.ACC_INTERFACE | DexAccessFlags.ACC_ABSTRACT;
+        }
+        return new DexClassNode(factory.createType(name), new DexAccessFlags(access),
+                factory.createType(superName), new DexTypeList(itfs));
+    }
+
+    private static Set<DexType> types(DexItemFactory factory, String... names) {
+        Set<DexType> result = new HashSet<>();
+        for (String name : names) {
+            result.add(factory.createType(name));
+        }
+        return result;
+    }
+
+    @Test
+    public void queries() {
+        DexItemFactory factory = new DexItemFactory();
+        String object = "Ljava/lang/Object;";
+        List<DexClassNode> classes = Arrays.asList(
+                createClass(factory, "LI;", object, true),
+                createClass(factory, "LJ;", object, true, "LI;"),
+                createClass(factory, "LA;", object, false, "Ljava/io/Serializable;"),
+                createClass(factory, "LB;", "LA;", false),
+                createClass(factory, "LC;", "LB;", false, "LJ;"),
+                createClass(factory, "LD;", object, false, "LI;"));
+        ClassHierarchyIndex index = ClassHierarchyIndex.build(classes);
+        DexType a = factory.createType("LA;");
+        DexType b = factory.createType("LB;");
+        DexType c = factory.createType("LC;");
+        DexType d = factory.createType("LD;");
+        DexType i = factory.createType("LI;");
+        DexType objectType = factory.createType(object);
+
+        // Object与Serializable不在类池中，同样分配ID
+        Assert.assertEquals(8, index.getIdCount());
+        Assert.assertFalse(index.contains(objectType));
+        Assert.assertTrue(index.contains(c));
+
+        Assert.assertTrue(index.isSubClass(a, c));
+        Assert.assertTrue(index.isSubClass(objectType, c));
+        Assert.assertFalse(index.isSubClass(c, a));
+        Assert.assertFalse(index.isSubClass(d, c));
+        Assert.assertTrue(index.implementsInterface(i, c));
+        Assert.assertTrue(index.implementsInterface(factory.createType("Ljava/io/Serializable;"), c));
+        Assert.assertFalse(index.implementsInterface(i, b));
+        Assert.assertTrue(index.isAssignableFrom(i, factory.createType("LJ;")));
+        Assert.assertEquals(types(factory, "LJ;", "LI;", "Ljava/io/Serializable;"),
+                index.getInterfaces(c));
+        Assert.assertEquals(Arrays.asList(factory.createType("LJ;"), d),
+                index.getDirectSubtypes(i));
+        Assert.assertEquals(types(factory, "LJ;", "LD;", "LC;"),
+                new HashSet<>(index.getAllSubtypes(i)));
+        Assert.assertEquals(Arrays.asList(b, c), index.getAllSubtypes(a));
+
+        // 删除中间的类后，其子类与原来的父类断开
+        Assert.assertTrue(index.removeClass(b));
+        Assert.assertFalse(index.isSubClass(a, c));
+        Assert.assertFalse(index.implementsInterface(factory.createType("Ljava/io/Serializable;"), c));
+        Assert.assertTrue(index.implementsInterface(i, c));
+        Assert.assertTrue(index.isSubClass(b, c));
+
+        index.addClass(createClass(factory, "LB;", "LD;", false));
+        Assert.assertTrue(index.isSubClass(d, c));
+        Assert.assertFalse(index.isSubClass(a, c));
+        Assert.assertTrue(index.implementsInterface(i, b));
+
+        // 加入叶子类
+        index.addClass(createClass(factory, "LE;", "LC;", false));
+        Assert.assertTrue(index.isSubClass(d, factory.createType("LE;")));
+        Assert.assertTrue(index.isAssignableFrom(factory.createType("LJ;"),
+                factory.createType("LE;")));
+    }
+
+    @Test
+    public void matchesChainWalk() {
+        DexItemFactory factory = new DexItemFactory();
+        Random random = new Random(42);
+        int interfaceCount = 50;
+        int classCount = 2000;
+        Map<DexType, DexClassNode> classes = new HashMap<>();
+        List<DexClassNode> list = new ArrayList<>();
+        for (int n = 0; n < interfaceCount + classCount; n++) {
+            boolean isInterface = n < interfaceCount;
+            String superName = isInterface || n == interfaceCount ? "Ljava/lang/Object;"
+                    : "LT" + (interfaceCount + random.nextInt(n - interfaceCount)) + ";";
+            int itfCount = n == 0 ? 0 : random.nextInt(3);
+            String[] itfs = new String[itfCount];
+            for (int k = 0; k < itfCount; k++) {
+                itfs[k] = "LT" + random.nextInt(Math.min(n, interfaceCount)) + ";";
+            }
+            DexClassNode dcn = createClass(factory, "LT" + n + ";", superName, isInterface, itfs);
+            classes.put(dcn.type, dcn);
+            list.add(dcn);
+        }
+        ClassHierarchyIndex index = ClassHierarchyIndex.build(list);
+        for (int q = 0; q < 20000; q++) {
+            DexType sup = list.get(random.nextInt(list.size())).type;
+            DexType sub = list.get(random.nextInt(list.size())).type;
+            Assert.assertEquals(walkIsSubClass(classes, sup, sub), index.isSubClass(sup, sub));
+            Assert.assertEquals(walkInterfaces(classes, sub).contains(sup),
+                    index.implementsInterface(sup, sub));
+        }
+    }
+
+    private static boolean walkIsSubClass(Map<DexType, DexClassNode> classes, DexType sup,
+                                          DexType sub) {
+        for (DexClassNode c = classes.get(sub); c != null; c = classes.get(c.superType)) {
+            if (c.type.equals(sup)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Set<DexType> walkInterfaces(Map<DexType, DexClassNode> classes, DexType type) {
+        Set<DexType> result = new HashSet<>();
+        DexClassNode dcn = classes.get(type);
+        if (dcn == null) {
+            return result;
+        }
+        if (dcn.superType != null) {
+            result.addAll(walkInterfaces(classes, dcn.superType));
+        }
+        for (DexType itf : dcn.interfaces.types()) {
+            result.add(itf);
+            result.addAll(walkInterfaces(classes, itf));
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) Baidu Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.baidu.titan.dex.tests;
+
+import com.baidu.titan.dex.DexAccessFlags;
+import com.baidu.titan.dex.DexItemFactory;
+import com.baidu.titan.dex.DexType;
+import com.baidu.titan.dex.DexTypeList;
+import com.baidu.titan.dex.node.DexClassNode;
+import com.baidu.titan.dex.node.DexFieldNode;
+import com.baidu.titan.dex.node.DexMethodNode;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * DexClassNode成员索引
+ *
+ * @author zhangdi07@baidu.com
+ * @since 2019/3/21
+ */
+public class DexClassNodeMemberIndexTest {
+
+    @Test
+    public void findAndInvalidate() {
+        DexItemFactory factory = new DexItemFactory();
+        DexType owner = factory.createType("Ltitan/Members;");
+        DexType intType = factory.createType("I");
+        DexType voidType = factory.createType("V");
+        DexClassNode dcn = new DexClassNode(owner, new DexAccessFlags(DexAccessFlags.ACC_PUBLIC),
+                factory.createType("Ljava/lang/Object;"), DexTypeList.empty());
+
+        for (int i = 0; i < 1000; i++) {
+            dcn.addMethod(new DexMethodNode(factory.createString("m" + i), owner,
+                    new DexTypeList(new DexType[] {intType}), voidType,
+                    new DexAccessFlags(DexAccessFlags.ACC_PUBLIC)));
+            dcn.addField(new DexFieldNode(factory.createString("f" + i), intType, owner,
+                    new DexAccessFlags(DexAccessFlags.ACC_PUBLIC)));
+        }
+        DexTypeList intParam = new DexTypeList(new DexType[] {intType});
+
+        DexMethodNode m500 = dcn.findMethod(factory.createString("m500"), intParam, voidType);
+        Assert.assertSame(dcn.getMethods().get(500), m500);
+        Assert.assertNull(dcn.findMethod(factory.createString("m500"), DexTypeList.empty(),
+                voidType));
+        Assert.assertSame(dcn.getFields().get(7),
+                dcn.findField(factory.createString("f7"), intType));
+        Assert.assertNull(dcn.findField(factory.createString("f7"), voidType));
+
+        // 通过addMethod/removeMethod修改后索引自动失效
+        DexMethodNode added = new DexMethodNode(factory.createString("added"), owner,
+                DexTypeList.empty(), voidType, new DexAccessFlags(DexAccessFlags.ACC_PUBLIC));
+        dcn.addMethod(added);
+        Assert.assertSame(added,
+                dcn.findMethod(factory.createString("added"), DexTypeList.empty(), voidType));
+        dcn.removeMethod(m500);
+        Assert.assertNull(dcn.findMethod(factory.createString("m500"), intParam, voidType));
+
+        // 直接修改成员签名后需要手动使索引失效
+        DexFieldNode f8 = dcn.getFields().get(8);
+        f8.name = factory.createString("renamed");
+        Assert.assertNull(dcn.findField(factory.createString("f8"), intType));
+        dcn.invalidateMemberIndex();
+        Assert.assertSame(f8, dcn.findField(factory.createString("renamed"), intType));
+    }
+
+}
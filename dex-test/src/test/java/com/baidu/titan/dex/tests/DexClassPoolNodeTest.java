@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) Baidu Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.baidu.titan.dex.tests;
+
+import com.baidu.titan.dex.DexAccessFlags;
+import com.baidu.titan.dex.DexItemFactory;
+import com.baidu.titan.dex.DexType;
+import com.baidu.titan.dex.DexTypeList;
+import com.baidu.titan.dex.node.DexClassNode;
+import com.baidu.titan.dex.extensions.DexSubClassHierarchyFiller;
+import com.baidu.titan.dex.extensions.DexSuperClassHierarchyFiller;
+import com.baidu.titan.dex.node.DexClassPoolNode;
+import com.baidu.titan.dex.visitor.DexClassPoolNodeVisitor;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+/**
+ * DexClassPoolNode并发填充与并行访问
+ *
+ * @author zhangdi07@baidu.com
+ * @since 2019/3/22
+ */
+public class DexClassPoolNodeTest {
+
+    private static final int THREADS = 4;
+
+    private static final int CLASSES_PER_THREAD = 5000;
+
+    @Test
+    public void concurrentFill() throws Exception {
+        DexItemFactory factory = new DexItemFactory();
+        DexType objectType = factory.createType("Ljava/lang/Object;");
+        List<List<DexClassNode>> inputs = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            List<DexClassNode> classes = new ArrayList<>();
+            for (int i = 0; i < CLASSES_PER_THREAD; i++) {
+                // 相邻线程之间有一半的类型重复
+                int id = t * CLASSES_PER_THREAD / 2 + i;
+                classes.add(new DexClassNode(factory.createType("Ltitan/pool/C" + id + ";"),
+                        new DexAccessFlags(DexAccessFlags.ACC_PUBLIC), objectType,
+                        DexTypeList.empty()));
+            }
+            inputs.add(classes);
+        }
+
+        DexClassPoolNode pool = new DexClassPoolNode();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (List<DexClassNode> classes : inputs) {
+                futures.add(executor.submit(() -> classes.forEach(pool::addClassIfAbsent)));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        int expectedSize = (THREADS + 1) * CLASSES_PER_THREAD / 2;
+        Assert.assertEquals(expectedSize, pool.size());
+        Assert.assertEquals(expectedSize, pool.parallelStream().count());
+        Assert.assertNotNull(pool.getClass(factory.createType("Ltitan/pool/C0;")));
+
+        List<DexType> sorted = pool.getSortedClasses().stream()
+                .map(dcn -> dcn.type)
+                .collect(Collectors.toList());
+        for (int i = 1; i < sorted.size(); i++) {
+            Assert.assertTrue(sorted.get(i - 1).compareTo(sorted.get(i)) < 0);
+        }
+        Assert.assertEquals(sorted, pool.sortedStream().map(dcn -> dcn.type)
+                .collect(Collectors.toList()));
+    }
+
+    @Test
+    public void parallelAccept() {
+        DexItemFactory factory = new DexItemFactory();
+        DexType objectType = factory.createType("Ljava/lang/Object;");
+        DexClassPoolNode pool = new DexClassPoolNode();
+        pool.addClass(new DexClassNode(objectType, new DexAccessFlags(DexAccessFlags.ACC_PUBLIC),
+                null, DexTypeList.empty()));
+        int superCount = 16;
+        int classCount = 20000;
+        for (int i = 0; i < superCount; i++) {
+            pool.addClass(new DexClassNode(factory.createType("Ltitan/pool/S" + i + ";"),
+                    new DexAccessFlags(DexAccessFlags.ACC_PUBLIC), objectType,
+                    DexTypeList.empty()));
+        }
+        for (int i = 0; i < classCount; i++) {
+            pool.addClass(new DexClassNode(factory.createType("Ltitan/pool/C" + i + ";"),
+                    new DexAccessFlags(DexAccessFlags.ACC_PUBLIC),
+                    factory.createType("Ltitan/pool/S" + (i % superCount) + ";"),
+                    DexTypeList.empty()));
+        }
+
+        ForkJoinPool forkJoinPool = new ForkJoinPool(THREADS);
+        try {
+            pool.accept(new DexSuperClassHierarchyFiller(pool::getClass), forkJoinPool);
+            pool.accept(new DexSubClassHierarchyFiller(pool::getClass), forkJoinPool);
+            CountingVisitor counter = new CountingVisitor();
+            pool.accept(counter, forkJoinPool);
+            Assert.assertEquals(pool.size(), counter.mCount);
+            Assert.assertTrue(counter.mEnd);
+        } finally {
+            forkJoinPool.shutdown();
+        }
+
+        for (DexClassNode dcn : pool) {
+            if (dcn.superType != null) {
+                Assert.assertSame(pool.getClass(dcn.superType),
+                        DexSuperClassHierarchyFiller.getSuperClass(dcn));
+            }
+        }
+        int[] subCount = new int[1];
+        DexSubClassHierarchyFiller.forEachSubClass(
+                pool.getClass(factory.createType("Ltitan/pool/S3;")), dcn -> subCount[0]++);
+        Assert.assertEquals(classCount / superCount, subCount[0]);
+        subCount[0] = 0;
+        DexSubClassHierarchyFiller.forEachSubClass(pool.getClass(objectType),
+                dcn -> subCount[0]++);
+        Assert.assertEquals(superCount, subCount[0]);
+    }
+
+    /**
+     * 每个任务单独计数，merge时累加
+     */
+    private static class CountingVisitor implements DexClassPoolNodeVisitor {
+
+        private int mCount;
+
+        private boolean mEnd;
+
+        @Override
+        public void visitClass(DexClassNode dcn) {
+            mCount++;
+        }
+
+        @Override
+        public void classPoolVisitEnd() {
+            mEnd = true;
+        }
+
+        @Override
+        public boolean supportsParallelVisit() {
+            return true;
+        }
+
+        @Override
+        public DexClassPoolNodeVisitor fork() {
+            return new CountingVisitor();
+        }
+
+        @Override
+        public void merge(DexClassPoolNodeVisitor forked) {
+            mCount += ((CountingVisitor) forked).mCount;
+        }
+
+    }
+
+}
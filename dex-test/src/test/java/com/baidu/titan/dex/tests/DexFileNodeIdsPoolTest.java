@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) Baidu Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.baidu.titan.dex.tests;
+
+import com.baidu.titan.dex.DexAccessFlags;
+import com.baidu.titan.dex.DexConst;
+import com.baidu.titan.dex.DexItemFactory;
+import com.baidu.titan.dex.DexRegister;
+import com.baidu.titan.dex.DexRegisterList;
+import com.baidu.titan.dex.DexType;
+import com.baidu.titan.dex.DexTypeList;
+import com.baidu.titan.dex.Dops;
+import com.baidu.titan.dex.node.DexClassNode;
+import com.baidu.titan.dex.node.DexCodeNode;
+import com.baidu.titan.dex.node.DexFileNode;
+import com.baidu.titan.dex.node.DexMethodNode;
+import com.baidu.titan.dex.node.insn.DexConstInsnNode;
+import com.baidu.titan.dex.node.insn.DexInsnNode;
+import com.baidu.titan.dex.node.insn.DexSimpleInsnNode;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * DexFileNode引用计数ID池的增量维护
+ *
+ * @author zhangdi07@baidu.com
+ * @since 2019/3/24
+ */
+public class DexFileNodeIdsPoolTest {
+
+    /**
+     * 创建一个类，包含一个调用Shared.call(I)V并加载字符串常量的方法
+     */
+    private static DexClassNode createClass(DexItemFactory factory, String name, String string) {
+        DexType type = factory.createType("Ltitan/ids/" + name + ";");
+        DexClassNode dcn = new DexClassNode(type, new DexAccessFlags(DexAccessFlags.ACC_PUBLIC),
+                factory.createType("Ljava/lang/Object;"), DexTypeList.empty());
+        DexMethodNode dmn = new DexMethodNode(factory.createString("run"), type,
+                DexTypeList.empty(), factory.createType("V"),
+                new DexAccessFlags(DexAccessFlags.ACC_PUBLIC | DexAccessFlags.ACC_STATIC));
+        DexRegister v0 = DexRegister.makeLocalReg(0);
+        List<DexInsnNode> insns = new ArrayList<>();
+        insns.add(new DexConstInsnNode(Dops.CONST_STRING, DexRegisterList.make(v0),
+                DexConst.ConstString.make(string)));
+        insns.add(new DexConstInsnNode(Dops.INVOKE_STATIC, DexRegisterList.make(v0),
+                DexConst.ConstMethodRef.make(factory.createType("Ltitan/ids/Shared;"),
+                        factory.createString("call"), factory.createType("V"),
+                        new DexTypeList(new DexType[] {factory.createType("Ljava/lang/String;")}))));
+        insns.add(new DexSimpleInsnNode(Dops.RETURN_VOID, DexRegisterList.empty()));
+        DexCodeNode code = new DexCodeNode();
+        code.setRegisters(1, 0);
+        code.setInsns(insns);
+        dmn.setCode(code);
+        dcn.addMethod(dmn);
+        return dcn;
+    }
+
+    private static void assertSamePools(DexFileNode expected, DexFileNode actual) {
+        Assert.assertEquals(new HashSet<>(expected.getMethodIds()),
+                new HashSet<>(actual.getMethodIds()));
+        Assert.assertEquals(new HashSet<>(expected.getFieldIds()),
+                new HashSet<>(actual.getFieldIds()));
+        Assert.assertEquals(new HashSet<>(expected.getTypeIds()),
+                new HashSet<>(actual.getTypeIds()));
+        Assert.assertEquals(new HashSet<>(expected.getStringIds()),
+                new HashSet<>(actual.getStringIds()));
+    }
+
+    @Test
+    public void addRemoveReplace() {
+        DexItemFactory factory = new DexItemFactory();
+        DexFileNode dfn = new DexFileNode(true, null);
+        DexClassNode a = createClass(factory, "A", "hello");
+        DexClassNode b = createClass(factory, "B", "world");
+        Assert.assertTrue(dfn.addClass(a));
+        Assert.assertTrue(dfn.addClass(b));
+        // A.run、B.run、Shared.call
+        Assert.assertEquals(3, dfn.getMethodIds().size());
+        Assert.assertTrue(dfn.getStringIds().contains(factory.createString("hello")));
+
+        // 共享的引用在移除A之后仍然保留
+        Assert.assertTrue(dfn.removeClass(a.type));
+        Assert.assertEquals(2, dfn.getMethodIds().size());
+        Assert.assertFalse(dfn.getStringIds().contains(factory.createString("hello")));
+        Assert.assertFalse(dfn.getTypeIds().contains(a.type));
+        Assert.assertTrue(dfn.getTypeIds().contains(factory.createType("Ltitan/ids/Shared;")));
+
+        // 替换B
+        Assert.assertTrue(dfn.addClass(createClass(factory, "B", "replaced")));
+        Assert.assertFalse(dfn.getStringIds().contains(factory.createString("world")));
+        Assert.assertTrue(dfn.getStringIds().contains(factory.createString("replaced")));
+
+        DexFileNode rebuilt = new DexFileNode();
+        dfn.getClassesList().forEach(rebuilt::addClass);
+        rebuilt.rebuildDexIdsPool();
+        assertSamePools(rebuilt, dfn);
+
+        Assert.assertTrue(dfn.removeClass(b.type));
+        Assert.assertTrue(dfn.getMethodIds().isEmpty());
+        Assert.assertTrue(dfn.getStringIds().isEmpty());
+        Assert.assertEquals(65536, dfn.getRemainingMethodIdCapacity());
+    }
+
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) Baidu Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.baidu.titan.dex.tests;
+
+import com.baidu.titan.dex.DexItemFactory;
+import com.baidu.titan.dex.node.DexClassNode;
+import com.baidu.titan.dex.node.DexFileNode;
+import com.baidu.titan.dex.node.DexHeapEstimator;
+import com.baidu.titan.dex.node.DexHeapUsage;
+import com.baidu.titan.dex.node.MultiDexFileNode;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * 节点树堆内存估算
+ *
+ * @author zhangdi07@baidu.com
+ * @since 2019/3/27
+ */
+public class DexHeapEstimatorTest {
+
+    @Test
+    public void estimate() {
+        DexItemFactory factory = new DexItemFactory();
+        DexClassNode small = LargeMethodFixtures.createLargeMethodClass(factory, 1000, true);
+        DexClassNode large = LargeMethodFixtures.createLargeMethodClass(factory, 10000, true);
+        MultiDexFileNode mdfn = new MultiDexFileNode();
+        DexFileNode first = new DexFileNode();
+        first.addClass(small);
+        mdfn.addDexFile(1, first);
+        DexFileNode second = new DexFileNode();
+        second.addClass(large);
+        mdfn.addDexFile(2, second);
+
+        DexHeapEstimator.Report report = mdfn.estimateHeapUsage();
+        DexHeapUsage smallUsage = report.getClassUsage(small);
+        DexHeapUsage largeUsage = report.getClassUsage(large);
+        Assert.assertTrue(smallUsage.get(DexHeapUsage.COMPONENT_INSTRUCTIONS) > 0);
+        Assert.assertTrue(smallUsage.get(DexHeapUsage.COMPONENT_DEBUG_INFO) > 0);
+        Assert.assertTrue(largeUsage.getTotal() > smallUsage.getTotal() * 5);
+        Assert.assertEquals(smallUsage.getTotal(), report.getDexUsage(1).getTotal());
+        Assert.assertEquals(smallUsage.getTotal() + largeUsage.getTotal(),
+                report.getTotal().getTotal());
+        Assert.assertEquals(smallUsage.getTotal(), small.estimateHeapUsage().getTotal());
+
+        // 额外信息单独统计
+        Assert.assertEquals(0, smallUsage.get(DexHeapUsage.COMPONENT_EXTRAS));
+        small.getMethods().get(0).setExtraInfo("trace", "enabled");
+        Assert.assertTrue(small.estimateHeapUsage().get(DexHeapUsage.COMPONENT_EXTRAS) > 0);
+
+        // 紧凑存储占用更少，估算时不应转换回节点
+        long unpacked = large.estimateHeapUsage().get(DexHeapUsage.COMPONENT_INSTRUCTIONS);
+        Assert.assertEquals(1, large.packCode());
+        long packed = large.estimateHeapUsage().get(DexHeapUsage.COMPONENT_INSTRUCTIONS);
+        Assert.assertTrue(packed < unpacked / 2);
+        Assert.assertTrue(large.getMethods().get(0).getCode().isPacked());
+    }
+
+}
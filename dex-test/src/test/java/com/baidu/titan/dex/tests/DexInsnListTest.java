@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) Baidu Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.baidu.titan.dex.tests;
+
+import com.baidu.titan.dex.DexItemFactory;
+import com.baidu.titan.dex.DexRegisterList;
+import com.baidu.titan.dex.Dops;
+import com.baidu.titan.dex.node.DexClassNode;
+import com.baidu.titan.dex.node.DexCodeNode;
+import com.baidu.titan.dex.node.insn.DexInsnList;
+import com.baidu.titan.dex.node.insn.DexInsnNode;
+import com.baidu.titan.dex.node.insn.DexLabelNode;
+import com.baidu.titan.dex.node.insn.DexSimpleInsnNode;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Random;
+
+/**
+ * DexInsnList的游标操作以及与List接口的兼容性
+ *
+ * @author zhangdi07@baidu.com
+ * @since 2019/3/26
+ */
+public class DexInsnListTest {
+
+    private static DexInsnNode nop() {
+        return new DexSimpleInsnNode(Dops.NOP, DexRegisterList.empty());
+    }
+
+    @Test
+    public void behavesLikeArrayList() {
+        Random random = new Random(7);
+        List<DexInsnNode> expected = new ArrayList<>();
+        DexInsnList actual = new DexInsnList();
+        for (int round = 0; round < 5000; round++) {
+            int size = expected.size();
+            switch (random.nextInt(6)) {
+                case 0:
+                case 1: {
+                    DexInsnNode insn = nop();
+                    expected.add(insn);
+                    actual.add(insn);
+                    break;
+                }
+                case 2: {
+                    int index = random.nextInt(size + 1);
+                    DexInsnNode insn = nop();
+                    expected.add(index, insn);
+                    actual.add(index, insn);
+                    break;
+                }
+                case 3: {
+                    if (size > 0) {
+                        int index = random.nextInt(size);
+                        Assert.assertSame(expected.remove(index), actual.remove(index));
+                    }
+                    break;
+                }
+                case 4: {
+                    if (size > 0) {
+                        int index = random.nextInt(size);
+                        Assert.assertSame(expected.get(index), actual.get(index));
+                    }
+                    break;
+                }
+                default: {
+                    ListIterator<DexInsnNode> ei = expected.listIterator();
+                    ListIterator<DexInsnNode> ai = actual.listIterator();
+                    while (ei.hasNext()) {
+                        Assert.assertSame(ei.next(), ai.next());
+                        if (random.nextInt(8) == 0) {
+                            ei.remove();
+                            ai.remove();
+                        } else if (random.nextInt(8) == 0) {
+                            DexInsnNode insn = nop();
+                            ei.add(insn);
+                            ai.add(insn);
+                        }
+                    }
+                    Assert.assertFalse(ai.hasNext());
+                }
+            }
+            Assert.assertEquals(expected.size(), actual.size());
+        }
+        Assert.assertEquals(expected, actual);
+    }
+
+    @Test
+    public void cursor() {
+        DexInsnList insns = new DexInsnList();
+        DexInsnNode a = nop();
+        DexInsnNode b = nop();
+        DexInsnNode c = nop();
+        insns.add(a);
+        insns.add(b);
+        insns.add(c);
+
+        DexInsnList.Cursor cursor = insns.cursorAt(b);
+        DexLabelNode before = new DexLabelNode();
+        DexInsnNode after = nop();
+        cursor.insertBefore(before);
+        cursor.insertAfter(after);
+        Assert.assertSame(b, cursor.get());
+
+        // 其他游标删除指令不影响当前游标
+        insns.cursorAt(a).remove();
+        Assert.assertSame(b, cursor.get());
+
+        DexInsnNode replaced = nop();
+        Assert.assertSame(b, cursor.replace(replaced));
+        Assert.assertTrue(cursor.previous());
+        Assert.assertSame(before, cursor.remove());
+        Assert.assertTrue(cursor.next());
+        Assert.assertSame(replaced, cursor.get());
+        Assert.assertTrue(cursor.next());
+        Assert.assertSame(after, cursor.get());
+        Assert.assertTrue(cursor.next());
+        Assert.assertSame(c, cursor.get());
+        Assert.assertFalse(cursor.next());
+        Assert.assertNull(cursor.get());
+
+        List<DexInsnNode> expected = new ArrayList<>();
+        expected.add(replaced);
+        expected.add(after);
+        expected.add(c);
+        Assert.assertEquals(expected, insns);
+
+        DexInsnList.Cursor stale = insns.cursorAt(after);
+        insns.remove(1);
+        try {
+            stale.get();
+            Assert.fail();
+        } catch (IllegalStateException expectedException) {
+            // expected
+        }
+    }
+
+    @Test
+    public void codeNodeConvertsOnDemand() {
+        DexItemFactory factory = new DexItemFactory();
+        DexClassNode dcn = LargeMethodFixtures.createLargeMethodClass(factory, 100, false);
+        DexCodeNode code = dcn.getMethods().get(0).getCode();
+        // 默认使用ArrayList存储
+        Assert.assertFalse(new DexCodeNode().getInsns() instanceof DexInsnList);
+        List<DexInsnNode> origin = new ArrayList<>(code.getInsns());
+        Assert.assertFalse(code.getInsns() instanceof DexInsnList);
+
+        DexInsnList insns = code.getInsnList();
+        Assert.assertEquals(origin, insns);
+        Assert.assertSame(insns, code.getInsns());
+        Assert.assertSame(insns, code.getInsnList());
+    }
+
+    @Test
+    public void benchmarkInstrumentation() {
+        Benchmarks.assumeEnabled();
+        DexItemFactory factory = new DexItemFactory();
+        for (int insnCount : new int[] {10000, 40000}) {
+            DexClassNode dcn = LargeMethodFixtures.createLargeMethodClass(factory, insnCount,
+                    false);
+            DexCodeNode code = dcn.getMethods().get(0).getCode();
+            List<DexInsnNode> origin = new ArrayList<>(code.getInsns());
+
+            // 在每条指令之前插入一条nop
+            List<DexInsnNode> arrayList = new ArrayList<>(origin);
+            long start = System.nanoTime();
+            for (int i = arrayList.size() - 1; i >= 0; i--) {
+                arrayList.add(i, nop());
+            }
+            long arrayListMs = (System.nanoTime() - start) / 1000000;
+
+            DexInsnList insns = code.getInsnList();
+            start = System.nanoTime();
+            DexInsnList.Cursor cursor = insns.cursor();
+            while (cursor.next()) {
+                cursor.insertBefore(nop());
+            }
+            long cursorMs = (System.nanoTime() - start) / 1000000;
+            System.out.println("instrument method with " + origin.size() + " insns: array list "
+                    + arrayListMs + " ms, cursor " + cursorMs + " ms");
+
+            Assert.assertEquals(origin.size() * 2, code.getInsns().size());
+            for (int i = 0; i < origin.size(); i++) {
+                Assert.assertSame(origin.get(i), code.getInsns().get(i * 2 + 1));
+            }
+            LargeMethodFixtures.writeDex(dcn);
+        }
+    }
+
+}
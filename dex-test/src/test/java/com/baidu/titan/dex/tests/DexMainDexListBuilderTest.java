@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) Baidu Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.baidu.titan.dex.tests;
+
+import com.baidu.titan.dex.DexAccessFlags;
+import com.baidu.titan.dex.DexAnnotationVisibilitys;
+import com.baidu.titan.dex.DexConst;
+import com.baidu.titan.dex.DexItemFactory;
+import com.baidu.titan.dex.DexRegister;
+import com.baidu.titan.dex.DexRegisterList;
+import com.baidu.titan.dex.DexType;
+import com.baidu.titan.dex.DexTypeList;
+import com.baidu.titan.dex.Dops;
+import com.baidu.titan.dex.extensions.DexMainDexListBuilder;
+import com.baidu.titan.dex.node.DexAnnotationNode;
+import com.baidu.titan.dex.node.DexClassNode;
+import com.baidu.titan.dex.node.DexClassPoolNode;
+import com.baidu.titan.dex.node.DexCodeNode;
+import com.baidu.titan.dex.node.DexMethodNode;
+import com.baidu.titan.dex.node.insn.DexConstInsnNode;
+import com.baidu.titan.dex.node.insn.DexInsnNode;
+import com.baidu.titan.dex.node.insn.DexSimpleInsnNode;
+import com.baidu.titan.dex.visitor.DexAnnotationVisitor;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+/**
+ * 基于DexClassPoolNode计算mainDexList
+ *
+ * @author zhangdi07@baidu.com
+ * @since 2019/3/30
+ */
+public class DexMainDexListBuilderTest {
+
+    private static DexClassNode createClass(DexItemFactory factory, String name, String superName,
+                                            String[] interfaces, String... constClasses) {
+        DexType type = factory.createType(name);
+        DexType[] itfs = new DexType[interfaces.length];
+        for (int i = 0; i < itfs.length; i++) {
+            itfs[i] = factory.createType(interfaces[i]);
+        }
+        DexClassNode dcn = new DexClassNode(type, new DexAccessFlags(DexAccessFlags.ACC_PUBLIC),
+                factory.createType(superName), new DexTypeList(itfs));
+        DexMethodNode dmn = new DexMethodNode(factory.createString("run"), type,
+                DexTypeList.empty(), factory.createType("V"),
+                new DexAccessFlags(DexAccessFlags.ACC_PUBLIC | DexAccessFlags.ACC_STATIC));
+        DexRegisterList v0 = DexRegisterList.make(DexRegister.makeLocalReg(0));
+        List<DexInsnNode> insns = new ArrayList<>();
+        for (String constClass : constClasses) {
+            insns.add(new DexConstInsnNode(Dops.CONST_CLASS, v0,
+                    DexConst.ConstType.make(factory.createType(constClass))));
+        }
+        insns.add(new DexSimpleInsnNode(Dops.RETURN_VOID, DexRegisterList.empty()));
+        DexCodeNode code = new DexCodeNode();
+        code.setRegisters(1, 0);
+        code.setInsns(insns);
+        dmn.setCode(code);
+        dcn.addMethod(dmn);
+        return dcn;
+    }
+
+    @Test
+    public void build() {
+        DexItemFactory factory = new DexItemFactory();
+        String object = "Ljava/lang/Object;";
+        String[] none = new String[0];
+        DexClassPoolNode pool = new DexClassPoolNode();
+        pool.addClass(createClass(factory, "Lapp/BaseApp;", "Landroid/app/Application;", none));
+        pool.addClass(createClass(factory, "Lapp/App;", "Lapp/BaseApp;", none,
+                "Lapp/Dep;", "[[Lapp/Element;", "Ljava/lang/String;"));
+        pool.addClass(createClass(factory, "Lapp/Dep;", "Lapp/DepBase;", new String[] {"Lapp/Itf;"},
+                "Lapp/Far;"));
+        pool.addClass(createClass(factory, "Lapp/DepBase;", object, none));
+        pool.addClass(createClass(factory, "Lapp/Itf;", object, new String[] {"Lapp/SuperItf;"}));
+        pool.addClass(createClass(factory, "Lapp/SuperItf;", object, none));
+        pool.addClass(createClass(factory, "Lapp/Element;", object, none));
+        pool.addClass(createClass(factory, "Lapp/Far;", object, none));
+        pool.addClass(createClass(factory, "Lapp/Cold;", object, none, "Lapp/ColdDep;"));
+        pool.addClass(createClass(factory, "Lapp/ColdDep;", object, none));
+        pool.addClass(createClass(factory, "Lapp/Explicit;", object, none));
+        DexClassNode annotated = createClass(factory, "Lapp/Annotated;", object, none,
+                "Lapp/Mode;");
+        DexAnnotationNode marker = new DexAnnotationNode(factory.createType("Lapp/Marker;"),
+                DexAnnotationVisibilitys.get(DexAnnotationVisibilitys.ANNOTATION_VISIBILITY_RUNTIME));
+        DexAnnotationVisitor markerVisitor = marker.asVisitor();
+        markerVisitor.visitBegin();
+        markerVisitor.visitEnd();
+        annotated.getMethods().get(0).getMethodAnnotations().add(marker);
+        pool.addClass(annotated);
+        pool.addClass(createClass(factory, "Lapp/Mode;", "Ljava/lang/Enum;", none));
+        pool.addClass(createClass(factory, "Lapp/Marker;", object,
+                new String[] {"Ljava/lang/annotation/Annotation;"}));
+
+        DexMainDexListBuilder builder = new DexMainDexListBuilder(pool);
+        builder.addRoot(factory.createType("Lapp/Explicit;"));
+        ForkJoinPool forkJoinPool = new ForkJoinPool(4);
+        Set<DexType> mainDexList = builder.build(forkJoinPool);
+
+        // Far只被Dep引用，不是根类的直接引用；Cold及其引用与根类无关
+        Assert.assertEquals(new HashSet<>(Arrays.asList("Lapp/BaseApp;", "Lapp/App;",
+                "Lapp/Dep;", "Lapp/DepBase;", "Lapp/Itf;", "Lapp/SuperItf;", "Lapp/Element;",
+                "Lapp/Explicit;", "Lapp/Annotated;", "Lapp/Mode;", "Lapp/Marker;")),
+                mainDexList.stream().map(DexType::toTypeDescriptor).collect(Collectors.toSet()));
+
+        builder.setKeepAnnotated(false);
+        mainDexList = builder.build(forkJoinPool);
+        forkJoinPool.shutdown();
+        Assert.assertFalse(mainDexList.contains(factory.createType("Lapp/Annotated;")));
+        Assert.assertFalse(mainDexList.contains(factory.createType("Lapp/Mode;")));
+        // 注解接口本身仍然是根类
+        Assert.assertTrue(mainDexList.contains(factory.createType("Lapp/Marker;")));
+    }
+
+}
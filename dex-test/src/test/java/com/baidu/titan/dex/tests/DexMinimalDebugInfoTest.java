@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) Baidu Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.baidu.titan.dex.tests;
+
+import com.baidu.titan.dex.DexAccessFlags;
+import com.baidu.titan.dex.DexConst;
+import com.baidu.titan.dex.DexItemFactory;
+import com.baidu.titan.dex.DexRegister;
+import com.baidu.titan.dex.DexRegisterList;
+import com.baidu.titan.dex.DexString;
+import com.baidu.titan.dex.DexType;
+import com.baidu.titan.dex.DexTypeList;
+import com.baidu.titan.dex.Dops;
+import com.baidu.titan.dex.reader.DexFileReader;
+import com.baidu.titan.dex.visitor.DexClassVisitor;
+import com.baidu.titan.dex.visitor.DexClassVisitorInfo;
+import com.baidu.titan.dex.visitor.DexCodeVisitor;
+import com.baidu.titan.dex.visitor.DexFileVisitor;
+import com.baidu.titan.dex.visitor.DexLabel;
+import com.baidu.titan.dex.visitor.DexMethodVisitor;
+import com.baidu.titan.dex.visitor.DexMethodVisitorInfo;
+import com.baidu.titan.dex.writer.DexFileWriter;
+import com.baidu.titan.dex.writer.DexWriterOptions;
+import com.baidu.titan.dexlib.dex.ClassData;
+import com.baidu.titan.dexlib.dex.ClassDef;
+import com.baidu.titan.dexlib.dex.Dex;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link DexWriterOptions#minimalDebugInfo}测试
+ *
+ * @author zhangdi07@baidu.com
+ * @since 2019/3/31
+ */
+public class DexMinimalDebugInfoTest {
+
+    private static final String OWNER_A = "Ltitan/debug/A;";
+
+    private static final String OWNER_B = "Ltitan/debug/B;";
+
+    /**
+     * 访问static int add(int)的代码：第一个Label上依次访问firstLines中的行号，第二个Label上访问行号22，
+     * 并带有参数名与一个局部变量
+     */
+    static void visitAddCode(DexItemFactory factory, DexCodeVisitor codeVisitor, int[] firstLines,
+                             String parameterName, String localName) {
+        DexRegister v0 = DexRegister.makeLocalReg(0);
+        DexRegister p0 = DexRegister.makeParameterReg(0);
+        DexLabel first = new DexLabel();
+        DexLabel second = new DexLabel();
+        DexLabel localEnd = new DexLabel();
+        codeVisitor.visitBegin();
+        codeVisitor.visitRegisters(1, 1);
+        codeVisitor.visitParameters(new DexString[] {factory.createString(parameterName)});
+        codeVisitor.visitLocal(0, factory.createString(localName), factory.createType("I"),
+                null, second, localEnd);
+        for (int line : firstLines) {
+            codeVisitor.visitLineNumber(line, first);
+        }
+        codeVisitor.visitLabel(first);
+        codeVisitor.visitConstInsn(Dops.CONST_4, DexRegisterList.make(v0),
+                DexConst.LiteralBits32.make(1));
+        codeVisitor.visitLineNumber(22, second);
+        codeVisitor.visitLabel(second);
+        codeVisitor.visitConstInsn(Dops.ADD_INT_LIT8, DexRegisterList.make(v0, p0),
+                DexConst.LiteralBits32.make(1));
+        codeVisitor.visitLabel(localEnd);
+        codeVisitor.visitSimpleInsn(Dops.RETURN, DexRegisterList.make(v0));
+        codeVisitor.visitEnd();
+    }
+
+    static DexMethodVisitorInfo addMethodInfo(DexItemFactory factory, DexType owner) {
+        return new DexMethodVisitorInfo(owner, factory.createString("add"),
+                new DexTypeList(new DexType[] {factory.createType("I")}),
+                factory.createType("I"),
+                new DexAccessFlags(DexAccessFlags.ACC_PUBLIC | DexAccessFlags.ACC_STATIC));
+    }
+
+    /**
+     * 写入两个类，各有一个add方法，指令相同；A的第一个Label上有20、21两个行号，B只有行号20
+     */
+    static byte[] write(DexWriterOptions options) {
+        DexItemFactory factory = new DexItemFactory();
+        DexFileWriter writer = new DexFileWriter(options, null);
+        writer.visitBegin();
+        for (String ownerDesc : new String[] {OWNER_A, OWNER_B}) {
+            DexType owner = factory.createType(ownerDesc);
+            DexClassVisitor dcv = writer.visitClass(new DexClassVisitorInfo(owner,
+                    factory.createType("Ljava/lang/Object;"), DexTypeList.empty(),
+                    new DexAccessFlags(DexAccessFlags.ACC_PUBLIC)));
+            dcv.visitBegin();
+            DexMethodVisitor dmv = dcv.visitMethod(addMethodInfo(factory, owner));
+            dmv.visitBegin();
+            int[] firstLines = owner.toTypeDescriptor().equals(OWNER_A) ?
+                    new int[] {20, 21} : new int[] {20};
+            visitAddCode(factory, dmv.visitCode(), firstLines, "p", "x");
+            dmv.visitEnd();
+            dcv.visitEnd();
+        }
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+    /**
+     * 读回后的行号，记录为"类型行号@Label编号"
+     *
+     * @param names 读回的参数名与局部变量名
+     */
+    static List<String> readLines(byte[] dexBytes, List<String> names) {
+        List<String> lines = new ArrayList<>();
+        new DexFileReader(dexBytes).accept(new DexFileVisitor() {
+            @Override
+            public DexClassVisitor visitClass(DexClassVisitorInfo classInfo) {
+                String owner = classInfo.type.toTypeDescriptor();
+                return new DexClassVisitor() {
+                    @Override
+                    public DexMethodVisitor visitMethod(DexMethodVisitorInfo methodInfo) {
+                        return new DexMethodVisitor() {
+                            @Override
+                            public DexCodeVisitor visitCode() {
+                                Map<DexLabel, Integer> labelIds = new IdentityHashMap<>();
+                                return new DexCodeVisitor() {
+                                    @Override
+                                    public void visitParameters(DexString[] parameters) {
+                                        for (DexString parameter : parameters) {
+                                            if (parameter != null) {
+                                                names.add(parameter.toString());
+                                            }
+                                        }
+                                    }
+
+                                    @Override
+                                    public void visitLocal(int reg, DexString name, DexType type,
+                                                           DexString signature, DexLabel start,
+                                                           DexLabel end) {
+                                        names.add(name.toString());
+                                    }
+
+                                    @Override
+                                    public void visitLineNumber(int line, DexLabel start) {
+                                        int labelId = labelIds.computeIfAbsent(start,
+                                                k -> labelIds.size());
+                                        lines.add(owner + line + "@" + labelId);
+                                    }
+                                };
+                            }
+                        };
+                    }
+                };
+            }
+        });
+        return lines;
+    }
+
+    /**
+     * @return 每个方法code_item中的debug_info_off
+     */
+    static List<Integer> debugInfoOffsets(byte[] dexBytes) throws Exception {
+        Dex dex = new Dex(dexBytes);
+        List<Integer> offsets = new ArrayList<>();
+        for (ClassDef classDef : dex.classDefs()) {
+            for (ClassData.Method method : dex.readClassData(classDef).allMethods()) {
+                offsets.add(dex.readCode(method).getDebugInfoOffset());
+            }
+        }
+        return offsets;
+    }
+
+    @Test
+    public void fullLineNumbers() throws Exception {
+        DexWriterOptions options = new DexWriterOptions();
+        options.deduplicateItems = true;
+        byte[] dexBytes = write(options);
+
+        Assert.assertEquals(Arrays.asList(
+                OWNER_A + "20@0", OWNER_A + "21@0", OWNER_A + "22@1",
+                OWNER_B + "20@0", OWNER_B + "22@1"), readLines(dexBytes, new ArrayList<>()));
+
+        // 行号表不同，debug_info_item不能共享
+        List<Integer> offsets = debugInfoOffsets(dexBytes);
+        Assert.assertEquals(2, offsets.size());
+        Assert.assertNotEquals(offsets.get(0), offsets.get(1));
+    }
+
+    @Test
+    public void minimalLineNumbers() throws Exception {
+        DexWriterOptions options = new DexWriterOptions();
+        options.deduplicateItems = true;
+        options.minimalDebugInfo = true;
+        byte[] dexBytes = write(options);
+
+        // 同一地址只保留第一个行号，不输出参数名与局部变量
+        List<String> names = new ArrayList<>();
+        Assert.assertEquals(Arrays.asList(
+                OWNER_A + "20@0", OWNER_A + "22@1",
+                OWNER_B + "20@0", OWNER_B + "22@1"), readLines(dexBytes, names));
+        Assert.assertTrue(names.isEmpty());
+        List<String> strings = new Dex(dexBytes).strings();
+        Assert.assertFalse(strings.contains("p"));
+        Assert.assertFalse(strings.contains("x"));
+
+        // 只保留行号后两个方法的行号表等价，共享同一个debug_info_item
+        List<Integer> offsets = debugInfoOffsets(dexBytes);
+        Assert.assertEquals(2, offsets.size());
+        Assert.assertNotEquals(0, offsets.get(0).intValue());
+        Assert.assertEquals(offsets.get(0), offsets.get(1));
+    }
+
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) Baidu Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.baidu.titan.dex.tests;
+
+import com.baidu.titan.dex.DexAccessFlags;
+import com.baidu.titan.dex.DexItemFactory;
+import com.baidu.titan.dex.DexRegisterList;
+import com.baidu.titan.dex.Dops;
+import com.baidu.titan.dex.node.DexClassNode;
+import com.baidu.titan.dex.node.DexCodeNode;
+import com.baidu.titan.dex.node.DexMethodNode;
+import com.baidu.titan.dex.node.insn.DexInsnNode;
+import com.baidu.titan.dex.node.insn.DexLabelNode;
+import com.baidu.titan.dex.node.insn.DexSimpleInsnNode;
+import com.baidu.titan.dex.node.insn.DexTargetInsnNode;
+import com.baidu.titan.dex.visitor.DexLabel;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 节点写时复制克隆
+ *
+ * @author zhangdi07@baidu.com
+ * @since 2019/3/23
+ */
+public class DexNodeCopyTest {
+
+    @Test
+    public void copyShareUntilModified() {
+        DexItemFactory factory = new DexItemFactory();
+        DexClassNode origin = LargeMethodFixtures.createLargeMethodClass(factory, 1000, true);
+        byte[] originDex = LargeMethodFixtures.writeDex(origin);
+        DexCodeNode originCode = origin.getMethods().get(0).getCode();
+        int insnCount = originCode.getInsns().size();
+
+        DexClassNode copy = origin.copy();
+        Assert.assertNotSame(origin.getMethods().get(0), copy.getMethods().get(0));
+        Assert.assertArrayEquals(originDex, LargeMethodFixtures.writeDex(copy));
+
+        // 修改克隆的指令列表不影响原节点
+        DexCodeNode copyCode = copy.getMethods().get(0).getCode();
+        copyCode.getInsns().add(0, new DexSimpleInsnNode(Dops.NOP, DexRegisterList.empty()));
+        Assert.assertEquals(insnCount + 1, copyCode.getInsns().size());
+        Assert.assertEquals(insnCount, originCode.getInsns().size());
+        Assert.assertArrayEquals(originDex, LargeMethodFixtures.writeDex(origin));
+
+        // 修改原节点同样不影响克隆
+        DexClassNode copy2 = origin.copy();
+        origin.getMethods().get(0).accessFlags.appendFlags(DexAccessFlags.ACC_FINAL);
+        originCode.getInsns().remove(insnCount - 1);
+        Assert.assertArrayEquals(originDex, LargeMethodFixtures.writeDex(copy2));
+
+        // 紧凑存储直接共享
+        Assert.assertTrue(copy2.getMethods().get(0).getCode().pack());
+        DexClassNode copy3 = copy2.copy();
+        DexCodeNode code3 = copy3.getMethods().get(0).getCode();
+        Assert.assertSame(copy2.getMethods().get(0).getCode().getPackedCode(),
+                code3.getPackedCode());
+        code3.getInsns().clear();
+        Assert.assertArrayEquals(originDex, LargeMethodFixtures.writeDex(copy2));
+    }
+
+    @Test
+    public void interleavedAcceptOfCopies() {
+        DexItemFactory factory = new DexItemFactory();
+        DexClassNode origin = LargeMethodFixtures.createLargeMethodClass(factory, 1000, true);
+        DexCodeNode originCode = origin.getMethods().get(0).getCode();
+        DexCodeNode copyCode = origin.copy().getMethods().get(0).getCode();
+        // 原节点的指令列表前插入一个Label，克隆未访问过列表，仍与原节点共享其余的Label，
+        // 这些Label在两者回放中的编号不同
+        originCode.getInsns().add(0, new DexLabelNode());
+
+        LargeMethodFixtures.EventRecorder expectedOrigin =
+                new LargeMethodFixtures.EventRecorder();
+        originCode.accept(expectedOrigin);
+        LargeMethodFixtures.EventRecorder expectedCopy =
+                new LargeMethodFixtures.EventRecorder();
+        copyCode.accept(expectedCopy);
+
+        // 原节点回放过程中完整回放一次克隆，模拟两者被并发accept
+        LargeMethodFixtures.EventRecorder actualCopy =
+                new LargeMethodFixtures.EventRecorder();
+        LargeMethodFixtures.EventRecorder actualOrigin =
+                new LargeMethodFixtures.EventRecorder() {
+
+                    private boolean mCopyVisited;
+
+                    @Override
+                    public void visitLabel(DexLabel label) {
+                        if (!mCopyVisited) {
+                            mCopyVisited = true;
+                            copyCode.accept(actualCopy);
+                        }
+                        super.visitLabel(label);
+                    }
+                };
+        originCode.accept(actualOrigin);
+
+        Assert.assertEquals(expectedOrigin.toString(), actualOrigin.toString());
+        Assert.assertEquals(expectedCopy.toString(), actualCopy.toString());
+    }
+
+    @Test
+    public void copyDoesNotShareMutableState() {
+        DexItemFactory factory = new DexItemFactory();
+        DexClassNode origin = LargeMethodFixtures.createLargeMethodClass(factory, 100, true);
+        DexMethodNode originMethod = origin.getMethods().get(0);
+        DexCodeNode originCode = originMethod.getCode();
+        origin.setExtraInfo("extra", new HashMap<String, Object>());
+        originMethod.setExtraInfo("extra", new HashMap<String, Object>());
+        originCode.getInsns().get(0).setExtraInfo("extra", new HashMap<String, Object>());
+        byte[] originDex = LargeMethodFixtures.writeDex(origin);
+
+        DexClassNode copy = origin.copy();
+        DexCodeNode copyCode = copy.getMethods().get(0).getCode();
+        // 额外信息不复制
+        Assert.assertFalse(copy.hasExtraInfo());
+        Assert.assertFalse(copy.getMethods().get(0).hasExtraInfo());
+        Assert.assertFalse(copyCode.hasExtraInfo());
+
+        // 克隆访问列表时得到自己的节点，Label一一对应
+        List<DexInsnNode> originInsns = originCode.getInsns();
+        List<DexInsnNode> copyInsns = copyCode.getInsns();
+        Assert.assertEquals(originInsns.size(), copyInsns.size());
+        Map<DexLabelNode, DexLabelNode> labelMap = new IdentityHashMap<>();
+        for (int i = 0; i < originInsns.size(); i++) {
+            DexInsnNode originInsn = originInsns.get(i);
+            DexInsnNode copyInsn = copyInsns.get(i);
+            Assert.assertNotSame(originInsn, copyInsn);
+            Assert.assertSame(originInsn.getClass(), copyInsn.getClass());
+            Assert.assertFalse(copyInsn.hasExtraInfo());
+            if (originInsn instanceof DexLabelNode) {
+                labelMap.put((DexLabelNode) originInsn, (DexLabelNode) copyInsn);
+            }
+        }
+        for (int i = 0; i < originInsns.size(); i++) {
+            if (originInsns.get(i) instanceof DexTargetInsnNode) {
+                Assert.assertSame(labelMap.get(((DexTargetInsnNode) originInsns.get(i)).getTarget()),
+                        ((DexTargetInsnNode) copyInsns.get(i)).getTarget());
+            }
+        }
+        for (int i = 0; i < originCode.getLineNumbers().size(); i++) {
+            Assert.assertSame(labelMap.get(originCode.getLineNumbers().get(i).getStartLabel()),
+                    copyCode.getLineNumbers().get(i).getStartLabel());
+        }
+
+        // 克隆指令上的额外信息不影响原节点
+        copyInsns.get(1).setExtraInfo("extra", new HashMap<String, Object>());
+        Assert.assertFalse(originInsns.get(1).hasExtraInfo());
+        Assert.assertArrayEquals(originDex, LargeMethodFixtures.writeDex(copy));
+    }
+
+}
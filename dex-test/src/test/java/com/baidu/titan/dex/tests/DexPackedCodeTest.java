@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) Baidu Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.baidu.titan.dex.tests;
+
+import com.baidu.titan.dex.DexConst;
+import com.baidu.titan.dex.DexItemFactory;
+import com.baidu.titan.dex.DexRegister;
+import com.baidu.titan.dex.DexRegisterList;
+import com.baidu.titan.dex.DexType;
+import com.baidu.titan.dex.DexTypeList;
+import com.baidu.titan.dex.Dops;
+import com.baidu.titan.dex.node.DexClassNode;
+import com.baidu.titan.dex.node.DexCodeNode;
+import com.baidu.titan.dex.node.DexPackedCode;
+import com.baidu.titan.dex.node.insn.DexConstInsnNode;
+import com.baidu.titan.dex.node.insn.DexInsnNode;
+import com.baidu.titan.dex.node.insn.DexLabelNode;
+import com.baidu.titan.dex.node.insn.DexLineNumberNode;
+import com.baidu.titan.dex.node.insn.DexSimpleInsnNode;
+import com.baidu.titan.dex.node.insn.DexSwitchDataInsnNode;
+import com.baidu.titan.dex.node.insn.DexTryCatchNode;
+import com.baidu.titan.dex.visitor.DexCodeVisitor;
+import com.baidu.titan.dex.visitor.DexLabel;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * DexCodeNode紧凑存储与节点列表之间的转换
+ *
+ * @author zhangdi07@baidu.com
+ * @since 2019/3/20
+ */
+public class DexPackedCodeTest {
+
+    private static DexCodeNode createSwitchCode(DexItemFactory factory) {
+        DexRegister v0 = DexRegister.makeLocalReg(0);
+        DexRegister p0 = DexRegister.makeParameterReg(0);
+        DexLabelNode tryStart = new DexLabelNode();
+        DexLabelNode tryEnd = new DexLabelNode();
+        DexLabelNode handler = new DexLabelNode();
+        DexLabelNode case0 = new DexLabelNode();
+        DexLabelNode case1 = new DexLabelNode();
+
+        List<DexInsnNode> insns = new ArrayList<>();
+        insns.add(tryStart);
+        insns.add(new DexSwitchDataInsnNode(Dops.PACKED_SWITCH, DexRegisterList.make(p0),
+                new int[] {0, 1}, new DexLabelNode[] {case0, case1}));
+        insns.add(new DexConstInsnNode(Dops.CONST_STRING, DexRegisterList.make(v0),
+                DexConst.ConstString.make("default")));
+        insns.add(tryEnd);
+        insns.add(new DexSimpleInsnNode(Dops.RETURN_VOID, DexRegisterList.empty()));
+        insns.add(case0);
+        insns.add(new DexSimpleInsnNode(Dops.RETURN_VOID, DexRegisterList.empty()));
+        insns.add(case1);
+        insns.add(handler);
+        insns.add(new DexSimpleInsnNode(Dops.RETURN_VOID, DexRegisterList.empty()));
+
+        List<DexLineNumberNode> lines = new ArrayList<>();
+        lines.add(new DexLineNumberNode(10, tryStart));
+        lines.add(new DexLineNumberNode(20, case0));
+        lines.add(new DexLineNumberNode(30, case1));
+
+        List<DexTryCatchNode> tryCatches = new ArrayList<>();
+        tryCatches.add(new DexTryCatchNode(tryStart, tryEnd,
+                new DexTypeList(new DexType[] {factory.createType("Ljava/lang/Exception;")}),
+                new DexLabelNode[] {handler}, null));
+
+        DexCodeNode code = new DexCodeNode();
+        code.setRegisters(1, 1);
+        code.setInsns(insns);
+        code.setLineNumbers(lines);
+        code.setTryCatches(tryCatches);
+        return code;
+    }
+
+    @Test
+    public void packAndUnpack() {
+        DexCodeNode code = createSwitchCode(new DexItemFactory());
+        String smali = code.toSmaliString();
+        LargeMethodFixtures.EventRecorder expected =
+                new LargeMethodFixtures.EventRecorder();
+        code.accept(expected);
+
+        Assert.assertTrue(code.pack());
+        Assert.assertTrue(code.isPacked());
+        DexPackedCode packed = code.getPackedCode();
+        Assert.assertEquals(10, packed.getInsnCount());
+        Assert.assertEquals(5, packed.getLabelCount());
+        Assert.assertEquals(1, packed.getTryCatchCount());
+        Assert.assertEquals(3, packed.getLineNumberCount());
+
+        // 紧凑状态下的回放与smali输出不应转换回节点
+        LargeMethodFixtures.EventRecorder actual = new LargeMethodFixtures.EventRecorder();
+        code.accept(actual);
+        Assert.assertEquals(expected.toString(), actual.toString());
+        Assert.assertEquals(smali, code.toSmaliString());
+        Assert.assertTrue(code.isPacked());
+
+        DexPackedCode.Cursor cursor = packed.cursor();
+        Assert.assertTrue(cursor.next());
+        Assert.assertTrue(cursor.isLabel());
+        Assert.assertTrue(cursor.next());
+        Assert.assertEquals(DexPackedCode.KIND_SWITCH, cursor.getKind());
+        Assert.assertEquals(Dops.PACKED_SWITCH, cursor.getOpcode());
+        Assert.assertEquals(DexRegister.makeParameterReg(0), cursor.getRegister(0));
+        Assert.assertTrue(Arrays.equals(new int[] {0, 1}, cursor.getKeys()));
+        Assert.assertTrue(cursor.next());
+        Assert.assertEquals("default",
+                ((DexConst.ConstString) cursor.getConst()).value());
+        Assert.assertEquals(DexRegister.makeLocalReg(0), cursor.getRegister(0));
+
+        // 访问节点列表时按需转换
+        Assert.assertEquals(10, code.getInsns().size());
+        Assert.assertFalse(code.isPacked());
+        Assert.assertEquals(smali, code.toSmaliString());
+        LargeMethodFixtures.EventRecorder unpacked =
+                new LargeMethodFixtures.EventRecorder();
+        code.accept(unpacked);
+        Assert.assertEquals(expected.toString(), unpacked.toString());
+    }
+
+    @Test
+    public void packedVisitor() {
+        DexItemFactory factory = new DexItemFactory();
+        DexClassNode dcn = LargeMethodFixtures.createLargeMethodClass(factory, 1000, true);
+        DexCodeNode code = dcn.getMethods().get(0).getCode();
+        LargeMethodFixtures.EventRecorder expected =
+                new LargeMethodFixtures.EventRecorder();
+        code.accept(expected);
+
+        DexCodeNode packedCode = new DexCodeNode();
+        code.accept(packedCode.asPackedVisitor());
+        Assert.assertTrue(packedCode.isPacked());
+        Assert.assertEquals(code.getLocalRegCount(), packedCode.getLocalRegCount());
+        LargeMethodFixtures.EventRecorder actual = new LargeMethodFixtures.EventRecorder();
+        packedCode.accept(actual);
+        Assert.assertEquals(expected.toString(), actual.toString());
+
+        byte[] expectedDex = LargeMethodFixtures.writeDex(dcn);
+        Assert.assertEquals(1, dcn.packCode());
+        Assert.assertTrue(code.isPacked());
+        Assert.assertArrayEquals(expectedDex, LargeMethodFixtures.writeDex(dcn));
+    }
+
+    @Test
+    public void switchKeysAreCopied() {
+        DexCodeNode code = createSwitchCode(new DexItemFactory());
+        DexCodeNode packedCode = new DexCodeNode();
+        code.accept(new DexCodeVisitor(packedCode.asPackedVisitor()) {
+            @Override
+            public void visitSwitch(int op, DexRegisterList regs, int[] keys,
+                                    DexLabel[] targets) {
+                int[] reused = keys.clone();
+                super.visitSwitch(op, regs, reused, targets);
+                Arrays.fill(reused, -1);
+            }
+        });
+
+        DexPackedCode.Cursor cursor = packedCode.getPackedCode().cursor();
+        do {
+            Assert.assertTrue(cursor.next());
+        } while (cursor.getKind() != DexPackedCode.KIND_SWITCH);
+        int[] keys = cursor.getKeys();
+        Assert.assertArrayEquals(new int[] {0, 1}, keys);
+        keys[0] = 99;
+        Assert.assertArrayEquals(new int[] {0, 1}, cursor.getKeys());
+    }
+
+    @Test
+    public void extraInfoPreventsPacking() {
+        DexCodeNode code = createSwitchCode(new DexItemFactory());
+        code.getInsns().get(1).setExtraInfo("key", "value");
+        Assert.assertFalse(code.pack());
+        Assert.assertEquals("value", code.getInsns().get(1).getExtraInfo("key"));
+    }
+
+}
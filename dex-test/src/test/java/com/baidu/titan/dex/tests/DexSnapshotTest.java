@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) Baidu Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.baidu.titan.dex.tests;
+
+import com.baidu.titan.dex.DexAccessFlags;
+import com.baidu.titan.dex.DexAnnotationVisibilitys;
+import com.baidu.titan.dex.DexItemFactory;
+import com.baidu.titan.dex.DexType;
+import com.baidu.titan.dex.node.DexAnnotationNode;
+import com.baidu.titan.dex.node.DexClassNode;
+import com.baidu.titan.dex.node.DexFieldNode;
+import com.baidu.titan.dex.node.DexFileNode;
+import com.baidu.titan.dex.node.MultiDexFileNode;
+import com.baidu.titan.dex.snapshot.DexSnapshot;
+import com.baidu.titan.dex.snapshot.DexSnapshotWriter;
+import com.baidu.titan.dex.visitor.DexAnnotationVisitor;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * MultiDexFileNode二进制快照的写入与读取
+ *
+ * @author zhangdi07@baidu.com
+ * @since 2019/3/25
+ */
+public class DexSnapshotTest {
+
+    private static DexClassNode createClass(DexItemFactory factory) {
+        DexClassNode dcn = LargeMethodFixtures.createLargeMethodClass(factory, 2000, true);
+        DexType stringType = factory.createType("Ljava/lang/String;");
+        DexFieldNode constField = new DexFieldNode(factory.createString("NAME"), stringType,
+                dcn.type, new DexAccessFlags(DexAccessFlags.ACC_PUBLIC
+                | DexAccessFlags.ACC_STATIC | DexAccessFlags.ACC_FINAL));
+        constField.staticValue = "snapshot";
+        DexAnnotationNode dan = new DexAnnotationNode(factory.createType("Ltitan/Marker;"),
+                DexAnnotationVisibilitys.get(DexAnnotationVisibilitys.ANNOTATION_VISIBILITY_RUNTIME));
+        DexAnnotationVisitor dav = dan.asVisitor();
+        dav.visitBegin();
+        dav.visitPrimitive(factory.createString("value"), 42);
+        DexAnnotationVisitor array = dav.visitArray(factory.createString("names"));
+        array.visitBegin();
+        array.visitString(null, factory.createString("a"));
+        array.visitEnd();
+        dav.visitEnd();
+        constField.setFieldAnnotations(new ArrayList<>(Collections.singletonList(dan)));
+        dcn.addField(constField);
+        return dcn;
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        DexItemFactory factory = new DexItemFactory();
+        MultiDexFileNode mdfn = new MultiDexFileNode();
+        DexFileNode first = new DexFileNode();
+        first.addClass(createClass(factory));
+        mdfn.addDexFile(1, first);
+        DexFileNode second = new DexFileNode();
+        second.addClass(new DexClassNode(factory.createType("Ltitan/Empty;"),
+                new DexAccessFlags(DexAccessFlags.ACC_PUBLIC),
+                factory.createType("Ljava/lang/Object;"), null));
+        mdfn.addDexFile(2, second);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            byte[] content = new DexSnapshotWriter(executor).write(mdfn);
+            Assert.assertArrayEquals(content, new DexSnapshotWriter().write(mdfn));
+
+            DexSnapshot snapshot = DexSnapshot.wrap(content, factory);
+            Assert.assertTrue(snapshot.verifyChecksum());
+            Assert.assertEquals(2, snapshot.getDexIds().size());
+            Assert.assertEquals(Collections.singletonList(factory.createType("Ltitan/Empty;")),
+                    snapshot.getClassTypes(2));
+
+            // 按类型单独解码
+            DexClassNode expected = first.getClassesList().get(0);
+            DexClassNode lazy = snapshot.readClass(1, expected.type);
+            Assert.assertEquals(expected.toSmaliString(), lazy.toSmaliString());
+            Assert.assertNull(snapshot.readClass(1, factory.createType("Ltitan/Missing;")));
+
+            MultiDexFileNode back = snapshot.readMultiDexFile(executor);
+            Assert.assertArrayEquals(LargeMethodFixtures.writeDex(expected),
+                    LargeMethodFixtures.writeDex(back.getDexNodes().get(1)
+                            .getClassesList().get(0)));
+            Assert.assertNull(back.getDexNodes().get(2).getClassesList().get(0).interfaces);
+
+            snapshot.setPackCode(true);
+            DexClassNode packed = snapshot.readClass(1, 0);
+            Assert.assertTrue(packed.getMethods().get(0).getCode().isPacked());
+            Assert.assertArrayEquals(LargeMethodFixtures.writeDex(expected),
+                    LargeMethodFixtures.writeDex(packed));
+
+            content[content.length - 1] ^= 1;
+            Assert.assertFalse(DexSnapshot.wrap(content, null).verifyChecksum());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+}
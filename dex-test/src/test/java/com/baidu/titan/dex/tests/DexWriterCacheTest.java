@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) Baidu Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.baidu.titan.dex.tests;
+
+import com.baidu.titan.dex.DexItemFactory;
+import com.baidu.titan.dex.node.DexFileNode;
+import com.baidu.titan.dex.writer.DexFileWriter;
+import com.baidu.titan.dex.writer.DexWriterCache;
+import com.baidu.titan.dex.writer.DexWriterOptions;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dex编码结果磁盘缓存测试
+ *
+ * @author zhangdi07@baidu.com
+ * @since 2019/3/31
+ */
+public class DexWriterCacheTest {
+
+    @Rule
+    public TemporaryFolder mTempFolder = new TemporaryFolder();
+
+    private static byte[] bytes(int length, int value) {
+        byte[] bytes = new byte[length];
+        Arrays.fill(bytes, (byte) value);
+        return bytes;
+    }
+
+    private static File entryFile(DexWriterCache cache, String key) {
+        return new File(cache.getCacheDir(), key + ".dex");
+    }
+
+    @Test
+    public void missThenHit() throws Exception {
+        DexWriterCache cache = new DexWriterCache(mTempFolder.newFolder("cache"), 1024);
+        Assert.assertNull(cache.get("a"));
+        Assert.assertEquals(1, cache.getMissCount());
+
+        cache.put("a", bytes(100, 1));
+        Assert.assertArrayEquals(bytes(100, 1), cache.get("a"));
+        Assert.assertEquals(1, cache.getHitCount());
+        Assert.assertEquals(1, cache.getMissCount());
+        Assert.assertEquals(0, cache.getErrorCount());
+    }
+
+    @Test
+    public void keyDependsOnOptionsAndClasses() {
+        DexItemFactory factory = new DexItemFactory();
+        byte[] a = DexWriterCache.classDigest(
+                DexWriterDeduplicationTest.createGetterClass(factory, "Ltitan/cache/A;"));
+        byte[] b = DexWriterCache.classDigest(
+                DexWriterDeduplicationTest.createGetterClass(factory, "Ltitan/cache/B;"));
+        Assert.assertArrayEquals(a, DexWriterCache.classDigest(
+                DexWriterDeduplicationTest.createGetterClass(factory, "Ltitan/cache/A;")));
+        Assert.assertFalse(Arrays.equals(a, b));
+
+        String key = DexWriterCache.computeKey("o", Arrays.asList(a, b));
+        Assert.assertEquals(key, DexWriterCache.computeKey("o", Arrays.asList(a, b)));
+        Assert.assertNotEquals(key, DexWriterCache.computeKey("o", Arrays.asList(b, a)));
+        Assert.assertNotEquals(key, DexWriterCache.computeKey("p", Arrays.asList(a, b)));
+    }
+
+    @Test
+    public void digestFollowsStructure() {
+        DexItemFactory factory = new DexItemFactory();
+        byte[] digest = DexWriterCache.classDigest(
+                LargeMethodFixtures.createLargeMethodClass(factory, 1000, true));
+        // 标签是新建的对象，Hash只与跳转结构有关
+        Assert.assertArrayEquals(digest, DexWriterCache.classDigest(
+                LargeMethodFixtures.createLargeMethodClass(factory, 1000, true)));
+        Assert.assertFalse(Arrays.equals(digest, DexWriterCache.classDigest(
+                LargeMethodFixtures.createLargeMethodClass(factory, 1000, false))));
+        Assert.assertFalse(Arrays.equals(digest, DexWriterCache.classDigest(
+                LargeMethodFixtures.createLargeMethodClass(factory, 1008, true))));
+    }
+
+    /**
+     * 命中时只需计算Key并读取文件，未命中时还要编码并写入缓存，分别取多轮中的最小耗时
+     */
+    @Test
+    public void hitIsCheaperThanEncode() throws Exception {
+        Benchmarks.assumeEnabled();
+        DexItemFactory factory = new DexItemFactory();
+        DexFileNode dfn = new DexFileNode();
+        dfn.addClass(LargeMethodFixtures.createLargeMethodClass(factory, 40000, true));
+        DexWriterCache warmCache = new DexWriterCache(mTempFolder.newFolder("warm"), 1 << 24);
+        dfn.accept(new DexFileWriter(new DexWriterOptions(), warmCache));
+
+        long missNanos = Long.MAX_VALUE;
+        long hitNanos = Long.MAX_VALUE;
+        for (int round = 0; round < 3; round++) {
+            DexWriterCache coldCache = new DexWriterCache(
+                    mTempFolder.newFolder("cold" + round), 1 << 24);
+            long start = System.nanoTime();
+            DexFileWriter miss = new DexFileWriter(new DexWriterOptions(), coldCache);
+            dfn.accept(miss);
+            byte[] encoded = miss.toByteArray();
+            missNanos = Math.min(missNanos, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            DexFileWriter hit = new DexFileWriter(new DexWriterOptions(), warmCache);
+            dfn.accept(hit);
+            byte[] cached = hit.toByteArray();
+            hitNanos = Math.min(hitNanos, System.nanoTime() - start);
+
+            Assert.assertArrayEquals(encoded, cached);
+            Assert.assertEquals(1, coldCache.getMissCount());
+        }
+        Assert.assertEquals(3, warmCache.getHitCount());
+        System.out.println(String.format("DexWriterCache: miss %d ms, hit %d ms",
+                TimeUnit.NANOSECONDS.toMillis(missNanos), TimeUnit.NANOSECONDS.toMillis(hitNanos)));
+        Assert.assertTrue(hitNanos < missNanos);
+    }
+
+    @Test
+    public void trimEvictsLeastRecentlyUsed() throws Exception {
+        DexWriterCache cache = new DexWriterCache(mTempFolder.newFolder("cache"), 250);
+        cache.put("a", bytes(100, 1));
+        cache.put("b", bytes(100, 2));
+        long now = System.currentTimeMillis();
+        Assert.assertTrue(entryFile(cache, "a").setLastModified(now - 20000));
+        Assert.assertTrue(entryFile(cache, "b").setLastModified(now - 10000));
+
+        // 读取刷新a的访问时间，b成为最久未使用的条目
+        Assert.assertNotNull(cache.get("a"));
+        cache.put("c", bytes(100, 3));
+
+        Assert.assertEquals(1, cache.getEvictionCount());
+        Assert.assertFalse(entryFile(cache, "b").exists());
+        Assert.assertArrayEquals(bytes(100, 1), cache.get("a"));
+        Assert.assertArrayEquals(bytes(100, 3), cache.get("c"));
+        Assert.assertNull(cache.get("b"));
+    }
+
+    @Test
+    public void concurrentPut() throws Exception {
+        File dir = mTempFolder.newFolder("cache");
+        int threadCount = 4;
+        int keyCount = 20;
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threadCount; t++) {
+            // 每个线程使用独立的实例，模拟共享同一目录的多个构建
+            DexWriterCache cache = new DexWriterCache(dir, 1 << 20);
+            futures.add(executor.submit(() -> {
+                for (int k = 0; k < keyCount; k++) {
+                    cache.put("k" + k, bytes(64 + k, k));
+                }
+                Assert.assertEquals(0, cache.getErrorCount());
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        DexWriterCache cache = new DexWriterCache(dir, 1 << 20);
+        for (int k = 0; k < keyCount; k++) {
+            Assert.assertArrayEquals(bytes(64 + k, k), cache.get("k" + k));
+        }
+        String[] temps = dir.list((d, name) -> name.endsWith(".tmp"));
+        Assert.assertEquals(0, temps.length);
+    }
+
+    @Test
+    public void ioErrorsAreCounted() throws Exception {
+        File dir = mTempFolder.newFolder("cache");
+        DexWriterCache cache = new DexWriterCache(dir, 1024);
+        File entry = entryFile(cache, "a");
+        // 同名目录无法作为文件读取，也无法被临时文件替换
+        Assert.assertTrue(new File(entry, "sub").mkdirs());
+
+        Assert.assertNull(cache.get("a"));
+        Assert.assertEquals(1, cache.getMissCount());
+        Assert.assertEquals(1, cache.getErrorCount());
+
+        cache.put("a", bytes(10, 1));
+        Assert.assertEquals(2, cache.getErrorCount());
+        Assert.assertNotNull(cache.getLastError());
+        Assert.assertEquals(0, dir.list((d, name) -> name.endsWith(".tmp")).length);
+
+        // 普通的未命中不算错误
+        Assert.assertNull(cache.get("b"));
+        Assert.assertEquals(2, cache.getErrorCount());
+    }
+
+    @Test
+    public void writerReusesCachedDex() throws Exception {
+        DexItemFactory factory = new DexItemFactory();
+        DexFileNode dfn = new DexFileNode();
+        dfn.addClass(DexWriterDeduplicationTest.createGetterClass(factory, "Ltitan/cache/A;"));
+        dfn.addClass(DexWriterDeduplicationTest.createGetterClass(factory, "Ltitan/cache/B;"));
+        DexWriterCache cache = new DexWriterCache(mTempFolder.newFolder("cache"), 1 << 20);
+
+        DexFileWriter first = new DexFileWriter(new DexWriterOptions(), cache);
+        dfn.accept(first);
+        byte[] encoded = first.toByteArray();
+        Assert.assertEquals(1, cache.getMissCount());
+        Assert.assertEquals(0, cache.getHitCount());
+
+        DexFileWriter second = new DexFileWriter(new DexWriterOptions(), cache);
+        dfn.accept(second);
+        Assert.assertArrayEquals(encoded, second.toByteArray());
+        Assert.assertEquals(1, cache.getHitCount());
+
+        DexFileWriter uncached = new DexFileWriter(new DexWriterOptions(), null);
+        dfn.accept(uncached);
+        Assert.assertArrayEquals(uncached.toByteArray(), encoded);
+    }
+
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) Baidu Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.baidu.titan.dex.tests;
+
+import com.baidu.titan.dex.DexAccessFlags;
+import com.baidu.titan.dex.DexConst;
+import com.baidu.titan.dex.DexItemFactory;
+import com.baidu.titan.dex.DexRegister;
+import com.baidu.titan.dex.DexRegisterList;
+import com.baidu.titan.dex.DexType;
+import com.baidu.titan.dex.DexTypeList;
+import com.baidu.titan.dex.Dops;
+import com.baidu.titan.dex.node.DexClassNode;
+import com.baidu.titan.dex.node.DexCodeNode;
+import com.baidu.titan.dex.node.DexFileNode;
+import com.baidu.titan.dex.node.DexMethodNode;
+import com.baidu.titan.dex.node.insn.DexConstInsnNode;
+import com.baidu.titan.dex.node.insn.DexInsnNode;
+import com.baidu.titan.dex.node.insn.DexLabelNode;
+import com.baidu.titan.dex.node.insn.DexLineNumberNode;
+import com.baidu.titan.dex.node.insn.DexSimpleInsnNode;
+import com.baidu.titan.dex.reader.DexFileReader;
+import com.baidu.titan.dex.writer.DexFileWriter;
+import com.baidu.titan.dex.writer.DexWriterOptions;
+import com.baidu.titan.dexlib.dex.ClassData;
+import com.baidu.titan.dexlib.dex.ClassDef;
+import com.baidu.titan.dexlib.dex.Code;
+import com.baidu.titan.dexlib.dex.Dex;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * code_item与debug_info_item去重写入测试
+ *
+ * @author zhangdi07@baidu.com
+ * @since 2019/3/31
+ */
+public class DexWriterDeduplicationTest {
+
+    /**
+     * 生成一个带有getName()方法的类，getName()返回常量字符串，不引用所属类，
+     * 因此不同类中的getName()编码后完全相同
+     */
+    static DexClassNode createGetterClass(DexItemFactory factory, String typeDesc) {
+        DexType owner = factory.createType(typeDesc);
+        DexClassNode dcn = new DexClassNode(owner,
+                new DexAccessFlags(DexAccessFlags.ACC_PUBLIC),
+                factory.createType("Ljava/lang/Object;"), DexTypeList.empty());
+
+        DexMethodNode dmn = new DexMethodNode(factory.createString("getName"), owner,
+                DexTypeList.empty(), factory.createType("Ljava/lang/String;"),
+                new DexAccessFlags(DexAccessFlags.ACC_PUBLIC));
+
+        DexRegister v0 = DexRegister.makeLocalReg(0);
+        DexLabelNode start = new DexLabelNode();
+        List<DexInsnNode> insns = new ArrayList<>();
+        insns.add(start);
+        insns.add(new DexConstInsnNode(Dops.CONST_STRING, DexRegisterList.make(v0),
+                DexConst.ConstString.make("titan")));
+        insns.add(new DexSimpleInsnNode(Dops.RETURN_OBJECT, DexRegisterList.make(v0)));
+
+        DexCodeNode code = new DexCodeNode();
+        code.setRegisters(1, 1);
+        code.setInsns(insns);
+        code.setLineNumbers(Collections.singletonList(new DexLineNumberNode(10, start)));
+        dmn.setCode(code);
+        dcn.addMethod(dmn);
+        return dcn;
+    }
+
+    static DexFileWriter write(DexFileNode dfn, boolean deduplicateItems) {
+        DexWriterOptions options = new DexWriterOptions();
+        options.deduplicateItems = deduplicateItems;
+        DexFileWriter writer = new DexFileWriter(options, null);
+        dfn.accept(writer);
+        return writer;
+    }
+
+    /**
+     * 读取所有getName()方法的code_item
+     *
+     * @return 每个元素为{code_off, debug_info_off}
+     */
+    static List<int[]> getNameCodeOffsets(byte[] dexBytes) throws Exception {
+        Dex dex = new Dex(dexBytes);
+        List<int[]> offsets = new ArrayList<>();
+        for (ClassDef classDef : dex.classDefs()) {
+            ClassData classData = dex.readClassData(classDef);
+            for (ClassData.Method method : classData.allMethods()) {
+                int nameIdx = dex.nameIndexFromMethodIndex(method.getMethodIndex());
+                if ("getName".equals(dex.strings().get(nameIdx))) {
+                    Code code = dex.readCode(method);
+                    offsets.add(new int[] {method.getCodeOffset(), code.getDebugInfoOffset()});
+                }
+            }
+        }
+        return offsets;
+    }
+
+    @Test
+    public void deduplicateIsOptIn() {
+        Assert.assertFalse(new DexWriterOptions().deduplicateItems);
+    }
+
+    @Test
+    public void identicalGettersShareItems() throws Exception {
+        DexItemFactory factory = new DexItemFactory();
+        DexFileNode dfn = new DexFileNode();
+        dfn.addClass(createGetterClass(factory, "Ltitan/dedup/A;"));
+        dfn.addClass(createGetterClass(factory, "Ltitan/dedup/B;"));
+
+        DexFileWriter plainWriter = write(dfn, false);
+        byte[] plain = plainWriter.toByteArray();
+        Assert.assertEquals(0, plainWriter.getDeduplicatedItemCount());
+        List<int[]> plainOffsets = getNameCodeOffsets(plain);
+        Assert.assertEquals(2, plainOffsets.size());
+        Assert.assertNotEquals(plainOffsets.get(0)[0], plainOffsets.get(1)[0]);
+        Assert.assertNotEquals(plainOffsets.get(0)[1], plainOffsets.get(1)[1]);
+
+        DexFileWriter dedupWriter = write(dfn, true);
+        byte[] dedup = dedupWriter.toByteArray();
+        // 一个code_item与一个debug_info_item
+        Assert.assertEquals(2, dedupWriter.getDeduplicatedItemCount());
+        Assert.assertTrue(dedupWriter.getDeduplicatedSize() > 0);
+        Assert.assertTrue(dedup.length < plain.length);
+
+        List<int[]> dedupOffsets = getNameCodeOffsets(dedup);
+        Assert.assertEquals(2, dedupOffsets.size());
+        Assert.assertEquals(dedupOffsets.get(0)[0], dedupOffsets.get(1)[0]);
+        Assert.assertEquals(dedupOffsets.get(0)[1], dedupOffsets.get(1)[1]);
+        Assert.assertNotEquals(0, dedupOffsets.get(0)[1]);
+
+        DexFileNode readBack = new DexFileNode();
+        new DexFileReader(dedup).accept(readBack.asVisitor());
+        Assert.assertEquals(2, readBack.getClassesList().size());
+    }
+
+}
@@ -0,0 +1,419 @@
+/*
+ * Copyright (C) Baidu Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.baidu.titan.dex.tests;
+
+import com.baidu.titan.dex.DexAccessFlags;
+import com.baidu.titan.dex.DexConst;
+import com.baidu.titan.dex.DexFileVersion;
+import com.baidu.titan.dex.DexItemFactory;
+import com.baidu.titan.dex.DexRegister;
+import com.baidu.titan.dex.DexRegisterList;
+import com.baidu.titan.dex.DexType;
+import com.baidu.titan.dex.DexTypeList;
+import com.baidu.titan.dex.Dops;
+import com.baidu.titan.dex.node.DexClassNode;
+import com.baidu.titan.dex.node.DexCodeNode;
+import com.baidu.titan.dex.node.DexFileNode;
+import com.baidu.titan.dex.node.DexMethodNode;
+import com.baidu.titan.dex.node.insn.DexConstInsnNode;
+import com.baidu.titan.dex.node.insn.DexInsnNode;
+import com.baidu.titan.dex.node.insn.DexSimpleInsnNode;
+import com.baidu.titan.dex.writer.DexFileWriter;
+import com.baidu.titan.dexlib.dex.ClassData;
+import com.baidu.titan.dexlib.dex.Dex;
+import com.baidu.titan.dexlib.dx.io.Opcodes;
+import com.baidu.titan.dexlib.dx.io.instructions.DecodedInstruction;
+import com.baidu.titan.dexlib.dx.io.instructions.ShortArrayCodeOutput;
+
+import org.jf.dexlib2.MethodHandleType;
+import org.jf.dexlib2.Opcode;
+import org.jf.dexlib2.dexbacked.DexBackedDexFile;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.iface.Method;
+import org.jf.dexlib2.iface.instruction.DualReferenceInstruction;
+import org.jf.dexlib2.iface.instruction.FiveRegisterInstruction;
+import org.jf.dexlib2.iface.instruction.Instruction;
+import org.jf.dexlib2.iface.instruction.ReferenceInstruction;
+import org.jf.dexlib2.iface.instruction.RegisterRangeInstruction;
+import org.jf.dexlib2.iface.reference.CallSiteReference;
+import org.jf.dexlib2.iface.reference.MethodHandleReference;
+import org.jf.dexlib2.iface.value.IntEncodedValue;
+import org.jf.dexlib2.iface.value.StringEncodedValue;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 038/039版本的invoke-custom、invoke-polymorphic、const-method-handle以及const-method-type写入测试，
+ * 写入结果使用dexlib2解码，与titan自身的Reader无关；同时用dx-io解码并重新编码，检查45cc与4rcc格式的往返
+ *
+ * @author zhangdi07@baidu.com
+ * @since 2019/3/31
+ */
+public class DexWriterMethodHandleTest {
+
+    private static final int TYPE_CALL_SITE_ID_ITEM = 0x0007;
+
+    private static final int TYPE_METHOD_HANDLE_ITEM = 0x0008;
+
+    private final DexItemFactory mFactory = new DexItemFactory();
+
+    private final DexType mOwner = mFactory.createType("Ltitan/mh/Host;");
+
+    private final DexType mString = mFactory.createType("Ljava/lang/String;");
+
+    private final DexType mObject = mFactory.createType("Ljava/lang/Object;");
+
+    /** (String)String */
+    private final DexConst.Proto mProto = DexConst.Proto.make(mString,
+            new DexTypeList(new DexType[] {mString}));
+
+    private final DexConst.MethodHandle mBootstrap = DexConst.MethodHandle.make(
+            DexConst.MethodHandle.METHOD_HANDLE_TYPE_INVOKE_STATIC,
+            DexConst.ConstMethodRef.make(mOwner, mFactory.createString("bsm"),
+                    mFactory.createType("Ljava/lang/invoke/CallSite;"),
+                    new DexTypeList(new DexType[] {
+                            mFactory.createType("Ljava/lang/invoke/MethodHandles$Lookup;"),
+                            mString,
+                            mFactory.createType("Ljava/lang/invoke/MethodType;")})));
+
+    private final DexConst.MethodHandle mFieldHandle = DexConst.MethodHandle.make(
+            DexConst.MethodHandle.METHOD_HANDLE_TYPE_STATIC_GET,
+            DexConst.ConstFieldRef.make(mOwner, mString, mFactory.createString("NAME")));
+
+    private final DexConst.CallSite mCallSite = DexConst.CallSite.make(mBootstrap,
+            mFactory.createString("concat"), mProto,
+            Arrays.asList(DexConst.ConstString.make("x"), DexConst.LiteralBits32.make(3)));
+
+    /** MethodHandle.invoke(Object[])Object，签名多态方法 */
+    private final DexConst.ConstMethodRef mInvokeRef = DexConst.ConstMethodRef.make(
+            mFactory.createType("Ljava/lang/invoke/MethodHandle;"),
+            mFactory.createString("invoke"), mObject,
+            new DexTypeList(new DexType[] {mFactory.createType("[Ljava/lang/Object;")}));
+
+    private final DexConst.MethodAndProto mInvoke = DexConst.MethodAndProto.make(mInvokeRef,
+            mProto);
+
+    /**
+     * 参数个数为count的(String...)String原型
+     */
+    private DexConst.Proto stringsProto(int count) {
+        DexType[] types = new DexType[count];
+        Arrays.fill(types, mString);
+        return DexConst.Proto.make(mString, new DexTypeList(types));
+    }
+
+    private DexFileNode createDexFile(DexFileVersion version, int registerCount,
+                                      List<DexInsnNode> insns) {
+        DexClassNode dcn = new DexClassNode(mOwner,
+                new DexAccessFlags(DexAccessFlags.ACC_PUBLIC), mObject, DexTypeList.empty());
+        DexMethodNode dmn = new DexMethodNode(mFactory.createString("run"), mOwner,
+                DexTypeList.empty(), mFactory.createType("V"),
+                new DexAccessFlags(DexAccessFlags.ACC_PUBLIC | DexAccessFlags.ACC_STATIC));
+        List<DexInsnNode> code = new ArrayList<>(insns);
+        code.add(new DexSimpleInsnNode(Dops.RETURN_VOID, DexRegisterList.empty()));
+        DexCodeNode dcn2 = new DexCodeNode();
+        dcn2.setRegisters(registerCount, 0);
+        dcn2.setInsns(code);
+        dmn.setCode(dcn2);
+        dcn.addMethod(dmn);
+
+        DexFileNode dfn = new DexFileNode();
+        dfn.setDexVersion(version);
+        dfn.addClass(dcn);
+        return dfn;
+    }
+
+    private static byte[] write(DexFileNode dfn) {
+        DexFileWriter writer = new DexFileWriter();
+        dfn.accept(writer);
+        return writer.toByteArray();
+    }
+
+    private static String magic(byte[] dexBytes) {
+        return new String(dexBytes, 0, 8, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * 从map_list中读取某类item的个数
+     */
+    private static int mapItemCount(byte[] dexBytes, int type) {
+        ByteBuffer buffer = ByteBuffer.wrap(dexBytes).order(ByteOrder.LITTLE_ENDIAN);
+        int mapOff = buffer.getInt(0x34);
+        int size = buffer.getInt(mapOff);
+        for (int i = 0; i < size; i++) {
+            int entry = mapOff + 4 + i * 12;
+            if ((buffer.getShort(entry) & 0xffff) == type) {
+                return buffer.getInt(entry + 4);
+            }
+        }
+        return 0;
+    }
+
+    private static List<Instruction> decodeRun(byte[] dexBytes, int api) {
+        DexBackedDexFile dexFile = new DexBackedDexFile(org.jf.dexlib2.Opcodes.forApi(api),
+                dexBytes);
+        List<Instruction> insns = new ArrayList<>();
+        for (ClassDef classDef : dexFile.getClasses()) {
+            for (Method method : classDef.getMethods()) {
+                for (Instruction insn : method.getImplementation().getInstructions()) {
+                    insns.add(insn);
+                }
+            }
+        }
+        return insns;
+    }
+
+    /**
+     * 用dx-io解码run()的指令并重新编码，结果必须与写入的编码完全一致
+     *
+     * @return 解码得到的指令，下标为指令地址
+     */
+    private static DecodedInstruction[] decodeRoundTrip(Dex dex) {
+        ClassData classData = dex.readClassData(dex.classDefs().iterator().next());
+        short[] units = dex.readCode(classData.allMethods()[0]).getInstructions();
+        DecodedInstruction[] decoded = DecodedInstruction.decodeAll(units);
+        ShortArrayCodeOutput out = new ShortArrayCodeOutput(units.length);
+        for (DecodedInstruction insn : decoded) {
+            if (insn != null) {
+                insn.encode(out);
+            }
+        }
+        Assert.assertArrayEquals(units, out.getArray());
+        return decoded;
+    }
+
+    private static DecodedInstruction findInsn(DecodedInstruction[] decoded, int opcode) {
+        for (DecodedInstruction insn : decoded) {
+            if (insn != null && insn.getOpcode() == opcode) {
+                return insn;
+            }
+        }
+        throw new AssertionError("no opcode " + opcode);
+    }
+
+    /**
+     * 检查invoke-polymorphic的方法与原型索引，并确认替换索引后仍可正确编码
+     */
+    private static void assertPolymorphicIndexes(Dex dex, DecodedInstruction insn,
+                                                 String shorty) {
+        Assert.assertEquals("invoke", dex.strings().get(
+                dex.methodIds().get(insn.getIndex()).getNameIndex()));
+        Assert.assertEquals(shorty, dex.strings().get(
+                dex.protoIds().get(insn.getProtoIndex()).getShortyIndex()));
+
+        DecodedInstruction remapped = insn.withProtoIndex(0x1234, 0xfedc);
+        ShortArrayCodeOutput out = new ShortArrayCodeOutput(4);
+        remapped.encode(out);
+        DecodedInstruction reread = DecodedInstruction.decodeAll(out.getArray())[0];
+        Assert.assertEquals(0x1234, reread.getIndex());
+        Assert.assertEquals(0xfedc, reread.getProtoIndex());
+        Assert.assertEquals(insn.getRegisterCount(), reread.getRegisterCount());
+        Assert.assertEquals(insn.getA(), reread.getA());
+        Assert.assertEquals(insn.getB(), reread.getB());
+    }
+
+    private static void assertCallSite(CallSiteReference callSite, String proto) {
+        Assert.assertEquals("concat", callSite.getMethodName());
+        Assert.assertEquals(proto, callSite.getMethodProto().toString());
+        MethodHandleReference bootstrap = callSite.getMethodHandle();
+        Assert.assertEquals(MethodHandleType.INVOKE_STATIC, bootstrap.getMethodHandleType());
+        Assert.assertEquals("Ltitan/mh/Host;->bsm(Ljava/lang/invoke/MethodHandles$Lookup;"
+                        + "Ljava/lang/String;Ljava/lang/invoke/MethodType;)"
+                        + "Ljava/lang/invoke/CallSite;",
+                bootstrap.getMemberReference().toString());
+        Assert.assertEquals(2, callSite.getExtraArguments().size());
+        Assert.assertEquals("x",
+                ((StringEncodedValue) callSite.getExtraArguments().get(0)).getValue());
+        Assert.assertEquals(3,
+                ((IntEncodedValue) callSite.getExtraArguments().get(1)).getValue());
+    }
+
+    @Test
+    public void writes039Features() throws IOException {
+        DexRegister v0 = DexRegister.makeLocalReg(0);
+        DexRegister v1 = DexRegister.makeLocalReg(1);
+        List<DexInsnNode> insns = new ArrayList<>();
+        insns.add(new DexConstInsnNode(Dops.CONST_METHOD_TYPE, DexRegisterList.make(v0), mProto));
+        insns.add(new DexConstInsnNode(Dops.CONST_METHOD_HANDLE, DexRegisterList.make(v0),
+                mBootstrap));
+        insns.add(new DexConstInsnNode(Dops.CONST_METHOD_HANDLE, DexRegisterList.make(v1),
+                mFieldHandle));
+        insns.add(new DexConstInsnNode(Dops.CONST_STRING, DexRegisterList.make(v1),
+                DexConst.ConstString.make("s")));
+        insns.add(new DexConstInsnNode(Dops.INVOKE_CUSTOM, DexRegisterList.make(v1), mCallSite));
+        insns.add(new DexConstInsnNode(Dops.INVOKE_CUSTOM, DexRegisterList.make(v1), mCallSite));
+        insns.add(new DexConstInsnNode(Dops.INVOKE_POLYMORPHIC, DexRegisterList.make(v0, v1),
+                mInvoke));
+        byte[] dexBytes = write(createDexFile(DexFileVersion.ANDROID_API_9_0, 2, insns));
+
+        Assert.assertEquals("dex\n039\0", magic(dexBytes));
+        // 每个invoke-custom指令使用独立的call_site_id
+        Assert.assertEquals(2, mapItemCount(dexBytes, TYPE_CALL_SITE_ID_ITEM));
+        Assert.assertEquals(2, mapItemCount(dexBytes, TYPE_METHOD_HANDLE_ITEM));
+
+        List<Instruction> decoded = decodeRun(dexBytes, 28);
+        Assert.assertEquals(8, decoded.size());
+
+        Assert.assertEquals(Opcode.CONST_METHOD_TYPE, decoded.get(0).getOpcode());
+        Assert.assertEquals("(Ljava/lang/String;)Ljava/lang/String;",
+                ((ReferenceInstruction) decoded.get(0)).getReference().toString());
+
+        Assert.assertEquals(Opcode.CONST_METHOD_HANDLE, decoded.get(1).getOpcode());
+        MethodHandleReference bootstrap = (MethodHandleReference)
+                ((ReferenceInstruction) decoded.get(1)).getReference();
+        Assert.assertEquals(MethodHandleType.INVOKE_STATIC, bootstrap.getMethodHandleType());
+
+        Assert.assertEquals(Opcode.CONST_METHOD_HANDLE, decoded.get(2).getOpcode());
+        MethodHandleReference fieldHandle = (MethodHandleReference)
+                ((ReferenceInstruction) decoded.get(2)).getReference();
+        Assert.assertEquals(MethodHandleType.STATIC_GET, fieldHandle.getMethodHandleType());
+        Assert.assertEquals("Ltitan/mh/Host;->NAME:Ljava/lang/String;",
+                fieldHandle.getMemberReference().toString());
+
+        for (int i = 4; i <= 5; i++) {
+            Instruction insn = decoded.get(i);
+            Assert.assertEquals(Opcode.INVOKE_CUSTOM, insn.getOpcode());
+            Assert.assertEquals(1, ((FiveRegisterInstruction) insn).getRegisterCount());
+            Assert.assertEquals(1, ((FiveRegisterInstruction) insn).getRegisterC());
+            assertCallSite((CallSiteReference) ((ReferenceInstruction) insn).getReference(),
+                    "(Ljava/lang/String;)Ljava/lang/String;");
+        }
+
+        Instruction polymorphic = decoded.get(6);
+        Assert.assertEquals(Opcode.INVOKE_POLYMORPHIC, polymorphic.getOpcode());
+        Assert.assertEquals(2, ((FiveRegisterInstruction) polymorphic).getRegisterCount());
+        Assert.assertEquals(0, ((FiveRegisterInstruction) polymorphic).getRegisterC());
+        Assert.assertEquals(1, ((FiveRegisterInstruction) polymorphic).getRegisterD());
+        Assert.assertEquals("Ljava/lang/invoke/MethodHandle;->invoke([Ljava/lang/Object;)"
+                        + "Ljava/lang/Object;",
+                ((ReferenceInstruction) polymorphic).getReference().toString());
+        Assert.assertEquals("(Ljava/lang/String;)Ljava/lang/String;",
+                ((DualReferenceInstruction) polymorphic).getReference2().toString());
+        Assert.assertEquals(Opcode.RETURN_VOID, decoded.get(7).getOpcode());
+
+        Dex dex = new Dex(dexBytes);
+        DecodedInstruction dxPolymorphic =
+                findInsn(decodeRoundTrip(dex), Opcodes.INVOKE_POLYMORPHIC);
+        Assert.assertEquals(2, dxPolymorphic.getRegisterCount());
+        Assert.assertEquals(0, dxPolymorphic.getA());
+        Assert.assertEquals(1, dxPolymorphic.getB());
+        assertPolymorphicIndexes(dex, dxPolymorphic, "LL");
+    }
+
+    @Test
+    public void writesRangeForms() throws IOException {
+        DexRegister[] regs = new DexRegister[6];
+        DexRegisterList.Builder allRegs = DexRegisterList.newBuilder();
+        for (int i = 0; i < regs.length; i++) {
+            regs[i] = DexRegister.makeLocalReg(i);
+            allRegs.addReg(regs[i]);
+        }
+        DexConst.CallSite callSite = DexConst.CallSite.make(mBootstrap,
+                mFactory.createString("concat"), stringsProto(3),
+                Arrays.asList(DexConst.ConstString.make("x"), DexConst.LiteralBits32.make(3)));
+        List<DexInsnNode> insns = new ArrayList<>();
+        insns.add(new DexConstInsnNode(Dops.INVOKE_CUSTOM_RANGE,
+                DexRegisterList.make(regs[1], regs[2], regs[3]), callSite));
+        // 接收者加5个参数，超出45cc格式的寄存器个数
+        insns.add(new DexConstInsnNode(Dops.INVOKE_POLYMORPHIC_RANGE, allRegs.build(),
+                DexConst.MethodAndProto.make(mInvokeRef, stringsProto(5))));
+        byte[] dexBytes = write(createDexFile(DexFileVersion.ANDROID_API_8_0, 6, insns));
+
+        Assert.assertEquals("dex\n038\0", magic(dexBytes));
+        Assert.assertEquals(1, mapItemCount(dexBytes, TYPE_CALL_SITE_ID_ITEM));
+        Assert.assertEquals(1, mapItemCount(dexBytes, TYPE_METHOD_HANDLE_ITEM));
+
+        List<Instruction> decoded = decodeRun(dexBytes, 26);
+        Assert.assertEquals(3, decoded.size());
+
+        Instruction custom = decoded.get(0);
+        Assert.assertEquals(Opcode.INVOKE_CUSTOM_RANGE, custom.getOpcode());
+        Assert.assertEquals(1, ((RegisterRangeInstruction) custom).getStartRegister());
+        Assert.assertEquals(3, ((RegisterRangeInstruction) custom).getRegisterCount());
+        assertCallSite((CallSiteReference) ((ReferenceInstruction) custom).getReference(),
+                "(Ljava/lang/String;Ljava/lang/String;Ljava/lang/String;)Ljava/lang/String;");
+
+        Instruction polymorphic = decoded.get(1);
+        Assert.assertEquals(Opcode.INVOKE_POLYMORPHIC_RANGE, polymorphic.getOpcode());
+        Assert.assertEquals(0, ((RegisterRangeInstruction) polymorphic).getStartRegister());
+        Assert.assertEquals(6, ((RegisterRangeInstruction) polymorphic).getRegisterCount());
+        Assert.assertEquals("(Ljava/lang/String;Ljava/lang/String;Ljava/lang/String;"
+                        + "Ljava/lang/String;Ljava/lang/String;)Ljava/lang/String;",
+                ((DualReferenceInstruction) polymorphic).getReference2().toString());
+
+        Dex dex = new Dex(dexBytes);
+        DecodedInstruction dxPolymorphic =
+                findInsn(decodeRoundTrip(dex), Opcodes.INVOKE_POLYMORPHIC_RANGE);
+        Assert.assertEquals(6, dxPolymorphic.getRegisterCount());
+        Assert.assertEquals(0, dxPolymorphic.getA());
+        assertPolymorphicIndexes(dex, dxPolymorphic, "LLLLLL");
+    }
+
+    @Test
+    public void magicFollowsRequestedVersion() {
+        List<DexInsnNode> insns = new ArrayList<>();
+        for (DexFileVersion version : DexFileVersion.VERSIONS) {
+            byte[] dexBytes = write(createDexFile(version, 0, insns));
+            Assert.assertEquals("dex\n" + version.dexVersion + "\0", magic(dexBytes));
+            Assert.assertEquals(0, mapItemCount(dexBytes, TYPE_CALL_SITE_ID_ITEM));
+            Assert.assertEquals(0, mapItemCount(dexBytes, TYPE_METHOD_HANDLE_ITEM));
+        }
+    }
+
+    private void assertRejected(DexFileVersion version, DexInsnNode insn) {
+        try {
+            write(createDexFile(version, 2, Arrays.asList(insn)));
+            Assert.fail(Dops.dopFor(((DexConstInsnNode) insn).getOpcode()).getOpcodeName()
+                    + " accepted for dex " + version.dexVersion);
+        } catch (IllegalStateException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("requires dex version"));
+        }
+    }
+
+    @Test
+    public void rejectsFeaturesBelowTheirVersion() {
+        DexRegister v0 = DexRegister.makeLocalReg(0);
+        DexRegister v1 = DexRegister.makeLocalReg(1);
+        DexInsnNode invokeCustom = new DexConstInsnNode(Dops.INVOKE_CUSTOM,
+                DexRegisterList.make(v1), mCallSite);
+        DexInsnNode invokePolymorphic = new DexConstInsnNode(Dops.INVOKE_POLYMORPHIC,
+                DexRegisterList.make(v0, v1), mInvoke);
+        DexInsnNode constMethodHandle = new DexConstInsnNode(Dops.CONST_METHOD_HANDLE,
+                DexRegisterList.make(v0), mBootstrap);
+        DexInsnNode constMethodType = new DexConstInsnNode(Dops.CONST_METHOD_TYPE,
+                DexRegisterList.make(v0), mProto);
+
+        for (DexInsnNode insn : Arrays.asList(invokeCustom, invokePolymorphic,
+                constMethodHandle, constMethodType)) {
+            assertRejected(DexFileVersion.ANDROID_API_3_2, insn);
+            assertRejected(DexFileVersion.ANDROID_API_7_0, insn);
+        }
+        // const-method-handle与const-method-type从039开始支持
+        assertRejected(DexFileVersion.ANDROID_API_8_0, constMethodHandle);
+        assertRejected(DexFileVersion.ANDROID_API_8_0, constMethodType);
+    }
+
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) Baidu Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.baidu.titan.dex.tests;
+
+import com.baidu.titan.dex.DexItemFactory;
+import com.baidu.titan.dex.Dops;
+import com.baidu.titan.dex.node.DexClassNode;
+import com.baidu.titan.dex.node.DexCodeNode;
+import com.baidu.titan.dex.node.DexFileNode;
+import com.baidu.titan.dex.reader.DexFileReader;
+import com.baidu.titan.dex.visitor.DexCodeVisitor;
+import com.baidu.titan.dexlib.dex.ClassData;
+import com.baidu.titan.dexlib.dex.Dex;
+import com.baidu.titan.dexlib.dx.io.instructions.DecodedInstruction;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+/**
+ * 超大方法（1万条以上指令）的写入与回放。<br>
+ * 计时部分默认不运行，见{@link Benchmarks}
+ *
+ * @author zhangdi07@baidu.com
+ * @since 2019/3/18
+ */
+public class LargeMethodBenchmarkTest {
+
+    private static final int ROUNDS = 5;
+
+    @Test
+    public void relaxedBranchesKeepTargets() throws Exception {
+        DexItemFactory factory = new DexItemFactory();
+        DexClassNode dcn = LargeMethodFixtures.createLargeMethodClass(factory, 40000, false);
+        byte[] dexBytes = LargeMethodFixtures.writeDex(dcn);
+        Assert.assertEquals(LargeMethodFixtures.branchTargets(dcn.getMethods().get(0).getCode()),
+                LargeMethodFixtures.decodeBranchTargets(dexBytes));
+
+        // 确认确实发生了条件跳转反转以及goto加宽
+        Dex dex = new Dex(dexBytes);
+        ClassData classData = dex.readClassData(dex.classDefs().iterator().next());
+        int reversed = 0;
+        int wideGotos = 0;
+        for (DecodedInstruction insn : DecodedInstruction.decodeAll(
+                dex.readCode(classData.allMethods()[0]).getInstructions())) {
+            if (insn == null) {
+                continue;
+            }
+            if (insn.getOpcode() == Dops.IF_NEZ) {
+                reversed++;
+            } else if (insn.getOpcode() == Dops.GOTO_16 || insn.getOpcode() == Dops.GOTO_32) {
+                wideGotos++;
+            }
+        }
+        Assert.assertTrue(reversed > 0);
+        Assert.assertTrue(wideGotos > 0);
+    }
+
+    @Test
+    public void replayMatchesLegacy() {
+        DexClassNode dcn = LargeMethodFixtures.createLargeMethodClass(new DexItemFactory(), 10000,
+                true);
+        DexCodeNode code = dcn.getMethods().get(0).getCode();
+        LargeMethodFixtures.EventRecorder expected = new LargeMethodFixtures.EventRecorder();
+        LargeMethodFixtures.legacyAccept(code, expected);
+        LargeMethodFixtures.EventRecorder actual = new LargeMethodFixtures.EventRecorder();
+        code.accept(actual);
+        Assert.assertEquals(expected.toString(), actual.toString());
+    }
+
+    @Test
+    public void benchmarkBranchRelaxation() throws Exception {
+        Benchmarks.assumeEnabled();
+        DexItemFactory factory = new DexItemFactory();
+        for (int insnCount : new int[] {10000, 40000, 160000}) {
+            // 不生成行号，只衡量指令格式选择与分支松弛
+            DexClassNode dcn = LargeMethodFixtures.createLargeMethodClass(factory, insnCount,
+                    false);
+            DexCodeNode code = dcn.getMethods().get(0).getCode();
+            List<String> expected = LargeMethodFixtures.branchTargets(code);
+            // warm up
+            byte[] dexBytes = null;
+            for (int i = 0; i < ROUNDS; i++) {
+                dexBytes = LargeMethodFixtures.writeDex(dcn);
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < ROUNDS; i++) {
+                dexBytes = LargeMethodFixtures.writeDex(dcn);
+            }
+            long avgMs = (System.nanoTime() - start) / ROUNDS / 1000000;
+            System.out.println("write method with " + insnCount + " insns: " + avgMs + " ms, dex size "
+                    + dexBytes.length);
+
+            DexFileNode readBack = new DexFileNode();
+            new DexFileReader(dexBytes).accept(readBack.asVisitor());
+            Assert.assertEquals(1, readBack.getClassesList().size());
+            Assert.assertEquals(expected, LargeMethodFixtures.decodeBranchTargets(dexBytes));
+        }
+    }
+
+    @Test
+    public void benchmarkCodeNodeReplay() {
+        Benchmarks.assumeEnabled();
+        DexItemFactory factory = new DexItemFactory();
+        for (int insnCount : new int[] {10000, 40000, 160000}) {
+            // 每个块一个行号，行号表与Label数量同阶
+            DexClassNode dcn = LargeMethodFixtures.createLargeMethodClass(factory, insnCount, true);
+            DexCodeNode code = dcn.getMethods().get(0).getCode();
+
+            LargeMethodFixtures.EventRecorder expected = new LargeMethodFixtures.EventRecorder();
+            LargeMethodFixtures.legacyAccept(code, expected);
+            LargeMethodFixtures.EventRecorder actual = new LargeMethodFixtures.EventRecorder();
+            code.accept(actual);
+            Assert.assertEquals(expected.toString(), actual.toString());
+
+            DexCodeVisitor sink = new DexCodeVisitor();
+            long start = System.nanoTime();
+            for (int i = 0; i < ROUNDS; i++) {
+                LargeMethodFixtures.legacyAccept(code, sink);
+            }
+            long legacyMs = (System.nanoTime() - start) / ROUNDS / 1000000;
+
+            start = System.nanoTime();
+            for (int i = 0; i < ROUNDS; i++) {
+                code.accept(sink);
+            }
+            long linearMs = (System.nanoTime() - start) / ROUNDS / 1000000;
+            System.out.println("replay method with " + insnCount + " insns, "
+                    + code.getLineNumbers().size() + " lines: legacy " + legacyMs
+                    + " ms, linear " + linearMs + " ms");
+        }
+    }
+
+}
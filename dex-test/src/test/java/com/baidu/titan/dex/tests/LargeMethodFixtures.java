@@ -0,0 +1,322 @@
+/*
+ * Copyright (C) Baidu Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.baidu.titan.dex.tests;
+
+import com.baidu.titan.dex.DexAccessFlags;
+import com.baidu.titan.dex.DexConst;
+import com.baidu.titan.dex.DexItemFactory;
+import com.baidu.titan.dex.DexRegister;
+import com.baidu.titan.dex.DexRegisterList;
+import com.baidu.titan.dex.DexType;
+import com.baidu.titan.dex.DexTypeList;
+import com.baidu.titan.dex.Dops;
+import com.baidu.titan.dex.node.DexClassNode;
+import com.baidu.titan.dex.node.DexCodeNode;
+import com.baidu.titan.dex.node.DexFileNode;
+import com.baidu.titan.dex.node.DexMethodNode;
+import com.baidu.titan.dex.node.insn.DexConstInsnNode;
+import com.baidu.titan.dex.node.insn.DexInsnNode;
+import com.baidu.titan.dex.node.insn.DexLabelNode;
+import com.baidu.titan.dex.node.insn.DexLineNumberNode;
+import com.baidu.titan.dex.node.insn.DexSimpleInsnNode;
+import com.baidu.titan.dex.node.insn.DexTargetInsnNode;
+import com.baidu.titan.dex.node.insn.DexTryCatchNode;
+import com.baidu.titan.dex.visitor.DexCodeVisitor;
+import com.baidu.titan.dex.visitor.DexLabel;
+import com.baidu.titan.dex.writer.DexFileWriter;
+import com.baidu.titan.dexlib.dex.ClassData;
+import com.baidu.titan.dexlib.dex.Dex;
+import com.baidu.titan.dexlib.dx.io.instructions.DecodedInstruction;
+
+import org.junit.Assert;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 超大方法相关测试共用的构造与比较工具，不依赖外部Dex文件
+ *
+ * @author zhangdi07@baidu.com
+ * @since 2019/3/18
+ */
+final class LargeMethodFixtures {
+
+    private static final int BLOCK_SIZE = 8;
+
+    /** goto跳过的块数，保证超出goto的8位偏移 */
+    private static final int GOTO_SPAN = 8;
+
+    private LargeMethodFixtures() {
+    }
+
+    /**
+     * 生成一个包含insnCount条add-int/lit8指令的方法，每个块开头有一个跳到方法末尾的if-eqz，
+     * 以及一个跳过后续若干块的goto，用于触发条件跳转反转以及goto加宽
+     *
+     * @param withLines 是否为每个块生成行号
+     */
+    static DexClassNode createLargeMethodClass(DexItemFactory factory, int insnCount,
+                                               boolean withLines) {
+        DexType owner = factory.createType("Ltitan/bench/LargeMethod;");
+        DexClassNode dcn = new DexClassNode(owner,
+                new DexAccessFlags(DexAccessFlags.ACC_PUBLIC),
+                factory.createType("Ljava/lang/Object;"), DexTypeList.empty());
+
+        DexMethodNode dmn = new DexMethodNode(factory.createString("run"), owner,
+                new DexTypeList(new DexType[] {factory.createType("I")}),
+                factory.createType("V"),
+                new DexAccessFlags(DexAccessFlags.ACC_PUBLIC | DexAccessFlags.ACC_STATIC));
+
+        DexRegister v0 = DexRegister.makeLocalReg(0);
+        DexRegister v1 = DexRegister.makeLocalReg(1);
+        DexRegister p0 = DexRegister.makeParameterReg(0);
+
+        int blockCount = (insnCount + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        DexLabelNode[] blockLabels = new DexLabelNode[blockCount + 1];
+        for (int i = 0; i < blockLabels.length; i++) {
+            blockLabels[i] = new DexLabelNode();
+        }
+        DexLabelNode endLabel = blockLabels[blockCount];
+
+        List<DexInsnNode> insns = new ArrayList<>();
+        List<DexLineNumberNode> lines = new ArrayList<>();
+        insns.add(new DexSimpleInsnNode(Dops.MOVE, DexRegisterList.make(v0, p0)));
+        insns.add(new DexConstInsnNode(Dops.CONST_4, DexRegisterList.make(v1),
+                DexConst.LiteralBits32.make(0)));
+        for (int b = 0; b < blockCount; b++) {
+            insns.add(blockLabels[b]);
+            if (withLines) {
+                lines.add(new DexLineNumberNode(b + 1, blockLabels[b]));
+            }
+            insns.add(new DexTargetInsnNode(Dops.IF_EQZ, DexRegisterList.make(v0), endLabel));
+            insns.add(new DexTargetInsnNode(Dops.GOTO, DexRegisterList.empty(),
+                    blockLabels[Math.min(b + GOTO_SPAN, blockCount)]));
+            for (int i = 0; i < BLOCK_SIZE; i++) {
+                insns.add(new DexConstInsnNode(Dops.ADD_INT_LIT8, DexRegisterList.make(v1, v1),
+                        DexConst.LiteralBits32.make(1)));
+            }
+        }
+        insns.add(endLabel);
+        insns.add(new DexSimpleInsnNode(Dops.RETURN_VOID, DexRegisterList.empty()));
+
+        DexCodeNode code = new DexCodeNode();
+        code.setRegisters(2, 1);
+        code.setInsns(insns);
+        code.setLineNumbers(lines);
+        dmn.setCode(code);
+        dcn.addMethod(dmn);
+        return dcn;
+    }
+
+    static byte[] writeDex(DexClassNode dcn) {
+        DexFileNode dfn = new DexFileNode();
+        dfn.addClass(dcn);
+        DexFileWriter writer = new DexFileWriter();
+        dfn.accept(writer);
+        return writer.toByteArray();
+    }
+
+    /**
+     * 按指令顺序列出方法中的跳转，形如"if-eqz 目标位置"，目标位置为目标之前的add-int/lit8条数，
+     * 与指令长度无关，可以和写入后的结果直接比较
+     */
+    static List<String> branchTargets(DexCodeNode code) {
+        Map<DexLabelNode, Integer> positions = new IdentityHashMap<>();
+        int position = 0;
+        for (DexInsnNode din : code.getInsns()) {
+            if (din instanceof DexLabelNode) {
+                positions.put((DexLabelNode) din, position);
+            } else if (din instanceof DexConstInsnNode
+                    && ((DexConstInsnNode) din).getOpcode() == Dops.ADD_INT_LIT8) {
+                position++;
+            }
+        }
+        List<String> branches = new ArrayList<>();
+        for (DexInsnNode din : code.getInsns()) {
+            if (din instanceof DexTargetInsnNode) {
+                DexTargetInsnNode branch = (DexTargetInsnNode) din;
+                branches.add(branchName(branch.getOpcode()) + " "
+                        + positions.get(branch.getTarget()));
+            }
+        }
+        return branches;
+    }
+
+    /**
+     * 直接解码写入后的code_item，格式同{@link #branchTargets(DexCodeNode)}。<br>
+     * 超出范围的条件跳转会被反转为"if-反向 skip; goto target; skip:"，这里还原为原来的条件跳转，
+     * goto/16、goto/32统一视为goto。
+     * 不使用DexFileReader，因为它会丢弃不可达的指令
+     */
+    static List<String> decodeBranchTargets(byte[] dexBytes) throws IOException {
+        Dex dex = new Dex(dexBytes);
+        ClassData classData = dex.readClassData(dex.classDefs().iterator().next());
+        short[] units = dex.readCode(classData.allMethods()[0]).getInstructions();
+        DecodedInstruction[] decoded = DecodedInstruction.decodeAll(units);
+
+        int[] positions = new int[units.length + 1];
+        int position = 0;
+        for (int address = 0; address < units.length; address++) {
+            positions[address] = position;
+            if (decoded[address] != null && decoded[address].getOpcode() == Dops.ADD_INT_LIT8) {
+                position++;
+            }
+        }
+        positions[units.length] = position;
+
+        List<String> branches = new ArrayList<>();
+        for (int address = 0; address < units.length; address++) {
+            DecodedInstruction insn = decoded[address];
+            if (insn == null || !isBranch(insn.getOpcode())) {
+                continue;
+            }
+            int next = nextAddress(decoded, address);
+            if (!isGoto(insn.getOpcode()) && next < units.length
+                    && isGoto(decoded[next].getOpcode())
+                    && insn.getTarget() == nextAddress(decoded, next)) {
+                int op = insn.getOpcode() == Dops.IF_NEZ ? Dops.IF_EQZ : Dops.IF_NEZ;
+                branches.add(branchName(op) + " " + positions[decoded[next].getTarget()]);
+                address = next;
+                continue;
+            }
+            branches.add(branchName(insn.getOpcode()) + " " + positions[insn.getTarget()]);
+        }
+        return branches;
+    }
+
+    private static int nextAddress(DecodedInstruction[] decoded, int address) {
+        int next = address + 1;
+        while (next < decoded.length && decoded[next] == null) {
+            next++;
+        }
+        return next;
+    }
+
+    private static boolean isGoto(int op) {
+        return op == Dops.GOTO || op == Dops.GOTO_16 || op == Dops.GOTO_32;
+    }
+
+    private static boolean isBranch(int op) {
+        return isGoto(op) || op == Dops.IF_EQZ || op == Dops.IF_NEZ;
+    }
+
+    private static String branchName(int op) {
+        if (isGoto(op)) {
+            return "goto";
+        }
+        Assert.assertTrue("unexpected branch " + op, op == Dops.IF_EQZ || op == Dops.IF_NEZ);
+        return op == Dops.IF_EQZ ? "if-eqz" : "if-nez";
+    }
+
+    /**
+     * 原先的回放实现：每个Label都遍历一遍完整的行号表，作为对照
+     */
+    static void legacyAccept(DexCodeNode code, DexCodeVisitor dcv) {
+        dcv.visitBegin();
+        dcv.visitRegisters(code.getLocalRegCount(), code.getParameterRegCount());
+        Map<DexLabelNode, DexLabel> labelMap = new HashMap<>();
+        for (DexTryCatchNode dtcn : code.getTryCatches()) {
+            DexLabel[] handlers = null;
+            if (dtcn.getHandlers() != null && dtcn.getHandlers().length > 0) {
+                handlers = new DexLabel[dtcn.getHandlers().length];
+                for (int i = 0; i < handlers.length; i++) {
+                    handlers[i] = labelMap.computeIfAbsent(dtcn.getHandlers()[i],
+                            k -> new DexLabel());
+                }
+            }
+            dcv.visitTryCatch(labelMap.computeIfAbsent(dtcn.getStart(), k -> new DexLabel()),
+                    labelMap.computeIfAbsent(dtcn.getEnd(), k -> new DexLabel()),
+                    dtcn.getTypes(), handlers, dtcn.getCatchAllHandler() == null ? null :
+                            labelMap.computeIfAbsent(dtcn.getCatchAllHandler(),
+                                    k -> new DexLabel()));
+        }
+        for (DexInsnNode din : code.getInsns()) {
+            if (din instanceof DexSimpleInsnNode) {
+                DexSimpleInsnNode dsin = (DexSimpleInsnNode) din;
+                dcv.visitSimpleInsn(dsin.getOpcode(), dsin.getRegisters());
+            } else if (din instanceof DexConstInsnNode) {
+                DexConstInsnNode dcin = (DexConstInsnNode) din;
+                dcv.visitConstInsn(dcin.getOpcode(), dcin.getRegisters(), dcin.getConst());
+            } else if (din instanceof DexTargetInsnNode) {
+                DexTargetInsnNode dtin = (DexTargetInsnNode) din;
+                dcv.visitTargetInsn(dtin.getOpcode(), dtin.getRegisters(),
+                        labelMap.computeIfAbsent(dtin.getTarget(), k -> new DexLabel()));
+            } else if (din instanceof DexLabelNode) {
+                DexLabel dexLabel = labelMap.computeIfAbsent((DexLabelNode) din,
+                        k -> new DexLabel());
+                for (DexLineNumberNode lineNumNode : code.getLineNumbers()) {
+                    if (din == lineNumNode.getStartLabel()) {
+                        dcv.visitLineNumber(lineNumNode.getLineNumber(), dexLabel);
+                    }
+                }
+                dcv.visitLabel(dexLabel);
+            }
+        }
+        dcv.visitEnd();
+    }
+
+    /**
+     * 记录回放事件，Label按首次出现的顺序编号，用于比较两种回放的输出
+     */
+    static class EventRecorder extends DexCodeVisitor {
+
+        private final Map<DexLabel, Integer> mLabelIds = new IdentityHashMap<>();
+
+        private final StringBuilder mEvents = new StringBuilder();
+
+        private int labelId(DexLabel label) {
+            return mLabelIds.computeIfAbsent(label, k -> mLabelIds.size());
+        }
+
+        @Override
+        public void visitLabel(DexLabel label) {
+            mEvents.append("label ").append(labelId(label)).append('\n');
+        }
+
+        @Override
+        public void visitLineNumber(int line, DexLabel start) {
+            mEvents.append("line ").append(line).append(' ').append(labelId(start)).append('\n');
+        }
+
+        @Override
+        public void visitTargetInsn(int op, DexRegisterList regs, DexLabel label) {
+            mEvents.append("target ").append(op).append(' ').append(labelId(label)).append('\n');
+        }
+
+        @Override
+        public void visitConstInsn(int op, DexRegisterList regs, DexConst dexConst) {
+            mEvents.append("const ").append(op).append('\n');
+        }
+
+        @Override
+        public void visitSimpleInsn(int op, DexRegisterList regs) {
+            mEvents.append("simple ").append(op).append('\n');
+        }
+
+        @Override
+        public String toString() {
+            return mEvents.toString();
+        }
+
+    }
+
+}
+
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) Baidu Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.baidu.titan.dex.tests;
+
+import com.baidu.titan.dex.DexAccessFlags;
+import com.baidu.titan.dex.DexConst;
+import com.baidu.titan.dex.DexItemFactory;
+import com.baidu.titan.dex.DexRegister;
+import com.baidu.titan.dex.DexRegisterList;
+import com.baidu.titan.dex.DexType;
+import com.baidu.titan.dex.DexTypeList;
+import com.baidu.titan.dex.Dops;
+import com.baidu.titan.dex.extensions.DexCodeFormatVerifier;
+import com.baidu.titan.dex.extensions.MultiDexCodeVerifier;
+import com.baidu.titan.dex.node.DexClassNode;
+import com.baidu.titan.dex.node.DexCodeNode;
+import com.baidu.titan.dex.node.DexFileNode;
+import com.baidu.titan.dex.node.DexMethodNode;
+import com.baidu.titan.dex.node.MultiDexFileNode;
+import com.baidu.titan.dex.node.insn.DexConstInsnNode;
+import com.baidu.titan.dex.node.insn.DexInsnNode;
+import com.baidu.titan.dex.node.insn.DexLabelNode;
+import com.baidu.titan.dex.node.insn.DexSimpleInsnNode;
+import com.baidu.titan.dex.node.insn.DexTargetInsnNode;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * 对整个MultiDexFileNode并行进行结构检查
+ *
+ * @author zhangdi07@baidu.com
+ * @since 2019/3/31
+ */
+public class MultiDexCodeVerifierTest {
+
+    private static void addMethod(DexItemFactory factory, DexClassNode dcn, String name,
+                                  DexType[] parameters, int localRegs, int paraRegs,
+                                  DexInsnNode... insns) {
+        DexMethodNode dmn = new DexMethodNode(factory.createString(name), dcn.type,
+                new DexTypeList(parameters), factory.createType("V"),
+                new DexAccessFlags(DexAccessFlags.ACC_PUBLIC | DexAccessFlags.ACC_STATIC));
+        List<DexInsnNode> insnList = new ArrayList<>(Arrays.asList(insns));
+        insnList.add(new DexSimpleInsnNode(Dops.RETURN_VOID, DexRegisterList.empty()));
+        DexCodeNode code = new DexCodeNode();
+        code.setRegisters(localRegs, paraRegs);
+        code.setInsns(insnList);
+        dmn.setCode(code);
+        dcn.addMethod(dmn);
+    }
+
+    private static DexClassNode createBrokenClass(DexItemFactory factory, String name) {
+        DexType type = factory.createType(name);
+        DexClassNode dcn = new DexClassNode(type, new DexAccessFlags(DexAccessFlags.ACC_PUBLIC),
+                factory.createType("Ljava/lang/Object;"), DexTypeList.empty());
+        DexType[] none = new DexType[0];
+        DexRegister v0 = DexRegister.makeLocalReg(0);
+        DexRegister v1 = DexRegister.makeLocalReg(1);
+
+        addMethod(factory, dcn, "valid", none, 1, 0,
+                new DexConstInsnNode(Dops.CONST_4, DexRegisterList.make(v0),
+                        DexConst.LiteralBits32.make(1)));
+        // 使用v1但只声明了一个寄存器
+        addMethod(factory, dcn, "tooFewLocals", none, 1, 0,
+                new DexSimpleInsnNode(Dops.MOVE, DexRegisterList.make(v0, v1)));
+        // 宽寄存器v0占用v0、v1
+        addMethod(factory, dcn, "widePair", none, 1, 0,
+                new DexConstInsnNode(Dops.CONST_WIDE_16,
+                        DexRegisterList.make(DexRegister.makeDoubleLocalReg(0)),
+                        DexConst.LiteralBits64.make(1)));
+        // 方法原型有一个int参数
+        addMethod(factory, dcn, "paraCount", new DexType[] {factory.createType("I")}, 0, 0);
+        // 调用无参静态方法却传入一个寄存器
+        addMethod(factory, dcn, "invokeOperands", none, 1, 0,
+                new DexConstInsnNode(Dops.INVOKE_STATIC, DexRegisterList.make(v0),
+                        DexConst.ConstMethodRef.make(type, factory.createString("valid"),
+                                factory.createType("V"), DexTypeList.empty())));
+        // 跳转到没有放置的Label
+        addMethod(factory, dcn, "missingLabel", none, 0, 0,
+                new DexTargetInsnNode(Dops.GOTO, DexRegisterList.empty(), new DexLabelNode()));
+        return dcn;
+    }
+
+    @Test
+    public void collectIssues() {
+        DexItemFactory factory = new DexItemFactory();
+        MultiDexFileNode mdfn = new MultiDexFileNode();
+        DexFileNode dex1 = new DexFileNode();
+        dex1.addClass(LargeMethodFixtures.createLargeMethodClass(factory, 1000, true));
+        dex1.addClass(createBrokenClass(factory, "Ltitan/verify/Broken1;"));
+        mdfn.addDexFile(1, dex1);
+        DexFileNode dex2 = new DexFileNode();
+        dex2.addClass(createBrokenClass(factory, "Ltitan/verify/Broken2;"));
+        mdfn.addDexFile(2, dex2);
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        MultiDexCodeVerifier.Report report = new MultiDexCodeVerifier().verify(mdfn, pool);
+        System.out.print(report);
+        Assert.assertEquals(13, report.getVerifiedMethodCount());
+        Assert.assertFalse(report.isStopped());
+        Assert.assertEquals(10, report.getIssues().size());
+        Assert.assertEquals(6,
+                report.getIssueCount(DexCodeFormatVerifier.ERROR_REGISTER_COUNT));
+        Assert.assertEquals(2,
+                report.getIssueCount(DexCodeFormatVerifier.ERROR_INVOKE_OPERANDS));
+        Assert.assertEquals(2, report.getIssueCount(DexCodeFormatVerifier.ERROR_LABEL));
+        Assert.assertTrue(report.getIssues(factory.createType("Ltitan/bench/LargeMethod;"))
+                .isEmpty());
+
+        // 问题按Dex、类、方法的顺序排列
+        List<MultiDexCodeVerifier.Issue> issues =
+                report.getIssues(factory.createType("Ltitan/verify/Broken1;"));
+        Assert.assertEquals(5, issues.size());
+        Assert.assertEquals("tooFewLocals", issues.get(0).getMethod().name.toString());
+        Assert.assertEquals("missingLabel", issues.get(4).getMethod().name.toString());
+        Assert.assertSame(issues.get(0), report.getIssues().get(0));
+
+        MultiDexCodeVerifier limited = new MultiDexCodeVerifier();
+        limited.setMaxErrors(3);
+        MultiDexCodeVerifier.Report limitedReport = limited.verify(mdfn, pool);
+        pool.shutdown();
+        Assert.assertTrue(limitedReport.isStopped());
+        Assert.assertEquals(3, limitedReport.getIssues().size());
+    }
+
+}
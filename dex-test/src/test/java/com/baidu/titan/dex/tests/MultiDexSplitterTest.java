@@ -0,0 +1,536 @@
+/*
+ * Copyright (C) Baidu Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.baidu.titan.dex.tests;
+
+import com.baidu.titan.dex.DexAccessFlags;
+import com.baidu.titan.dex.DexConst;
+import com.baidu.titan.dex.DexItemFactory;
+import com.baidu.titan.dex.DexRegister;
+import com.baidu.titan.dex.DexRegisterList;
+import com.baidu.titan.dex.DexType;
+import com.baidu.titan.dex.DexTypeList;
+import com.baidu.titan.dex.Dops;
+import com.baidu.titan.dex.extensions.BestEffortMultiDexSplitter;
+import com.baidu.titan.dex.extensions.BinPackingMultiDexSplitter;
+import com.baidu.titan.dex.extensions.DexIdsBitSet;
+import com.baidu.titan.dex.extensions.DexRefIndex;
+import com.baidu.titan.dex.extensions.DexSplitLayout;
+import com.baidu.titan.dex.extensions.GraphPartitionMultiDexSplitter;
+import com.baidu.titan.dex.extensions.IncrementalMultiDexSplitter;
+import com.baidu.titan.dex.extensions.MarkedMultiDexSplitter;
+import com.baidu.titan.dex.extensions.MultiDexSplitter;
+import com.baidu.titan.dex.extensions.ProfileGuidedMultiDexSplitter;
+import com.baidu.titan.dex.extensions.StartupProfile;
+import com.baidu.titan.dex.node.DexClassNode;
+import com.baidu.titan.dex.node.DexClassPoolNode;
+import com.baidu.titan.dex.node.DexCodeNode;
+import com.baidu.titan.dex.node.DexFileNode;
+import com.baidu.titan.dex.node.DexMethodNode;
+import com.baidu.titan.dex.node.MultiDexFileNode;
+import com.baidu.titan.dex.node.insn.DexConstInsnNode;
+import com.baidu.titan.dex.node.insn.DexInsnNode;
+import com.baidu.titan.dex.node.insn.DexSimpleInsnNode;
+import com.baidu.titan.dex.util.DexIdsCollector;
+import com.baidu.titan.dex.writer.DexFileWriter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntFunction;
+import java.util.stream.Collectors;
+
+/**
+ * 基于位集合容量模型的多Dex分包
+ *
+ * @author zhangdi07@baidu.com
+ * @since 2019/3/28
+ */
+public class MultiDexSplitterTest {
+
+    /**
+     * 创建一个类池，每个类声明methodCount个方法，其中第一个方法调用
+     * sharedCount个公共方法之一，模拟类之间共享的引用。方法名带上类的序号，
+     * 避免"C1->m12"与"C11->m2"之类的哈希冲突让HashMap退化
+     */
+    static DexClassPoolNode createClassPool(DexItemFactory factory, int classCount,
+                                            int methodCount, int sharedCount) {
+        DexClassPoolNode pool = new DexClassPoolNode();
+        for (int c = 0; c < classCount; c++) {
+            pool.addClass(createClass(factory, c, methodCount, sharedCount));
+        }
+        return pool;
+    }
+
+    static DexClassNode createClass(DexItemFactory factory, int c, int methodCount,
+                                    int sharedCount) {
+        DexType voidType = factory.createType("V");
+        DexType sharedType = factory.createType("Ltitan/split/Shared;");
+        DexType type = factory.createType("Ltitan/split/C" + c + ";");
+        DexClassNode dcn = new DexClassNode(type,
+                new DexAccessFlags(DexAccessFlags.ACC_PUBLIC),
+                factory.createType("Ljava/lang/Object;"), DexTypeList.empty());
+        for (int m = 0; m < methodCount; m++) {
+            DexMethodNode dmn = new DexMethodNode(factory.createString("c" + c + "_m" + m), type,
+                    DexTypeList.empty(), voidType,
+                    new DexAccessFlags(DexAccessFlags.ACC_PUBLIC | DexAccessFlags.ACC_STATIC));
+            List<DexInsnNode> insns = new ArrayList<>();
+            if (m == 0 && sharedCount > 0) {
+                insns.add(new DexConstInsnNode(Dops.INVOKE_STATIC, DexRegisterList.empty(),
+                        DexConst.ConstMethodRef.make(sharedType,
+                                factory.createString("s" + (c % sharedCount)), voidType,
+                                DexTypeList.empty())));
+            }
+            insns.add(new DexSimpleInsnNode(Dops.RETURN_VOID, DexRegisterList.empty()));
+            DexCodeNode code = new DexCodeNode();
+            code.setRegisters(0, 0);
+            code.setInsns(insns);
+            dmn.setCode(code);
+            dcn.addMethod(dmn);
+        }
+        return dcn;
+    }
+
+    /**
+     * 创建一个只有一个方法的类，方法体依次引用count个类型或字符串常量
+     *
+     * @param constType 引用类型时为true，引用字符串时为false
+     */
+    static DexClassNode createConstClass(DexItemFactory factory, String name, int first,
+                                         int count, boolean constType) {
+        DexType type = factory.createType("Ltitan/split/" + name + ";");
+        DexClassNode dcn = new DexClassNode(type, new DexAccessFlags(DexAccessFlags.ACC_PUBLIC),
+                factory.createType("Ljava/lang/Object;"), DexTypeList.empty());
+        DexMethodNode dmn = new DexMethodNode(factory.createString("run"), type,
+                DexTypeList.empty(), factory.createType("V"),
+                new DexAccessFlags(DexAccessFlags.ACC_PUBLIC | DexAccessFlags.ACC_STATIC));
+        DexRegisterList v0 = DexRegisterList.make(DexRegister.makeLocalReg(0));
+        List<DexInsnNode> insns = new ArrayList<>();
+        for (int i = first; i < first + count; i++) {
+            insns.add(constType
+                    ? new DexConstInsnNode(Dops.CONST_CLASS, v0,
+                            DexConst.ConstType.make(factory.createType("Ltitan/ref/T" + i + ";")))
+                    : new DexConstInsnNode(Dops.CONST_STRING, v0,
+                            DexConst.ConstString.make("s" + i)));
+        }
+        insns.add(new DexSimpleInsnNode(Dops.RETURN_VOID, DexRegisterList.empty()));
+        DexCodeNode code = new DexCodeNode();
+        code.setRegisters(1, 0);
+        code.setInsns(insns);
+        dmn.setCode(code);
+        dcn.addMethod(dmn);
+        return dcn;
+    }
+
+    /**
+     * 创建一个声明methodCount个方法的类，第一个方法依次调用callee中前callCount个方法
+     */
+    static DexClassNode createCallerClass(DexItemFactory factory, String name, int methodCount,
+                                          String callee, int callCount) {
+        DexType voidType = factory.createType("V");
+        DexType type = factory.createType("Ltitan/graph/" + name + ";");
+        DexType calleeType = factory.createType("Ltitan/graph/" + callee + ";");
+        DexClassNode dcn = new DexClassNode(type, new DexAccessFlags(DexAccessFlags.ACC_PUBLIC),
+                factory.createType("Ljava/lang/Object;"), DexTypeList.empty());
+        for (int m = 0; m < methodCount; m++) {
+            DexMethodNode dmn = new DexMethodNode(factory.createString(name + "_m" + m), type,
+                    DexTypeList.empty(), voidType,
+                    new DexAccessFlags(DexAccessFlags.ACC_PUBLIC | DexAccessFlags.ACC_STATIC));
+            List<DexInsnNode> insns = new ArrayList<>();
+            for (int i = 0; m == 0 && i < callCount; i++) {
+                insns.add(new DexConstInsnNode(Dops.INVOKE_STATIC, DexRegisterList.empty(),
+                        DexConst.ConstMethodRef.make(calleeType,
+                                factory.createString(callee + "_m" + i), voidType,
+                                DexTypeList.empty())));
+            }
+            insns.add(new DexSimpleInsnNode(Dops.RETURN_VOID, DexRegisterList.empty()));
+            DexCodeNode code = new DexCodeNode();
+            code.setRegisters(0, 0);
+            code.setInsns(insns);
+            dmn.setCode(code);
+            dcn.addMethod(dmn);
+        }
+        return dcn;
+    }
+
+    /**
+     * 原先的分包方式：由DexFileNode收集ID并逐个检查，作为对照
+     */
+    private static Map<DexType, Integer> legacySplit(DexClassPoolNode pool) {
+        DexIdsCollector.Cache cache = new DexIdsCollector.Cache();
+        List<DexClassNode> classes = pool.stream()
+                .sorted(Comparator.comparing(dcn -> dcn.type.toTypeDescriptor().replace('$', '0')))
+                .collect(Collectors.toList());
+        Map<DexType, Integer> assignment = new HashMap<>();
+        int dexId = 1;
+        DexFileNode dfn = new DexFileNode(true, cache);
+        for (DexClassNode dcn : classes) {
+            if (!dfn.addClass(dcn)) {
+                dfn = new DexFileNode(true, cache);
+                dexId++;
+                Assert.assertTrue(dfn.addClass(dcn));
+            }
+            assignment.put(dcn.type, dexId);
+        }
+        return assignment;
+    }
+
+    @Test
+    public void bitSet() {
+        DexIdsBitSet bits = new DexIdsBitSet(10);
+        Assert.assertEquals(3, bits.addAll(new int[] {1, 63, 64}));
+        Assert.assertEquals(2, bits.countNew(new int[] {0, 1, 63, 64, 200}));
+        Assert.assertEquals(2, bits.addAll(new int[] {0, 1, 63, 64, 200}));
+        Assert.assertTrue(bits.contains(200));
+        Assert.assertFalse(bits.contains(199));
+        Assert.assertEquals(5, bits.cardinality());
+    }
+
+    @Test
+    public void splitMatchesLegacy() {
+        DexItemFactory factory = new DexItemFactory();
+        DexClassPoolNode pool = createClassPool(factory, 400, 500, 50);
+
+        long start = System.nanoTime();
+        Map<DexType, Integer> expected = legacySplit(pool);
+        long legacyMs = (System.nanoTime() - start) / 1000000;
+
+        start = System.nanoTime();
+        BestEffortMultiDexSplitter splitter = new BestEffortMultiDexSplitter(pool, null, false);
+        Assert.assertEquals(MultiDexSplitter.SPLIT_SUCCESS, splitter.split());
+        long bitSetMs = (System.nanoTime() - start) / 1000000;
+        System.out.println("split " + pool.size() + " classes: legacy " + legacyMs
+                + " ms, bitset " + bitSetMs + " ms");
+
+        MultiDexFileNode mdfn = splitter.getMultiDexFileNode();
+        Assert.assertEquals(4, mdfn.getDexNodes().size());
+        for (Map.Entry<Integer, DexFileNode> entry : mdfn.getDexNodes().entrySet()) {
+            DexFileNode dfn = entry.getValue();
+            for (DexClassNode dcn : dfn.getClassesList()) {
+                Assert.assertEquals(expected.get(dcn.type), entry.getKey());
+            }
+            dfn.setCheckDexIdCount(true);
+            Assert.assertTrue(dfn.getMethodIds().size() <= 0x10000);
+        }
+    }
+
+    @Test
+    public void typeIdLimit() {
+        DexItemFactory factory = new DexItemFactory();
+        DexClassPoolNode pool = new DexClassPoolNode();
+        // 8个类共引用80000个不同类型，MethodID远未超限，只能按TypeID分包
+        for (int i = 0; i < 8; i++) {
+            pool.addClass(createConstClass(factory, "T" + i, i * 10000, 10000, true));
+        }
+        BestEffortMultiDexSplitter splitter = new BestEffortMultiDexSplitter(pool, null, false);
+        Assert.assertEquals(MultiDexSplitter.SPLIT_SUCCESS, splitter.split());
+        Assert.assertNull(splitter.getErrorMessage());
+        MultiDexFileNode mdfn = splitter.getMultiDexFileNode();
+        Assert.assertEquals(2, mdfn.getDexNodes().size());
+        for (DexFileNode dfn : mdfn.getDexNodes().values()) {
+            dfn.setCheckDexIdCount(true);
+            Assert.assertTrue(dfn.getTypeIds().size() <= 0x10000);
+        }
+    }
+
+    @Test
+    public void stringIdBudget() {
+        DexItemFactory factory = new DexItemFactory();
+        DexClassPoolNode pool = new DexClassPoolNode();
+        pool.addClass(createConstClass(factory, "Small", 0, 100, false));
+        pool.addClass(createConstClass(factory, "Huge", 0, 3000, false));
+
+        BestEffortMultiDexSplitter splitter = new BestEffortMultiDexSplitter(pool, null, false);
+        splitter.setStringIdLimit(1000);
+        Assert.assertEquals(MultiDexSplitter.SPLIT_ERROR_TOO_MANY_STRING_IDS, splitter.split());
+        String message = splitter.getErrorMessage();
+        Assert.assertTrue(message, message.contains("Ltitan/split/Huge;"));
+        Assert.assertTrue(message, message.contains("string ids"));
+
+        for (DexClassNode dcn : pool.stream().collect(Collectors.toList())) {
+            MarkedMultiDexSplitter.setDexIdForClassNode(dcn, 1);
+        }
+        MarkedMultiDexSplitter marked = new MarkedMultiDexSplitter(pool);
+        Assert.assertEquals(MultiDexSplitter.SPLIT_SUCCESS, marked.split());
+        marked = new MarkedMultiDexSplitter(pool);
+        marked.setStringIdLimit(1000);
+        Assert.assertEquals(MultiDexSplitter.SPLIT_ERROR_TOO_MANY_STRING_IDS, marked.split());
+        Assert.assertTrue(marked.getErrorMessage().contains("does not fit in dex 1"));
+    }
+
+    /**
+     * 装箱测试把MethodID上限缩小为1/100，类的方法数同比缩小，
+     * 各个类能否放进同一个Dex与使用真实上限时完全一致，只是构造与计算的开销小得多
+     */
+    private static final int SCALED_METHOD_ID_LIMIT = 0x10000 / 100;
+
+    private static <T extends MultiDexSplitter> T scaled(T splitter) {
+        splitter.setIdLimit(DexRefIndex.KIND_METHOD, SCALED_METHOD_ID_LIMIT);
+        return splitter;
+    }
+
+    private static int checkedDexCount(MultiDexSplitter splitter, DexClassPoolNode pool) {
+        return checkedDexCount(splitter, pool, 0x10000);
+    }
+
+    private static int checkedDexCount(MultiDexSplitter splitter, DexClassPoolNode pool,
+                                       int methodIdLimit) {
+        Assert.assertEquals(MultiDexSplitter.SPLIT_SUCCESS, splitter.split());
+        int classCount = 0;
+        for (DexFileNode dfn : splitter.getMultiDexFileNode().getDexNodes().values()) {
+            classCount += dfn.getClassesList().size();
+            dfn.setCheckDexIdCount(true);
+            Assert.assertTrue(dfn.getMethodIds().size() <= methodIdLimit);
+        }
+        Assert.assertEquals(pool.size(), classCount);
+        return splitter.getMultiDexFileNode().getDexNodes().size();
+    }
+
+    @Test
+    public void binPacking() {
+        DexItemFactory factory = new DexItemFactory();
+        // 按名称贪心时为{C0}{C1,C2}{C3}
+        DexClassPoolNode pool = new DexClassPoolNode();
+        int[] sizes = {350, 350, 300, 300};
+        for (int i = 0; i < sizes.length; i++) {
+            pool.addClass(createClass(factory, i, sizes[i], 0));
+        }
+        Assert.assertEquals(3, checkedDexCount(
+                scaled(new BestEffortMultiDexSplitter(pool, null, false)), pool,
+                SCALED_METHOD_ID_LIMIT));
+        Assert.assertEquals(2, checkedDexCount(
+                scaled(new BinPackingMultiDexSplitter(pool, null, false)), pool,
+                SCALED_METHOD_ID_LIMIT));
+
+        // 4,4,3,3,3,3装入容量为10的箱子：降序首次适应需要3个，局部搜索可以找到2个
+        pool = new DexClassPoolNode();
+        sizes = new int[] {260, 260, 195, 195, 195, 195};
+        for (int i = 0; i < sizes.length; i++) {
+            pool.addClass(createClass(factory, 10 + i, sizes[i], 0));
+        }
+        Assert.assertEquals(3, checkedDexCount(
+                scaled(new BinPackingMultiDexSplitter(pool, null, false)), pool,
+                SCALED_METHOD_ID_LIMIT));
+        BinPackingMultiDexSplitter splitter =
+                scaled(new BinPackingMultiDexSplitter(pool, null, false));
+        splitter.setLocalSearchTimeBudget(2000);
+        long start = System.nanoTime();
+        Assert.assertEquals(2, checkedDexCount(splitter, pool, SCALED_METHOD_ID_LIMIT));
+        System.out.println("local search: " + (System.nanoTime() - start) / 1000000 + " ms");
+    }
+
+    @Test
+    public void profileGuided() throws Exception {
+        DexItemFactory factory = new DexItemFactory();
+        DexClassPoolNode pool = new DexClassPoolNode();
+        for (int i = 0; i < 6; i++) {
+            pool.addClass(createClass(factory, i, 300, 0));
+        }
+        StartupProfile profile = StartupProfile.parse(new StringReader(
+                "# startup\n"
+                        + "HSPLtitan/split/C3;->c3_m0()V\n"
+                        + "Ltitan/split/C3;\n"
+                        + "titan.split.C1\n"
+                        + "HSPLtitan/split/**->**(**)**\n"
+                        + "gone/Missing.class\n"
+                        + "PLtitan/split/C5;->c5_m1()V\n"), factory);
+        Assert.assertEquals(Arrays.asList(factory.createType("Ltitan/split/C3;"),
+                factory.createType("Ltitan/split/C1;"), factory.createType("Lgone/Missing;"),
+                factory.createType("Ltitan/split/C5;")), profile.getClasses());
+
+        ProfileGuidedMultiDexSplitter splitter =
+                scaled(new ProfileGuidedMultiDexSplitter(pool, profile, null));
+        Assert.assertEquals(3, checkedDexCount(splitter, pool, SCALED_METHOD_ID_LIMIT));
+        MultiDexFileNode mdfn = splitter.getMultiDexFileNode();
+        // 主Dex只有Profile中的类，并保持首次使用顺序；冷类从第二个Dex开始
+        Assert.assertEquals(Arrays.asList("Ltitan/split/C3;", "Ltitan/split/C1;"),
+                mdfn.getDexNodes().get(1).getClassesList().stream()
+                        .map(dcn -> dcn.type.toTypeDescriptor()).collect(Collectors.toList()));
+        Assert.assertEquals(Arrays.asList("Ltitan/split/C5;", "Ltitan/split/C0;"),
+                mdfn.getDexNodes().get(2).getClassesList().stream()
+                        .map(dcn -> dcn.type.toTypeDescriptor()).collect(Collectors.toList()));
+
+        ProfileGuidedMultiDexSplitter.Report report = splitter.getReport();
+        Assert.assertEquals(2, report.getProfiledClassCount(1));
+        Assert.assertEquals(0, report.getColdClassCount(1));
+        Assert.assertEquals(1, report.getProfiledClassCount(2));
+        Assert.assertEquals(2, report.getColdClassCount(3));
+        Assert.assertEquals(0.5, report.getProfileCoverage(1), 1e-9);
+        Assert.assertEquals(Arrays.asList(factory.createType("Lgone/Missing;")),
+                report.getMissingClasses());
+        System.out.print(report);
+    }
+
+    private static <T> Set<T> resolve(int[] ids, IntFunction<T> resolver) {
+        Set<T> items = new HashSet<>();
+        for (int id : ids) {
+            items.add(resolver.apply(id));
+        }
+        Assert.assertEquals(ids.length, items.size());
+        return items;
+    }
+
+    @Test
+    public void parallelRefIndex() {
+        DexItemFactory factory = new DexItemFactory();
+        DexClassPoolNode pool = createClassPool(factory, 200, 20, 7);
+        pool.addClass(createConstClass(factory, "Types", 0, 500, true));
+        pool.addClass(createConstClass(factory, "Strings", 0, 500, false));
+        List<DexClassNode> classes = pool.stream().collect(Collectors.toList());
+
+        ForkJoinPool forkJoinPool = new ForkJoinPool(4);
+        DexRefIndex index = DexRefIndex.build(classes, forkJoinPool);
+        forkJoinPool.shutdown();
+
+        Set<Object> allMethods = new HashSet<>();
+        for (DexClassNode dcn : classes) {
+            DexIdsCollector collector = DexIdsCollector.collectDexIds(dcn,
+                    DexIdsCollector.FLAG_COLLECT_ALL_IDS, null);
+            Assert.assertEquals(collector.getMethodIds(), resolve(
+                    index.getRefs(dcn.type, DexRefIndex.KIND_METHOD), index::getMethodId));
+            Assert.assertEquals(collector.getFieldIds(), resolve(
+                    index.getRefs(dcn.type, DexRefIndex.KIND_FIELD), index::getFieldId));
+            Assert.assertEquals(collector.getTypeIds(), resolve(
+                    index.getRefs(dcn.type, DexRefIndex.KIND_TYPE), index::getTypeId));
+            Assert.assertEquals(collector.getProtoIds(), resolve(
+                    index.getRefs(dcn.type, DexRefIndex.KIND_PROTO), index::getProtoId));
+            Assert.assertEquals(collector.getStringIds(), resolve(
+                    index.getRefs(dcn.type, DexRefIndex.KIND_STRING), index::getStringId));
+            allMethods.addAll(collector.getMethodIds());
+        }
+        // 200个类各20个方法，7个共享方法，以及Types、Strings各一个方法
+        Assert.assertEquals(4000 + 7 + 2, allMethods.size());
+        Assert.assertEquals(allMethods.size(), index.getIdCount(DexRefIndex.KIND_METHOD));
+    }
+
+    private static int duplicatedMethodIds(MultiDexSplitter splitter) {
+        int duplicated = 0;
+        for (int dexId : splitter.getMultiDexFileNode().getDexNodes().keySet()) {
+            duplicated += splitter.getDuplicatedIdCount(dexId, DexRefIndex.KIND_METHOD);
+        }
+        return duplicated;
+    }
+
+    @Test
+    public void graphPartition() {
+        DexItemFactory factory = new DexItemFactory();
+        DexClassPoolNode pool = new DexClassPoolNode();
+        // 两个模块交错命名，M0、M2...与M1、M3...各自首尾相接地调用，每个模块40000个方法
+        int classCount = 20;
+        for (int i = 0; i < classCount; i++) {
+            pool.addClass(createCallerClass(factory, "M" + i, 4000,
+                    "M" + (i + 2) % classCount, 1000));
+        }
+        pool.addClass(createCallerClass(factory, "M7$Inner", 10, "M7", 10));
+
+        BestEffortMultiDexSplitter bestEffort = new BestEffortMultiDexSplitter(pool, null, false);
+        Assert.assertEquals(2, checkedDexCount(bestEffort, pool));
+        GraphPartitionMultiDexSplitter graph = new GraphPartitionMultiDexSplitter(pool, null, false);
+        Assert.assertEquals(2, checkedDexCount(graph, pool));
+
+        int bestEffortDuplicated = duplicatedMethodIds(bestEffort);
+        int graphDuplicated = duplicatedMethodIds(graph);
+        System.out.println("duplicated method ids: best effort " + bestEffortDuplicated
+                + ", graph partition " + graphDuplicated);
+        Assert.assertTrue(graphDuplicated < bestEffortDuplicated);
+
+        // 内部类与外部类在同一个Dex中
+        MultiDexFileNode mdfn = graph.getMultiDexFileNode();
+        DexType outer = factory.createType("Ltitan/graph/M7;");
+        DexType inner = factory.createType("Ltitan/graph/M7$Inner;");
+        for (DexFileNode dfn : mdfn.getDexNodes().values()) {
+            Set<DexType> types = dfn.getClassesList().stream()
+                    .map(dcn -> dcn.type).collect(Collectors.toSet());
+            Assert.assertEquals(types.contains(outer), types.contains(inner));
+        }
+    }
+
+    private static List<String> dexClasses(MultiDexSplitter splitter, int dexId) {
+        return splitter.getMultiDexFileNode().getDexNodes().get(dexId).getClassesList().stream()
+                .map(dcn -> dcn.type.toTypeDescriptor()).collect(Collectors.toList());
+    }
+
+    private static byte[] writeDex(MultiDexSplitter splitter, int dexId) {
+        DexFileWriter writer = new DexFileWriter();
+        splitter.getMultiDexFileNode().getDexNodes().get(dexId).accept(writer);
+        return writer.toByteArray();
+    }
+
+    @Test
+    public void incremental() throws Exception {
+        DexItemFactory factory = new DexItemFactory();
+        // 缩小MethodID限制，每个Dex放两个类
+        int limit = 64;
+        DexClassPoolNode pool = createClassPool(factory, 6, 30, 0);
+        IncrementalMultiDexSplitter first = new IncrementalMultiDexSplitter(pool, null, null, false);
+        first.setIdLimit(DexRefIndex.KIND_METHOD, limit);
+        Assert.assertEquals(MultiDexSplitter.SPLIT_SUCCESS, first.split());
+        Assert.assertEquals(3, first.getMultiDexFileNode().getDexNodes().size());
+
+        StringWriter text = new StringWriter();
+        first.getLayout().write(text);
+        DexSplitLayout previous = DexSplitLayout.read(new StringReader(text.toString()), factory);
+        Assert.assertEquals(6, previous.size());
+        Assert.assertEquals(2, previous.getDexId(factory.createType("Ltitan/split/C3;")));
+
+        // 新增一个按名称排在中间的类，C3变大后原来的Dex放不下
+        DexClassPoolNode next = new DexClassPoolNode();
+        pool.stream().filter(dcn -> !dcn.type.toTypeDescriptor().equals("Ltitan/split/C3;"))
+                .forEach(next::addClass);
+        next.addClass(createClass(factory, 3, 36, 0));
+        next.addClass(createClass(factory, 10, 6, 0));
+
+        IncrementalMultiDexSplitter second =
+                new IncrementalMultiDexSplitter(next, previous, null, false);
+        second.setIdLimit(DexRefIndex.KIND_METHOD, limit);
+        Assert.assertEquals(MultiDexSplitter.SPLIT_SUCCESS, second.split());
+        IncrementalMultiDexSplitter.Report report = second.getReport();
+        System.out.print(report);
+        Assert.assertEquals(new HashSet<>(Arrays.asList(1, 3)), report.getUnchangedDexIds());
+        Assert.assertEquals(Collections.singleton(factory.createType("Ltitan/split/C3;")),
+                report.getMovedClasses());
+        Assert.assertEquals(1, report.getNewClassCount());
+        Assert.assertEquals(Arrays.asList("Ltitan/split/C2;", "Ltitan/split/C10;"),
+                dexClasses(second, 2));
+        Assert.assertEquals(Arrays.asList("Ltitan/split/C3;"), dexClasses(second, 4));
+        for (int dexId : report.getUnchangedDexIds()) {
+            Assert.assertEquals(dexClasses(first, dexId), dexClasses(second, dexId));
+            Assert.assertArrayEquals(writeDex(first, dexId), writeDex(second, dexId));
+        }
+
+        // 全量分包时新增的类让后面所有的Dex都发生变化
+        BestEffortMultiDexSplitter bestEffort = new BestEffortMultiDexSplitter(next, null, false);
+        bestEffort.setIdLimit(DexRefIndex.KIND_METHOD, limit);
+        Assert.assertEquals(MultiDexSplitter.SPLIT_SUCCESS, bestEffort.split());
+        Assert.assertEquals(Arrays.asList("Ltitan/split/C0;", "Ltitan/split/C10;"),
+                dexClasses(bestEffort, 1));
+        Assert.assertEquals(Arrays.asList("Ltitan/split/C1;", "Ltitan/split/C2;"),
+                dexClasses(bestEffort, 2));
+    }
+
+}